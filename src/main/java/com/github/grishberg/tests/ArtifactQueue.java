@@ -0,0 +1,87 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects artifacts of device, like screenshots and coverage, in background thread, so result
+ * parsing of running tests and next commands are not blocked by transfers from device.
+ * Tasks of one device are executed in order of submission.
+ */
+public class ArtifactQueue {
+    private static final String TAG = ArtifactQueue.class.getSimpleName();
+    private final RunnerLogger logger;
+    private final ExecutorService executor;
+
+    public ArtifactQueue(String deviceName, RunnerLogger logger) {
+        this.logger = logger;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "artifacts-" + deviceName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds task to queue, failure of task is logged.
+     *
+     * @param description description of artifact for log.
+     */
+    public void submit(String description, Task task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.e(TAG, "Can't collect " + description, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.w(TAG, "Queue is shut down, {} is not collected", description);
+        }
+    }
+
+    /**
+     * Waits for tasks which were submitted before this call.
+     *
+     * @return false when tasks were not finished in given time.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        Future<?> marker;
+        try {
+            marker = executor.submit(() -> { /* all previous tasks are finished */ });
+        } catch (RejectedExecutionException e) {
+            return executor.awaitTermination(timeout, unit);
+        }
+        try {
+            marker.get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Finishes submitted tasks and stops background thread.
+     *
+     * @return false when tasks were not finished in given time.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Task which collects artifact.
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+}
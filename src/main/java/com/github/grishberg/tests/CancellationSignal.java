@@ -0,0 +1,86 @@
+package com.github.grishberg.tests;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cooperative cancellation of commands execution.
+ * Commands should check {@link #isCancelled()} between long running steps and may register
+ * listener to interrupt blocking operations.
+ * Cancellation of signal cancels all child signals.
+ */
+public class CancellationSignal {
+    private final List<CancellationSignal> children = new ArrayList<>();
+    @Nullable
+    private String reason;
+    @Nullable
+    private Runnable onCancelListener;
+
+    /**
+     * @return new signal which will be cancelled together with this signal.
+     */
+    public CancellationSignal createChild() {
+        CancellationSignal child = new CancellationSignal();
+        String currentReason;
+        synchronized (this) {
+            currentReason = reason;
+            if (currentReason == null) {
+                children.add(child);
+            }
+        }
+        if (currentReason != null) {
+            child.cancel(currentReason);
+        }
+        return child;
+    }
+
+    /**
+     * Cancels this signal and all children. Only first reason is stored.
+     */
+    public void cancel(String reason) {
+        Runnable listener;
+        List<CancellationSignal> childrenToCancel;
+        synchronized (this) {
+            if (this.reason != null) {
+                return;
+            }
+            this.reason = reason;
+            listener = onCancelListener;
+            childrenToCancel = new ArrayList<>(children);
+        }
+        if (listener != null) {
+            listener.run();
+        }
+        for (CancellationSignal child : childrenToCancel) {
+            child.cancel(reason);
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return reason of cancellation or null if signal is not cancelled.
+     */
+    @Nullable
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    /**
+     * Sets listener which is called when signal is cancelled, or immediately if signal is
+     * already cancelled. Pass null to remove listener.
+     */
+    public void setOnCancelListener(@Nullable Runnable listener) {
+        boolean cancelled;
+        synchronized (this) {
+            onCancelListener = listener;
+            cancelled = reason != null;
+        }
+        if (cancelled && listener != null) {
+            listener.run();
+        }
+    }
+}
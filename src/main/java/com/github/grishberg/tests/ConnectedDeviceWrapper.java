@@ -1,15 +1,27 @@
 package com.github.grishberg.tests;
 
 import com.android.ddmlib.*;
+import com.github.grishberg.tests.adb.AdbExecOut;
 import com.github.grishberg.tests.commands.CommandExecutionException;
 import com.github.grishberg.tests.common.DeviceSpecificLogger;
 import com.github.grishberg.tests.common.RunnerLogger;
 import com.github.grishberg.tests.common.ScreenSizeParser;
 import com.github.grishberg.tests.exceptions.PullCoverageException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Future;
@@ -26,10 +38,15 @@ public class ConnectedDeviceWrapper implements IShellEnabledDevice, DeviceShellE
     private static final String TAG = ConnectedDeviceWrapper.class.getSimpleName();
     public static final String COVERAGE_FILE_NAME = "coverage.ec";
     private static final String SHELL_COMMAND_FOR_SCREEN_SIZE = "dumpsys window";
+    private static final int EXEC_OUT_TIMEOUT_MILLIS = 30_000;
+    private static final int MIN_API_LEVEL_FOR_EXEC_OUT = 21;
+    // JaCoCo exec file starts with header block id and magic number.
+    private static final byte[] COVERAGE_FILE_HEADER = {0x01, (byte) 0xC0, (byte) 0xC0};
     private final IDevice device;
     private final RunnerLogger logger;
     private int deviceWidth = -1;
     private int deviceHeight = -1;
+    private int apiLevel = -1;
 
     public ConnectedDeviceWrapper(IDevice device, RunnerLogger logger) {
         this.device = device;
@@ -119,6 +136,26 @@ public class ConnectedDeviceWrapper implements IShellEnabledDevice, DeviceShellE
         return Math.round((float) deviceHeight / (getDensity() / 160.));
     }
 
+    /**
+     * @return API level of device or 0 when it is unknown.
+     */
+    public synchronized int getApiLevel() {
+        if (apiLevel < 0) {
+            String property = device.getProperty(IDevice.PROP_BUILD_API_LEVEL);
+            if (property == null) {
+                // properties may be not loaded yet
+                return 0;
+            }
+            try {
+                apiLevel = Integer.parseInt(property.trim());
+            } catch (NumberFormatException e) {
+                logger.w(TAG, "Unknown API level \"{}\"", property);
+                apiLevel = 0;
+            }
+        }
+        return apiLevel;
+    }
+
     private void calculateScreenSize() {
         try {
             String screenSize = executeShellCommandAndReturnOutput(SHELL_COMMAND_FOR_SCREEN_SIZE);
@@ -164,6 +201,29 @@ public class ConnectedDeviceWrapper implements IShellEnabledDevice, DeviceShellE
         }
     }
 
+    /**
+     * Not synchronized, output is streamed by separate adb connection and doesn't block
+     * other commands of device.
+     */
+    @Override
+    public void executeExecOutCommand(String command, @Nullable File outFile) throws CommandExecutionException {
+        logger.d(TAG, "exec-out \"{}\" -> \"{}\"", command, outFile);
+        try {
+            AdbExecOut execOut = AdbExecOut.createLocal(EXEC_OUT_TIMEOUT_MILLIS);
+            if (outFile == null) {
+                execOut.execute(device.getSerialNumber(), command,
+                        Channels.newChannel(NullOutputStream.NULL_OUTPUT_STREAM));
+                return;
+            }
+            try (FileChannel output = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                execOut.execute(device.getSerialNumber(), command, output);
+            }
+        } catch (IOException e) {
+            throw new CommandExecutionException("executeExecOutCommand exception:", e);
+        }
+    }
+
     public synchronized boolean isEmulator() {
         return device.isEmulator();
     }
@@ -172,6 +232,13 @@ public class ConnectedDeviceWrapper implements IShellEnabledDevice, DeviceShellE
         return device.getSerialNumber();
     }
 
+    /**
+     * Not synchronized to be able to check device state while long shell command is executing.
+     */
+    public boolean isOnline() {
+        return device.isOnline();
+    }
+
     public synchronized void installPackage(String absolutePath, boolean reinstall, String extraArgument)
             throws InstallException {
         logger.d(TAG, "Install package \"{}\"", absolutePath);
@@ -211,6 +278,64 @@ public class ConnectedDeviceWrapper implements IShellEnabledDevice, DeviceShellE
         }
     }
 
+    /**
+     * Streams coverage file from application data dir to local dir by "run-as cat" without
+     * temporary copy on device, then removes coverage file from device.
+     * Not synchronized, so other commands of device are not blocked while coverage is transferred.
+     * Devices without exec-out support use {@link #pullCoverageFile}.
+     *
+     * @param instrumentationInfo plugin extension with instrumentation info.
+     * @param coverageFilePrefix  prefix for generating coverage on local dir.
+     * @param coverageFile        full path to coverage file on target device.
+     * @param outCoverageDir      local dir, where coverage file will be copied.
+     * @return local coverage file.
+     * @throws PullCoverageException
+     */
+    public File streamCoverageFile(InstrumentalExtension instrumentationInfo,
+                                   String coverageFilePrefix,
+                                   String coverageFile,
+                                   File outCoverageDir) throws PullCoverageException {
+        File outFile = new File(outCoverageDir, coverageFilePrefix + "-" + COVERAGE_FILE_NAME);
+        if (!isExecOutSupported()) {
+            pullCoverageFile(instrumentationInfo, coverageFilePrefix, coverageFile, outCoverageDir);
+            return outFile;
+        }
+        logger.i(TAG, "Streaming coverage data from {}", coverageFile);
+        String runAs = "run-as " + instrumentationInfo.getApplicationId();
+        try {
+            executeExecOutCommand(runAs + " cat " + coverageFile, outFile);
+            checkCoverageFile(outFile);
+            executeExecOutCommand(runAs + " rm -f " + coverageFile, null);
+        } catch (CommandExecutionException | IOException e) {
+            throw new PullCoverageException(e);
+        }
+        return outFile;
+    }
+
+    /**
+     * Removes output of failed "run-as cat", which contains error message instead of coverage.
+     */
+    private static void checkCoverageFile(File file) throws IOException, PullCoverageException {
+        byte[] header = new byte[COVERAGE_FILE_HEADER.length];
+        int length;
+        try (InputStream in = new FileInputStream(file)) {
+            length = IOUtils.read(in, header);
+        }
+        if (length == header.length && Arrays.equals(header, COVERAGE_FILE_HEADER)) {
+            return;
+        }
+        String message = FileUtils.readFileToString(file, StandardCharsets.UTF_8).trim();
+        Files.delete(file.toPath());
+        throw new PullCoverageException("Unexpected coverage data: " + StringUtils.abbreviate(message, 200));
+    }
+
+    /**
+     * @return true if device supports "exec-out" (Android 5.0 and newer).
+     */
+    public boolean isExecOutSupported() {
+        return getApiLevel() >= MIN_API_LEVEL_FOR_EXEC_OUT;
+    }
+
     @Override
     public synchronized void executeShellCommand(String command, IShellOutputReceiver receiver,
                                                  long maxTimeout, long maxTimeToOutputResponse,
@@ -2,28 +2,87 @@ package com.github.grishberg.tests;
 
 import com.github.grishberg.tests.commands.*;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.AnnotationIndex;
 import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
 import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.sharding.DefaultDeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.DeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.HostShardingFilter;
+import com.github.grishberg.tests.sharding.TestPlanPartitioner;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Provides commands for device.
+ * Test plan is discovered once for each device type and partitioned between devices on the host.
  */
 public class DefaultCommandProvider implements DeviceRunnerCommandProvider {
     private static final String TAG = DefaultCommandProvider.class.getSimpleName();
     private final String projectName;
     private final InstrumentationArgsProvider argsProvider;
     private final CommandsForAnnotationProvider commandsForAnnotationProvider;
+    private final DeviceTypeAdapter deviceTypeAdapter;
+    private final TestPlanPartitioner testPlanPartitioner;
+    private final boolean groupTestsByPreconditions;
+    @Nullable
+    private final CrashQuarantine crashQuarantine;
+    private final boolean skipQuarantinedTests;
 
     DefaultCommandProvider(String projectName,
                            InstrumentationArgsProvider argsProvider,
                            CommandsForAnnotationProvider commandsForAnnotationProvider) {
+        this(projectName, argsProvider, commandsForAnnotationProvider,
+                new DefaultDeviceTypeAdapter(), TestPlanPartitioner.ALL_TESTS.INSTANCE);
+    }
+
+    DefaultCommandProvider(String projectName,
+                           InstrumentationArgsProvider argsProvider,
+                           CommandsForAnnotationProvider commandsForAnnotationProvider,
+                           DeviceTypeAdapter deviceTypeAdapter,
+                           TestPlanPartitioner testPlanPartitioner) {
+        this(projectName, argsProvider, commandsForAnnotationProvider, deviceTypeAdapter,
+                testPlanPartitioner, false);
+    }
+
+    /**
+     * @param groupTestsByPreconditions reorder tests to reduce count of "am instrument" commands,
+     *                                  see {@link TestSegments#group()}.
+     */
+    DefaultCommandProvider(String projectName,
+                           InstrumentationArgsProvider argsProvider,
+                           CommandsForAnnotationProvider commandsForAnnotationProvider,
+                           DeviceTypeAdapter deviceTypeAdapter,
+                           TestPlanPartitioner testPlanPartitioner,
+                           boolean groupTestsByPreconditions) {
+        this(projectName, argsProvider, commandsForAnnotationProvider, deviceTypeAdapter,
+                testPlanPartitioner, groupTestsByPreconditions, null, false);
+    }
+
+    /**
+     * @param crashQuarantine      tests which crash tested process, they are run after other tests
+     *                             by separate commands, so they don't break other tests.
+     * @param skipQuarantinedTests don't run quarantined tests.
+     */
+    DefaultCommandProvider(String projectName,
+                           InstrumentationArgsProvider argsProvider,
+                           CommandsForAnnotationProvider commandsForAnnotationProvider,
+                           DeviceTypeAdapter deviceTypeAdapter,
+                           TestPlanPartitioner testPlanPartitioner,
+                           boolean groupTestsByPreconditions,
+                           @Nullable CrashQuarantine crashQuarantine,
+                           boolean skipQuarantinedTests) {
         this.projectName = projectName;
         this.argsProvider = argsProvider;
         this.commandsForAnnotationProvider = commandsForAnnotationProvider;
+        this.deviceTypeAdapter = deviceTypeAdapter;
+        this.testPlanPartitioner = testPlanPartitioner;
+        this.groupTestsByPreconditions = groupTestsByPreconditions;
+        this.crashQuarantine = crashQuarantine;
+        this.skipQuarantinedTests = skipQuarantinedTests;
     }
 
     @Override
@@ -33,34 +92,57 @@ public class DefaultCommandProvider implements DeviceRunnerCommandProvider {
         List<DeviceRunnerCommand> commands = new ArrayList<>();
         commands.add(new SetAnimationSpeedCommand(0, 0, 0));
         RunnerLogger logger = device.getLogger();
-        Map<String, String> instrumentalArgs = argsProvider.provideInstrumentationArgs(device);
-        logger.i(TAG, "provideCommandsForDevice: args = {}", instrumentalArgs);
-        List<TestPlanElement> planSet = testPlanProvider.provideTestPlan(device, instrumentalArgs);
-
-        List<TestPlanElement> planList = new ArrayList<>();
-        int testIndex = 0;
-        for (TestPlanElement currentPlan : planSet) {
-            List<DeviceRunnerCommand> commandsForAnnotations = commandsForAnnotationProvider
-                    .provideCommand(currentPlan.getAnnotations());
-            if (!commandsForAnnotations.isEmpty()) {
-                if (!planList.isEmpty()) {
-                    commands.add(new SingleInstrumentalTestCommand(projectName,
-                            String.format("test_%d", testIndex++),
-                            instrumentalArgs,
-                            planList));
-                    planList.clear();
-                }
-
-                commands.addAll(commandsForAnnotations);
-            }
-            planList.add(currentPlan);
+        Map<String, String> deviceArgs = argsProvider.provideInstrumentationArgs(device);
+        logger.i(TAG, "provideCommandsForDevice: args = {}", deviceArgs);
+        Map<String, String> instrumentalArgs = HostShardingFilter.removeShardArguments(deviceArgs);
+        int deviceType = deviceTypeAdapter.provideDeviceType(device);
+        List<TestPlanElement> sharedTestPlan = testPlanProvider.provideSharedTestPlan(device,
+                deviceType, instrumentalArgs);
+        List<TestPlanElement> planSet = testPlanPartitioner.provideTestsForDevice(device,
+                HostShardingFilter.filter(sharedTestPlan, deviceArgs));
+        List<List<TestPlanElement>> isolatedRuns = Collections.emptyList();
+        if (crashQuarantine != null && !crashQuarantine.isEmpty()) {
+            isolatedRuns = crashQuarantine.provideIsolatedRuns(planSet);
+            planSet = CrashQuarantine.removeIsolatedTests(planSet, isolatedRuns);
         }
 
-        if (!planList.isEmpty()) {
+        AnnotationIndex annotationIndex = null;
+        if (commandsForAnnotationProvider instanceof IndexedCommandsForAnnotationProvider) {
+            annotationIndex = testPlanProvider.provideSharedAnnotationIndex(device, deviceType, instrumentalArgs);
+        }
+        TestSegments testSegments = new TestSegments(planSet, commandsForAnnotationProvider, annotationIndex);
+        List<TestSegments.Segment> segments = testSegments.split();
+        if (groupTestsByPreconditions) {
+            int splitCount = segments.size();
+            segments = testSegments.group();
+            logger.i(TAG, "Tests are grouped by preconditions, {} of {} am instrument commands are saved",
+                    splitCount - segments.size(), splitCount);
+        }
+        int testIndex = 0;
+        for (TestSegments.Segment segment : segments) {
+            commands.addAll(segment.getPreconditions());
             commands.add(new SingleInstrumentalTestCommand(projectName,
-                    String.format("test_%d", testIndex),
+                    String.format("test_%d", testIndex++),
                     instrumentalArgs,
-                    planList));
+                    segment.getTests()));
+        }
+        if (skipQuarantinedTests) {
+            if (!isolatedRuns.isEmpty()) {
+                logger.w(TAG, "Quarantined tests are skipped: {}", isolatedRuns);
+            }
+        } else {
+            int quarantinedIndex = 0;
+            for (List<TestPlanElement> isolatedRun : isolatedRuns) {
+                for (TestPlanElement test : isolatedRun) {
+                    commands.addAll(commandsForAnnotationProvider.provideCommand(test.getAnnotations()));
+                }
+                commands.add(new QuarantinedTestsCommand(projectName,
+                        String.format("quarantined_%d", quarantinedIndex++),
+                        instrumentalArgs,
+                        isolatedRun,
+                        XmlReportGeneratorDelegate.STUB.INSTANCE,
+                        crashQuarantine));
+            }
         }
         commands.add(new SetAnimationSpeedCommand(1, 1, 1));
         return commands;
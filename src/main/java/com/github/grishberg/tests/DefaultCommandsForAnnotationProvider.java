@@ -2,15 +2,19 @@ package com.github.grishberg.tests;
 
 import com.github.grishberg.tests.commands.ClearCommand;
 import com.github.grishberg.tests.commands.DeviceRunnerCommand;
+import com.github.grishberg.tests.planner.AnnotationIndex;
 import com.github.grishberg.tests.planner.AnnotationInfo;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
  * Provides ClearCommand for CleanData annotation.
  */
-public class DefaultCommandsForAnnotationProvider implements CommandsForAnnotationProvider {
+public class DefaultCommandsForAnnotationProvider implements IndexedCommandsForAnnotationProvider {
+    private static final String CLEAR_DATA = "com.github.grishberg.tests.annotations.ClearData";
+
     @Override
     public List<DeviceRunnerCommand> provideCommand(List<AnnotationInfo> annotations) {
         ArrayList<DeviceRunnerCommand> commands = new ArrayList<>();
@@ -19,10 +23,15 @@ public class DefaultCommandsForAnnotationProvider implements CommandsForAnnotati
         }
 
         for (AnnotationInfo annotation : annotations) {
-            if ("com.github.grishberg.tests.annotations.ClearData".equals(annotation.getName())) {
+            if (CLEAR_DATA.equals(annotation.getName())) {
                 commands.add(new ClearCommand());
             }
         }
         return commands;
     }
+
+    @Override
+    public BitSet selectTestsWithCommands(AnnotationIndex index) {
+        return index.withAnnotation(CLEAR_DATA);
+    }
 }
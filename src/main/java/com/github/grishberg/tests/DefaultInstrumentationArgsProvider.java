@@ -21,9 +21,19 @@ public class DefaultInstrumentationArgsProvider implements InstrumentationArgsPr
     @Override
     public Map<String, String> provideInstrumentationArgs(ConnectedDeviceWrapper device) {
         HashMap<String, String> arguments = new HashMap<>();
-        if (pluginExtension.isShardEnabled()) {
+        if (needShardArguments()) {
             return testShard.createShardArguments(device);
         }
         return arguments;
     }
+
+    /**
+     * Dynamic and duration balanced sharding split test plan on the host,
+     * so runner arguments are not needed.
+     */
+    private boolean needShardArguments() {
+        return pluginExtension.isShardEnabled() &&
+                !pluginExtension.isDynamicShardingEnabled() &&
+                !pluginExtension.isDurationBalancedShardingEnabled();
+    }
 }
@@ -0,0 +1,22 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Executes commands for online devices.
+ */
+public interface DeviceCommandsRunner {
+    boolean runCommands(@NotNull List<? extends ConnectedDeviceWrapper> devices,
+                        @NotNull TestRunnerContext context) throws InterruptedException, CommandExecutionException;
+
+    /**
+     * Prepares test plan before devices are started, for example when test plan is discovered on host.
+     */
+    default void prepareTestPlan(RunnerLogger logger) throws CommandExecutionException {
+        // test plan is discovered on devices by default
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.grishberg.tests;
 
 import com.github.grishberg.tests.commands.DeviceRunnerCommandProvider;
+import com.github.grishberg.tests.commands.PrepareDeviceCommand;
+import com.github.grishberg.tests.planner.DexTestPlanProvider;
 import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
 import com.github.grishberg.tests.planner.PackageTreeGenerator;
 import org.jetbrains.annotations.NotNull;
@@ -24,6 +26,9 @@ public class DeviceCommandsRunnerFactory implements CommandsRunnerFactory {
     }
 
     private InstrumentalTestPlanProvider createInstrumentalTestPlanProvider() {
+        if (instrumentationInfo.isHostTestDiscoveryEnabled() && instrumentationInfo.getTestApkPath() != null) {
+            return new DexTestPlanProvider(propertiesMap, instrumentationInfo, packageTreeGenerator);
+        }
         return new InstrumentalTestPlanProvider(propertiesMap, instrumentationInfo,
                 packageTreeGenerator);
     }
@@ -31,6 +36,10 @@ public class DeviceCommandsRunnerFactory implements CommandsRunnerFactory {
     @NotNull
     @Override
     public DeviceCommandsRunner provideDeviceCommandRunner(@NotNull DeviceRunnerCommandProvider commandProvider) {
-        return new SimpleCommandsRunner(createInstrumentalTestPlanProvider(), commandProvider);
+        return new ExecutorCommandsRunner(createInstrumentalTestPlanProvider(), commandProvider,
+                instrumentationInfo.getRunTimeoutInSeconds(),
+                instrumentationInfo.getDeviceTimeoutInSeconds(),
+                new PrepareDeviceCommand(),
+                instrumentationInfo.getMaxDeviceThreads());
     }
 }
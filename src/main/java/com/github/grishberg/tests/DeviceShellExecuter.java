@@ -2,6 +2,10 @@ package com.github.grishberg.tests;
 
 import com.github.grishberg.tests.commands.CommandExecutionException;
 
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.UUID;
+
 /**
  * Created by grishberg on 05.04.18.
  */
@@ -14,5 +18,26 @@ public interface DeviceShellExecuter {
 
     void pushFile(String localPath, String remotePath) throws CommandExecutionException;
 
+    /**
+     * Writes binary stdout of command to local file like "adb exec-out", supported since Android 5.0.
+     * By default stdout is redirected to temporary file on device by {@link #executeShellCommand(String)},
+     * then the file is pulled and deleted.
+     *
+     * @param outFile local file or null when output is not needed.
+     */
+    default void executeExecOutCommand(String command, @Nullable File outFile) throws CommandExecutionException {
+        if (outFile == null) {
+            executeShellCommand(command);
+            return;
+        }
+        String remoteFile = "/data/local/tmp/exec-out-" + UUID.randomUUID();
+        try {
+            executeShellCommand(command + " > " + remoteFile);
+            pullFile(remoteFile, outFile.getAbsolutePath());
+        } finally {
+            executeShellCommand("rm -f " + remoteFile);
+        }
+    }
+
     String getName();
 }
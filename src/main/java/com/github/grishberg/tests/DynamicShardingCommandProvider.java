@@ -0,0 +1,58 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.commands.DeviceRunnerCommand;
+import com.github.grishberg.tests.commands.DeviceRunnerCommandProvider;
+import com.github.grishberg.tests.commands.SetAnimationSpeedCommand;
+import com.github.grishberg.tests.commands.TestBatchQueueCommand;
+import com.github.grishberg.tests.planner.AnnotationIndex;
+import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
+import com.github.grishberg.tests.sharding.DeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.TestBatchQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides commands for dynamic sharding: test plan is discovered once for every device type
+ * and devices take test batches from shared queue instead of static numShards/shardIndex shards.
+ */
+public class DynamicShardingCommandProvider implements DeviceRunnerCommandProvider {
+    private static final String TAG = DynamicShardingCommandProvider.class.getSimpleName();
+    private final String projectName;
+    private final InstrumentationArgsProvider argsProvider;
+    private final CommandsForAnnotationProvider commandsForAnnotationProvider;
+    private final DeviceTypeAdapter deviceTypeAdapter;
+
+    public DynamicShardingCommandProvider(String projectName,
+                                          InstrumentationArgsProvider argsProvider,
+                                          CommandsForAnnotationProvider commandsForAnnotationProvider,
+                                          DeviceTypeAdapter deviceTypeAdapter) {
+        this.projectName = projectName;
+        this.argsProvider = argsProvider;
+        this.commandsForAnnotationProvider = commandsForAnnotationProvider;
+        this.deviceTypeAdapter = deviceTypeAdapter;
+    }
+
+    @Override
+    public List<DeviceRunnerCommand> provideCommandsForDevice(ConnectedDeviceWrapper device,
+                                                              InstrumentalTestPlanProvider testPlanProvider,
+                                                              Environment environment) throws CommandExecutionException {
+        Map<String, String> instrumentalArgs = argsProvider.provideInstrumentationArgs(device);
+        device.getLogger().i(TAG, "provideCommandsForDevice: args = {}", instrumentalArgs);
+        int deviceType = deviceTypeAdapter.provideDeviceType(device);
+        TestBatchQueue queue = testPlanProvider.provideTestBatchQueue(device, deviceType, instrumentalArgs);
+        AnnotationIndex annotationIndex = null;
+        if (commandsForAnnotationProvider instanceof IndexedCommandsForAnnotationProvider) {
+            annotationIndex = testPlanProvider.provideSharedAnnotationIndex(device, deviceType, instrumentalArgs);
+        }
+
+        List<DeviceRunnerCommand> commands = new ArrayList<>();
+        commands.add(new SetAnimationSpeedCommand(0, 0, 0));
+        commands.add(new TestBatchQueueCommand(projectName, instrumentalArgs, queue,
+                commandsForAnnotationProvider, annotationIndex));
+        commands.add(new SetAnimationSpeedCommand(1, 1, 1));
+        return commands;
+    }
+}
@@ -0,0 +1,334 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.commands.DeviceCommandResult;
+import com.github.grishberg.tests.commands.DeviceRunnerCommand;
+import com.github.grishberg.tests.commands.DeviceRunnerCommandProvider;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.exceptions.DeviceOfflineException;
+import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes commands for online devices on thread pool, one thread for each device.
+ * Pool can be limited by count of threads, then devices over the limit wait in queue
+ * until commands of other devices are finished.
+ * Whole run and every device can be limited in time. When time is over, commands are cancelled
+ * cooperatively with {@link CancellationSignal}, so executed tests are still reported.
+ * Devices which are connected during the run can be added with {@link #addDevice(ConnectedDeviceWrapper)},
+ * they are prepared by preparation command before commands are started.
+ */
+class ExecutorCommandsRunner implements HotPlugCommandsRunner {
+    private static final String TAG = "ECR";
+    private static final long CANCELLATION_GRACE_PERIOD_SECONDS = 60;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+    private final InstrumentalTestPlanProvider testPlanProvider;
+    private final DeviceRunnerCommandProvider commandProvider;
+    private final long runTimeoutInSeconds;
+    private final long deviceTimeoutInSeconds;
+    @Nullable
+    private final DeviceRunnerCommand connectedDevicePreparation;
+    private final int maxDeviceThreads;
+    private final List<String> cancelledDevices = new ArrayList<>();
+    private final Set<String> activeDevices = new HashSet<>();
+    // Devices which were connected again while commands of previous connection were finishing.
+    private final Map<String, ConnectedDeviceWrapper> reconnectedDevices = new HashMap<>();
+    private volatile boolean hasFailedTests;
+    // Exception from failed device task (should be rethrown to caller)
+    private Throwable commandException;
+    private String failedDeviceName;
+    @Nullable
+    private ThreadPoolExecutor executor;
+    @Nullable
+    private ScheduledExecutorService watchdog;
+    @Nullable
+    private TestRunnerContext context;
+
+    ExecutorCommandsRunner(InstrumentalTestPlanProvider testPlanProvider,
+                           DeviceRunnerCommandProvider commandProvider,
+                           long runTimeoutInSeconds,
+                           long deviceTimeoutInSeconds) {
+        this(testPlanProvider, commandProvider, runTimeoutInSeconds, deviceTimeoutInSeconds, null);
+    }
+
+    /**
+     * @param connectedDevicePreparation command which is executed on devices added during the run
+     *                                   before other commands, device is not used if it fails.
+     */
+    ExecutorCommandsRunner(InstrumentalTestPlanProvider testPlanProvider,
+                           DeviceRunnerCommandProvider commandProvider,
+                           long runTimeoutInSeconds,
+                           long deviceTimeoutInSeconds,
+                           @Nullable DeviceRunnerCommand connectedDevicePreparation) {
+        this(testPlanProvider, commandProvider, runTimeoutInSeconds, deviceTimeoutInSeconds,
+                connectedDevicePreparation, 0);
+    }
+
+    /**
+     * @param maxDeviceThreads maximum count of devices which execute commands at the same time,
+     *                         0 means thread for every device.
+     */
+    ExecutorCommandsRunner(InstrumentalTestPlanProvider testPlanProvider,
+                           DeviceRunnerCommandProvider commandProvider,
+                           long runTimeoutInSeconds,
+                           long deviceTimeoutInSeconds,
+                           @Nullable DeviceRunnerCommand connectedDevicePreparation,
+                           int maxDeviceThreads) {
+        this.testPlanProvider = testPlanProvider;
+        this.commandProvider = commandProvider;
+        this.runTimeoutInSeconds = runTimeoutInSeconds;
+        this.deviceTimeoutInSeconds = deviceTimeoutInSeconds;
+        this.connectedDevicePreparation = connectedDevicePreparation;
+        this.maxDeviceThreads = maxDeviceThreads;
+    }
+
+    /**
+     * Prepares test plan before devices are started, see
+     * {@link InstrumentalTestPlanProvider#prepareTestPlan(RunnerLogger)}.
+     */
+    @Override
+    public void prepareTestPlan(RunnerLogger logger) throws CommandExecutionException {
+        testPlanProvider.prepareTestPlan(logger);
+    }
+
+    @Override
+    public boolean runCommands(
+            @NotNull List<? extends ConnectedDeviceWrapper> devices,
+            @NotNull TestRunnerContext context) throws InterruptedException, CommandExecutionException {
+        int threads = maxDeviceThreads > 0 ? maxDeviceThreads : Math.max(1, devices.size());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DeviceThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        CancellationSignal runCancellationSignal = context.getCancellationSignal();
+        synchronized (this) {
+            this.executor = executor;
+            this.watchdog = Executors.newSingleThreadScheduledExecutor();
+            this.context = context;
+            for (ConnectedDeviceWrapper device : devices) {
+                startDevice(device, false);
+            }
+        }
+        try {
+            if (!awaitDevices(runTimeoutInSeconds)) {
+                context.getLogger().w(TAG, "Run timeout {} s is over, cancel commands", runTimeoutInSeconds);
+                runCancellationSignal.cancel(String.format("Run timeout %d s is over", runTimeoutInSeconds));
+                if (!awaitDevices(CANCELLATION_GRACE_PERIOD_SECONDS)) {
+                    context.getLogger().w(TAG, "Commands weren't finished after cancellation, interrupt them");
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            runCancellationSignal.cancel("Run was interrupted");
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            finishRun();
+        }
+        throwExceptionIfNeeded();
+        List<TestPlanElement> testsLeft = testPlanProvider.provideTestsLeftInQueues();
+        if (!testsLeft.isEmpty()) {
+            context.getLogger().e(TAG, String.format("%d tests were not run, there were no devices " +
+                    "to take them from queue: %s", testsLeft.size(), testsLeft));
+            return false;
+        }
+        return !hasFailedTests;
+    }
+
+    /**
+     * Starts commands on device connected during the run. When commands of previous connection of
+     * the same device are still finishing, device is started after them.
+     */
+    @Override
+    public synchronized boolean addDevice(@NotNull ConnectedDeviceWrapper device) {
+        if (executor == null || context == null) {
+            return false;
+        }
+        String serialNumber = device.getSerialNumber();
+        if (activeDevices.contains(serialNumber)) {
+            if (reconnectedDevices.containsKey(serialNumber)) {
+                return false;
+            }
+            context.getLogger().i(TAG, "Device {} will be started after its previous commands", serialNumber);
+            reconnectedDevices.put(serialNumber, device);
+            return true;
+        }
+        return startDevice(device, true);
+    }
+
+    private synchronized boolean startDevice(ConnectedDeviceWrapper device, boolean prepare) {
+        TestRunnerContext context = this.context;
+        String serialNumber = device.getSerialNumber();
+        if (executor == null || context == null || !activeDevices.add(serialNumber)) {
+            return false;
+        }
+        if (maxDeviceThreads <= 0 && activeDevices.size() > executor.getMaximumPoolSize()) {
+            // maximum size is increased first, it can't be less than core size
+            executor.setMaximumPoolSize(activeDevices.size());
+            executor.setCorePoolSize(activeDevices.size());
+        }
+        CancellationSignal deviceCancellationSignal = context.getCancellationSignal(device);
+        executor.execute(() -> {
+            // device waiting in queue doesn't spend its time limit
+            ScheduledFuture<?> deviceTimeout = scheduleDeviceTimeout(deviceCancellationSignal);
+            try {
+                if (!prepare || prepareDevice(device, context)) {
+                    runDeviceCommands(device, context, deviceCancellationSignal);
+                }
+            } finally {
+                if (deviceTimeout != null) {
+                    deviceTimeout.cancel(false);
+                }
+                onDeviceFinished(device, context);
+            }
+        });
+        return true;
+    }
+
+    private synchronized void onDeviceFinished(ConnectedDeviceWrapper device, TestRunnerContext context) {
+        String serialNumber = device.getSerialNumber();
+        activeDevices.remove(serialNumber);
+        // signal of device can be cancelled by device timeout, next connection gets new signal
+        context.releaseCancellationSignal(device);
+        ConnectedDeviceWrapper reconnectedDevice = reconnectedDevices.remove(serialNumber);
+        if (reconnectedDevice != null) {
+            startDevice(reconnectedDevice, true);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return false if device was not prepared and should not be used.
+     */
+    private boolean prepareDevice(ConnectedDeviceWrapper device, TestRunnerContext context) {
+        if (connectedDevicePreparation == null) {
+            return true;
+        }
+        try {
+            connectedDevicePreparation.execute(device, context);
+            return true;
+        } catch (Throwable e) {
+            device.getLogger().e(TAG, "Device was not prepared, commands are not started:", e);
+            return false;
+        }
+    }
+
+    private synchronized void finishRun() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        executor = null;
+        watchdog = null;
+        context = null;
+        reconnectedDevices.clear();
+    }
+
+    /**
+     * Waits until commands on all devices are finished.
+     *
+     * @return false if timeout is over.
+     */
+    private synchronized boolean awaitDevices(long timeoutInSeconds) throws InterruptedException {
+        long deadline = timeoutInSeconds > 0 ?
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutInSeconds) : Long.MAX_VALUE;
+        while (!activeDevices.isEmpty()) {
+            long timeLeft = deadline - System.currentTimeMillis();
+            if (timeLeft <= 0) {
+                return false;
+            }
+            wait(timeLeft);
+        }
+        return true;
+    }
+
+    @Nullable
+    private synchronized ScheduledFuture<?> scheduleDeviceTimeout(CancellationSignal cancellationSignal) {
+        if (deviceTimeoutInSeconds <= 0 || watchdog == null) {
+            return null;
+        }
+        return watchdog.schedule(() -> cancellationSignal.cancel(
+                String.format("Device timeout %d s is over", deviceTimeoutInSeconds)),
+                deviceTimeoutInSeconds, TimeUnit.SECONDS);
+    }
+
+    private void runDeviceCommands(ConnectedDeviceWrapper device,
+                                   TestRunnerContext context,
+                                   CancellationSignal cancellationSignal) {
+        final RunnerLogger logger = device.getLogger();
+        try {
+            logger.i(TAG, "New command execution task started to run commands");
+            List<DeviceRunnerCommand> commands = commandProvider.provideCommandsForDevice(device,
+                    testPlanProvider, context.getEnvironment());
+            for (DeviceRunnerCommand command : commands) {
+                if (cancellationSignal.isCancelled()) {
+                    break;
+                }
+                logger.i(TAG, "Before executing command = {}", command.toString());
+                DeviceCommandResult result = command.execute(device, context);
+                logger.i(TAG, "After executing command = {}", command.toString());
+                if (result.isFailed()) {
+                    hasFailedTests = true;
+                }
+            }
+            if (cancellationSignal.isCancelled()) {
+                logger.w(TAG, "Command execution was cancelled: {}", cancellationSignal.getReason());
+                synchronized (this) {
+                    cancelledDevices.add(device.getName());
+                }
+            }
+        } catch (DeviceOfflineException e) {
+            logger.w(TAG, "Device became offline, unfinished tests were returned to other devices: {}",
+                    e.getMessage());
+        } catch (Throwable e) {
+            logger.e(TAG, "Execute command exception:", e);
+            synchronized (this) {
+                // Save exception from the first failed device only
+                if (commandException == null) {
+                    commandException = e;
+                    failedDeviceName = device.getName();
+                }
+            }
+        }
+        logger.i(TAG, "Command execution task is finished");
+    }
+
+    private synchronized void throwExceptionIfNeeded() throws CommandExecutionException {
+        if (commandException != null) {
+            throw new CommandExecutionException(
+                    String.format("Exception in child thread (%s)", failedDeviceName),
+                    commandException);
+        }
+        if (!cancelledDevices.isEmpty()) {
+            throw new CommandExecutionException(
+                    String.format("Commands were cancelled on devices %s", cancelledDevices));
+        }
+    }
+
+    private static class DeviceThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            return new Thread(runnable, "device-commands-" + counter.incrementAndGet());
+        }
+    }
+}
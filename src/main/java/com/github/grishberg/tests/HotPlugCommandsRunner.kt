@@ -0,0 +1,14 @@
+package com.github.grishberg.tests
+
+/**
+ * [DeviceCommandsRunner] which can start commands on devices connected during the run.
+ */
+interface HotPlugCommandsRunner : DeviceCommandsRunner {
+    /**
+     * Starts commands on [device] if run is in progress. When commands of previous connection of
+     * this device are still executing, device is started after them.
+     *
+     * @return true if commands were started or scheduled.
+     */
+    fun addDevice(device: ConnectedDeviceWrapper): Boolean
+}
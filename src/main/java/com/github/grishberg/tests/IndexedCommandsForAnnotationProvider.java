@@ -0,0 +1,19 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.planner.AnnotationIndex;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * {@link CommandsForAnnotationProvider} which selects tests that need commands with
+ * {@link AnnotationIndex}, so commands are requested only for selected tests.
+ * Index is built once for shared test plan, see
+ * {@link com.github.grishberg.tests.planner.InstrumentalTestPlanProvider#provideSharedAnnotationIndex}.
+ */
+public interface IndexedCommandsForAnnotationProvider extends CommandsForAnnotationProvider {
+    /**
+     * @return ordinals of tests in index for which {@link #provideCommand(List)} can return commands.
+     */
+    BitSet selectTestsWithCommands(AnnotationIndex index);
+}
@@ -1,5 +1,8 @@
 package com.github.grishberg.tests;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Extension for sending arguments to plugin.
  */
@@ -14,8 +17,32 @@ public class InstrumentalExtension {
     boolean makeScreenshotsWhenFail;
     boolean saveLogcat;
     boolean shardEnabled;
+    boolean durationBalancedShardingEnabled;
+    boolean dynamicShardingEnabled;
+    int dynamicShardingBatchSize = 20;
+    boolean speculativeExecutionEnabled;
+    int dynamicShardingRetryCount;
     boolean htmlReportsEnabled;
     long maxTimeToOutputResponseInSeconds;
+    boolean testFileEnabled;
+    String testApkPath;
+    String appApkPath;
+    String testPlanCacheDir;
+    long runTimeoutInSeconds;
+    long deviceTimeoutInSeconds;
+    int maxDeviceThreads;
+    boolean groupTestsByPreconditionsEnabled;
+    boolean hostTestDiscoveryEnabled;
+    boolean protoOutputEnabled;
+    boolean adaptiveBatchSizeEnabled;
+    boolean crashIsolationEnabled;
+    boolean skipQuarantinedTests;
+    boolean logcatStreamingEnabled;
+    List<String> logcatTags = new ArrayList<>();
+    String logcatMinPriority;
+    boolean logcatAppOnly;
+    boolean logcatCompressionEnabled;
+    boolean coverageMergeEnabled;
 
     public InstrumentalExtension() { /* default constructor */ }
 
@@ -33,8 +60,32 @@ public class InstrumentalExtension {
         this.makeScreenshotsWhenFail = src.makeScreenshotsWhenFail;
         this.saveLogcat = src.saveLogcat;
         this.shardEnabled = src.shardEnabled;
+        this.durationBalancedShardingEnabled = src.durationBalancedShardingEnabled;
+        this.dynamicShardingEnabled = src.dynamicShardingEnabled;
+        this.dynamicShardingBatchSize = src.dynamicShardingBatchSize;
+        this.speculativeExecutionEnabled = src.speculativeExecutionEnabled;
+        this.dynamicShardingRetryCount = src.dynamicShardingRetryCount;
         this.htmlReportsEnabled = src.htmlReportsEnabled;
         this.maxTimeToOutputResponseInSeconds = src.maxTimeToOutputResponseInSeconds;
+        this.testFileEnabled = src.testFileEnabled;
+        this.testApkPath = src.testApkPath;
+        this.appApkPath = src.appApkPath;
+        this.testPlanCacheDir = src.testPlanCacheDir;
+        this.runTimeoutInSeconds = src.runTimeoutInSeconds;
+        this.deviceTimeoutInSeconds = src.deviceTimeoutInSeconds;
+        this.maxDeviceThreads = src.maxDeviceThreads;
+        this.groupTestsByPreconditionsEnabled = src.groupTestsByPreconditionsEnabled;
+        this.hostTestDiscoveryEnabled = src.hostTestDiscoveryEnabled;
+        this.protoOutputEnabled = src.protoOutputEnabled;
+        this.adaptiveBatchSizeEnabled = src.adaptiveBatchSizeEnabled;
+        this.crashIsolationEnabled = src.crashIsolationEnabled;
+        this.skipQuarantinedTests = src.skipQuarantinedTests;
+        this.logcatStreamingEnabled = src.logcatStreamingEnabled;
+        this.logcatTags = src.logcatTags != null ? new ArrayList<>(src.logcatTags) : new ArrayList<>();
+        this.logcatMinPriority = src.logcatMinPriority;
+        this.logcatAppOnly = src.logcatAppOnly;
+        this.logcatCompressionEnabled = src.logcatCompressionEnabled;
+        this.coverageMergeEnabled = src.coverageMergeEnabled;
     }
 
     public void setFlavorName(String flavorName) {
@@ -120,6 +171,69 @@ public class InstrumentalExtension {
         this.shardEnabled = shardEnabled;
     }
 
+    /**
+     * @return true when shards should be built on the host and balanced by test durations
+     * from previous runs instead of numShards/shardIndex arguments. Works when
+     * {@link #isShardEnabled()} is true.
+     */
+    public boolean isDurationBalancedShardingEnabled() {
+        return durationBalancedShardingEnabled;
+    }
+
+    public void setDurationBalancedShardingEnabled(boolean durationBalancedShardingEnabled) {
+        this.durationBalancedShardingEnabled = durationBalancedShardingEnabled;
+    }
+
+    /**
+     * @return true when tests should be distributed between devices dynamically: the test plan is
+     * discovered once and every device pulls next batch of tests from shared queue as soon as it
+     * finished previous batch. Takes precedence over {@link #isShardEnabled()}.
+     */
+    public boolean isDynamicShardingEnabled() {
+        return dynamicShardingEnabled;
+    }
+
+    public void setDynamicShardingEnabled(boolean dynamicShardingEnabled) {
+        this.dynamicShardingEnabled = dynamicShardingEnabled;
+    }
+
+    /**
+     * @return preferred count of test methods in one batch when dynamic sharding is enabled.
+     */
+    public int getDynamicShardingBatchSize() {
+        return dynamicShardingBatchSize;
+    }
+
+    public void setDynamicShardingBatchSize(int dynamicShardingBatchSize) {
+        this.dynamicShardingBatchSize = dynamicShardingBatchSize;
+    }
+
+    /**
+     * @return true when idle device should duplicate the longest running batch if the queue of
+     * dynamic sharding is empty. Results of the copy which finished first are kept, the other
+     * copy is cancelled and its reports are removed.
+     */
+    public boolean isSpeculativeExecutionEnabled() {
+        return speculativeExecutionEnabled;
+    }
+
+    public void setSpeculativeExecutionEnabled(boolean speculativeExecutionEnabled) {
+        this.speculativeExecutionEnabled = speculativeExecutionEnabled;
+    }
+
+    /**
+     * @return count of attempts to rerun failed tests when dynamic sharding is enabled, 0 means
+     * no retries. Failed tests are returned to the shared queue and preferably executed on
+     * another device, devices wait for retries while other devices execute tests.
+     */
+    public int getDynamicShardingRetryCount() {
+        return dynamicShardingRetryCount;
+    }
+
+    public void setDynamicShardingRetryCount(int dynamicShardingRetryCount) {
+        this.dynamicShardingRetryCount = dynamicShardingRetryCount;
+    }
+
     public boolean isHtmlReportsEnabled() {
         return htmlReportsEnabled;
     }
@@ -146,4 +260,241 @@ public class InstrumentalExtension {
     public void setMaxTimeToOutputResponseInSeconds(long maxTimeToOutputResponseInSeconds) {
         this.maxTimeToOutputResponseInSeconds = maxTimeToOutputResponseInSeconds;
     }
+
+    /**
+     * @return true when tests should be written to file which is pushed to device and passed
+     * with "-e testFile" argument, so any count of tests is executed by single "am instrument"
+     * command. Old test runners don't support testFile argument, when disabled tests are passed
+     * with "-e class" argument and split to several commands when argument is too long.
+     */
+    public boolean isTestFileEnabled() {
+        return testFileEnabled;
+    }
+
+    public void setTestFileEnabled(boolean testFileEnabled) {
+        this.testFileEnabled = testFileEnabled;
+    }
+
+    /**
+     * @return path to androidTest apk, is used as a key of test plan cache and is installed on
+     * devices connected during the run.
+     */
+    public String getTestApkPath() {
+        return testApkPath;
+    }
+
+    public void setTestApkPath(String testApkPath) {
+        this.testApkPath = testApkPath;
+    }
+
+    /**
+     * @return path to apk of tested application, is installed on devices connected during the run.
+     */
+    public String getAppApkPath() {
+        return appApkPath;
+    }
+
+    public void setAppApkPath(String appApkPath) {
+        this.appApkPath = appApkPath;
+    }
+
+    /**
+     * @return directory where discovered test plans are stored between runs. Test plan cache works
+     * when both {@link #getTestApkPath()} and this directory are set.
+     */
+    public String getTestPlanCacheDir() {
+        return testPlanCacheDir;
+    }
+
+    public void setTestPlanCacheDir(String testPlanCacheDir) {
+        this.testPlanCacheDir = testPlanCacheDir;
+    }
+
+    /**
+     * @return maximum duration of whole tests run, 0 means no limit.
+     * When time is over, commands on all devices are cancelled and partial results are reported.
+     */
+    public long getRunTimeoutInSeconds() {
+        return runTimeoutInSeconds;
+    }
+
+    public void setRunTimeoutInSeconds(long runTimeoutInSeconds) {
+        this.runTimeoutInSeconds = runTimeoutInSeconds;
+    }
+
+    /**
+     * @return maximum duration of commands execution on single device, 0 means no limit.
+     * When time is over, commands on this device are cancelled, other devices continue to work.
+     */
+    public long getDeviceTimeoutInSeconds() {
+        return deviceTimeoutInSeconds;
+    }
+
+    public void setDeviceTimeoutInSeconds(long deviceTimeoutInSeconds) {
+        this.deviceTimeoutInSeconds = deviceTimeoutInSeconds;
+    }
+
+    /**
+     * @return maximum count of devices which execute commands at the same time, 0 means no limit.
+     * Other devices wait until commands of running devices are finished.
+     */
+    public int getMaxDeviceThreads() {
+        return maxDeviceThreads;
+    }
+
+    public void setMaxDeviceThreads(int maxDeviceThreads) {
+        this.maxDeviceThreads = maxDeviceThreads;
+    }
+
+    /**
+     * @return true when tests should be reordered to reduce count of "am instrument" commands:
+     * tests with equal precondition commands from {@link CommandsForAnnotationProvider} are executed
+     * together after single execution of commands, tests without preconditions are executed with
+     * other tests of the same class. When disabled, tests are executed in order of test plan.
+     */
+    public boolean isGroupTestsByPreconditionsEnabled() {
+        return groupTestsByPreconditionsEnabled;
+    }
+
+    public void setGroupTestsByPreconditionsEnabled(boolean groupTestsByPreconditionsEnabled) {
+        this.groupTestsByPreconditionsEnabled = groupTestsByPreconditionsEnabled;
+    }
+
+    /**
+     * @return true when tests should be found by reading dex files of {@link #getTestApkPath()}
+     * on the host instead of running "am instrument" on device. Parameterized and JUnit3 tests
+     * are not found this way. Device side filters, like @SdkSuppress and @RequiresDevice,
+     * are not applied, filtered tests are reported as not run and fail the run.
+     */
+    public boolean isHostTestDiscoveryEnabled() {
+        return hostTestDiscoveryEnabled;
+    }
+
+    public void setHostTestDiscoveryEnabled(boolean hostTestDiscoveryEnabled) {
+        this.hostTestDiscoveryEnabled = hostTestDiscoveryEnabled;
+    }
+
+    /**
+     * @return true when "am instrument" should print results in protobuf format with "-m" flag
+     * on devices which support it (Android 8.0, API 26 and newer). Other devices use text output.
+     */
+    public boolean isProtoOutputEnabled() {
+        return protoOutputEnabled;
+    }
+
+    public void setProtoOutputEnabled(boolean protoOutputEnabled) {
+        this.protoOutputEnabled = protoOutputEnabled;
+    }
+
+    /**
+     * @return true when tests left after process crash should be run by several commands, which
+     * are smaller in packages where process crashes and grow while there are no crashes.
+     * When disabled, all tests left after crash are run by single command.
+     */
+    public boolean isAdaptiveBatchSizeEnabled() {
+        return adaptiveBatchSizeEnabled;
+    }
+
+    public void setAdaptiveBatchSizeEnabled(boolean adaptiveBatchSizeEnabled) {
+        this.adaptiveBatchSizeEnabled = adaptiveBatchSizeEnabled;
+    }
+
+    /**
+     * @return true when tests which crash process should be found by bisecting tests executed
+     * before crash. Found tests are quarantined: in next runs they are run in separate commands
+     * after other tests or are skipped, see {@link #isSkipQuarantinedTests()}.
+     * Tests are removed from quarantine when their separate command passes.
+     * Quarantine is not loaded when this option is disabled.
+     */
+    public boolean isCrashIsolationEnabled() {
+        return crashIsolationEnabled;
+    }
+
+    public void setCrashIsolationEnabled(boolean crashIsolationEnabled) {
+        this.crashIsolationEnabled = crashIsolationEnabled;
+    }
+
+    /**
+     * @return true when quarantined tests should not be run at all.
+     */
+    public boolean isSkipQuarantinedTests() {
+        return skipQuarantinedTests;
+    }
+
+    public void setSkipQuarantinedTests(boolean skipQuarantinedTests) {
+        this.skipQuarantinedTests = skipQuarantinedTests;
+    }
+
+    /**
+     * @return true when logcat should be streamed to file during the whole run instead of reading
+     * logcat buffer when commands finished. Logcat of every failed test is saved to separate file.
+     * Works only when {@link #isSaveLogcat()} is true.
+     */
+    public boolean isLogcatStreamingEnabled() {
+        return logcatStreamingEnabled;
+    }
+
+    public void setLogcatStreamingEnabled(boolean logcatStreamingEnabled) {
+        this.logcatStreamingEnabled = logcatStreamingEnabled;
+    }
+
+    /**
+     * @return tags of saved logcat lines, lines with other tags are filtered out on device.
+     * All tags are saved when list is empty.
+     */
+    public List<String> getLogcatTags() {
+        return logcatTags;
+    }
+
+    public void setLogcatTags(List<String> logcatTags) {
+        this.logcatTags = logcatTags;
+    }
+
+    /**
+     * @return minimal priority of saved logcat lines: V, D, I, W, E or F.
+     * Lines of all priorities are saved when null.
+     */
+    public String getLogcatMinPriority() {
+        return logcatMinPriority;
+    }
+
+    public void setLogcatMinPriority(String logcatMinPriority) {
+        this.logcatMinPriority = logcatMinPriority;
+    }
+
+    /**
+     * @return true when only logcat of tested application uid should be saved.
+     * Works on Android 10 and newer, logcat of other devices is not filtered by application.
+     */
+    public boolean isLogcatAppOnly() {
+        return logcatAppOnly;
+    }
+
+    public void setLogcatAppOnly(boolean logcatAppOnly) {
+        this.logcatAppOnly = logcatAppOnly;
+    }
+
+    /**
+     * @return true when saved logcat files should be compressed by gzip.
+     */
+    public boolean isLogcatCompressionEnabled() {
+        return logcatCompressionEnabled;
+    }
+
+    public void setLogcatCompressionEnabled(boolean logcatCompressionEnabled) {
+        this.logcatCompressionEnabled = logcatCompressionEnabled;
+    }
+
+    /**
+     * @return true when coverage files of commands should be merged as soon as they are pulled,
+     * so the coverage dir contains one merged file per device type instead of a file per command.
+     * Works only when {@link #isCoverageEnabled()} is true.
+     */
+    public boolean isCoverageMergeEnabled() {
+        return coverageMergeEnabled;
+    }
+
+    public void setCoverageMergeEnabled(boolean coverageMergeEnabled) {
+        this.coverageMergeEnabled = coverageMergeEnabled;
+    }
 }
@@ -2,14 +2,20 @@ package com.github.grishberg.tests;
 
 import com.android.ddmlib.AndroidDebugBridge;
 import com.github.grishberg.tests.adb.AdbWrapper;
+import com.github.grishberg.tests.adb.DeviceConnectionWatcher;
 import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.commands.CrashQuarantine;
 import com.github.grishberg.tests.commands.DeviceRunnerCommandProvider;
 import com.github.grishberg.tests.common.BuildFileSystem;
 import com.github.grishberg.tests.common.BuildFileSystemImpl;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.coverage.CoverageAggregator;
 import com.github.grishberg.tests.sharding.DefaultDeviceTypeAdapter;
 import com.github.grishberg.tests.sharding.DeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.DurationBalancedPartitioner;
 import com.github.grishberg.tests.sharding.ShardArgumentsImpl;
+import com.github.grishberg.tests.sharding.TestDurationHistory;
+import com.github.grishberg.tests.sharding.TestPlanPartitioner;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
@@ -17,6 +23,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main task for running instrumental tests.
@@ -24,11 +31,15 @@ import java.util.Map;
 public class InstrumentationTestLauncher {
     private static final String TAG = InstrumentationTestLauncher.class.getSimpleName();
     private static final String DEFAULT_FLAVOR = "default_flavor";
+    // screenshots and coverage are collected in background and can lag behind tests.
+    private static final long ARTIFACTS_TIMEOUT_MINUTES = 5;
     @Nullable
     private String androidSdkPath;
     private File coverageDir;
     private File resultsDir;
     private File reportsDir;
+    private File testDurationsFile;
+    private File crashQuarantineFile;
     private DeviceRunnerCommandProvider commandProvider;
     private InstrumentationArgsProvider instrumentationArgsProvider;
     private InstrumentalExtension instrumentationInfo;
@@ -42,6 +53,11 @@ public class InstrumentationTestLauncher {
     private BuildFileSystem buildFileSystem;
     private HashMap<String, String> screenshotRelations = new HashMap<>();
     private ProcessCrashHandler processCrashedHandler;
+    // durations of previous runs, shards are predicted from them and they aren't changed during the run.
+    private final TestDurationHistory testDurationHistory = new TestDurationHistory();
+    @Nullable
+    private TestDurationHistory recordedTestDurations;
+    private final CrashQuarantine crashQuarantine = new CrashQuarantine();
 
     public InstrumentationTestLauncher(String projectName,
                                        String buildDir,
@@ -98,13 +114,86 @@ public class InstrumentationTestLauncher {
                 getReportsDir(), getCoverageDir());
         DeviceCommandsRunner runner = deviceCommandsRunnerFactory
                 .provideDeviceCommandRunner(commandProvider);
+        // test plan discovered on host doesn't need devices
+        runner.prepareTestPlan(logger);
 
         TestRunnerContext context = new TestRunnerContext(instrumentationInfo,
                 environment, screenshotRelations, logger);
         if (processCrashedHandler != null) {
             context.setProcessCrashHandler(processCrashedHandler);
         }
-        return runner.runCommands(getDeviceList(), context);
+        testDurationHistory.load(getTestDurationsFile(), logger);
+        // devices take their shards at different times, so they must see the same predictions
+        recordedTestDurations = new TestDurationHistory(testDurationHistory);
+        context.setTestDurationHistory(recordedTestDurations);
+        if (instrumentationInfo.isCrashIsolationEnabled()) {
+            crashQuarantine.load(getCrashQuarantineFile(), logger);
+            context.setCrashQuarantine(crashQuarantine);
+        }
+        context.setDeviceTypeAdapter(deviceTypeAdapter);
+        DeviceConnectionWatcher deviceConnectionWatcher = createDeviceConnectionWatcher(runner);
+        try {
+            if (deviceConnectionWatcher != null) {
+                deviceConnectionWatcher.start();
+            }
+            return runner.runCommands(getDeviceList(), context);
+        } finally {
+            if (deviceConnectionWatcher != null) {
+                deviceConnectionWatcher.stop();
+            }
+            context.stopLogcatStreamers();
+            saveTestDurations();
+            if (instrumentationInfo.isCrashIsolationEnabled()) {
+                saveCrashQuarantine();
+            }
+            context.shutdownArtifactQueues(ARTIFACTS_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            if (instrumentationInfo.isCoverageEnabled() && instrumentationInfo.isCoverageMergeEnabled()) {
+                saveMergedCoverage(context.getCoverageAggregator());
+            }
+        }
+    }
+
+    /**
+     * Devices connected during the run can take tests only from shared queue of dynamic sharding,
+     * in other modes tests are distributed between devices at start.
+     */
+    @Nullable
+    private DeviceConnectionWatcher createDeviceConnectionWatcher(DeviceCommandsRunner runner) {
+        if (!(runner instanceof HotPlugCommandsRunner) || !instrumentationInfo.isDynamicShardingEnabled()) {
+            return null;
+        }
+        HotPlugCommandsRunner hotPlugRunner = (HotPlugCommandsRunner) runner;
+        return new DeviceConnectionWatcher(adbWrapper, logger, device -> {
+            if (hotPlugRunner.addDevice(device)) {
+                logger.i(TAG, "Started commands on connected device {}", device.getName());
+            }
+        });
+    }
+
+    private void saveTestDurations() {
+        try {
+            if (recordedTestDurations != null) {
+                recordedTestDurations.save(getTestDurationsFile());
+            }
+        } catch (IOException e) {
+            logger.e(TAG, "Can't save test durations", e);
+        }
+    }
+
+    private void saveCrashQuarantine() {
+        try {
+            crashQuarantine.save(getCrashQuarantineFile());
+        } catch (IOException e) {
+            logger.e(TAG, "Can't save crash quarantine", e);
+        }
+    }
+
+    private void saveMergedCoverage(CoverageAggregator coverageAggregator) {
+        try {
+            coverageAggregator.write(getCoverageDir(), ConnectedDeviceWrapper.COVERAGE_FILE_NAME);
+        } catch (IOException e) {
+            logger.e(TAG, "Can't save merged coverage", e);
+        }
     }
 
     private void init() {
@@ -122,21 +211,48 @@ public class InstrumentationTestLauncher {
 
             logger.i(TAG, "Init: commandsForAnnotationProvider is empty, use DefaultCommandsForAnnotationProvider");
         }
+        if (deviceTypeAdapter == null) {
+            deviceTypeAdapter = new DefaultDeviceTypeAdapter();
+        }
         if (instrumentationArgsProvider == null) {
-            if (deviceTypeAdapter == null) {
-                deviceTypeAdapter = new DefaultDeviceTypeAdapter();
-            }
             instrumentationArgsProvider = new DefaultInstrumentationArgsProvider(
                     instrumentationInfo, new ShardArgumentsImpl(adbWrapper, deviceTypeAdapter));
             logger.i(TAG, "init: instrumentationArgsProvider is empty, use DefaultInstrumentationArgsProvider");
         }
+        if (commandProvider == null && instrumentationInfo.isDynamicShardingEnabled()) {
+            logger.i(TAG, "command provider is empty, use DynamicShardingCommandProvider");
+            commandProvider = new DynamicShardingCommandProvider(projectName,
+                    instrumentationArgsProvider, commandsForAnnotationProvider, deviceTypeAdapter);
+        }
+        if (commandProvider == null && instrumentationInfo.isShardEnabled() &&
+                instrumentationInfo.isDurationBalancedShardingEnabled()) {
+            logger.i(TAG, "command provider is empty, use DefaultCommandProvider with duration balanced shards");
+            commandProvider = new DefaultCommandProvider(projectName,
+                    instrumentationArgsProvider, commandsForAnnotationProvider, deviceTypeAdapter,
+                    new DurationBalancedPartitioner(new ShardArgumentsImpl(adbWrapper, deviceTypeAdapter),
+                            deviceTypeAdapter, testDurationHistory),
+                    instrumentationInfo.isGroupTestsByPreconditionsEnabled(),
+                    getEnabledCrashQuarantine(), instrumentationInfo.isSkipQuarantinedTests());
+        }
         if (commandProvider == null) {
             logger.i(TAG, "command provider is empty, use DefaultCommandProvider");
             commandProvider = new DefaultCommandProvider(projectName,
-                    instrumentationArgsProvider, commandsForAnnotationProvider);
+                    instrumentationArgsProvider, commandsForAnnotationProvider, deviceTypeAdapter,
+                    TestPlanPartitioner.ALL_TESTS.INSTANCE,
+                    instrumentationInfo.isGroupTestsByPreconditionsEnabled(),
+                    getEnabledCrashQuarantine(), instrumentationInfo.isSkipQuarantinedTests());
         }
     }
 
+    /**
+     * @return crash quarantine if crash isolation is enabled, otherwise quarantine from previous
+     * runs is not applied.
+     */
+    @Nullable
+    private CrashQuarantine getEnabledCrashQuarantine() {
+        return instrumentationInfo.isCrashIsolationEnabled() ? crashQuarantine : null;
+    }
+
     private void prepareOutputFolders() throws IOException {
         buildFileSystem.cleanFolder(getReportsDir());
         buildFileSystem.cleanFolder(getResultsDir());
@@ -186,7 +302,8 @@ public class InstrumentationTestLauncher {
     }
 
     /**
-     * Sets shard device type adapter for DefaultInstrumentationArgsProvider.
+     * Sets shard device type adapter for DefaultInstrumentationArgsProvider and
+     * DynamicShardingCommandProvider.
      * If you use your own implementation of InstrumentationArgsProvider,
      * then write your own shard arguments generation logic.
      */
@@ -194,6 +311,42 @@ public class InstrumentationTestLauncher {
         this.deviceTypeAdapter = deviceTypeAdapter;
     }
 
+    /**
+     * Sets file where durations of tests are stored between runs.
+     */
+    public void setTestDurationsFile(File testDurationsFile) {
+        this.testDurationsFile = testDurationsFile;
+    }
+
+    public File getTestDurationsFile() {
+        if (testDurationsFile == null) {
+            String flavor = instrumentationInfo.getFlavorName() != null ?
+                    instrumentationInfo.getFlavorName() : DEFAULT_FLAVOR;
+            testDurationsFile = new File(buildDir,
+                    String.format("outputs/androidTestDurations/%s.json", flavor));
+            logger.d(TAG, "Test durations file is empty, generate default value {}", testDurationsFile);
+        }
+        return testDurationsFile;
+    }
+
+    /**
+     * Sets file where tests which crash tested process are stored between runs.
+     */
+    public void setCrashQuarantineFile(File crashQuarantineFile) {
+        this.crashQuarantineFile = crashQuarantineFile;
+    }
+
+    public File getCrashQuarantineFile() {
+        if (crashQuarantineFile == null) {
+            String flavor = instrumentationInfo.getFlavorName() != null ?
+                    instrumentationInfo.getFlavorName() : DEFAULT_FLAVOR;
+            crashQuarantineFile = new File(buildDir,
+                    String.format("outputs/androidTestCrashQuarantine/%s.json", flavor));
+            logger.d(TAG, "Crash quarantine file is empty, generate default value {}", crashQuarantineFile);
+        }
+        return crashQuarantineFile;
+    }
+
     public File getCoverageDir() {
         if (coverageDir == null) {
             String flavor = instrumentationInfo.getFlavorName() != null ?
@@ -29,6 +29,11 @@ class SimpleCommandsRunner implements DeviceCommandsRunner {
         this.commandProvider = commandProvider;
     }
 
+    @Override
+    public void prepareTestPlan(RunnerLogger logger) throws CommandExecutionException {
+        testPlanProvider.prepareTestPlan(logger);
+    }
+
     @Override
     public boolean runCommands(
             @NotNull List<? extends ConnectedDeviceWrapper> devices,
@@ -1,20 +1,47 @@
 package com.github.grishberg.tests;
 
 import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.commands.AdaptiveBatchSizer;
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.commands.CrashQuarantine;
 import com.github.grishberg.tests.commands.TestRunnerBuilder;
+import com.github.grishberg.tests.commands.reports.LogcatFilter;
+import com.github.grishberg.tests.commands.reports.LogcatStreamer;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.coverage.CoverageAggregator;
+import com.github.grishberg.tests.sharding.DefaultDeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.DeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.TestDurationHistory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides data for test command execution.
  */
 public class TestRunnerContext {
+    private static final String TAG = TestRunnerContext.class.getSimpleName();
+    private static final long AWAIT_ARTIFACTS_TIMEOUT_MINUTES = 5;
     private final InstrumentalExtension instrumentalInfo;
     private final Environment environment;
     private final Map<String, String> screenshotRelation;
     private final RunnerLogger logger;
     private ProcessCrashHandler processCrashHandler = ProcessCrashHandler.STUB.INSTANCE;
+    private TestDurationHistory testDurationHistory = new TestDurationHistory();
+    private DeviceTypeAdapter deviceTypeAdapter = new DefaultDeviceTypeAdapter();
+    private final AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer();
+    private CrashQuarantine crashQuarantine = new CrashQuarantine();
+    private final CoverageAggregator coverageAggregator = new CoverageAggregator();
+    private final CancellationSignal cancellationSignal = new CancellationSignal();
+    private final Map<String, CancellationSignal> deviceCancellationSignals = new HashMap<>();
+    private final Map<String, LogcatStreamer> logcatStreamers = new HashMap<>();
+    private final Map<String, LogcatFilter> logcatFilters = new HashMap<>();
+    private final Map<String, ArtifactQueue> artifactQueues = new HashMap<>();
 
     public TestRunnerContext(InstrumentalExtension instrumentalInfo,
                              Environment environment,
@@ -64,4 +91,184 @@ public class TestRunnerContext {
     public ProcessCrashHandler getProcessCrashedHandler() {
         return processCrashHandler;
     }
+
+    void setTestDurationHistory(TestDurationHistory history) {
+        testDurationHistory = history;
+    }
+
+    /**
+     * @return storage for durations of executed tests.
+     */
+    public TestDurationHistory getTestDurationHistory() {
+        return testDurationHistory;
+    }
+
+    void setDeviceTypeAdapter(DeviceTypeAdapter adapter) {
+        deviceTypeAdapter = adapter;
+    }
+
+    public DeviceTypeAdapter getDeviceTypeAdapter() {
+        return deviceTypeAdapter;
+    }
+
+    /**
+     * @return batch sizes of commands which run tests left after process crash, shared by all
+     * commands of this run.
+     */
+    public AdaptiveBatchSizer getAdaptiveBatchSizer() {
+        return adaptiveBatchSizer;
+    }
+
+    void setCrashQuarantine(CrashQuarantine quarantine) {
+        crashQuarantine = quarantine;
+    }
+
+    /**
+     * @return tests which crash tested process.
+     */
+    public CrashQuarantine getCrashQuarantine() {
+        return crashQuarantine;
+    }
+
+    /**
+     * @return merged coverage of commands of this run.
+     */
+    public CoverageAggregator getCoverageAggregator() {
+        return coverageAggregator;
+    }
+
+    /**
+     * @return cancellation signal of whole run.
+     */
+    public CancellationSignal getCancellationSignal() {
+        return cancellationSignal;
+    }
+
+    /**
+     * @return cancellation signal of device, is cancelled when whole run is cancelled.
+     */
+    public CancellationSignal getCancellationSignal(ConnectedDeviceWrapper device) {
+        synchronized (deviceCancellationSignals) {
+            return deviceCancellationSignals.computeIfAbsent(device.getSerialNumber(),
+                    serial -> cancellationSignal.createChild());
+        }
+    }
+
+    /**
+     * Removes cancellation signal of device when its commands are finished, so device which is
+     * connected again gets new signal.
+     */
+    void releaseCancellationSignal(ConnectedDeviceWrapper device) {
+        synchronized (deviceCancellationSignals) {
+            deviceCancellationSignals.remove(device.getSerialNumber());
+        }
+    }
+
+    /**
+     * @return started logcat streamer of device, it is shared by all commands of device and
+     * writes logcat to reports/logcat/[device name]-logcat.log or to .log.gz when compressed.
+     */
+    public LogcatStreamer getLogcatStreamer(ConnectedDeviceWrapper device) throws IOException {
+        synchronized (logcatStreamers) {
+            LogcatStreamer streamer = logcatStreamers.get(device.getSerialNumber());
+            if (streamer != null) {
+                return streamer;
+            }
+        }
+        LogcatFilter filter = getLogcatFilter(device);
+        synchronized (logcatStreamers) {
+            LogcatStreamer streamer = logcatStreamers.get(device.getSerialNumber());
+            if (streamer == null) {
+                boolean compressed = instrumentalInfo.isLogcatCompressionEnabled();
+                File logFile = new File(environment.getReportsDir(),
+                        String.format("logcat/%s-logcat.log%s", device.getName(), compressed ? ".gz" : ""));
+                streamer = new LogcatStreamer(device.getDevice(), logFile, device.getLogger(),
+                        filter.apply(LogcatStreamer.LOGCAT_COMMAND), compressed);
+                streamer.start();
+                logcatStreamers.put(device.getSerialNumber(), streamer);
+            }
+            return streamer;
+        }
+    }
+
+    /**
+     * @return logcat filter of device, it is created once for device because it may request
+     * uid of application from device.
+     */
+    public LogcatFilter getLogcatFilter(ConnectedDeviceWrapper device) {
+        synchronized (logcatFilters) {
+            LogcatFilter filter = logcatFilters.get(device.getSerialNumber());
+            if (filter != null) {
+                return filter;
+            }
+        }
+        // other devices don't wait while uid is requested
+        LogcatFilter filter = LogcatFilter.create(instrumentalInfo, device, device.getLogger());
+        synchronized (logcatFilters) {
+            LogcatFilter existingFilter = logcatFilters.putIfAbsent(device.getSerialNumber(), filter);
+            return existingFilter != null ? existingFilter : filter;
+        }
+    }
+
+    void stopLogcatStreamers() {
+        List<LogcatStreamer> streamers;
+        synchronized (logcatStreamers) {
+            streamers = new ArrayList<>(logcatStreamers.values());
+            logcatStreamers.clear();
+        }
+        for (LogcatStreamer streamer : streamers) {
+            streamer.stop();
+        }
+    }
+
+    /**
+     * @return queue of device where artifacts, like screenshots and coverage, are collected in background.
+     */
+    public ArtifactQueue getArtifactQueue(ConnectedDeviceWrapper device) {
+        synchronized (artifactQueues) {
+            return artifactQueues.computeIfAbsent(device.getSerialNumber(),
+                    serial -> new ArtifactQueue(device.getName(), device.getLogger()));
+        }
+    }
+
+    /**
+     * Waits for artifacts of device which were submitted before. Coverage is read from application
+     * data in background, so it is awaited before application data is cleared or application
+     * is reinstalled.
+     */
+    public void awaitArtifacts(ConnectedDeviceWrapper device) throws CommandExecutionException {
+        ArtifactQueue queue;
+        synchronized (artifactQueues) {
+            queue = artifactQueues.get(device.getSerialNumber());
+        }
+        if (queue == null) {
+            return;
+        }
+        try {
+            if (!queue.awaitCompletion(AWAIT_ARTIFACTS_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                logger.w(TAG, "Artifacts of {} are not collected in {} minutes", device.getName(),
+                        AWAIT_ARTIFACTS_TIMEOUT_MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException("Waiting for artifacts was interrupted", e);
+        }
+    }
+
+    /**
+     * Waits for artifacts of all devices and stops queues.
+     */
+    void shutdownArtifactQueues(long timeout, TimeUnit unit) throws InterruptedException {
+        List<ArtifactQueue> queues;
+        synchronized (artifactQueues) {
+            queues = new ArrayList<>(artifactQueues.values());
+            artifactQueues.clear();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ArtifactQueue queue : queues) {
+            if (!queue.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                logger.w(TAG, "Artifacts are not collected in {} {}", timeout, unit);
+            }
+        }
+    }
 }
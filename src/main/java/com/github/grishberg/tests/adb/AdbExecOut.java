@@ -0,0 +1,104 @@
+package com.github.grishberg.tests.adb;
+
+import com.android.ddmlib.AndroidDebugBridge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Executes command by "exec:" service of adb server, which streams raw binary stdout of command
+ * like "adb exec-out". Output is not modified by shell, so it can be written to host file as is
+ * without temporary file on device. Service is supported since Android 5.0.
+ */
+public class AdbExecOut {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final InetSocketAddress adbServerAddress;
+    private final int timeoutMillis;
+
+    /**
+     * @param timeoutMillis max time of waiting for output of command.
+     */
+    public AdbExecOut(InetSocketAddress adbServerAddress, int timeoutMillis) {
+        this.adbServerAddress = adbServerAddress;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Creates client of adb server which is used by {@link AndroidDebugBridge}, so exec-out commands
+     * go to the same server as other commands of devices.
+     *
+     * @throws IOException when bridge is not initialized yet.
+     */
+    public static AdbExecOut createLocal(int timeoutMillis) throws IOException {
+        InetSocketAddress adbServerAddress = AndroidDebugBridge.getSocketAddress();
+        if (adbServerAddress == null) {
+            throw new IOException("AndroidDebugBridge is not initialized");
+        }
+        return new AdbExecOut(adbServerAddress, timeoutMillis);
+    }
+
+    /**
+     * Executes command on device and writes its stdout to output channel.
+     *
+     * @return count of written bytes.
+     */
+    public long execute(String serialNumber, String command, WritableByteChannel output) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(adbServerAddress, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            sendRequest(out, in, "host:transport:" + serialNumber);
+            sendRequest(out, in, "exec:" + command);
+
+            ReadableByteChannel source = Channels.newChannel(in);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long written = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += output.write(buffer);
+                }
+                buffer.clear();
+            }
+            return written;
+        }
+    }
+
+    private static void sendRequest(OutputStream out, InputStream in, String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format("%04x", payload.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(payload);
+        out.flush();
+        String status = readString(in, 4);
+        if ("OKAY".equals(status)) {
+            return;
+        }
+        if ("FAIL".equals(status)) {
+            int length = Integer.parseInt(readString(in, 4), 16);
+            throw new IOException("adb rejected \"" + request + "\": " + readString(in, length));
+        }
+        throw new IOException("Unexpected adb response \"" + status + "\" for \"" + request + "\"");
+    }
+
+    private static String readString(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(data, offset, length - offset);
+            if (count < 0) {
+                throw new IOException("adb closed connection");
+            }
+            offset += count;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -51,4 +51,19 @@ public class AdbWrapper {
         }
         return deviceWrappers;
     }
+
+    /**
+     * Wraps device which was connected after {@link #provideDevices()} call.
+     */
+    public synchronized ConnectedDeviceWrapper wrapDevice(IDevice device) {
+        return new ConnectedDeviceWrapper(device, logger);
+    }
+
+    public void addDeviceChangeListener(AndroidDebugBridge.IDeviceChangeListener listener) {
+        AndroidDebugBridge.addDeviceChangeListener(listener);
+    }
+
+    public void removeDeviceChangeListener(AndroidDebugBridge.IDeviceChangeListener listener) {
+        AndroidDebugBridge.removeDeviceChangeListener(listener);
+    }
 }
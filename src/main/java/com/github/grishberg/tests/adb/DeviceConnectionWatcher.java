@@ -0,0 +1,133 @@
+package com.github.grishberg.tests.adb;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.IDevice;
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches devices which become online during the run and notifies listener when
+ * device is online and boot is completed.
+ */
+public class DeviceConnectionWatcher implements AndroidDebugBridge.IDeviceChangeListener {
+    private static final String TAG = DeviceConnectionWatcher.class.getSimpleName();
+    private static final String BOOT_COMPLETED_PROPERTY = "sys.boot_completed";
+    private static final long BOOT_CHECK_INTERVAL_SECONDS = 2;
+    private static final long BOOT_TIMEOUT_SECONDS = 600;
+    private static final long PROPERTY_TIMEOUT_SECONDS = 5;
+    private final AdbWrapper adbWrapper;
+    private final RunnerLogger logger;
+    private final DeviceReadyListener listener;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Set<String> waitingDevices = new HashSet<>();
+    private boolean started;
+
+    public DeviceConnectionWatcher(AdbWrapper adbWrapper,
+                                   RunnerLogger logger,
+                                   DeviceReadyListener listener) {
+        this.adbWrapper = adbWrapper;
+        this.logger = logger;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            adbWrapper.addDeviceChangeListener(this);
+        }
+    }
+
+    public synchronized void stop() {
+        if (started) {
+            started = false;
+            adbWrapper.removeDeviceChangeListener(this);
+            scheduler.shutdownNow();
+            waitingDevices.clear();
+        }
+    }
+
+    @Override
+    public void deviceConnected(IDevice device) {
+        if (device.isOnline()) {
+            waitForBoot(device);
+        }
+    }
+
+    @Override
+    public synchronized void deviceDisconnected(IDevice device) {
+        waitingDevices.remove(device.getSerialNumber());
+    }
+
+    @Override
+    public void deviceChanged(IDevice device, int changeMask) {
+        if ((changeMask & IDevice.CHANGE_STATE) != 0 && device.isOnline()) {
+            waitForBoot(device);
+        }
+    }
+
+    private synchronized void waitForBoot(IDevice device) {
+        if (!started || !waitingDevices.add(device.getSerialNumber())) {
+            return;
+        }
+        logger.i(TAG, "Device {} is online, wait for boot completion", device.getSerialNumber());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(BOOT_TIMEOUT_SECONDS);
+        scheduler.execute(() -> checkBootCompleted(device, deadline));
+    }
+
+    private void checkBootCompleted(IDevice device, long deadline) {
+        String serialNumber = device.getSerialNumber();
+        if (!isWaiting(serialNumber)) {
+            return;
+        }
+        boolean ready = device.isOnline() && isBootCompleted(device);
+        synchronized (this) {
+            if (!isWaiting(serialNumber)) {
+                return;
+            }
+            if (!ready && System.currentTimeMillis() < deadline) {
+                scheduler.schedule(() -> checkBootCompleted(device, deadline),
+                        BOOT_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                return;
+            }
+            waitingDevices.remove(serialNumber);
+        }
+        if (!ready) {
+            logger.w(TAG, "Device {} wasn't booted in {} s", serialNumber, BOOT_TIMEOUT_SECONDS);
+            return;
+        }
+        logger.i(TAG, "Device {} is ready", serialNumber);
+        listener.onDeviceReady(adbWrapper.wrapDevice(device));
+    }
+
+    private synchronized boolean isWaiting(String serialNumber) {
+        return started && waitingDevices.contains(serialNumber);
+    }
+
+    private boolean isBootCompleted(IDevice device) {
+        try {
+            String bootCompleted = device.getSystemProperty(BOOT_COMPLETED_PROPERTY)
+                    .get(PROPERTY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return "1".equals(bootCompleted != null ? bootCompleted.trim() : null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            logger.d(TAG, "Can't read {} of {}: {}", BOOT_COMPLETED_PROPERTY,
+                    device.getSerialNumber(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Is notified when connected device is ready to execute commands.
+     */
+    public interface DeviceReadyListener {
+        void onDeviceReady(ConnectedDeviceWrapper device);
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses count of tests for "am instrument" commands which run tests left after process crash.
+ * Batch size is tracked per device and per package of test classes: it is halved when process
+ * crashes in package and doubled after every run without crash, until batch size is unlimited again.
+ * Batches are not smaller than count of tests which makes instrumentation startup overhead less
+ * than {@link #MAX_STARTUP_OVERHEAD} of run time, unless crashes are expected in every such batch.
+ * This class is thread safe.
+ */
+public class AdaptiveBatchSizer {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    static final double MAX_STARTUP_OVERHEAD = 0.1;
+    // Larger batch size is considered as unlimited.
+    private static final int MAX_LIMITED_SIZE = 1024;
+    // Weight of new measurement in moving averages.
+    private static final double SMOOTHING = 0.3;
+    private final Map<String, DeviceStats> devices = new HashMap<>();
+
+    /**
+     * Stores timings of "am instrument" command.
+     *
+     * @param startupMillis time from command start to start of the first test.
+     * @param executedTests count of finished tests.
+     * @param testsMillis   time from start of the first test to end of command.
+     */
+    public synchronized void recordTimings(String device, long startupMillis, int executedTests, long testsMillis) {
+        if (executedTests <= 0) {
+            return;
+        }
+        DeviceStats stats = getDeviceStats(device);
+        stats.startupMillis = average(stats.startupMillis, startupMillis);
+        stats.testMillis = average(stats.testMillis, (double) testsMillis / executedTests);
+    }
+
+    /**
+     * Shrinks batches of package of crashed test.
+     *
+     * @param crashedClassName class of test which was running when process crashed.
+     * @param executedTests    count of tests in package of crashed test which were executed in command.
+     * @param commandSize      count of tests in command.
+     */
+    public synchronized void recordCrash(String device, String crashedClassName,
+                                         int executedTests, int commandSize) {
+        PackageStats stats = getDeviceStats(device).getPackageStats(packageName(crashedClassName));
+        stats.crashes++;
+        stats.executedTests += executedTests;
+        stats.batchSize = Math.max(1, Math.min(stats.batchSize, commandSize) / 2);
+    }
+
+    /**
+     * Grows batches of packages of tests, which were executed without crash.
+     */
+    public synchronized void recordStableRun(String device, Collection<TestPlanElement> executedTests) {
+        DeviceStats deviceStats = getDeviceStats(device);
+        Map<String, Integer> testsCount = new HashMap<>();
+        for (TestPlanElement test : executedTests) {
+            testsCount.merge(packageName(test.getClassName()), 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> entry : testsCount.entrySet()) {
+            PackageStats stats = deviceStats.getPackageStats(entry.getKey());
+            stats.executedTests += entry.getValue();
+            if (stats.batchSize != UNLIMITED) {
+                stats.batchSize = stats.batchSize > MAX_LIMITED_SIZE / 2 ? UNLIMITED : stats.batchSize * 2;
+            }
+        }
+    }
+
+    /**
+     * @param tests tests which are left to run, in order of execution.
+     * @return count of first tests which should be executed by next command, at least 1.
+     */
+    public synchronized int nextBatchSize(String device, List<TestPlanElement> tests) {
+        DeviceStats deviceStats = getDeviceStats(device);
+        int minBatchSize = deviceStats.getMinBatchSize();
+        int limit = UNLIMITED;
+        int count = 0;
+        String lastPackage = null;
+        for (TestPlanElement test : tests) {
+            String testPackage = packageName(test.getClassName());
+            if (!testPackage.equals(lastPackage)) {
+                lastPackage = testPackage;
+                limit = Math.min(limit, deviceStats.getBatchSize(testPackage, minBatchSize));
+            }
+            if (count >= limit) {
+                break;
+            }
+            count++;
+        }
+        return Math.max(1, count);
+    }
+
+    private DeviceStats getDeviceStats(String device) {
+        return devices.computeIfAbsent(device, d -> new DeviceStats());
+    }
+
+    private static double average(double previous, double value) {
+        return previous < 0 ? value : previous + (value - previous) * SMOOTHING;
+    }
+
+    static String packageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot >= 0 ? className.substring(0, lastDot) : "";
+    }
+
+    private static class DeviceStats {
+        final Map<String, PackageStats> packages = new HashMap<>();
+        double startupMillis = -1;
+        double testMillis = -1;
+
+        PackageStats getPackageStats(String packageName) {
+            return packages.computeIfAbsent(packageName, p -> new PackageStats());
+        }
+
+        /**
+         * @return count of tests which makes startup overhead acceptable.
+         */
+        int getMinBatchSize() {
+            if (startupMillis <= 0 || testMillis <= 0) {
+                return 1;
+            }
+            double size = startupMillis * (1 - MAX_STARTUP_OVERHEAD) / (MAX_STARTUP_OVERHEAD * testMillis);
+            return (int) Math.max(1, Math.min(MAX_LIMITED_SIZE, Math.ceil(size)));
+        }
+
+        int getBatchSize(String packageName, int minBatchSize) {
+            PackageStats stats = packages.get(packageName);
+            if (stats == null || stats.batchSize == UNLIMITED) {
+                return UNLIMITED;
+            }
+            // when crashes are expected in every batch of minimal size, only crashes matter
+            double crashRate = (double) stats.crashes / (stats.executedTests + 1);
+            if (crashRate * minBatchSize >= 1) {
+                return stats.batchSize;
+            }
+            return Math.max(stats.batchSize, minBatchSize);
+        }
+    }
+
+    private static class PackageStats {
+        int batchSize = UNLIMITED;
+        int crashes;
+        int executedTests;
+    }
+}
@@ -30,6 +30,8 @@ public class ClearCommand implements DeviceRunnerCommand {
         String appIdToClear = (appId != null) ?
                 appId : context.getInstrumentalInfo().getApplicationId();
         device.getLogger().d(TAG, "ClearCommand for package {}", appIdToClear);
+        // coverage of previous commands is still read from application data
+        context.awaitArtifacts(device);
         StringBuilder command = new StringBuilder("pm clear ");
         command.append(appIdToClear);
 
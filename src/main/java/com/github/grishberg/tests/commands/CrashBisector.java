@@ -0,0 +1,82 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds minimal set of tests which crashes tested process: the test which was running when process
+ * crashed or pair of tests, when crash is caused by state left by one of previously executed tests.
+ * Previously executed tests are bisected, every probe runs half of suspected tests followed by
+ * crashed test, so about log2(n) runs are needed instead of rerunning whole command.
+ */
+class CrashBisector {
+    private final Probe probe;
+    private int probesCount;
+
+    CrashBisector(Probe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * @param executedTests tests which were executed before crashed test, in order of execution.
+     * @param crashedTest   test which was running when process crashed.
+     * @return crashed test, pair of previous test and crashed test or null when crash is not reproduced.
+     */
+    @Nullable
+    List<TestPlanElement> findCrashingTests(List<TestPlanElement> executedTests,
+                                            TestPlanElement crashedTest) throws CommandExecutionException {
+        List<TestPlanElement> crashedOnly = Collections.singletonList(crashedTest);
+        if (crashes(crashedOnly)) {
+            return crashedOnly;
+        }
+        List<TestPlanElement> suspects = new ArrayList<>(executedTests);
+        suspects.remove(crashedTest);
+        if (suspects.isEmpty()) {
+            return null;
+        }
+        while (suspects.size() > 1) {
+            List<TestPlanElement> firstHalf = suspects.subList(0, suspects.size() / 2);
+            if (crashes(withCrashedTest(firstHalf, crashedTest))) {
+                suspects = new ArrayList<>(firstHalf);
+            } else {
+                suspects = new ArrayList<>(suspects.subList(suspects.size() / 2, suspects.size()));
+            }
+        }
+        // the last half was not checked when crash is flaky or caused by several tests together
+        List<TestPlanElement> pair = withCrashedTest(suspects, crashedTest);
+        return crashes(pair) ? pair : null;
+    }
+
+    /**
+     * @return count of executed probes.
+     */
+    int getProbesCount() {
+        return probesCount;
+    }
+
+    private boolean crashes(List<TestPlanElement> tests) throws CommandExecutionException {
+        probesCount++;
+        return probe.crashes(tests);
+    }
+
+    private static List<TestPlanElement> withCrashedTest(List<TestPlanElement> tests, TestPlanElement crashedTest) {
+        List<TestPlanElement> result = new ArrayList<>(tests.size() + 1);
+        result.addAll(tests);
+        result.add(crashedTest);
+        return result;
+    }
+
+    /**
+     * Runs tests in given order in single "am instrument" command.
+     */
+    interface Probe {
+        /**
+         * @return true when tested process crashed.
+         */
+        boolean crashes(List<TestPlanElement> tests) throws CommandExecutionException;
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores tests which crash tested process, found by {@link CrashBisector}, between runs.
+ * Every entry is a single test which crashes process or a pair of tests where the second test
+ * crashes process only after the first one, tests are keyed by "class#method".
+ * This class is thread safe.
+ */
+public class CrashQuarantine {
+    private static final String TAG = CrashQuarantine.class.getSimpleName();
+    private static final Type FILE_TYPE = new TypeToken<List<List<String>>>() {}.getType();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Set<List<String>> entries = new LinkedHashSet<>();
+    private final Set<String> quarantinedTests = new HashSet<>();
+
+    /**
+     * Adds crashing test or pair of tests.
+     */
+    public synchronized void add(List<TestPlanElement> crashingTests) {
+        List<String> entry = new ArrayList<>();
+        for (TestPlanElement test : crashingTests) {
+            entry.add(testKey(test));
+        }
+        if (entries.add(entry)) {
+            quarantinedTests.addAll(entry);
+        }
+    }
+
+    /**
+     * @return true if test is a part of crashing entry.
+     */
+    public synchronized boolean isQuarantined(TestPlanElement test) {
+        return quarantinedTests.contains(testKey(test));
+    }
+
+    /**
+     * Splits quarantined tests to isolated runs: tests of every entry which are in given list are
+     * run together in order of entry, so the run shows whether entry still crashes process.
+     * Test of several entries is run with the first of them.
+     *
+     * @return isolated runs of quarantined tests from given list, other tests are ignored.
+     */
+    public synchronized List<List<TestPlanElement>> provideIsolatedRuns(List<TestPlanElement> tests) {
+        Map<String, TestPlanElement> testsByKey = new HashMap<>();
+        for (TestPlanElement test : tests) {
+            String key = testKey(test);
+            if (quarantinedTests.contains(key)) {
+                testsByKey.putIfAbsent(key, test);
+            }
+        }
+        List<List<TestPlanElement>> result = new ArrayList<>();
+        for (List<String> entry : entries) {
+            List<TestPlanElement> run = new ArrayList<>();
+            for (String key : entry) {
+                TestPlanElement test = testsByKey.remove(key);
+                if (test != null) {
+                    run.add(test);
+                }
+            }
+            if (!run.isEmpty()) {
+                result.add(run);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return tests which are not in isolated runs, in original order.
+     */
+    public static List<TestPlanElement> removeIsolatedTests(List<TestPlanElement> tests,
+                                                            List<List<TestPlanElement>> isolatedRuns) {
+        Set<TestPlanElement> isolatedTests = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<TestPlanElement> run : isolatedRuns) {
+            isolatedTests.addAll(run);
+        }
+        List<TestPlanElement> result = new ArrayList<>(tests.size());
+        for (TestPlanElement test : tests) {
+            if (!isolatedTests.contains(test)) {
+                result.add(test);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes entry which consists of given tests, is called when isolated run of entry passed,
+     * so fixed tests are run with other tests again.
+     *
+     * @return true if entry was removed.
+     */
+    public synchronized boolean release(List<TestPlanElement> crashingTests) {
+        List<String> entry = new ArrayList<>();
+        for (TestPlanElement test : crashingTests) {
+            entry.add(testKey(test));
+        }
+        if (!entries.remove(entry)) {
+            return false;
+        }
+        quarantinedTests.clear();
+        for (List<String> remainingEntry : entries) {
+            quarantinedTests.addAll(remainingEntry);
+        }
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Replaces current entries with entries from file, does nothing if file doesn't exist.
+     */
+    public synchronized void load(File file, RunnerLogger logger) {
+        entries.clear();
+        quarantinedTests.clear();
+        if (!file.exists()) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            List<List<String>> stored = gson.fromJson(reader, FILE_TYPE);
+            if (stored == null) {
+                return;
+            }
+            for (List<String> entry : stored) {
+                entries.add(entry);
+                quarantinedTests.addAll(entry);
+            }
+            logger.i(TAG, "{} tests are quarantined by {}", quarantinedTests.size(), file);
+        } catch (Exception e) {
+            entries.clear();
+            quarantinedTests.clear();
+            logger.e(TAG, "Can't read crash quarantine from " + file, e);
+        }
+    }
+
+    /**
+     * Saves entries to file.
+     */
+    public synchronized void save(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cant create folder " + parent.getAbsolutePath());
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(new ArrayList<>(entries), FILE_TYPE, writer);
+        }
+    }
+
+    private static String testKey(TestPlanElement test) {
+        return test.getClassName() + "#" + test.getMethodName();
+    }
+}
@@ -23,6 +23,8 @@ public class InstallApkCommand implements DeviceRunnerCommand {
             throws CommandExecutionException {
         RunnerLogger logger = device.getLogger();
         DeviceCommandResult result = new DeviceCommandResult();
+        // reinstall removes application data where coverage of previous commands is read from
+        runnerContext.awaitArtifacts(device);
         Throwable lastException = null;
         for (int i = 0; i < 3; i++) {
             try {
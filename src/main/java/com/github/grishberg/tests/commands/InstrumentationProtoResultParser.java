@@ -0,0 +1,180 @@
+package com.github.grishberg.tests.commands;
+
+import com.android.ddmlib.testrunner.ITestRunListener;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.common.InstrumentationProtoReceiver;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses am instrument -m output and notifies {@link ITestRunListener}s in the same order as
+ * ddmlib InstrumentationResultParser does for text output, so listeners don't depend on output format.
+ */
+class InstrumentationProtoResultParser extends InstrumentationProtoReceiver {
+    private static final int STATUS_START = 1;
+    private static final int STATUS_IN_PROGRESS = 2;
+    private static final int STATUS_ERROR = -1;
+    private static final int STATUS_FAILURE = -2;
+    private static final int STATUS_IGNORED = -3;
+    private static final int STATUS_ASSUMPTION_FAILURE = -4;
+    private static final String CLASS = "class";
+    private static final String TEST = "test";
+    private static final String STACK = "stack";
+    private static final String NUM_TESTS = "numtests";
+    private static final String STREAM = "stream";
+    private static final String SHORT_MSG = "shortMsg";
+    private static final Pattern TIME = Pattern.compile("Time: *([\\d,]*\\.?\\d*)");
+    private final String runName;
+    private final List<ITestRunListener> listeners;
+    private boolean runStarted;
+    private boolean runFinished;
+    private int numTests;
+    private int finishedTests;
+    @Nullable
+    private TestIdentifier currentTest;
+
+    InstrumentationProtoResultParser(String runName, Collection<ITestRunListener> listeners) {
+        this.runName = runName;
+        this.listeners = new ArrayList<>(listeners);
+    }
+
+    @Override
+    protected void onTestStatus(int resultCode, Map<String, String> results) {
+        if (!runStarted) {
+            numTests = parseInt(results.get(NUM_TESTS));
+            reportRunStarted(numTests);
+        }
+        String className = results.get(CLASS);
+        String methodName = results.get(TEST);
+        // statuses of instrumentation listeners, like annotations of test, are not test results
+        if (className == null || methodName == null || resultCode == STATUS_IN_PROGRESS) {
+            return;
+        }
+        TestIdentifier test = new TestIdentifier(className, methodName);
+        String stack = results.get(STACK);
+        for (ITestRunListener listener : listeners) {
+            switch (resultCode) {
+                case STATUS_START:
+                    listener.testStarted(test);
+                    break;
+                case STATUS_ERROR:
+                case STATUS_FAILURE:
+                    listener.testFailed(test, stack != null ? stack : "");
+                    break;
+                case STATUS_IGNORED:
+                    listener.testIgnored(test);
+                    break;
+                case STATUS_ASSUMPTION_FAILURE:
+                    listener.testAssumptionFailure(test, stack != null ? stack : "");
+                    break;
+                default:
+                    break;
+            }
+            if (resultCode != STATUS_START) {
+                listener.testEnded(test, new HashMap<>());
+            }
+        }
+        if (resultCode == STATUS_START) {
+            currentTest = test;
+        } else {
+            currentTest = null;
+            finishedTests++;
+        }
+    }
+
+    @Override
+    protected void onSessionStatus(int statusCode, @Nullable String errorText,
+                                   int resultCode, Map<String, String> results) {
+        if (statusCode == SESSION_ABORTED) {
+            handleTestRunFailed(errorText != null ? errorText : "Instrumentation aborted");
+            return;
+        }
+        String shortMessage = results.get(SHORT_MSG);
+        if (shortMessage != null) {
+            handleTestRunFailed(String.format("Instrumentation run failed due to '%1$s'", shortMessage));
+            return;
+        }
+        if (!runStarted) {
+            reportRunStarted(0);
+        }
+        runFinished = true;
+        long elapsedTime = parseElapsedTime(results.get(STREAM));
+        for (ITestRunListener listener : listeners) {
+            listener.testRunEnded(elapsedTime, results);
+        }
+    }
+
+    /**
+     * Reports failed run when output finished without session status.
+     */
+    void done() {
+        if (!runFinished && !isCancelled()) {
+            handleTestRunFailed(String.format("Test run failed to complete. Expected %1$d tests, received %2$d",
+                    numTests, finishedTests));
+        }
+    }
+
+    /**
+     * Fails test in progress and whole run.
+     */
+    void handleTestRunFailed(String errorMessage) {
+        if (runFinished) {
+            return;
+        }
+        runFinished = true;
+        if (!runStarted) {
+            reportRunStarted(0);
+        }
+        TestIdentifier test = currentTest;
+        currentTest = null;
+        for (ITestRunListener listener : listeners) {
+            if (test != null) {
+                listener.testFailed(test, String.format("Test failed to run to completion. Reason: '%1$s'. " +
+                        "Check device logcat for details", errorMessage));
+                listener.testEnded(test, new HashMap<>());
+            }
+            listener.testRunFailed(errorMessage);
+            listener.testRunEnded(0, new HashMap<>());
+        }
+    }
+
+    private void reportRunStarted(int testCount) {
+        runStarted = true;
+        for (ITestRunListener listener : listeners) {
+            listener.testRunStarted(runName, testCount);
+        }
+    }
+
+    private static int parseInt(@Nullable String value) {
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Finds "Time: 1.234" printed by instrumentation.
+     */
+    private static long parseElapsedTime(@Nullable String stream) {
+        if (stream == null) {
+            return 0;
+        }
+        Matcher matcher = TIME.matcher(stream);
+        if (!matcher.find()) {
+            return 0;
+        }
+        try {
+            return (long) (Double.parseDouble(matcher.group(1).replace(",", "")) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.grishberg.tests.commands;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Index of planned test methods by class and method name, which tracks tests that were not
+ * finished yet. Instances of parameterized test "method[n]" belong to plan of "method".
+ */
+class PlannedTests {
+    private final HashMap<TestKey, TestPlanElement> allTests = new HashMap<>();
+    private final LinkedHashMap<TestKey, TestPlanElement> testsLeft = new LinkedHashMap<>();
+    private final Collection<TestPlanElement> testsLeftView =
+            Collections.unmodifiableCollection(testsLeft.values());
+    @Nullable
+    private final TestPlanElement firstTest;
+
+    /**
+     * @param methods planned test methods, the first plan is kept for duplicated tests.
+     */
+    PlannedTests(List<TestPlanElement> methods) {
+        for (TestPlanElement method : methods) {
+            TestKey key = new TestKey(method.getClassName(), method.getMethodName());
+            allTests.putIfAbsent(key, method);
+            testsLeft.putIfAbsent(key, method);
+        }
+        firstTest = methods.isEmpty() ? null : methods.get(0);
+    }
+
+    /**
+     * @return planned test for executed test or null if test wasn't planned.
+     */
+    @Nullable
+    TestPlanElement find(TestIdentifier test) {
+        return allTests.get(TestKey.of(test));
+    }
+
+    /**
+     * Marks planned test as finished.
+     *
+     * @return false if test wasn't planned.
+     */
+    boolean finish(TestIdentifier test) {
+        TestKey key = TestKey.of(test);
+        testsLeft.remove(key);
+        return allTests.containsKey(key);
+    }
+
+    /**
+     * @return live unmodifiable view of tests which were not finished yet.
+     */
+    Collection<TestPlanElement> getTestsLeft() {
+        return testsLeftView;
+    }
+
+    @Nullable
+    TestPlanElement getFirstTest() {
+        return firstTest;
+    }
+
+    int size() {
+        return allTests.size();
+    }
+
+    private static final class TestKey {
+        private final String className;
+        private final String methodName;
+
+        private TestKey(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        static TestKey of(TestIdentifier test) {
+            String methodName = test.getTestName();
+            int parametersStart = methodName.indexOf('[');
+            if (parametersStart > 0) {
+                methodName = methodName.substring(0, parametersStart);
+            }
+            return new TestKey(test.getClassName(), methodName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TestKey)) {
+                return false;
+            }
+            TestKey that = (TestKey) o;
+            return className.equals(that.className) && methodName.equals(that.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * className.hashCode() + methodName.hashCode();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.TestRunnerContext;
+
+import java.io.File;
+
+/**
+ * Prepares device which was connected during the run: installs application and test apks
+ * when their paths are set and checks that instrumentation of tests is installed,
+ * so device doesn't take tests which it can't run.
+ */
+public class PrepareDeviceCommand implements DeviceRunnerCommand {
+    private static final String TAG = PrepareDeviceCommand.class.getSimpleName();
+    private static final String LIST_INSTRUMENTATION_COMMAND = "pm list instrumentation";
+
+    @Override
+    public DeviceCommandResult execute(ConnectedDeviceWrapper device, TestRunnerContext context)
+            throws CommandExecutionException {
+        InstrumentalExtension instrumentalInfo = context.getInstrumentalInfo();
+        if (instrumentalInfo.getAppApkPath() != null) {
+            new InstallApkCommand(new File(instrumentalInfo.getAppApkPath())).execute(device, context);
+        }
+        if (instrumentalInfo.getTestApkPath() != null) {
+            new InstallApkCommand(new File(instrumentalInfo.getTestApkPath())).execute(device, context);
+        }
+        String instrumentation = instrumentalInfo.getInstrumentalPackage() + "/" +
+                instrumentalInfo.getInstrumentalRunner();
+        String installedInstrumentations = device.executeShellCommandAndReturnOutput(LIST_INSTRUMENTATION_COMMAND);
+        if (installedInstrumentations == null ||
+                !installedInstrumentations.contains("instrumentation:" + instrumentation + " ")) {
+            throw new CommandExecutionException(String.format("Instrumentation %s is not installed on device %s",
+                    instrumentation, device.getSerialNumber()));
+        }
+        device.getLogger().i(TAG, "Instrumentation {} is installed", instrumentation);
+        return new DeviceCommandResult();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName();
+    }
+}
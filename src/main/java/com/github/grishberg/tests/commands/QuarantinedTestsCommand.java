@@ -0,0 +1,46 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.TestRunnerContext;
+import com.github.grishberg.tests.XmlReportGeneratorDelegate;
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs tests of {@link CrashQuarantine} entry by separate "am instrument" command, so crash of
+ * tested process doesn't break other tests. Entry is removed from quarantine when its tests pass.
+ */
+public class QuarantinedTestsCommand extends SingleInstrumentalTestCommand {
+    private static final String TAG = QuarantinedTestsCommand.class.getSimpleName();
+    private final List<TestPlanElement> quarantinedTests;
+    private final CrashQuarantine crashQuarantine;
+
+    /**
+     * @param quarantinedTests isolated run of quarantine entry, see {@link CrashQuarantine#provideIsolatedRuns}.
+     */
+    public QuarantinedTestsCommand(String projectName,
+                                   String testReportSuffix,
+                                   Map<String, String> instrumentalArgs,
+                                   List<TestPlanElement> quarantinedTests,
+                                   XmlReportGeneratorDelegate xmlReportGeneratorDelegate,
+                                   CrashQuarantine crashQuarantine) {
+        super(projectName, testReportSuffix, instrumentalArgs, quarantinedTests, xmlReportGeneratorDelegate,
+                RetryHandler.NOOP);
+        this.quarantinedTests = new ArrayList<>(quarantinedTests);
+        this.crashQuarantine = crashQuarantine;
+    }
+
+    @Override
+    public DeviceCommandResult execute(ConnectedDeviceWrapper targetDevice, TestRunnerContext context)
+            throws CommandExecutionException {
+        DeviceCommandResult result = super.execute(targetDevice, context);
+        if (!result.isFailed() && getTestsLeft().isEmpty() && crashQuarantine.release(quarantinedTests)) {
+            targetDevice.getLogger().i(TAG, "Quarantined tests {} passed, they are removed from quarantine",
+                    quarantinedTests);
+        }
+        return result;
+    }
+}
@@ -1,8 +1,13 @@
 package com.github.grishberg.tests.commands;
 
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.ddmlib.testrunner.TestRunResult;
+import com.github.grishberg.tests.CancellationSignal;
 import com.github.grishberg.tests.ConnectedDeviceWrapper;
 import com.github.grishberg.tests.Environment;
 import com.github.grishberg.tests.InstrumentalExtension;
@@ -10,24 +15,37 @@ import com.github.grishberg.tests.TestRunnerContext;
 import com.github.grishberg.tests.XmlReportGeneratorDelegate;
 import com.github.grishberg.tests.commands.reports.TestXmlReportsGenerator;
 import com.github.grishberg.tests.common.EmptyTestRunListener;
+import com.github.grishberg.tests.common.InstrumentationProtoReceiver;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.coverage.CoverageAggregator;
 import com.github.grishberg.tests.exceptions.ProcessCrashedException;
 import com.github.grishberg.tests.planner.NodeType;
+import com.github.grishberg.tests.planner.TestPlanCompressor;
 import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.planner.TestPlanSplitter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -45,15 +63,33 @@ import java.util.stream.Stream;
  */
 public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
     private static final String TAG = "SITestCommand";
+    // options of "am instrument" before arguments, like "am instrument -w -r"
+    private static final Pattern RAW_OUTPUT_COMMAND = Pattern.compile("(am instrument (?:-w )?)-r ");
     private static final String CLASS = "class";
     private static final String PACKAGE = "package";
+    private static final String TEST_FILE = "testFile";
+    private static final String TEST_FILE_DIR = "/data/local/tmp/";
     private final String projectName;
     private String testName;
     private final Map<String, String> providedInstrumentationArgs;
     private final Map<String, String> instrumentationArgs;
-    private final List<TestPlanElement> allPlannedTests;
+    private final List<TestPlanElement> testsForExecution;
+    private final PlannedTests plannedTests;
     private final XmlReportGeneratorDelegate xmlReportGeneratorDelegate;
     private final RetryHandler retryHandler;
+    private Collection<TestPlanElement> testsLeft;
+    private final Deque<SingleInstrumentalTestCommand> pendingCommands = new ArrayDeque<>();
+    // Tests left after crash which are run by commands of adaptive size.
+    private final List<TestPlanElement> pendingTests = new ArrayList<>();
+    // Tests which were not run by finished instrumentation, for example when it failed to start.
+    private final List<TestPlanElement> skippedTests = new ArrayList<>();
+    private final List<TestXmlReportsGenerator> reports = new ArrayList<>();
+    private List<TestPlanElement> failedTests = Collections.emptyList();
+    private final List<SingleInstrumentalTestCommand> executedRetryCommands = new ArrayList<>();
+    @Nullable
+    private CancellationSignal cancellationSignal;
+    // Probe of crash isolation, its runs are not typical and are not recorded by adaptive batch sizer.
+    private boolean crashProbe;
 
     /**
      * Constructs test command.
@@ -102,11 +138,13 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
         this.testName = testReportSuffix;
         this.providedInstrumentationArgs = instrumentalArgs;
         this.xmlReportGeneratorDelegate = xmlReportGeneratorDelegate;
-        this.allPlannedTests = flattenTests(testForExecution);
+        this.testsForExecution = TestPlanCompressor.compress(testForExecution);
+        this.plannedTests = new PlannedTests(flattenTests(testForExecution));
+        this.testsLeft = plannedTests.getTestsLeft();
         this.instrumentationArgs = new HashMap<>(providedInstrumentationArgs);
         this.retryHandler = retryHandler;
 
-        initTestArgs(testForExecution);
+        initTestArgs(testsForExecution);
     }
 
     private static List<TestPlanElement> flattenTests(List<TestPlanElement> testForExecution) {
@@ -149,8 +187,11 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
     }
 
     private TestsCommandResult executeImpl(ConnectedDeviceWrapper targetDevice,
-                                           TestRunnerContext context) throws CommandExecutionException {
-        assert allPlannedTests.size() > 0;
+                                           TestRunnerContext context,
+                                           @Nullable CancellationSignal cancellationSignal)
+            throws CommandExecutionException {
+        TestPlanElement firstTest = plannedTests.getFirstTest();
+        assert firstTest != null;
         InstrumentalExtension instrumentationInfo = context.getInstrumentalInfo();
         Environment environment = context.getEnvironment();
 
@@ -165,24 +206,51 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
         // fallbackTest should be the first test to run in this plan.
         // This test will be marked as FAILED if native crash happens early.
         TestIdentifier fallbackTest = new TestIdentifier(
-                allPlannedTests.get(0).getClassName(), allPlannedTests.get(0).getMethodName());
+                firstTest.getClassName(), firstTest.getMethodName());
+
+        Map<String, String> runArgs = instrumentationArgs;
+        String remoteTestFile = null;
+        if (instrumentationInfo.isTestFileEnabled() && instrumentationArgs.containsKey(CLASS)) {
+            remoteTestFile = pushTestFile(targetDevice);
+            runArgs = new HashMap<>(instrumentationArgs);
+            runArgs.remove(CLASS);
+            runArgs.put(TEST_FILE, remoteTestFile);
+        }
 
         TestRunnerBuilder testRunnerBuilder = context.createTestRunnerBuilder(projectName,
                 testName,
                 fallbackTest,
-                instrumentationArgs,
+                runArgs,
                 targetDevice,
                 xmlReportGeneratorDelegate);
 
         String singleTestMethodPrefix = String.format("%s#%s", targetDevice.getName(), testName);
         TestXmlReportsGenerator testRunListener = testRunnerBuilder.getTestRunListener();
+        reports.add(testRunListener);
 
         TestTracker testTracker = new TestTracker(targetDevice.getLogger(), fallbackTest);
         ProcessCrashedException processCrashedException = null;
+        TestIdentifier crashedTest = null;
+        int plannedTestsCount = plannedTests.getTestsLeft().size();
+        long startTime = System.currentTimeMillis();
         try {
             RemoteAndroidTestRunner testRunner = testRunnerBuilder.getTestRunner();
             testRunner.setMaxTimeToOutputResponse(instrumentationInfo.getMaxTimeToOutputResponseInSeconds(), TimeUnit.SECONDS);
-            testRunner.run(testRunListener, testTracker);
+            if (instrumentationInfo.isProtoOutputEnabled() &&
+                    InstrumentationProtoReceiver.isSupported(targetDevice.getApiLevel())) {
+                runWithProtoOutput(targetDevice, instrumentationInfo, testRunner, cancellationSignal,
+                        testRunListener, testTracker);
+            } else {
+                if (cancellationSignal != null) {
+                    cancellationSignal.setOnCancelListener(testRunner::cancel);
+                }
+                testRunner.run(testRunListener, testTracker);
+            }
+            if (isCancelled(cancellationSignal)) {
+                flushCancelledRun(testRunListener, cancellationSignal);
+                return new TestsCommandResult(testTracker.failedTests, null,
+                        new ArrayList<>(testTracker.finishedTests), null);
+            }
 
             assert testRunListener.getRunResult().getNumAllFailedTests()
                     == testTracker.failedTests.size() :
@@ -192,14 +260,27 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
                             testTracker.failedTests.size();
 
             if (instrumentationInfo.isCoverageEnabled()) {
-                targetDevice.pullCoverageFile(instrumentationInfo,
-                        singleTestMethodPrefix,
-                        testRunnerBuilder.getCoverageFile(),
-                        environment.getCoverageDir());
+                // next command doesn't wait for coverage, the run waits for all transfers when finished
+                String coverageFile = testRunnerBuilder.getCoverageFile();
+                File coverageDir = environment.getCoverageDir();
+                // files are merged in queues of devices, so devices merge their coverage in parallel
+                CoverageAggregator aggregator = instrumentationInfo.isCoverageMergeEnabled() ?
+                        context.getCoverageAggregator() : null;
+                int deviceType = aggregator != null ?
+                        context.getDeviceTypeAdapter().provideDeviceType(targetDevice) : 0;
+                context.getArtifactQueue(targetDevice).submit("coverage of " + singleTestMethodPrefix,
+                        () -> {
+                            File localCoverageFile = targetDevice.streamCoverageFile(instrumentationInfo,
+                                    singleTestMethodPrefix, coverageFile, coverageDir);
+                            if (aggregator != null) {
+                                aggregator.add(deviceType, localCoverageFile);
+                            }
+                        });
             }
         } catch (ProcessCrashedException e) {
             processCrashedException = e;
             TestIdentifier currentTest = testRunListener.getCurrentTest();
+            crashedTest = currentTest != null ? currentTest : fallbackTest;
             String failMessage = context.getProcessCrashedHandler()
                     .provideFailMessageOnProcessCrashed(targetDevice, currentTest);
             testRunListener.failLastTest(failMessage);
@@ -207,9 +288,183 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             testRunListener.testRunEnded(0, new HashMap<>());
         } catch (Throwable e) {
             throw new CommandExecutionException("SingleInstrumentalTestCommand.execute failed:", e);
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            if (remoteTestFile != null) {
+                removeTestFile(targetDevice, remoteTestFile);
+            }
+        }
+
+        List<TestPlanElement> executedTests = new ArrayList<>(testTracker.finishedTests);
+        if (instrumentationInfo.isAdaptiveBatchSizeEnabled() && !crashProbe) {
+            recordBatchStats(targetDevice.getSerialNumber(), context.getAdaptiveBatchSizer(),
+                    plannedTestsCount, executedTests, startTime, testTracker.firstTestStartTime, crashedTest);
+        }
+        return new TestsCommandResult(testTracker.failedTests, processCrashedException, executedTests,
+                crashedTest != null ? plannedTests.find(crashedTest) : null);
+    }
+
+    /**
+     * Stores startup time and crashes of this command.
+     *
+     * @param commandSize   count of tests which were not executed before command start.
+     * @param executedTests tests which were executed by command.
+     * @param crashedTest   test which was running when process crashed or null.
+     */
+    private static void recordBatchStats(String device, AdaptiveBatchSizer batchSizer, int commandSize,
+                                         List<TestPlanElement> executedTests,
+                                         long startTime, long firstTestStartTime,
+                                         @Nullable TestIdentifier crashedTest) {
+        if (firstTestStartTime > 0) {
+            batchSizer.recordTimings(device, firstTestStartTime - startTime, executedTests.size(),
+                    System.currentTimeMillis() - firstTestStartTime);
+        }
+        if (crashedTest == null) {
+            batchSizer.recordStableRun(device, executedTests);
+            return;
+        }
+        String crashedPackage = AdaptiveBatchSizer.packageName(crashedTest.getClassName());
+        int executedInPackage = 0;
+        for (TestPlanElement test : executedTests) {
+            if (crashedPackage.equals(AdaptiveBatchSizer.packageName(test.getClassName()))) {
+                executedInPackage++;
+            }
+        }
+        batchSizer.recordCrash(device, crashedTest.getClassName(), executedInPackage, commandSize);
+    }
+
+    /**
+     * Executes instrumentation command of test runner with protobuf output instead of text output.
+     */
+    private static void runWithProtoOutput(ConnectedDeviceWrapper targetDevice,
+                                           InstrumentalExtension instrumentationInfo,
+                                           RemoteAndroidTestRunner testRunner,
+                                           @Nullable CancellationSignal cancellationSignal,
+                                           ITestRunListener... listeners) throws Exception {
+        String command = toProtoOutputCommand(testRunner.getAmInstrumentCommand());
+        InstrumentationProtoResultParser parser = new InstrumentationProtoResultParser(
+                testRunner.getPackageName(), Arrays.asList(listeners));
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(parser::cancel);
+        }
+        try {
+            targetDevice.executeShellCommand(command, parser, 0,
+                    instrumentationInfo.getMaxTimeToOutputResponseInSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException | ShellCommandUnresponsiveException | AdbCommandRejectedException | IOException e) {
+            parser.handleTestRunFailed("Failed to receive adb shell test output: " + e.getMessage());
+            throw e;
+        }
+        parser.done();
+    }
+
+    /**
+     * Replaces raw text output flag "-r" of "am instrument" command built by ddmlib with proto output flag "-m".
+     *
+     * @throws CommandExecutionException when command has unknown format, so text output would be
+     *                                   passed to proto parser.
+     */
+    static String toProtoOutputCommand(String amInstrumentCommand) throws CommandExecutionException {
+        Matcher matcher = RAW_OUTPUT_COMMAND.matcher(amInstrumentCommand);
+        if (!matcher.lookingAt()) {
+            throw new CommandExecutionException("Can't switch output of command to proto format: " +
+                    amInstrumentCommand);
         }
+        return matcher.replaceFirst("$1-m ");
+    }
+
+    /**
+     * Sets signal which cancels this command instead of cancellation signal of device,
+     * for example signal of single batch execution.
+     */
+    void setCancellationSignal(@Nullable CancellationSignal cancellationSignal) {
+        this.cancellationSignal = cancellationSignal;
+    }
 
-        return new TestsCommandResult(testTracker.failedTests, processCrashedException);
+    @Nullable
+    private CancellationSignal getCancellationSignal(ConnectedDeviceWrapper targetDevice,
+                                                     TestRunnerContext context) {
+        return cancellationSignal != null ? cancellationSignal : context.getCancellationSignal(targetDevice);
+    }
+
+    /**
+     * Removes xml reports of executed tests, including reports of retry commands,
+     * when results of this command should be ignored.
+     */
+    void discardReports() {
+        for (TestXmlReportsGenerator report : reports) {
+            report.discardReport();
+        }
+        for (SingleInstrumentalTestCommand retryCommand : executedRetryCommands) {
+            retryCommand.discardReports();
+        }
+    }
+
+    /**
+     * Writes tests from "class" argument to file, one test per line, and pushes it to device.
+     *
+     * @return path of file on device.
+     */
+    private String pushTestFile(ConnectedDeviceWrapper targetDevice) throws CommandExecutionException {
+        String remotePath = TEST_FILE_DIR + String.format("testFile-%s-%s.txt", projectName, testName)
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        File localFile = null;
+        try {
+            localFile = File.createTempFile("testFile", ".txt");
+            Files.write(localFile.toPath(), Arrays.asList(instrumentationArgs.get(CLASS).split(",")),
+                    StandardCharsets.UTF_8);
+            targetDevice.pushFile(localFile.getAbsolutePath(), remotePath);
+        } catch (IOException e) {
+            throw new CommandExecutionException("Can't create test file", e);
+        } finally {
+            if (localFile != null && !localFile.delete()) {
+                localFile.deleteOnExit();
+            }
+        }
+        return remotePath;
+    }
+
+    private static void removeTestFile(ConnectedDeviceWrapper targetDevice, String remotePath) {
+        try {
+            targetDevice.executeShellCommand("rm -f " + remotePath);
+        } catch (CommandExecutionException e) {
+            targetDevice.getLogger().w(TAG, "Can't remove test file {}: {}", remotePath, e.getMessage());
+        }
+    }
+
+    /**
+     * Splits command to several commands when "class" argument is longer than limit of
+     * "am instrument" arguments, is used when test file is not supported by test runner.
+     */
+    private List<SingleInstrumentalTestCommand> splitByArgumentLimit() {
+        List<List<TestPlanElement>> parts = TestPlanSplitter.splitByArgumentLimit(testsForExecution);
+        if (parts.size() <= 1) {
+            return Collections.singletonList(this);
+        }
+        List<SingleInstrumentalTestCommand> result = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            result.add(new SingleInstrumentalTestCommand(projectName,
+                    String.format("%s_part%d", testName, i),
+                    providedInstrumentationArgs, parts.get(i), xmlReportGeneratorDelegate,
+                    RetryHandler.FAIL_ON_CALL));
+        }
+        return result;
+    }
+
+    private static boolean isCancelled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCancelled();
+    }
+
+    /**
+     * Writes report with already executed tests when run was cancelled before instrumentation finished.
+     */
+    private static void flushCancelledRun(TestXmlReportsGenerator testRunListener,
+                                          CancellationSignal cancellationSignal) {
+        if (!testRunListener.getRunResult().isRunComplete()) {
+            testRunListener.testRunFailed("Tests run was cancelled: " + cancellationSignal.getReason());
+            testRunListener.testRunEnded(0, new HashMap<>());
+        }
     }
 
     @Override
@@ -217,18 +472,49 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             throws CommandExecutionException {
         RunnerLogger logger = targetDevice.getLogger();
 
-        Queue<SingleInstrumentalTestCommand> commands = new ArrayDeque<>();
+        Deque<SingleInstrumentalTestCommand> commands = pendingCommands;
+        commands.clear();
         commands.add(this);
+        pendingTests.clear();
+        skippedTests.clear();
 
         DeviceCommandResult result = new DeviceCommandResult();
         int counter = 0;
         List<TestPlanElement> failedTests = new ArrayList<>();
-        List<TestPlanElement> testsLeft = Collections.EMPTY_LIST;
-        while (!commands.isEmpty()) {
+        CancellationSignal cancellationSignal = getCancellationSignal(targetDevice, context);
+        boolean testFileEnabled = context.getInstrumentalInfo().isTestFileEnabled();
+        boolean adaptiveBatchSizeEnabled = context.getInstrumentalInfo().isAdaptiveBatchSizeEnabled();
+        boolean crashIsolationEnabled = context.getInstrumentalInfo().isCrashIsolationEnabled();
+        while ((!commands.isEmpty() || !pendingTests.isEmpty()) && !isCancelled(cancellationSignal)) {
+            if (commands.isEmpty()) {
+                int batchSize = context.getAdaptiveBatchSizer()
+                        .nextBatchSize(targetDevice.getSerialNumber(), pendingTests);
+                List<TestPlanElement> batch = new ArrayList<>(pendingTests.subList(0, batchSize));
+                pendingTests.subList(0, batchSize).clear();
+                logger.i(TAG, "Run {} of {} tests left after crash", batch.size(),
+                        batch.size() + pendingTests.size());
+                commands.add(new SingleInstrumentalTestCommand(projectName,
+                        String.format("%s@%03d", testName, counter++),
+                        providedInstrumentationArgs, batch, xmlReportGeneratorDelegate,
+                        RetryHandler.FAIL_ON_CALL));
+            }
             SingleInstrumentalTestCommand command = commands.poll();
-            testsLeft = command.allPlannedTests;
+            if (!testFileEnabled) {
+                List<SingleInstrumentalTestCommand> parts = command.splitByArgumentLimit();
+                if (parts.size() > 1) {
+                    logger.i(TAG, "Tests argument is too long, split command to {} commands", parts.size());
+                    for (int i = parts.size() - 1; i >= 0; i--) {
+                        commands.addFirst(parts.get(i));
+                    }
+                    continue;
+                }
+            }
+            testsLeft = command.plannedTests.getTestsLeft();
             int lastSize = testsLeft.size();
-            TestsCommandResult testsResult = command.executeImpl(targetDevice, context);
+            TestsCommandResult testsResult = command.executeImpl(targetDevice, context, cancellationSignal);
+            if (command != this) {
+                reports.addAll(command.reports);
+            }
             failedTests.addAll(testsResult.failedTests);
             if (!testsResult.failedTests.isEmpty()) {
                 result.setFailed(true);
@@ -236,25 +522,42 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             if (testsResult.processCrashedException != null) {
                 logger.e(TAG, "Process crashed", testsResult.processCrashedException);
 
+                // crash handler can clear or reinstall application with coverage of previous commands
+                context.awaitArtifacts(targetDevice);
                 context.getProcessCrashedHandler().onAfterProcessCrashed(targetDevice, context);
 
-                String newTestName = String.format("%s@%03d", testName, counter++);
+                if (crashIsolationEnabled && testsResult.crashedTest != null) {
+                    isolateCrash(targetDevice, context, testsResult.executedTests, testsResult.crashedTest,
+                            cancellationSignal);
+                }
                 if (!testsLeft.isEmpty()) {
-                    logger.i(TAG, "{} tests left after crash, enqueuing 'left-over' command.",
-                            testsLeft.size());
                     assert lastSize > testsLeft.size() :
                             "Last size is " + lastSize + ", but left tests are " + testsLeft.size();
-
-                    commands.add(new SingleInstrumentalTestCommand(projectName, newTestName,
-                            providedInstrumentationArgs, testsLeft, xmlReportGeneratorDelegate,
-                            // They aren't supposed to be called. Let's protect them.
-                            RetryHandler.FAIL_ON_CALL));
+                    if (adaptiveBatchSizeEnabled) {
+                        logger.i(TAG, "{} tests left after crash, enqueuing them to adaptive batches.",
+                                testsLeft.size());
+                        // tests of crashed command are run before other pending tests
+                        pendingTests.addAll(0, testsLeft);
+                    } else {
+                        logger.i(TAG, "{} tests left after crash, enqueuing 'left-over' command.",
+                                testsLeft.size());
+                        commands.add(new SingleInstrumentalTestCommand(projectName,
+                                String.format("%s@%03d", testName, counter++),
+                                providedInstrumentationArgs, new ArrayList<>(testsLeft), xmlReportGeneratorDelegate,
+                                // They aren't supposed to be called. Let's protect them.
+                                RetryHandler.FAIL_ON_CALL));
+                    }
+                    testsLeft = Collections.emptyList();
                 }
+            } else if (!testsLeft.isEmpty() && !isCancelled(cancellationSignal)) {
+                skippedTests.addAll(testsLeft);
+                testsLeft = Collections.emptyList();
             }
         }
 
-        if (!testsLeft.isEmpty()) {
-            logger.w(TAG, "Some tests left unrun: {}", testsLeft);
+        List<TestPlanElement> unrunTests = getTestsLeft();
+        if (!unrunTests.isEmpty()) {
+            logger.w(TAG, "Some tests left unrun: {}", unrunTests);
         }
 
         if (result.isFailed()) {
@@ -263,15 +566,59 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             assert failedTests.isEmpty() : "Tests run was successful, but failed tests found";
         }
 
-        if (result.isFailed()) {
+        if (result.isFailed() && !isCancelled(cancellationSignal)) {
             logger.i(TAG, "{} tests failed during command = {}. " +
                     "Will attempt to rerun them", failedTests.size(), this);
             retryFailedTests(targetDevice, context, failedTests, result);
         }
+        this.failedTests = result.isFailed() ? failedTests : Collections.emptyList();
 
         return result;
     }
 
+    /**
+     * Finds tests which crash process by bisecting tests executed before crash, found tests are
+     * added to {@link CrashQuarantine}. Every probe is executed by separate command, reports of
+     * probes are discarded.
+     */
+    private void isolateCrash(ConnectedDeviceWrapper targetDevice, TestRunnerContext context,
+                              List<TestPlanElement> executedTests, TestPlanElement crashedTest,
+                              @Nullable CancellationSignal cancellationSignal) throws CommandExecutionException {
+        RunnerLogger logger = targetDevice.getLogger();
+        CrashQuarantine quarantine = context.getCrashQuarantine();
+        if (quarantine.isQuarantined(crashedTest)) {
+            logger.i(TAG, "Test {} is already quarantined", crashedTest);
+            return;
+        }
+        AtomicInteger probeIndex = new AtomicInteger();
+        CrashBisector bisector = new CrashBisector(tests -> {
+            if (isCancelled(cancellationSignal)) {
+                return false;
+            }
+            SingleInstrumentalTestCommand probe = new SingleInstrumentalTestCommand(projectName,
+                    String.format("%s_bisect%02d", testName, probeIndex.getAndIncrement()),
+                    providedInstrumentationArgs, tests, xmlReportGeneratorDelegate, RetryHandler.FAIL_ON_CALL);
+            probe.crashProbe = true;
+            TestsCommandResult result = probe.executeImpl(targetDevice, context, cancellationSignal);
+            probe.discardReports();
+            if (result.processCrashedException == null) {
+                return false;
+            }
+            context.awaitArtifacts(targetDevice);
+            context.getProcessCrashedHandler().onAfterProcessCrashed(targetDevice, context);
+            return true;
+        });
+        logger.i(TAG, "Bisect {} tests executed before crash of {}", executedTests.size(), crashedTest);
+        List<TestPlanElement> crashingTests = bisector.findCrashingTests(executedTests, crashedTest);
+        if (crashingTests == null) {
+            logger.w(TAG, "Crash of {} was not reproduced by {} runs", crashedTest, bisector.getProbesCount());
+            return;
+        }
+        logger.w(TAG, "Tests {} crash process, found by {} runs. They are added to quarantine",
+                crashingTests, bisector.getProbesCount());
+        quarantine.add(crashingTests);
+    }
+
     private void retryFailedTests(
             ConnectedDeviceWrapper targetDevice, TestRunnerContext context,
             List<TestPlanElement> failedTests,
@@ -288,6 +635,13 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
 
         DeviceCommandResult retryResult = new DeviceCommandResult();
         for (DeviceRunnerCommand command : commands) {
+            if (command instanceof SingleInstrumentalTestCommand) {
+                SingleInstrumentalTestCommand retryCommand = (SingleInstrumentalTestCommand) command;
+                if (cancellationSignal != null) {
+                    retryCommand.setCancellationSignal(cancellationSignal);
+                }
+                executedRetryCommands.add(retryCommand);
+            }
             String commandString = command.toString();
             logger.i(TAG, "Before executing retry-command = {}", commandString);
             if (command.execute(targetDevice, context).isFailed()) {
@@ -304,6 +658,29 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
         }
     }
 
+    /**
+     * @return tests which were not executed yet, for example when device became offline
+     * during {@link #execute(ConnectedDeviceWrapper, TestRunnerContext)} or instrumentation
+     * finished without running them.
+     */
+    public List<TestPlanElement> getTestsLeft() {
+        List<TestPlanElement> result = new ArrayList<>(skippedTests);
+        result.addAll(testsLeft);
+        for (SingleInstrumentalTestCommand command : pendingCommands) {
+            result.addAll(command.plannedTests.getTestsLeft());
+        }
+        result.addAll(pendingTests);
+        return result;
+    }
+
+    /**
+     * @return tests which failed during {@link #execute(ConnectedDeviceWrapper, TestRunnerContext)},
+     * empty if all tests passed or failed tests passed on retry.
+     */
+    public List<TestPlanElement> getFailedTests() {
+        return new ArrayList<>(failedTests);
+    }
+
     @Override
     public String toString() {
         return "SingleInstrumentalTestCommand{ " + instrumentationArgs + " }";
@@ -320,6 +697,9 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
         @CheckForNull
         private TestIdentifier currentTest;
         private boolean isCurrentTestFailed;
+        long firstTestStartTime;
+        // Planned tests in order of execution.
+        final Set<TestPlanElement> finishedTests = new LinkedHashSet<>();
 
         TestTracker(RunnerLogger logger, @CheckForNull TestIdentifier fallbackTest) {
             this.logger = logger;
@@ -328,6 +708,9 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
 
         @Override
         public void testStarted(@CheckForNull TestIdentifier test) {
+            if (firstTestStartTime == 0) {
+                firstTestStartTime = System.currentTimeMillis();
+            }
             isCurrentTestFailed = false;
             currentTest = test;
         }
@@ -339,12 +722,11 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             if (test == null) {
                 return;
             }
-            String methodName = getTestMethodName(test);
-            boolean removed = allPlannedTests.removeIf(
-                    plan -> isPlanForTest(plan, test, methodName));
-            if (!removed) {
+            if (!plannedTests.finish(test)) {
                 logger.w(TAG, "Test '{}' '{}' was not planned to be run but did.",
-                        test.getClassName(), methodName);
+                        test.getClassName(), test.getTestName());
+            } else {
+                finishedTests.add(plannedTests.find(test));
             }
         }
 
@@ -355,29 +737,13 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
             }
             isCurrentTestFailed = true;
 
-            String methodName = getTestMethodName(test);
-            Stream<TestPlanElement> failedTestStream = allPlannedTests.stream()
-                    .filter(plan -> isPlanForTest(plan, test, methodName));
-            Optional<TestPlanElement> failedTestPlan = failedTestStream.findFirst();
-            assert failedTestPlan.isPresent() :
+            TestPlanElement failedTestPlan = plannedTests.find(test);
+            assert failedTestPlan != null :
                     "Test plan for test {" + test.getClassName() +
-                            "#" + methodName + "} wasn't found";
-            failedTests.add(failedTestPlan.get());
-        }
-
-        @NotNull
-        private String getTestMethodName(@NotNull TestIdentifier test) {
-            String methodName = test.getTestName();
-            if (methodName.indexOf('[') > 0) {
-                methodName = methodName.substring(0, test.getTestName().indexOf('['));
+                            "#" + test.getTestName() + "} wasn't found";
+            if (failedTestPlan != null) {
+                failedTests.add(failedTestPlan);
             }
-            return methodName;
-        }
-
-        private boolean isPlanForTest(TestPlanElement plan,
-                                      TestIdentifier test, String methodName) {
-            return Objects.equals(plan.getClassName(), test.getClassName()) &&
-                    Objects.equals(plan.getMethodName(), methodName);
         }
 
         void failLastTest(String failMessage) {
@@ -390,11 +756,18 @@ public class SingleInstrumentalTestCommand implements DeviceRunnerCommand {
         final List<TestPlanElement> failedTests;
         @Nullable
         final ProcessCrashedException processCrashedException;
+        final List<TestPlanElement> executedTests;
+        @Nullable
+        final TestPlanElement crashedTest;
 
         TestsCommandResult(List<TestPlanElement> failedTests,
-                           @Nullable ProcessCrashedException processCrashedException) {
+                           @Nullable ProcessCrashedException processCrashedException,
+                           List<TestPlanElement> executedTests,
+                           @Nullable TestPlanElement crashedTest) {
             this.failedTests = failedTests;
             this.processCrashedException = processCrashedException;
+            this.executedTests = executedTests;
+            this.crashedTest = crashedTest;
             assert processCrashedException == null || !failedTests.isEmpty() :
                     "Process crashed, but no failed tests found";
         }
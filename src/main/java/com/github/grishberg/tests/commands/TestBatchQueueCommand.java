@@ -0,0 +1,336 @@
+package com.github.grishberg.tests.commands;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.CancellationSignal;
+import com.github.grishberg.tests.CommandsForAnnotationProvider;
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.TestRunnerContext;
+import com.github.grishberg.tests.XmlReportGeneratorDelegate;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.exceptions.DeviceOfflineException;
+import com.github.grishberg.tests.planner.AnnotationIndex;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.sharding.TestBatch;
+import com.github.grishberg.tests.sharding.TestBatchQueue;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes test batches from shared {@link TestBatchQueue} and executes them on device
+ * until the queue is empty. With speculative execution idle device duplicates the longest
+ * running batch, results of the copy which finished first are kept.
+ * Failed tests can be returned to the queue to be retried on other devices.
+ * Device waits until the queue is drained, because tests of batches running on other devices
+ * can be returned to the queue.
+ */
+public class TestBatchQueueCommand implements DeviceRunnerCommand {
+    private static final String TAG = TestBatchQueueCommand.class.getSimpleName();
+    private static final long WAIT_FOR_RETRY_INTERVAL_MS = 1000;
+    private final String projectName;
+    private final Map<String, String> instrumentalArgs;
+    private final TestBatchQueue queue;
+    private final CommandsForAnnotationProvider commandsForAnnotationProvider;
+    @Nullable
+    private final AnnotationIndex annotationIndex;
+
+    public TestBatchQueueCommand(String projectName,
+                                 Map<String, String> instrumentalArgs,
+                                 TestBatchQueue queue,
+                                 CommandsForAnnotationProvider commandsForAnnotationProvider) {
+        this(projectName, instrumentalArgs, queue, commandsForAnnotationProvider, null);
+    }
+
+    /**
+     * @param annotationIndex index of test plan of queue, lets commands be requested only for
+     *                        tests selected by provider, see {@link TestSegments}.
+     */
+    public TestBatchQueueCommand(String projectName,
+                                 Map<String, String> instrumentalArgs,
+                                 TestBatchQueue queue,
+                                 CommandsForAnnotationProvider commandsForAnnotationProvider,
+                                 @Nullable AnnotationIndex annotationIndex) {
+        this.projectName = projectName;
+        this.instrumentalArgs = instrumentalArgs;
+        this.queue = queue;
+        this.commandsForAnnotationProvider = commandsForAnnotationProvider;
+        this.annotationIndex = annotationIndex;
+    }
+
+    @Override
+    public DeviceCommandResult execute(ConnectedDeviceWrapper device, TestRunnerContext context)
+            throws CommandExecutionException {
+        RunnerLogger logger = device.getLogger();
+        DeviceCommandResult result = new DeviceCommandResult();
+        InstrumentalExtension instrumentalInfo = context.getInstrumentalInfo();
+        boolean speculativeExecutionEnabled = instrumentalInfo.isSpeculativeExecutionEnabled();
+        int retryCount = instrumentalInfo.getDynamicShardingRetryCount();
+        int executedBatches = 0;
+        String deviceName = device.getName();
+        CancellationSignal deviceCancellationSignal = context.getCancellationSignal(device);
+        CancellationSignal batchCancellationSignal = null;
+        queue.registerDevice(deviceName);
+        try {
+            while (!isCancelled(deviceCancellationSignal)) {
+                if (batchCancellationSignal == null) {
+                    batchCancellationSignal = deviceCancellationSignal != null ?
+                            deviceCancellationSignal.createChild() : new CancellationSignal();
+                }
+                TestBatch batch = queue.poll(deviceName, batchCancellationSignal);
+                if (batch != null) {
+                    logger.i(TAG, "Took {}, {} batches left in queue", batch, queue.size());
+                } else if (speculativeExecutionEnabled &&
+                        (batch = queue.pollStraggler(batchCancellationSignal)) != null) {
+                    logger.i(TAG, "Queue is empty, duplicate running {}", batch);
+                } else if (!queue.isDrained()) {
+                    // tests of running batches can be returned to queue when they fail,
+                    // are not run or device becomes offline
+                    queue.awaitChanges(WAIT_FOR_RETRY_INTERVAL_MS);
+                    continue;
+                } else {
+                    break;
+                }
+                if (executeBatch(device, context, batch, batchCancellationSignal, retryCount)) {
+                    result.setFailed(true);
+                }
+                batchCancellationSignal = null;
+                executedBatches++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException("Waiting for test batches was interrupted", e);
+        } finally {
+            queue.unregisterDevice(deviceName);
+        }
+        logger.i(TAG, "Queue is empty, {} batches were executed on device", executedBatches);
+        return result;
+    }
+
+    /**
+     * @return true if batch has failed tests which won't be retried and its results were kept.
+     */
+    private boolean executeBatch(ConnectedDeviceWrapper device,
+                                 TestRunnerContext context,
+                                 TestBatch batch,
+                                 CancellationSignal cancellationSignal,
+                                 int retryCount) throws CommandExecutionException {
+        RunnerLogger logger = device.getLogger();
+        List<DeviceRunnerCommand> commands = provideCommandsForBatch(batch, cancellationSignal,
+                context, logger);
+        boolean failed = false;
+        try {
+            for (DeviceRunnerCommand command : commands) {
+                if (cancellationSignal.isCancelled()) {
+                    break;
+                }
+                // failed tests are handled after batch is finished
+                if (command.execute(device, context).isFailed() &&
+                        !(command instanceof SingleInstrumentalTestCommand)) {
+                    failed = true;
+                }
+            }
+        } catch (Throwable e) {
+            // batch is released in any case, otherwise other devices wait for it until the run timeout
+            boolean online = device.isOnline();
+            if (queue.abandon(batch, cancellationSignal)) {
+                List<TestPlanElement> testsLeft = getTestsLeft(commands);
+                logger.w(TAG, "{} failed, return {} tests to queue", batch, testsLeft.size());
+                queue.returnTests(testsLeft);
+            } else {
+                discardReports(commands);
+            }
+            if (!online) {
+                throw new DeviceOfflineException("Device became offline while executing " + batch, e);
+            }
+            throw e;
+        }
+        boolean cancelled = cancellationSignal.isCancelled();
+        boolean keepResults = cancelled ?
+                queue.abandon(batch, cancellationSignal) : queue.finish(batch, cancellationSignal);
+        if (!keepResults) {
+            logger.i(TAG, "{} was finished on another device, discard results", batch);
+            discardReports(commands);
+            return false;
+        }
+        if (!returnTestsLeft(device, batch, getTestsLeft(commands), cancelled)) {
+            failed = true;
+        }
+        List<TestPlanElement> failedTests = getFailedTests(commands);
+        if (failedTests.isEmpty()) {
+            return failed;
+        }
+        if (batch.getAttempt() < retryCount && !cancellationSignal.isCancelled()) {
+            logger.i(TAG, "{} tests failed in {}, return them to queue for retry {} of {}",
+                    failedTests.size(), batch, batch.getAttempt() + 1, retryCount);
+            queue.retryTests(failedTests, batch, device.getName());
+            return failed;
+        }
+        return true;
+    }
+
+    /**
+     * Returns tests which were planned in batch but were not finished, for example when
+     * execution was cancelled or instrumentation failed without running tests.
+     *
+     * @return false when tests were not returned because attempts to run them are over,
+     * so batch is failed and tests are not lost silently.
+     */
+    private boolean returnTestsLeft(ConnectedDeviceWrapper device, TestBatch batch,
+                                 List<TestPlanElement> testsLeft, boolean cancelled) {
+        RunnerLogger logger = device.getLogger();
+        if (testsLeft.isEmpty()) {
+            return true;
+        }
+        if (cancelled) {
+            logger.w(TAG, "{} was cancelled, return {} tests to queue", batch, testsLeft.size());
+            queue.returnTests(testsLeft);
+            return true;
+        }
+        if (queue.returnUnrunTests(testsLeft, batch, device.getName())) {
+            logger.w(TAG, "{} tests of {} were not run, return them to queue", testsLeft.size(), batch);
+            return true;
+        }
+        logger.e(TAG, String.format("%d tests of %s were not run on devices %s, batch is failed: %s",
+                testsLeft.size(), batch, batch.getPreviousAttemptDevices(), testsLeft));
+        return false;
+    }
+
+    private static List<TestPlanElement> getFailedTests(List<DeviceRunnerCommand> commands) {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (DeviceRunnerCommand command : commands) {
+            if (command instanceof SingleInstrumentalTestCommand) {
+                result.addAll(((SingleInstrumentalTestCommand) command).getFailedTests());
+            }
+        }
+        return result;
+    }
+
+    private static void discardReports(List<DeviceRunnerCommand> commands) {
+        for (DeviceRunnerCommand command : commands) {
+            if (command instanceof SingleInstrumentalTestCommand) {
+                ((SingleInstrumentalTestCommand) command).discardReports();
+            }
+        }
+    }
+
+    private static List<TestPlanElement> getTestsLeft(List<DeviceRunnerCommand> commands) {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (DeviceRunnerCommand command : commands) {
+            if (command instanceof SingleInstrumentalTestCommand) {
+                result.addAll(((SingleInstrumentalTestCommand) command).getTestsLeft());
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCancelled(@Nullable CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCancelled();
+    }
+
+    /**
+     * Quarantined tests of batch are run after other tests by separate commands,
+     * see {@link CrashQuarantine}.
+     */
+    private List<DeviceRunnerCommand> provideCommandsForBatch(TestBatch batch,
+                                                              CancellationSignal cancellationSignal,
+                                                              TestRunnerContext context,
+                                                              RunnerLogger logger) {
+        InstrumentalExtension instrumentalInfo = context.getInstrumentalInfo();
+        List<DeviceRunnerCommand> commands = new ArrayList<>();
+        List<TestPlanElement> tests = batch.getTests();
+        List<List<TestPlanElement>> isolatedRuns = Collections.emptyList();
+        CrashQuarantine crashQuarantine = context.getCrashQuarantine();
+        if (instrumentalInfo.isCrashIsolationEnabled() && !crashQuarantine.isEmpty()) {
+            isolatedRuns = crashQuarantine.provideIsolatedRuns(tests);
+            tests = CrashQuarantine.removeIsolatedTests(tests, isolatedRuns);
+        }
+        TestSegments testSegments = new TestSegments(tests, commandsForAnnotationProvider, annotationIndex);
+        List<TestSegments.Segment> segments = testSegments.split();
+        if (instrumentalInfo.isGroupTestsByPreconditionsEnabled()) {
+            int splitCount = segments.size();
+            segments = testSegments.group();
+            logger.i(TAG, "Tests of {} are grouped by preconditions, {} of {} am instrument commands are saved",
+                    batch, splitCount - segments.size(), splitCount);
+        }
+        int testIndex = 0;
+        for (TestSegments.Segment segment : segments) {
+            commands.addAll(segment.getPreconditions());
+            commands.add(createTestCommand(batch, testIndex++, segment.getTests(), cancellationSignal));
+        }
+        if (instrumentalInfo.isSkipQuarantinedTests()) {
+            if (!isolatedRuns.isEmpty()) {
+                logger.w(TAG, "Quarantined tests of {} are skipped: {}", batch, isolatedRuns);
+            }
+            return commands;
+        }
+        int quarantinedIndex = 0;
+        for (List<TestPlanElement> isolatedRun : isolatedRuns) {
+            for (TestPlanElement test : isolatedRun) {
+                commands.addAll(commandsForAnnotationProvider.provideCommand(test.getAnnotations()));
+            }
+            QuarantinedTestsCommand command = new QuarantinedTestsCommand(projectName,
+                    String.format("%s_quarantined_%d", batch.getName(), quarantinedIndex++),
+                    instrumentalArgs,
+                    isolatedRun,
+                    createXmlReportDelegate(batch),
+                    crashQuarantine);
+            command.setCancellationSignal(cancellationSignal);
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private SingleInstrumentalTestCommand createTestCommand(TestBatch batch, int index,
+                                                            List<TestPlanElement> planList,
+                                                            CancellationSignal cancellationSignal) {
+        SingleInstrumentalTestCommand command = new SingleInstrumentalTestCommand(projectName,
+                String.format("%s_%d", batch.getName(), index),
+                instrumentalArgs,
+                planList,
+                createXmlReportDelegate(batch),
+                SingleInstrumentalTestCommand.RetryHandler.NOOP);
+        command.setCancellationSignal(cancellationSignal);
+        return command;
+    }
+
+    private static XmlReportGeneratorDelegate createXmlReportDelegate(TestBatch batch) {
+        return batch.getAttempt() > 0 ? new RetryAttemptXmlReportDelegate(batch) :
+                XmlReportGeneratorDelegate.STUB.INSTANCE;
+    }
+
+    @Override
+    public String toString() {
+        return "TestBatchQueueCommand{ " + instrumentalArgs + " }";
+    }
+
+    /**
+     * Adds number of retry attempt and devices of previous attempts to xml report.
+     */
+    private static class RetryAttemptXmlReportDelegate implements XmlReportGeneratorDelegate {
+        private final Map<String, String> properties = new HashMap<>();
+
+        RetryAttemptXmlReportDelegate(TestBatch batch) {
+            properties.put("retryAttempt", String.valueOf(batch.getAttempt()));
+            properties.put("previousAttemptDevices", String.join(",", batch.getPreviousAttemptDevices()));
+        }
+
+        @NotNull
+        @Override
+        public Map<String, String> provideProperties() {
+            return properties;
+        }
+
+        @NotNull
+        @Override
+        public Map<String, String> provideAdditionalAttributesForTest(@NotNull TestIdentifier testId) {
+            return new HashMap<>();
+        }
+    }
+}
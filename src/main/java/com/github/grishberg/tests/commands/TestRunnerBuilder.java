@@ -6,14 +6,17 @@ import com.android.utils.ILogger;
 import com.github.grishberg.tests.*;
 import com.github.grishberg.tests.commands.reports.*;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.sharding.TestDurationHistory;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.Map;
 
 /**
  * Helper class builds RemoteAndroidTestRunner.
  */
 public class TestRunnerBuilder {
+    private static final String TAG = TestRunnerBuilder.class.getSimpleName();
     private final RemoteAndroidTestRunner runner;
     private final String coverageFile;
     private final TestXmlReportsGenerator testRunListener;
@@ -38,16 +41,19 @@ public class TestRunnerBuilder {
         for (Map.Entry<String, String> arg : instrumentationArgs.entrySet()) {
             runner.addInstrumentationArg(arg.getKey(), arg.getValue());
         }
+        // every command has own coverage file, because coverage is transferred in background
+        // while next command is running
         coverageFile = "/data/data/" + instrumentationInfo.getApplicationId()
-                + "/" + ConnectedDeviceWrapper.COVERAGE_FILE_NAME;
+                + "/" + testGroupPrefix.replaceAll("[^A-Za-z0-9._-]", "_")
+                + "-" + ConnectedDeviceWrapper.COVERAGE_FILE_NAME;
         if (instrumentationInfo.isCoverageEnabled()) {
             runner.addInstrumentationArg("coverage", "true");
             runner.addInstrumentationArg("coverageFile", coverageFile);
         }
 
         ScreenShotMaker screenShotMaker = getScreenShotMaker(context.getScreenshotRelation(),
-                instrumentationInfo, targetDevice, environment, logger);
-        LogcatSaver logcatSaver = getLogcatSaver(instrumentationInfo, targetDevice, environment, logger);
+                instrumentationInfo, targetDevice, context, logger);
+        LogcatSaver logcatSaver = getLogcatSaver(instrumentationInfo, targetDevice, context, logger);
 
         runTestLogger = new RunTestLogger(logger);
 
@@ -61,26 +67,43 @@ public class TestRunnerBuilder {
                 logcatSaver,
                 xmlDelegate);
         testRunListener.setReportDir(environment.getResultsDir());
+        TestDurationHistory testDurationHistory = context.getTestDurationHistory();
+        if (testDurationHistory != null) {
+            testRunListener.setTestDurationHistory(testDurationHistory,
+                    context.getDeviceTypeAdapter().provideDeviceType(targetDevice));
+        }
     }
 
     private ScreenShotMaker getScreenShotMaker(Map<String, String> screenshotMap,
                                                InstrumentalExtension instrumentationInfo,
                                                ConnectedDeviceWrapper targetDevice,
-                                               Environment environment,
+                                               TestRunnerContext context,
                                                RunnerLogger logger) {
         if (instrumentationInfo.isMakeScreenshotsWhenFail()) {
-            return new ScreenShotMakerImpl(screenshotMap, environment.getReportsDir(), targetDevice,
-                    logger);
+            return new ScreenShotMakerImpl(screenshotMap, context.getEnvironment().getReportsDir(),
+                    targetDevice, logger, context.getArtifactQueue(targetDevice),
+                    targetDevice.isExecOutSupported());
         }
         return new EmptyScreenShotMaker();
     }
 
     private LogcatSaver getLogcatSaver(InstrumentalExtension instrumentationInfo,
                                        ConnectedDeviceWrapper targetDevice,
-                                       Environment environment,
+                                       TestRunnerContext context,
                                        RunnerLogger logger) {
+        if (instrumentationInfo.isSaveLogcat() && instrumentationInfo.isLogcatStreamingEnabled()) {
+            try {
+                LogcatStreamer streamer = context.getLogcatStreamer(targetDevice);
+                return new StreamingLogcatSaver(streamer, targetDevice.getName(),
+                        streamer.getLogFile().getParentFile(), logger);
+            } catch (IOException e) {
+                logger.e(TAG, "Can't stream logcat, logcat is saved when run ended", e);
+            }
+        }
         if (instrumentationInfo.isSaveLogcat()) {
-            return new LogcatSaverImpl(targetDevice, environment.getReportsDir(), logger);
+            return new LogcatSaverImpl(targetDevice, context.getEnvironment().getReportsDir(), logger,
+                    context.getLogcatFilter(targetDevice),
+                    instrumentationInfo.isLogcatCompressionEnabled());
         }
         return new EmptyLogcatSaver();
     }
@@ -0,0 +1,133 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.CommandsForAnnotationProvider;
+import com.github.grishberg.tests.IndexedCommandsForAnnotationProvider;
+import com.github.grishberg.tests.planner.AnnotationIndex;
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits tests to segments, every segment is executed by single "am instrument" command after
+ * precondition commands from {@link CommandsForAnnotationProvider}.
+ */
+public class TestSegments {
+    private final List<TestPlanElement> tests;
+    private final List<List<DeviceRunnerCommand>> preconditions;
+
+    /**
+     * Precondition commands are requested from provider once for every test.
+     */
+    public TestSegments(List<TestPlanElement> tests, CommandsForAnnotationProvider provider) {
+        this(tests, provider, null);
+    }
+
+    /**
+     * Precondition commands are requested from provider once for every test.
+     *
+     * @param annotationIndex index of test plan which contains tests, when provider is
+     *                        {@link IndexedCommandsForAnnotationProvider} commands are requested
+     *                        only for indexed tests selected by provider and for tests which are not indexed.
+     */
+    public TestSegments(List<TestPlanElement> tests, CommandsForAnnotationProvider provider,
+                        @Nullable AnnotationIndex annotationIndex) {
+        this.tests = tests;
+        preconditions = providePreconditions(tests, provider, annotationIndex);
+    }
+
+    /**
+     * Splits tests in original order: new segment is started for every test with precondition commands.
+     */
+    public List<Segment> split() {
+        List<Segment> segments = new ArrayList<>();
+        Segment currentSegment = null;
+        for (int i = 0; i < tests.size(); i++) {
+            List<DeviceRunnerCommand> commands = preconditions.get(i);
+            if (!commands.isEmpty() || currentSegment == null) {
+                currentSegment = new Segment(commands);
+                segments.add(currentSegment);
+            }
+            currentSegment.tests.add(tests.get(i));
+        }
+        return segments;
+    }
+
+    /**
+     * Groups tests to minimize count of "am instrument" commands:
+     * tests with equal precondition commands are executed in one segment after single execution
+     * of commands, tests without preconditions are added to segment with other tests of the same
+     * class or to the last segment, so they don't need own segment. Commands are merged only when
+     * they are equal, so commands without equals, like {@link ClearCommand}, are executed before
+     * every test which needs them.
+     */
+    public List<Segment> group() {
+        LinkedHashMap<List<DeviceRunnerCommand>, Segment> segments = new LinkedHashMap<>();
+        HashMap<String, Segment> segmentsByClass = new HashMap<>();
+        LinkedHashMap<String, List<TestPlanElement>> testsWithoutPreconditions = new LinkedHashMap<>();
+        for (int i = 0; i < tests.size(); i++) {
+            TestPlanElement test = tests.get(i);
+            List<DeviceRunnerCommand> commands = preconditions.get(i);
+            if (commands.isEmpty()) {
+                testsWithoutPreconditions.computeIfAbsent(test.getClassName(), c -> new ArrayList<>()).add(test);
+                continue;
+            }
+            Segment segment = segments.computeIfAbsent(commands, Segment::new);
+            segment.tests.add(test);
+            segmentsByClass.putIfAbsent(test.getClassName(), segment);
+        }
+
+        List<Segment> result = new ArrayList<>(segments.values());
+        if (result.isEmpty()) {
+            return split();
+        }
+        Segment lastSegment = result.get(result.size() - 1);
+        for (Map.Entry<String, List<TestPlanElement>> classTests : testsWithoutPreconditions.entrySet()) {
+            segmentsByClass.getOrDefault(classTests.getKey(), lastSegment).tests.addAll(classTests.getValue());
+        }
+        return result;
+    }
+
+    private static List<List<DeviceRunnerCommand>> providePreconditions(List<TestPlanElement> tests,
+                                                                       CommandsForAnnotationProvider provider,
+                                                                       @Nullable AnnotationIndex annotationIndex) {
+        BitSet testsWithCommands = null;
+        if (annotationIndex != null && provider instanceof IndexedCommandsForAnnotationProvider) {
+            testsWithCommands = ((IndexedCommandsForAnnotationProvider) provider)
+                    .selectTestsWithCommands(annotationIndex);
+        }
+        List<List<DeviceRunnerCommand>> result = new ArrayList<>(tests.size());
+        for (TestPlanElement test : tests) {
+            int ordinal = testsWithCommands != null ? annotationIndex.ordinalOf(test) : -1;
+            result.add(ordinal < 0 || testsWithCommands.get(ordinal) ?
+                    provider.provideCommand(test.getAnnotations()) : Collections.emptyList());
+        }
+        return result;
+    }
+
+    /**
+     * Tests which are executed by single "am instrument" command after precondition commands.
+     */
+    public static class Segment {
+        private final List<DeviceRunnerCommand> preconditions;
+        private final List<TestPlanElement> tests = new ArrayList<>();
+
+        private Segment(List<DeviceRunnerCommand> preconditions) {
+            this.preconditions = preconditions;
+        }
+
+        public List<DeviceRunnerCommand> getPreconditions() {
+            return preconditions;
+        }
+
+        public List<TestPlanElement> getTests() {
+            return tests;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.grishberg.tests.commands.reports;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Adds filter arguments to logcat command, so lines are filtered on device and are not
+ * transferred by adb: by uid of tested application, by allowed tags and by minimal priority.
+ */
+public class LogcatFilter {
+    public static final LogcatFilter NONE = new LogcatFilter(Collections.emptyList(), null, null);
+    private static final String TAG = LogcatFilter.class.getSimpleName();
+    // "logcat --uid" is available since Android 10.
+    private static final int MIN_API_LEVEL_FOR_UID_FILTER = 29;
+    private static final Pattern UID = Pattern.compile("^package:(\\S+) uid:(\\d+)", Pattern.MULTILINE);
+    private final List<String> tags;
+    @Nullable
+    private final String minPriority;
+    @Nullable
+    private final String uid;
+
+    /**
+     * @param tags        tags which are allowed, all tags are allowed when list is empty.
+     * @param minPriority one of V, D, I, W, E, F or null for all priorities.
+     * @param uid         uid of application or null for all processes.
+     */
+    public LogcatFilter(List<String> tags, @Nullable String minPriority, @Nullable String uid) {
+        this.tags = new ArrayList<>(tags);
+        this.minPriority = minPriority;
+        this.uid = uid;
+    }
+
+    /**
+     * Creates filter from logcat options of extension, uid of application is requested from device.
+     */
+    public static LogcatFilter create(InstrumentalExtension instrumentationInfo,
+                                      ConnectedDeviceWrapper device,
+                                      RunnerLogger logger) {
+        String uid = null;
+        if (instrumentationInfo.isLogcatAppOnly()) {
+            uid = requestApplicationUid(instrumentationInfo.getApplicationId(), device, logger);
+        }
+        List<String> tags = instrumentationInfo.getLogcatTags();
+        return new LogcatFilter(tags != null ? tags : Collections.emptyList(),
+                instrumentationInfo.getLogcatMinPriority(), uid);
+    }
+
+    /**
+     * @return logcat command with filter arguments.
+     */
+    public String apply(String logcatCommand) {
+        StringBuilder command = new StringBuilder(logcatCommand);
+        if (uid != null) {
+            command.append(" --uid=").append(uid);
+        }
+        if (tags.isEmpty()) {
+            if (minPriority != null) {
+                command.append(" *:").append(minPriority);
+            }
+            return command.toString();
+        }
+        String tagPriority = minPriority != null ? minPriority : "V";
+        for (String tag : tags) {
+            command.append(' ').append(tag).append(':').append(tagPriority);
+        }
+        return command.append(" *:S").toString();
+    }
+
+    @Nullable
+    private static String requestApplicationUid(String applicationId, ConnectedDeviceWrapper device,
+                                                RunnerLogger logger) {
+        int apiLevel = device.getApiLevel();
+        if (apiLevel < MIN_API_LEVEL_FOR_UID_FILTER) {
+            logger.w(TAG, "Logcat of {} is not filtered by application, API level {} is too low",
+                    device.getName(), apiLevel);
+            return null;
+        }
+        try {
+            String uid = parseUid(device.executeShellCommandAndReturnOutput(
+                    "pm list packages -U " + applicationId), applicationId);
+            if (uid == null) {
+                logger.w(TAG, "Uid of {} is not found on {}", applicationId, device.getName());
+            }
+            return uid;
+        } catch (CommandExecutionException e) {
+            logger.e(TAG, "Can't get uid of " + applicationId, e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds uid in output of "pm list packages -U", like "package:com.example uid:10123".
+     */
+    @Nullable
+    static String parseUid(String output, String applicationId) {
+        Matcher matcher = UID.matcher(output);
+        while (matcher.find()) {
+            if (applicationId.equals(matcher.group(1))) {
+                return matcher.group(2);
+            }
+        }
+        return null;
+    }
+}
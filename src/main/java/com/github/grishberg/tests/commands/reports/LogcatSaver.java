@@ -1,5 +1,7 @@
 package com.github.grishberg.tests.commands.reports;
 
+import com.android.ddmlib.testrunner.TestIdentifier;
+
 /**
  * Created by grishberg on 06.04.18.
  */
@@ -7,4 +9,19 @@ public interface LogcatSaver {
     void clearLogcat();
 
     void saveLogcat(String testName);
+
+    /**
+     * Called when test started, before any failure of test.
+     */
+    default void testStarted(TestIdentifier test) {
+        // logcat is saved by saveLogcat
+    }
+
+    default void testFailed(TestIdentifier test) {
+        // logcat is saved by saveLogcat
+    }
+
+    default void testEnded(TestIdentifier test) {
+        // logcat is saved by saveLogcat
+    }
 }
@@ -6,7 +6,12 @@ import com.github.grishberg.tests.common.RunnerLogger;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Saves logcat to report/logcat.
@@ -17,10 +22,23 @@ public class LogcatSaverImpl implements LogcatSaver {
     private final DeviceShellExecuter device;
     private final RunnerLogger logger;
     private final File logcatDir;
+    private final LogcatFilter filter;
+    private final boolean compressed;
 
     public LogcatSaverImpl(DeviceShellExecuter device, File reportsDir, RunnerLogger logger) {
+        this(device, reportsDir, logger, LogcatFilter.NONE, false);
+    }
+
+    /**
+     * @param filter     filter of logcat lines on device.
+     * @param compressed save logcat compressed by gzip.
+     */
+    public LogcatSaverImpl(DeviceShellExecuter device, File reportsDir, RunnerLogger logger,
+                           LogcatFilter filter, boolean compressed) {
         this.device = device;
         this.logger = logger;
+        this.filter = filter;
+        this.compressed = compressed;
 
         logcatDir = new File(reportsDir, OUT_DIR);
         if (!logcatDir.exists() && !logcatDir.mkdirs()) {
@@ -42,7 +60,7 @@ public class LogcatSaverImpl implements LogcatSaver {
     public void saveLogcat(String testName) {
         try {
             logger.i(TAG, "saveLogcat for {}", testName);
-            String logcat = device.executeShellCommandAndReturnOutput("logcat -v threadtime -d");
+            String logcat = device.executeShellCommandAndReturnOutput(filter.apply(LogcatStreamer.LOGCAT_COMMAND + " -d"));
             saveToFile(testName, logcat);
         } catch (CommandExecutionException e) {
             logger.e(TAG, "clearLogcat exception", e);
@@ -50,11 +68,18 @@ public class LogcatSaverImpl implements LogcatSaver {
     }
 
     private void saveToFile(String testName, String logcat) throws CommandExecutionException {
-        File outFile = new File(logcatDir, String.format("%s-%s.log", device.getName(), testName));
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outFile))) {
+        File outFile = new File(logcatDir, String.format("%s-%s.log%s", device.getName(), testName,
+                compressed ? ".gz" : ""));
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(openFile(outFile),
+                StandardCharsets.UTF_8))) {
             writer.write(logcat);
         } catch (Throwable e) {
             throw new CommandExecutionException(e);
         }
     }
+
+    private OutputStream openFile(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        return compressed ? new GZIPOutputStream(out) : out;
+    }
 }
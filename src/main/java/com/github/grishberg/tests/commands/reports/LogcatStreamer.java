@@ -0,0 +1,257 @@
+package com.github.grishberg.tests.commands.reports;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams device logcat to file in background thread while tests are running, so logcat lines
+ * are not lost when device ring buffer rotates and whole log is never kept in memory.
+ * {@link #markOffset()} marks position in log, parts of log between marks can be copied
+ * with {@link #saveSlice(long, long, File)}.
+ * Compressed log is written as single gzip stream, offsets are counted in uncompressed bytes.
+ * Uncompressed lines after {@link #discardBefore(long)} offset are kept in spool file, slices are
+ * compressed from spool, so marks don't restart compression.
+ * This class is thread safe.
+ */
+public class LogcatStreamer implements IShellOutputReceiver {
+    public static final String LOGCAT_COMMAND = "logcat -v threadtime";
+    private static final String TAG = LogcatStreamer.class.getSimpleName();
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private final IDevice device;
+    private final File logFile;
+    private final RunnerLogger logger;
+    private final String command;
+    private final boolean compressed;
+    private OutputStream logOut;
+    // count of uncompressed bytes written to log
+    private long offset;
+    @Nullable
+    private File spoolFile;
+    @Nullable
+    private FileChannel spool;
+    // offset of the first byte in spool
+    private long spoolStart;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public LogcatStreamer(IDevice device, File logFile, RunnerLogger logger) {
+        this(device, logFile, logger, LOGCAT_COMMAND, false);
+    }
+
+    /**
+     * @param command    logcat command, may contain filter arguments.
+     * @param compressed write log compressed by gzip.
+     */
+    public LogcatStreamer(IDevice device, File logFile, RunnerLogger logger, String command, boolean compressed) {
+        this.device = device;
+        this.logFile = logFile;
+        this.logger = logger;
+        this.command = command;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Starts streaming of logcat, does nothing if already started.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        openLogFile();
+        thread = new Thread(this::streamLogcat, "logcat-" + device.getSerialNumber());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops streaming and closes log file.
+     */
+    public void stop() {
+        stopped = true;
+        Thread streamThread;
+        synchronized (this) {
+            streamThread = thread;
+        }
+        if (streamThread != null) {
+            try {
+                streamThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeLogFile();
+        }
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return count of uncompressed bytes written to log.
+     */
+    public synchronized long markOffset() {
+        return offset;
+    }
+
+    /**
+     * Log before offset will not be sliced, so compressed log doesn't keep it in spool.
+     */
+    public synchronized void discardBefore(long offset) {
+        if (spool == null || offset < this.offset) {
+            return;
+        }
+        try {
+            spool.truncate(0);
+            spoolStart = this.offset;
+        } catch (IOException e) {
+            logger.e(TAG, "Can't truncate logcat spool " + spoolFile, e);
+        }
+    }
+
+    /**
+     * Copies part of log between given offsets to target file, compressed log slice is
+     * a gzip file.
+     *
+     * @throws IOException when slice of compressed log starts before discarded offset.
+     */
+    public synchronized void saveSlice(long start, long end, File target) throws IOException {
+        long sliceEnd = Math.min(end, offset);
+        if (spool == null) {
+            if (logOut != null) {
+                logOut.flush();
+            }
+            try (FileChannel source = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+                 FileChannel destination = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                transfer(source, start, sliceEnd, destination);
+            }
+            return;
+        }
+        if (start < spoolStart) {
+            throw new IOException(String.format("Logcat before offset %d was discarded", spoolStart));
+        }
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(target))) {
+            transfer(spool, start - spoolStart, sliceEnd - spoolStart, Channels.newChannel(out));
+        }
+    }
+
+    private static void transfer(FileChannel source, long start, long end,
+                                 WritableByteChannel destination) throws IOException {
+        long position = start;
+        while (position < end) {
+            long transferred = source.transferTo(position, end - position, destination);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+    }
+
+    @Override
+    public synchronized void addOutput(byte[] data, int dataOffset, int length) {
+        if (logOut == null) {
+            return;
+        }
+        try {
+            logOut.write(data, dataOffset, length);
+            if (spool != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, dataOffset, length);
+                while (buffer.hasRemaining()) {
+                    spool.write(buffer);
+                }
+            }
+            offset += length;
+        } catch (IOException e) {
+            logger.e(TAG, "Can't write logcat to " + logFile, e);
+            stopped = true;
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (logOut == null) {
+            return;
+        }
+        try {
+            logOut.flush();
+        } catch (IOException e) {
+            logger.e(TAG, "Can't flush logcat to " + logFile, e);
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return stopped;
+    }
+
+    synchronized void openLogFile() throws IOException {
+        File parent = logFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cant create folder " + parent.getAbsolutePath());
+        }
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(logFile));
+        if (!compressed) {
+            logOut = fileOut;
+            return;
+        }
+        logOut = new GZIPOutputStream(fileOut);
+        spoolFile = File.createTempFile("logcat", ".spool");
+        spoolFile.deleteOnExit();
+        spool = FileChannel.open(spoolFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void closeLogFile() {
+        if (logOut == null) {
+            return;
+        }
+        try {
+            logOut.close();
+        } catch (IOException e) {
+            logger.e(TAG, "Can't close logcat file " + logFile, e);
+        }
+        logOut = null;
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                logger.e(TAG, "Can't close logcat spool " + spoolFile, e);
+            }
+            if (!spoolFile.delete()) {
+                logger.w(TAG, "Can't delete logcat spool {}", spoolFile);
+            }
+            spool = null;
+        }
+    }
+
+    private void streamLogcat() {
+        try {
+            // output is not limited by time, logcat waits for new lines until streaming is stopped
+            device.executeShellCommand(command, this, 0, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (!stopped) {
+                logger.e(TAG, "Logcat streaming of " + device.getSerialNumber() + " failed", e);
+            }
+        }
+    }
+}
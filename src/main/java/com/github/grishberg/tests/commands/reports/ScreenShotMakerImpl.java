@@ -1,13 +1,18 @@
 package com.github.grishberg.tests.commands.reports;
 
+import com.github.grishberg.tests.ArtifactQueue;
 import com.github.grishberg.tests.DeviceShellExecuter;
+import com.github.grishberg.tests.commands.CommandExecutionException;
 import com.github.grishberg.tests.common.RunnerLogger;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Map;
 
 /**
  * Builds screenshot and pulls it from device.
+ * When {@link ArtifactQueue} is provided, screenshot is made in background thread of queue and
+ * is streamed by exec-out on devices which support it, so test results parsing is not blocked.
  */
 public class ScreenShotMakerImpl implements ScreenShotMaker {
     private static final String TAG = ScreenShotMakerImpl.class.getSimpleName();
@@ -16,14 +21,33 @@ public class ScreenShotMakerImpl implements ScreenShotMaker {
     private RunnerLogger logger;
     private File screenshotDir;
     private final Map<String, String> screenshotRelationMap;
+    @Nullable
+    private final ArtifactQueue artifactQueue;
+    private final boolean execOutSupported;
 
     public ScreenShotMakerImpl(Map<String, String> screenshotRelationMap,
                                File reportsDir,
                                DeviceShellExecuter deviceWrapper,
                                RunnerLogger logger) {
+        this(screenshotRelationMap, reportsDir, deviceWrapper, logger, null, false);
+    }
+
+    /**
+     * @param artifactQueue    queue of device where screenshots are made, or null to make
+     *                         screenshot synchronously.
+     * @param execOutSupported device supports "exec-out" (Android 5.0 and newer).
+     */
+    public ScreenShotMakerImpl(Map<String, String> screenshotRelationMap,
+                               File reportsDir,
+                               DeviceShellExecuter deviceWrapper,
+                               RunnerLogger logger,
+                               @Nullable ArtifactQueue artifactQueue,
+                               boolean execOutSupported) {
         this.deviceWrapper = deviceWrapper;
         this.screenshotRelationMap = screenshotRelationMap;
         this.logger = logger;
+        this.artifactQueue = artifactQueue;
+        this.execOutSupported = execOutSupported;
 
         screenshotDir = new File(reportsDir, SCREENSHOT_DIR);
         if (!screenshotDir.exists() && !screenshotDir.mkdirs()) {
@@ -36,13 +60,32 @@ public class ScreenShotMakerImpl implements ScreenShotMaker {
         File outFile = generateScreenshotFile(className, testName);
         screenshotRelationMap.put(String.format("%s#%s", className, testName),
                 String.format("%s/%s", SCREENSHOT_DIR, generateScreenshotName(className, testName)));
-        try {
-            deviceWrapper.executeShellCommand("screencap -p /sdcard/fail_screen.png");
-            deviceWrapper.pullFile("/sdcard/fail_screen.png", outFile.getAbsolutePath());
-            deviceWrapper.executeShellCommand("rm /sdcard/fail_screen.png");
-        } catch (Throwable e) {
-            logger.e(TAG, "makeScreenshot fail:", e);
+        if (artifactQueue == null) {
+            try {
+                pullScreenshot(outFile);
+            } catch (Throwable e) {
+                logger.e(TAG, "makeScreenshot fail:", e);
+            }
+            return;
         }
+        artifactQueue.submit("screenshot of " + className + "#" + testName, () -> {
+            if (!execOutSupported) {
+                pullScreenshot(outFile);
+                return;
+            }
+            try {
+                deviceWrapper.executeExecOutCommand("screencap -p", outFile);
+            } catch (CommandExecutionException e) {
+                logger.w(TAG, "Can't stream screenshot by exec-out, pull it from device: {}", e.getMessage());
+                pullScreenshot(outFile);
+            }
+        });
+    }
+
+    private void pullScreenshot(File outFile) throws CommandExecutionException {
+        deviceWrapper.executeShellCommand("screencap -p /sdcard/fail_screen.png");
+        deviceWrapper.pullFile("/sdcard/fail_screen.png", outFile.getAbsolutePath());
+        deviceWrapper.executeShellCommand("rm /sdcard/fail_screen.png");
     }
 
     private File generateScreenshotFile(String className, String testName) {
@@ -0,0 +1,102 @@
+package com.github.grishberg.tests.commands.reports;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves logcat of every failed test to report/logcat, logcat is taken from log file of
+ * {@link LogcatStreamer} by offsets marked when test started and ended.
+ */
+public class StreamingLogcatSaver implements LogcatSaver {
+    private static final String TAG = StreamingLogcatSaver.class.getSimpleName();
+    private final LogcatStreamer streamer;
+    private final String deviceName;
+    private final File logcatDir;
+    private final RunnerLogger logger;
+    private final Map<TestIdentifier, Long> startOffsets = new HashMap<>();
+    private final Set<TestIdentifier> failedTests = new HashSet<>();
+    private final List<Slice> slices = new ArrayList<>();
+
+    public StreamingLogcatSaver(LogcatStreamer streamer, String deviceName, File logcatDir, RunnerLogger logger) {
+        this.streamer = streamer;
+        this.deviceName = deviceName;
+        this.logcatDir = logcatDir;
+        this.logger = logger;
+    }
+
+    @Override
+    public void clearLogcat() {/* log file contains only lines printed after streaming started */}
+
+    /**
+     * Saves logcat slices of failed tests, the whole log is in {@link LogcatStreamer#getLogFile()}.
+     */
+    @Override
+    public void saveLogcat(String testName) {
+        // test didn't end when process crashed, its slice lasts until crash was reported
+        for (TestIdentifier test : failedTests) {
+            slices.add(new Slice(test, getStartOffset(test), streamer.markOffset()));
+        }
+        failedTests.clear();
+        startOffsets.clear();
+        for (Slice slice : slices) {
+            File outFile = new File(logcatDir, String.format("%s-%s#%s.log%s", deviceName,
+                    slice.test.getClassName(), slice.test.getTestName(), streamer.isCompressed() ? ".gz" : ""));
+            try {
+                streamer.saveSlice(slice.start, slice.end, outFile);
+            } catch (IOException e) {
+                logger.e(TAG, "Can't save logcat of " + slice.test, e);
+            }
+        }
+        logger.i(TAG, "saveLogcat: saved logcat of {} failed tests", slices.size());
+        slices.clear();
+        streamer.discardBefore(streamer.markOffset());
+    }
+
+    @Override
+    public void testStarted(TestIdentifier test) {
+        startOffsets.put(test, streamer.markOffset());
+    }
+
+    @Override
+    public void testFailed(TestIdentifier test) {
+        failedTests.add(test);
+    }
+
+    @Override
+    public void testEnded(TestIdentifier test) {
+        if (failedTests.remove(test)) {
+            slices.add(new Slice(test, getStartOffset(test), streamer.markOffset()));
+        }
+        startOffsets.remove(test);
+        if (startOffsets.isEmpty() && failedTests.isEmpty() && slices.isEmpty()) {
+            // no slice can start before current offset
+            streamer.discardBefore(streamer.markOffset());
+        }
+    }
+
+    private long getStartOffset(TestIdentifier test) {
+        Long offset = startOffsets.get(test);
+        return offset != null ? offset : 0;
+    }
+
+    private static class Slice {
+        final TestIdentifier test;
+        final long start;
+        final long end;
+
+        Slice(TestIdentifier test, long start, long end) {
+            this.test = test;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.github.grishberg.tests.commands.reports;
 
 import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
 import com.android.utils.ILogger;
 import com.github.grishberg.tests.XmlReportGeneratorDelegate;
 import com.github.grishberg.tests.commands.NoStartedTestException;
 import com.github.grishberg.tests.commands.reports.xml.CustomTestRunListener;
+import com.github.grishberg.tests.sharding.TestDurationHistory;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import org.jetbrains.annotations.Nullable;
@@ -24,9 +26,15 @@ public class TestXmlReportsGenerator extends CustomTestRunListener {
     private final String testPrefix;
     private final ScreenShotMaker screenShotMaker;
     private final LogcatSaver logcatSaver;
+    private final ILogger logger;
     private XmlReportGeneratorDelegate xmlReportDelegate;
     @Nullable
     private TestIdentifier currentTest;
+    @Nullable
+    private TestDurationHistory testDurationHistory;
+    private int deviceType;
+    @Nullable
+    private File resultFile;
 
     public TestXmlReportsGenerator(String deviceName,
                                    String projectName,
@@ -44,40 +52,101 @@ public class TestXmlReportsGenerator extends CustomTestRunListener {
         this.testPrefix = testPrefix;
         this.screenShotMaker = screenShotMaker;
         this.logcatSaver = logcatSaver;
+        this.logger = logger;
         this.xmlReportDelegate = xmlReportDelegate;
         this.currentTest = fallbackTest;
     }
 
     @Override
     protected File getResultFile(File reportDir) throws IOException {
-        return new File(reportDir,
+        resultFile = new File(reportDir,
                 "TEST-" + deviceName + "-" + projectName + "-" + testPrefix + ".xml");
+        return resultFile;
+    }
+
+    /**
+     * Removes xml report if it was already generated, for example when the same tests were
+     * executed on another device and results of this run should be ignored.
+     */
+    public void discardReport() {
+        if (resultFile != null && resultFile.exists() && !resultFile.delete()) {
+            logger.warning("Can't delete report %s", resultFile.getAbsolutePath());
+        }
     }
 
     @Override
     public void testStarted(TestIdentifier test) {
         super.testStarted(test);
         currentTest = test;
+        logcatSaver.testStarted(test);
     }
 
     @Override
     public void testStarted(TestIdentifier test, long startTime) {
         super.testStarted(test, startTime);
         currentTest = test;
+        logcatSaver.testStarted(test);
     }
 
     @Override
     public void testFailed(TestIdentifier test, String trace) {
         super.testFailed(test, trace);
         screenShotMaker.makeScreenshot(test.getClassName(), test.getTestName());
+        logcatSaver.testFailed(test);
+    }
+
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        super.testEnded(test, testMetrics);
+        logcatSaver.testEnded(test);
+    }
+
+    /**
+     * Sets storage for durations of finished tests, durations are stored when test run ended.
+     */
+    public void setTestDurationHistory(TestDurationHistory history, int deviceType) {
+        this.testDurationHistory = history;
+        this.deviceType = deviceType;
     }
 
     @Override
     public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
         super.testRunEnded(elapsedTime, runMetrics);
+        storeTestDurations();
         logcatSaver.saveLogcat("logcat");
     }
 
+    private void storeTestDurations() {
+        if (testDurationHistory == null) {
+            return;
+        }
+        // parameterized tests are planned as single method, so durations of all
+        // "method[n]" variants are summed up.
+        Map<TestIdentifier, Long> durations = new HashMap<>();
+        for (Map.Entry<TestIdentifier, TestResult> entry : getRunResult().getTestResults().entrySet()) {
+            TestResult result = entry.getValue();
+            if (result.getStatus() == TestResult.TestStatus.IGNORED ||
+                    result.getEndTime() < result.getStartTime()) {
+                continue;
+            }
+            TestIdentifier test = entry.getKey();
+            durations.merge(new TestIdentifier(test.getClassName(), getBaseMethodName(test.getTestName())),
+                    result.getEndTime() - result.getStartTime(), Long::sum);
+        }
+        for (Map.Entry<TestIdentifier, Long> entry : durations.entrySet()) {
+            testDurationHistory.addDuration(deviceType, entry.getKey().getClassName(),
+                    entry.getKey().getTestName(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return method name without parameterized suffix "[n]".
+     */
+    private static String getBaseMethodName(String testName) {
+        int parametersStart = testName.indexOf('[');
+        return parametersStart > 0 ? testName.substring(0, parametersStart) : testName;
+    }
+
     public void failLastTest(String trace) throws NoStartedTestException {
         if (currentTest == null) {
             throw new NoStartedTestException("Sorry, can't handle this. " +
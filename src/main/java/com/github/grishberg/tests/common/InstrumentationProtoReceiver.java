@@ -0,0 +1,340 @@
+package com.github.grishberg.tests.common;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally parses protobuf output of "am instrument -m".
+ * Output is a stream of InstrumentationData.Session messages, see
+ * frameworks/base/cmds/am/proto/instrumentation_data.proto: every message contains test status
+ * or final session status. Statuses are decoded as soon as they are received completely,
+ * bytes of unfinished status are kept until next chunk.
+ */
+public abstract class InstrumentationProtoReceiver implements IShellOutputReceiver {
+    public static final int SESSION_FINISHED = 0;
+    public static final int SESSION_ABORTED = 1;
+    // "-m" flag was added to am instrument in Android 8.0
+    private static final int MIN_API_LEVEL = 26;
+    // Session fields
+    private static final int TEST_STATUS = 1;
+    private static final int SESSION_STATUS = 2;
+    // TestStatus and SessionStatus fields
+    private static final int STATUS_CODE = 1;
+    private static final int ERROR_TEXT = 2;
+    private static final int RESULT_CODE = 3;
+    private static final int RESULTS = 4;
+    // ResultsBundle and ResultsBundleEntry fields
+    private static final int ENTRIES = 1;
+    private static final int KEY = 1;
+    private static final int VALUE_STRING = 2;
+    private static final int VALUE_INT = 3;
+    private static final int VALUE_FLOAT = 4;
+    private static final int VALUE_DOUBLE = 5;
+    private static final int VALUE_LONG = 6;
+    private static final int VALUE_BUNDLE = 7;
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    // Bytes of unfinished status from previous chunk.
+    private byte[] pending = new byte[0];
+    private int pendingLength;
+    private boolean sessionFinished;
+    private volatile boolean cancelled;
+
+    /**
+     * Is called for every test status, results contain values like "class", "test", "stack".
+     */
+    protected abstract void onTestStatus(int resultCode, Map<String, String> results);
+
+    /**
+     * Is called when instrumentation is finished.
+     *
+     * @param statusCode {@link #SESSION_FINISHED} or {@link #SESSION_ABORTED}.
+     * @param errorText  reason of aborted session.
+     */
+    protected abstract void onSessionStatus(int statusCode, @Nullable String errorText,
+                                            int resultCode, Map<String, String> results);
+
+    /**
+     * @return true when device with given API level supports "am instrument -m".
+     */
+    public static boolean isSupported(int apiLevel) {
+        return apiLevel >= MIN_API_LEVEL;
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (pendingLength == 0) {
+            int parsed = parseStatuses(data, offset, offset + length);
+            appendToPending(data, parsed, offset + length);
+            return;
+        }
+        appendToPending(data, offset, offset + length);
+        int parsed = parseStatuses(pending, 0, pendingLength);
+        pendingLength -= parsed;
+        System.arraycopy(pending, parsed, pending, 0, pendingLength);
+    }
+
+    @Override
+    public void flush() {
+        // unfinished status can't be decoded
+        pendingLength = 0;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops command execution, ddmlib checks this flag between chunks of output.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true when final session status was received.
+     */
+    protected boolean isSessionFinished() {
+        return sessionFinished;
+    }
+
+    private void appendToPending(byte[] data, int start, int end) {
+        int count = end - start;
+        if (count <= 0) {
+            return;
+        }
+        if (pendingLength + count > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + count));
+        }
+        System.arraycopy(data, start, pending, pendingLength, count);
+        pendingLength += count;
+    }
+
+    /**
+     * @return position after last completely received top level field.
+     */
+    private int parseStatuses(byte[] data, int start, int end) {
+        ProtoReader reader = new ProtoReader(data, start, end);
+        int parsed = start;
+        while (reader.hasMore()) {
+            if (!reader.nextFieldIsComplete()) {
+                break;
+            }
+            int tag = reader.readVarint32();
+            if (tag >>> 3 == TEST_STATUS && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                readTestStatus(reader.readMessage());
+            } else if (tag >>> 3 == SESSION_STATUS && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                sessionFinished = true;
+                readSessionStatus(reader.readMessage());
+            } else {
+                reader.skip(tag & 7);
+            }
+            parsed = reader.position;
+        }
+        return parsed;
+    }
+
+    private void readTestStatus(ProtoReader reader) {
+        int resultCode = 0;
+        Map<String, String> results = new LinkedHashMap<>();
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            if (tag >>> 3 == RESULT_CODE && (tag & 7) == WIRE_VARINT) {
+                resultCode = decodeZigZag32(reader.readVarint32());
+            } else if (tag >>> 3 == RESULTS && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                readBundle(reader.readMessage(), results);
+            } else {
+                reader.skip(tag & 7);
+            }
+        }
+        onTestStatus(resultCode, results);
+    }
+
+    private void readSessionStatus(ProtoReader reader) {
+        int statusCode = SESSION_FINISHED;
+        String errorText = null;
+        int resultCode = 0;
+        Map<String, String> results = new LinkedHashMap<>();
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            int field = tag >>> 3;
+            if (field == STATUS_CODE && (tag & 7) == WIRE_VARINT) {
+                statusCode = reader.readVarint32();
+            } else if (field == ERROR_TEXT && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                errorText = reader.readString();
+            } else if (field == RESULT_CODE && (tag & 7) == WIRE_VARINT) {
+                resultCode = decodeZigZag32(reader.readVarint32());
+            } else if (field == RESULTS && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                readBundle(reader.readMessage(), results);
+            } else {
+                reader.skip(tag & 7);
+            }
+        }
+        onSessionStatus(statusCode, errorText, resultCode, results);
+    }
+
+    private static void readBundle(ProtoReader reader, Map<String, String> results) {
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            if (tag >>> 3 == ENTRIES && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+                readEntry(reader.readMessage(), results);
+            } else {
+                reader.skip(tag & 7);
+            }
+        }
+    }
+
+    /**
+     * Values are converted to strings like in text output of "am instrument -r".
+     */
+    private static void readEntry(ProtoReader reader, Map<String, String> results) {
+        String key = null;
+        String value = null;
+        while (reader.hasMore()) {
+            int tag = reader.readVarint32();
+            switch (tag) {
+                case KEY << 3 | WIRE_LENGTH_DELIMITED:
+                    key = reader.readString();
+                    break;
+                case VALUE_STRING << 3 | WIRE_LENGTH_DELIMITED:
+                    value = reader.readString();
+                    break;
+                case VALUE_INT << 3 | WIRE_VARINT:
+                    value = String.valueOf(decodeZigZag32(reader.readVarint32()));
+                    break;
+                case VALUE_FLOAT << 3 | WIRE_FIXED32:
+                    value = String.valueOf(Float.intBitsToFloat((int) reader.readFixed(4)));
+                    break;
+                case VALUE_DOUBLE << 3 | WIRE_FIXED64:
+                    value = String.valueOf(Double.longBitsToDouble(reader.readFixed(8)));
+                    break;
+                case VALUE_LONG << 3 | WIRE_VARINT:
+                    long encoded = reader.readVarint64();
+                    value = String.valueOf((encoded >>> 1) ^ -(encoded & 1));
+                    break;
+                case VALUE_BUNDLE << 3 | WIRE_LENGTH_DELIMITED:
+                    Map<String, String> bundle = new LinkedHashMap<>();
+                    readBundle(reader.readMessage(), bundle);
+                    value = "Bundle" + bundle;
+                    break;
+                default:
+                    reader.skip(tag & 7);
+            }
+        }
+        if (key != null && value != null) {
+            results.put(key, value);
+        }
+    }
+
+    private static int decodeZigZag32(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reader of protobuf wire format in range of bytes.
+     */
+    private static class ProtoReader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        private ProtoReader(byte[] data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        private boolean hasMore() {
+            return position < end;
+        }
+
+        /**
+         * @return true when tag, length and value of next length delimited field are received.
+         */
+        private boolean nextFieldIsComplete() {
+            int start = position;
+            try {
+                int tag = readVarint32();
+                if ((tag & 7) == WIRE_LENGTH_DELIMITED) {
+                    int length = readVarint32();
+                    return length >= 0 && position + length <= end;
+                }
+                skip(tag & 7);
+                return position <= end;
+            } catch (IndexOutOfBoundsException e) {
+                return false;
+            } finally {
+                position = start;
+            }
+        }
+
+        private int readVarint32() {
+            return (int) readVarint64();
+        }
+
+        private long readVarint64() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) {
+                    throw new IndexOutOfBoundsException("Unfinished varint");
+                }
+                byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        private long readFixed(int size) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result |= (long) (data[position++] & 0xFF) << (i * 8);
+            }
+            return result;
+        }
+
+        private ProtoReader readMessage() {
+            int length = readVarint32();
+            ProtoReader message = new ProtoReader(data, position, position + length);
+            position += length;
+            return message;
+        }
+
+        private String readString() {
+            int length = readVarint32();
+            String result = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+
+        private void skip(int wireType) {
+            switch (wireType) {
+                case WIRE_VARINT:
+                    readVarint64();
+                    break;
+                case WIRE_FIXED64:
+                    position += 8;
+                    break;
+                case WIRE_LENGTH_DELIMITED:
+                    position += readVarint32();
+                    break;
+                case WIRE_FIXED32:
+                    position += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported wire type " + wireType);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.grishberg.tests.coverage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges coverage files of commands as soon as they are pulled from devices, so the run produces
+ * one coverage file per device type instead of a file per command.
+ * Files of different devices can be merged in parallel.
+ */
+public class CoverageAggregator {
+    private final Map<Integer, ExecutionData> coverageByDeviceType = new ConcurrentHashMap<>();
+
+    /**
+     * Merges coverage file into coverage of device type and deletes the file.
+     * The file is kept when it can't be merged.
+     */
+    public void add(int deviceType, File coverageFile) throws IOException {
+        coverageByDeviceType.computeIfAbsent(deviceType, type -> new ExecutionData()).merge(coverageFile);
+        Files.delete(coverageFile.toPath());
+    }
+
+    /**
+     * Writes merged coverage of every device type to coverage dir.
+     *
+     * @param fileName name of coverage file, is prefixed with "merged-[device type]-".
+     */
+    public void write(File coverageDir, String fileName) throws IOException {
+        for (Map.Entry<Integer, ExecutionData> entry : new TreeMap<>(coverageByDeviceType).entrySet()) {
+            entry.getValue().write(new File(coverageDir,
+                    String.format("merged-%d-%s", entry.getKey(), fileName)));
+        }
+    }
+}
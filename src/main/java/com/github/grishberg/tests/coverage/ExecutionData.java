@@ -0,0 +1,219 @@
+package com.github.grishberg.tests.coverage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Execution data of JaCoCo exec files merged in memory: probes of the same class are merged by
+ * bitwise OR of packed probe arrays, so merged data is not larger than data of single file.
+ * Supports exec file format version 0x1007, which is used by JaCoCo since 0.7.5.
+ * This class is thread safe, files can be merged from several threads.
+ */
+public class ExecutionData {
+    private static final byte BLOCK_HEADER = 0x01;
+    private static final byte BLOCK_SESSION_INFO = 0x10;
+    private static final byte BLOCK_EXECUTION_DATA = 0x11;
+    private static final char MAGIC_NUMBER = 0xC0C0;
+    private static final char FORMAT_VERSION = 0x1007;
+    private final Map<Long, ClassProbes> classes = new ConcurrentHashMap<>();
+    private final List<SessionInfo> sessions = new ArrayList<>();
+
+    /**
+     * Reads exec file and merges its data.
+     */
+    public void merge(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            merge(in);
+        }
+    }
+
+    /**
+     * Reads exec data from stream and merges it, probes are merged while stream is read.
+     *
+     * @throws IOException when data is not exec data or has probes incompatible with merged data.
+     */
+    public void merge(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        boolean headerFound = false;
+        int blockType;
+        while ((blockType = in.read()) != -1) {
+            if (blockType != BLOCK_HEADER && !headerFound) {
+                throw new IOException("Invalid execution data file");
+            }
+            switch (blockType) {
+                case BLOCK_HEADER:
+                    readHeader(in);
+                    headerFound = true;
+                    break;
+                case BLOCK_SESSION_INFO:
+                    SessionInfo session = new SessionInfo(in.readUTF(), in.readLong(), in.readLong());
+                    synchronized (sessions) {
+                        sessions.add(session);
+                    }
+                    break;
+                case BLOCK_EXECUTION_DATA:
+                    long id = in.readLong();
+                    String name = in.readUTF();
+                    int probesCount = readVarInt(in);
+                    byte[] probes = new byte[(probesCount + 7) / 8];
+                    in.readFully(probes);
+                    mergeClass(id, name, probesCount, probes);
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown block type %x", blockType));
+            }
+        }
+    }
+
+    /**
+     * Writes merged data in exec file format, classes are sorted by id.
+     */
+    public void write(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cant create folder " + parent.getAbsolutePath());
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeByte(BLOCK_HEADER);
+        out.writeChar(MAGIC_NUMBER);
+        out.writeChar(FORMAT_VERSION);
+        synchronized (sessions) {
+            for (SessionInfo session : sessions) {
+                out.writeByte(BLOCK_SESSION_INFO);
+                out.writeUTF(session.id);
+                out.writeLong(session.start);
+                out.writeLong(session.dump);
+            }
+        }
+        for (Map.Entry<Long, ClassProbes> entry : new TreeMap<>(classes).entrySet()) {
+            ClassProbes classProbes = entry.getValue();
+            synchronized (classProbes) {
+                out.writeByte(BLOCK_EXECUTION_DATA);
+                out.writeLong(entry.getKey());
+                out.writeUTF(classProbes.name);
+                writeVarInt(out, classProbes.probesCount);
+                out.write(classProbes.probes);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return count of classes in merged data.
+     */
+    public int getClassesCount() {
+        return classes.size();
+    }
+
+    /**
+     * @return count of executed probes of class or -1 if there is no class with given id.
+     */
+    public int getExecutedProbesCount(long classId) {
+        ClassProbes classProbes = classes.get(classId);
+        if (classProbes == null) {
+            return -1;
+        }
+        int count = 0;
+        synchronized (classProbes) {
+            for (byte probes : classProbes.probes) {
+                count += Integer.bitCount(probes & 0xFF);
+            }
+        }
+        return count;
+    }
+
+    private void mergeClass(long id, String name, int probesCount, byte[] probes) throws IOException {
+        ClassProbes merged = classes.putIfAbsent(id, new ClassProbes(name, probesCount, probes));
+        if (merged == null) {
+            return;
+        }
+        synchronized (merged) {
+            if (!merged.name.equals(name) || merged.probesCount != probesCount) {
+                throw new IOException(String.format("Incompatible execution data for class %s with id %016x",
+                        name, id));
+            }
+            for (int i = 0; i < probes.length; i++) {
+                merged.probes[i] |= probes[i];
+            }
+        }
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        if (in.readChar() != MAGIC_NUMBER) {
+            throw new IOException("Invalid execution data file");
+        }
+        char version = in.readChar();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(String.format("Incompatible version %x of execution data", (int) version));
+        }
+    }
+
+    /**
+     * Reads int which is stored by 7 bits in every byte, lower bits first.
+     */
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("Invalid length of probes");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int rest = value;
+        while ((rest & 0xFFFFFF80) != 0) {
+            out.writeByte((rest & 0x7F) | 0x80);
+            rest >>>= 7;
+        }
+        out.writeByte(rest);
+    }
+
+    private static class ClassProbes {
+        final String name;
+        final int probesCount;
+        // probes are packed by 8 in byte, lower bits first, as in exec file.
+        final byte[] probes;
+
+        ClassProbes(String name, int probesCount, byte[] probes) {
+            this.name = name;
+            this.probesCount = probesCount;
+            this.probes = probes;
+        }
+    }
+
+    private static class SessionInfo {
+        final String id;
+        final long start;
+        final long dump;
+
+        SessionInfo(String id, long start, long dump) {
+            this.id = id;
+            this.start = start;
+            this.dump = dump;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.grishberg.tests.exceptions;
+
+import com.github.grishberg.tests.commands.CommandExecutionException;
+
+/**
+ * Device became offline while commands were executed on it.
+ * Unfinished work has been already returned to shared pool, so run should not be failed.
+ */
+public class DeviceOfflineException extends CommandExecutionException {
+    public DeviceOfflineException(String message, Throwable e) {
+        super(message, e);
+    }
+}
@@ -7,4 +7,8 @@ public class PullCoverageException extends Exception {
     public PullCoverageException(Throwable e) {
         super(e);
     }
+
+    public PullCoverageException(String message) {
+        super(message);
+    }
 }
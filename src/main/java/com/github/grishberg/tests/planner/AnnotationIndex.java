@@ -0,0 +1,141 @@
+package com.github.grishberg.tests.planner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Index of test plan by annotations. Tests are identified by ordinal - position in indexed list,
+ * queries return bitsets of ordinals, so selections are combined with {@link BitSet#and(BitSet)},
+ * {@link BitSet#or(BitSet)} and {@link BitSet#andNot(BitSet)}.
+ * Returned bitsets are copies and can be changed by caller.
+ * <p>
+ * Example: tests with @ClearData but without @LargeTest:
+ * <pre>
+ * BitSet tests = index.withAnnotation(CLEAR_DATA);
+ * tests.andNot(index.withAnnotation(LARGE_TEST));
+ * </pre>
+ */
+public class AnnotationIndex {
+    private final List<TestPlanElement> tests;
+    private final IdentityHashMap<TestPlanElement, Integer> ordinals = new IdentityHashMap<>();
+    private final HashMap<String, BitSet> testsByAnnotation = new HashMap<>();
+    private final HashMap<String, HashMap<Object, BitSet>> testsByMemberValue = new HashMap<>();
+    private final HashMap<String, TreeMap<Integer, BitSet>> testsByIntMember = new HashMap<>();
+
+    public AnnotationIndex(List<TestPlanElement> tests) {
+        this.tests = Collections.unmodifiableList(new ArrayList<>(tests));
+        for (int i = 0; i < tests.size(); i++) {
+            ordinals.putIfAbsent(tests.get(i), i);
+            for (AnnotationInfo annotation : tests.get(i).getAnnotations()) {
+                testsByAnnotation.computeIfAbsent(annotation.getName(), name -> new BitSet()).set(i);
+                for (AnnotationMember member : annotation.getMembers()) {
+                    addMember(annotation.getName(), member, i);
+                }
+            }
+        }
+    }
+
+    private void addMember(String annotationName, AnnotationMember member, int ordinal) {
+        String key = memberKey(annotationName, member.getName());
+        Object value = member.getIntValue() != null ? member.getIntValue() :
+                member.getStrValue() != null ? member.getStrValue() : member.getBoolValue();
+        if (value == null) {
+            return;
+        }
+        testsByMemberValue.computeIfAbsent(key, k -> new HashMap<>())
+                .computeIfAbsent(value, v -> new BitSet()).set(ordinal);
+        if (member.getIntValue() != null) {
+            testsByIntMember.computeIfAbsent(key, k -> new TreeMap<>())
+                    .computeIfAbsent(member.getIntValue(), v -> new BitSet()).set(ordinal);
+        }
+    }
+
+    /**
+     * @return count of indexed tests.
+     */
+    public int size() {
+        return tests.size();
+    }
+
+    /**
+     * @return test with given ordinal.
+     */
+    public TestPlanElement getTest(int ordinal) {
+        return tests.get(ordinal);
+    }
+
+    /**
+     * @return ordinal of test or -1 when test is not indexed, tests are compared by identity,
+     * so subsets of indexed list, like shards or batches, are found without comparing tests.
+     */
+    public int ordinalOf(TestPlanElement test) {
+        Integer ordinal = ordinals.get(test);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @return all indexed tests.
+     */
+    public BitSet all() {
+        BitSet result = new BitSet(tests.size());
+        result.set(0, tests.size());
+        return result;
+    }
+
+    /**
+     * @param annotationName full name of annotation.
+     * @return tests with annotation.
+     */
+    public BitSet withAnnotation(String annotationName) {
+        return copy(testsByAnnotation.get(annotationName));
+    }
+
+    /**
+     * @param value int, String or boolean value of annotation member.
+     * @return tests with annotation which member is equal to value.
+     */
+    public BitSet withMemberValue(String annotationName, String memberName, Object value) {
+        HashMap<Object, BitSet> values = testsByMemberValue.get(memberKey(annotationName, memberName));
+        return copy(values != null ? values.get(value) : null);
+    }
+
+    /**
+     * @return tests with annotation which int member is in range from min to max inclusive,
+     * for example min sdk version of @SdkSuppress.
+     */
+    public BitSet withIntMemberInRange(String annotationName, String memberName, int min, int max) {
+        BitSet result = new BitSet();
+        TreeMap<Integer, BitSet> values = testsByIntMember.get(memberKey(annotationName, memberName));
+        if (values == null || min > max) {
+            return result;
+        }
+        for (BitSet testsWithValue : values.subMap(min, true, max, true).values()) {
+            result.or(testsWithValue);
+        }
+        return result;
+    }
+
+    /**
+     * @return tests for ordinals in selection, in order of indexed list.
+     */
+    public List<TestPlanElement> select(BitSet selection) {
+        ArrayList<TestPlanElement> result = new ArrayList<>(selection.cardinality());
+        for (int i = selection.nextSetBit(0); i >= 0 && i < tests.size(); i = selection.nextSetBit(i + 1)) {
+            result.add(tests.get(i));
+        }
+        return result;
+    }
+
+    private static BitSet copy(BitSet tests) {
+        return tests != null ? (BitSet) tests.clone() : new BitSet();
+    }
+
+    private static String memberKey(String annotationName, String memberName) {
+        return annotationName + "#" + memberName;
+    }
+}
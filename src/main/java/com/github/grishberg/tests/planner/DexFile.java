@@ -0,0 +1,395 @@
+package com.github.grishberg.tests.planner;
+
+import javax.annotation.Nullable;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads classes, methods and annotations from single dex file.
+ * Only sections which are needed for test discovery are read, byte code is skipped.
+ * Format is described in https://source.android.com/devices/tech/dalvik/dex-format
+ */
+class DexFile {
+    static final int ACC_PUBLIC = 0x1;
+    static final int ACC_STATIC = 0x8;
+    static final int ACC_INTERFACE = 0x200;
+    static final int ACC_ABSTRACT = 0x400;
+    static final int ACC_ANNOTATION = 0x2000;
+    private static final int NO_INDEX = -1;
+    private static final int VISIBILITY_RUNTIME = 1;
+    private static final int VISIBILITY_SYSTEM = 2;
+    private static final String ANNOTATION_DEFAULT = "Ldalvik/annotation/AnnotationDefault;";
+
+    private static final int VALUE_BYTE = 0x00;
+    private static final int VALUE_SHORT = 0x02;
+    private static final int VALUE_CHAR = 0x03;
+    private static final int VALUE_INT = 0x04;
+    private static final int VALUE_LONG = 0x06;
+    private static final int VALUE_FLOAT = 0x10;
+    private static final int VALUE_DOUBLE = 0x11;
+    private static final int VALUE_STRING = 0x17;
+    private static final int VALUE_TYPE = 0x18;
+    private static final int VALUE_ENUM = 0x1b;
+    private static final int VALUE_ARRAY = 0x1c;
+    private static final int VALUE_ANNOTATION = 0x1d;
+    private static final int VALUE_NULL = 0x1e;
+    private static final int VALUE_BOOLEAN = 0x1f;
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final int[] typeIds;
+    private final int protoIdsOffset;
+    private final int methodIdsOffset;
+    private final int classDefsSize;
+    private final int classDefsOffset;
+
+    DexFile(byte[] data) throws DexFormatException {
+        buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.length < 0x70 || data[0] != 'd' || data[1] != 'e' || data[2] != 'x') {
+            throw new DexFormatException("Not a dex file");
+        }
+        try {
+            strings = new String[buffer.getInt(0x38)];
+            int stringIdsOffset = buffer.getInt(0x3C);
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer.getInt(stringIdsOffset + i * 4));
+            }
+            typeIds = new int[buffer.getInt(0x40)];
+            int typeIdsOffset = buffer.getInt(0x44);
+            for (int i = 0; i < typeIds.length; i++) {
+                typeIds[i] = buffer.getInt(typeIdsOffset + i * 4);
+            }
+            protoIdsOffset = buffer.getInt(0x4C);
+            methodIdsOffset = buffer.getInt(0x5C);
+            classDefsSize = buffer.getInt(0x60);
+            classDefsOffset = buffer.getInt(0x64);
+        } catch (IndexOutOfBoundsException | UTFDataFormatException e) {
+            throw new DexFormatException("Broken dex header", e);
+        }
+    }
+
+    /**
+     * @return all classes defined in dex file.
+     */
+    List<DexClass> readClasses() throws DexFormatException {
+        ArrayList<DexClass> result = new ArrayList<>(classDefsSize);
+        try {
+            for (int i = 0; i < classDefsSize; i++) {
+                result.add(readClass(classDefsOffset + i * 32));
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new DexFormatException("Broken class definition", e);
+        }
+        return result;
+    }
+
+    private DexClass readClass(int offset) {
+        String name = type(buffer.getInt(offset));
+        int accessFlags = buffer.getInt(offset + 4);
+        int superclassIdx = buffer.getInt(offset + 8);
+        int annotationsOffset = buffer.getInt(offset + 20);
+        int classDataOffset = buffer.getInt(offset + 24);
+        DexClass dexClass = new DexClass(name, accessFlags,
+                superclassIdx == NO_INDEX ? null : type(superclassIdx));
+
+        HashMap<Integer, Integer> methodAnnotations = new HashMap<>();
+        if (annotationsOffset != 0) {
+            dexClass.annotations.addAll(readAnnotationSet(buffer.getInt(annotationsOffset), dexClass));
+            int fieldsSize = buffer.getInt(annotationsOffset + 4);
+            int methodsSize = buffer.getInt(annotationsOffset + 8);
+            int methodsOffset = annotationsOffset + 16 + fieldsSize * 8;
+            for (int i = 0; i < methodsSize; i++) {
+                methodAnnotations.put(buffer.getInt(methodsOffset + i * 8),
+                        buffer.getInt(methodsOffset + i * 8 + 4));
+            }
+        }
+        if (classDataOffset != 0) {
+            readClassData(classDataOffset, dexClass, methodAnnotations);
+        }
+        return dexClass;
+    }
+
+    private void readClassData(int offset, DexClass dexClass, HashMap<Integer, Integer> methodAnnotations) {
+        Reader reader = new Reader(offset);
+        int staticFieldsSize = reader.uleb128();
+        int instanceFieldsSize = reader.uleb128();
+        int directMethodsSize = reader.uleb128();
+        int virtualMethodsSize = reader.uleb128();
+        for (int i = 0; i < (staticFieldsSize + instanceFieldsSize) * 2; i++) {
+            reader.uleb128();
+        }
+        readMethods(reader, directMethodsSize, dexClass, methodAnnotations);
+        readMethods(reader, virtualMethodsSize, dexClass, methodAnnotations);
+    }
+
+    private void readMethods(Reader reader, int size, DexClass dexClass,
+                             HashMap<Integer, Integer> methodAnnotations) {
+        int methodIdx = 0;
+        for (int i = 0; i < size; i++) {
+            methodIdx += reader.uleb128();
+            int accessFlags = reader.uleb128();
+            reader.uleb128(); // code_off
+            int methodOffset = methodIdsOffset + methodIdx * 8;
+            int protoOffset = protoIdsOffset + (buffer.getShort(methodOffset + 2) & 0xFFFF) * 12;
+            int parametersOffset = buffer.getInt(protoOffset + 8);
+            DexMethod method = new DexMethod(strings[buffer.getInt(methodOffset + 4)], accessFlags,
+                    type(buffer.getInt(protoOffset + 4)),
+                    parametersOffset == 0 ? 0 : buffer.getInt(parametersOffset));
+            int annotationsOffset = methodAnnotations.getOrDefault(methodIdx, 0);
+            if (annotationsOffset != 0) {
+                method.annotations.addAll(readAnnotationSet(annotationsOffset, null));
+            }
+            dexClass.methods.add(method);
+        }
+    }
+
+    /**
+     * Reads runtime visible annotations, defaults of annotation members are stored to annotationClass.
+     */
+    private List<DexAnnotation> readAnnotationSet(int offset, @Nullable DexClass annotationClass) {
+        if (offset == 0) {
+            return Collections.emptyList();
+        }
+        int size = buffer.getInt(offset);
+        ArrayList<DexAnnotation> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Reader reader = new Reader(buffer.getInt(offset + 4 + i * 4));
+            int visibility = reader.readUnsignedByte();
+            DexAnnotation annotation = reader.encodedAnnotation();
+            if (visibility == VISIBILITY_RUNTIME) {
+                result.add(annotation);
+            } else if (visibility == VISIBILITY_SYSTEM && annotationClass != null &&
+                    ANNOTATION_DEFAULT.equals(annotation.type)) {
+                Object defaults = annotation.values.get("value");
+                if (defaults instanceof DexAnnotation) {
+                    annotationClass.defaults.putAll(((DexAnnotation) defaults).values);
+                }
+            }
+        }
+        return result;
+    }
+
+    private String type(int typeIdx) {
+        return strings[typeIds[typeIdx]];
+    }
+
+    private String readString(int offset) throws UTFDataFormatException {
+        Reader reader = new Reader(offset);
+        char[] chars = new char[reader.uleb128()];
+        for (int i = 0; i < chars.length; i++) {
+            int a = reader.readUnsignedByte();
+            if ((a & 0x80) == 0) {
+                chars[i] = (char) a;
+            } else if ((a & 0xE0) == 0xC0) {
+                chars[i] = (char) (((a & 0x1F) << 6) | (reader.readUnsignedByte() & 0x3F));
+            } else if ((a & 0xF0) == 0xE0) {
+                int b = reader.readUnsignedByte();
+                chars[i] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (reader.readUnsignedByte() & 0x3F));
+            } else {
+                throw new UTFDataFormatException("Bad MUTF-8 byte at " + offset);
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Converts type descriptor like "Lcom/test/Foo;" or "[I" to java name like "com.test.Foo" or "int[]".
+     */
+    static String toJavaName(String descriptor) {
+        if (descriptor.startsWith("[")) {
+            return toJavaName(descriptor.substring(1)) + "[]";
+        }
+        switch (descriptor) {
+            case "V":
+                return "void";
+            case "Z":
+                return "boolean";
+            case "B":
+                return "byte";
+            case "S":
+                return "short";
+            case "C":
+                return "char";
+            case "I":
+                return "int";
+            case "J":
+                return "long";
+            case "F":
+                return "float";
+            case "D":
+                return "double";
+            default:
+                return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+    }
+
+    /**
+     * Sequential reader of encoded data.
+     */
+    private class Reader {
+        private int position;
+
+        private Reader(int position) {
+            this.position = position;
+        }
+
+        private int readUnsignedByte() {
+            return buffer.get(position++) & 0xFF;
+        }
+
+        private int uleb128() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readUnsignedByte();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            return result;
+        }
+
+        private DexAnnotation encodedAnnotation() {
+            DexAnnotation annotation = new DexAnnotation(type(uleb128()));
+            int size = uleb128();
+            for (int i = 0; i < size; i++) {
+                String name = strings[uleb128()];
+                annotation.values.put(name, encodedValue());
+            }
+            return annotation;
+        }
+
+        /**
+         * @return Integer, Long, Float, Double, Boolean, String, type descriptor as String,
+         * enum constant name as String, DexAnnotation, List of values or null.
+         */
+        @Nullable
+        private Object encodedValue() {
+            int header = readUnsignedByte();
+            int valueType = header & 0x1F;
+            int size = (header >> 5) + 1;
+            switch (valueType) {
+                case VALUE_BYTE:
+                case VALUE_SHORT:
+                case VALUE_INT:
+                    return (int) signed(size);
+                case VALUE_CHAR:
+                    return (int) unsigned(size);
+                case VALUE_LONG:
+                    return signed(size);
+                case VALUE_FLOAT:
+                    return Float.intBitsToFloat((int) (unsigned(size) << ((4 - size) * 8)));
+                case VALUE_DOUBLE:
+                    return Double.longBitsToDouble(unsigned(size) << ((8 - size) * 8));
+                case VALUE_STRING:
+                    return strings[(int) unsigned(size)];
+                case VALUE_TYPE:
+                    return type((int) unsigned(size));
+                case VALUE_ENUM:
+                    // enum constant is referenced as static field, field_id_item has name at offset 4
+                    int fieldIdsOffset = buffer.getInt(0x54);
+                    return strings[buffer.getInt(fieldIdsOffset + (int) unsigned(size) * 8 + 4)];
+                case VALUE_ARRAY:
+                    int arraySize = uleb128();
+                    ArrayList<Object> values = new ArrayList<>(arraySize);
+                    for (int i = 0; i < arraySize; i++) {
+                        values.add(encodedValue());
+                    }
+                    return values;
+                case VALUE_ANNOTATION:
+                    return encodedAnnotation();
+                case VALUE_NULL:
+                    return null;
+                case VALUE_BOOLEAN:
+                    return size == 2;
+                default:
+                    // method types, handles, fields and methods are not used by test annotations
+                    position += size;
+                    return null;
+            }
+        }
+
+        private long unsigned(int size) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result |= ((long) readUnsignedByte()) << (i * 8);
+            }
+            return result;
+        }
+
+        private long signed(int size) {
+            int shift = (8 - size) * 8;
+            return (unsigned(size) << shift) >> shift;
+        }
+    }
+
+    /**
+     * Class definition, names are type descriptors like "Lcom/test/Foo;".
+     */
+    static class DexClass {
+        final String name;
+        final int accessFlags;
+        @Nullable
+        final String superName;
+        final List<DexAnnotation> annotations = new ArrayList<>();
+        final List<DexMethod> methods = new ArrayList<>();
+        // Default values of members when class is annotation.
+        final Map<String, Object> defaults = new LinkedHashMap<>();
+
+        DexClass(String name, int accessFlags, @Nullable String superName) {
+            this.name = name;
+            this.accessFlags = accessFlags;
+            this.superName = superName;
+        }
+    }
+
+    /**
+     * Method definition, return type is type descriptor.
+     */
+    static class DexMethod {
+        final String name;
+        final int accessFlags;
+        final String returnType;
+        final int parametersCount;
+        final List<DexAnnotation> annotations = new ArrayList<>();
+
+        DexMethod(String name, int accessFlags, String returnType, int parametersCount) {
+            this.name = name;
+            this.accessFlags = accessFlags;
+            this.returnType = returnType;
+            this.parametersCount = parametersCount;
+        }
+    }
+
+    /**
+     * Annotation with explicitly set members, type is type descriptor.
+     */
+    static class DexAnnotation {
+        final String type;
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        DexAnnotation(String type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Thrown when dex file can't be read.
+     */
+    static class DexFormatException extends Exception {
+        DexFormatException(String message) {
+            super(message);
+        }
+
+        DexFormatException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.DexTestScanner.DexTest;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides test plan by reading classes*.dex files of androidTest apk on the host, so test plan
+ * is known without installing apk and running "am instrument" on device.
+ * Apk is parsed once, found tests are shared by all devices and filtered by "class", "notClass",
+ * "package", "notPackage", "annotation", "notAnnotation" and "size" instrumentation arguments.
+ * See {@link DexTestScanner} for differences from test discovery on device.
+ * <p>
+ * Filters which are applied by test runner on device, like @SdkSuppress, @RequiresDevice
+ * or custom filters of test runner, are not applied: such tests are in test plan of every device
+ * and are reported by "am instrument" as not run. Dynamic sharding returns them to queue
+ * a limited number of times, then their batch is failed, so tests are not lost silently.
+ */
+public class DexTestPlanProvider extends InstrumentalTestPlanProvider {
+    private static final String TAG = DexTestPlanProvider.class.getSimpleName();
+    private static final Pattern DEX_ENTRY = Pattern.compile("classes\\d*\\.dex");
+    private static final String TEST_ID = "AndroidJUnitRunner";
+    private static final List<String> UNSUPPORTED_ARGS = Arrays.asList("tests_regex", "filter", "testFile", "notTestFile");
+    private static final List<String> SIZE_ANNOTATION_PACKAGES = Arrays.asList("androidx.test.filters.",
+            "android.support.test.filters.", "android.test.suitebuilder.annotation.");
+    private final File testApk;
+    @Nullable
+    private List<DexTest> allTests;
+
+    public DexTestPlanProvider(Map<String, String> propertiesMap,
+                               InstrumentalExtension instrumentationInfo,
+                               PackageTreeGenerator packageTreeGenerator) {
+        super(propertiesMap, instrumentationInfo, packageTreeGenerator);
+        testApk = new File(instrumentationInfo.getTestApkPath());
+    }
+
+    /**
+     * Test plan from dex files doesn't depend on device type.
+     */
+    @Override
+    public List<TestPlanElement> provideTestPlan(ConnectedDeviceWrapper device,
+                                                 int deviceType,
+                                                 Map<String, String> instrumentalArgs) throws CommandExecutionException {
+        RunnerLogger logger = device.getLogger();
+        HashMap<String, String> args = new HashMap<>(instrumentalArgs);
+        args.putAll(getArgsFromCli());
+        for (String arg : UNSUPPORTED_ARGS) {
+            if (args.containsKey(arg)) {
+                logger.w(TAG, "Argument \"{}\" is not supported by test discovery on host and is ignored", arg);
+            }
+        }
+        List<DexTest> tests;
+        try {
+            tests = loadTests();
+        } catch (IOException e) {
+            throw new CommandExecutionException("Can't read tests from " + testApk, e);
+        }
+        TestFilter filter = new TestFilter(args);
+        ArrayList<TestPlanElement> result = new ArrayList<>();
+        for (DexTest test : tests) {
+            if (filter.matches(test)) {
+                result.add(new TestPlanElement(TEST_ID, test.methodName, test.className, test.annotations));
+            }
+        }
+        logger.i(TAG, "Found {} of {} tests in {}", result.size(), tests.size(), testApk.getName());
+        return result;
+    }
+
+    /**
+     * Parses dex files of test apk, is called by launcher before devices are started,
+     * so devices don't wait for parsing when they request test plan.
+     */
+    @Override
+    public void prepareTestPlan(RunnerLogger logger) throws CommandExecutionException {
+        try {
+            logger.i(TAG, "Found {} tests in {}", prepareTests(), testApk.getName());
+        } catch (IOException e) {
+            throw new CommandExecutionException("Can't read tests from " + testApk, e);
+        }
+    }
+
+    /**
+     * Parses dex files of test apk, doesn't need device.
+     *
+     * @return count of all tests in apk.
+     */
+    public int prepareTests() throws IOException {
+        return loadTests().size();
+    }
+
+    private synchronized List<DexTest> loadTests() throws IOException {
+        if (allTests == null) {
+            ArrayList<DexFile.DexClass> classes = new ArrayList<>();
+            try (ZipFile apk = new ZipFile(testApk)) {
+                for (ZipEntry entry : dexEntries(apk)) {
+                    try (InputStream in = apk.getInputStream(entry)) {
+                        classes.addAll(new DexFile(IOUtils.toByteArray(in)).readClasses());
+                    } catch (DexFile.DexFormatException e) {
+                        throw new IOException("Can't parse " + entry.getName(), e);
+                    }
+                }
+            }
+            allTests = Collections.unmodifiableList(new DexTestScanner(classes).findTests());
+        }
+        return allTests;
+    }
+
+    /**
+     * @return dex entries in order of loading: classes.dex, classes2.dex, ...
+     */
+    private static List<ZipEntry> dexEntries(ZipFile apk) {
+        ArrayList<ZipEntry> result = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = apk.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (DEX_ENTRY.matcher(entry.getName()).matches()) {
+                result.add(entry);
+            }
+        }
+        result.sort((e1, e2) -> e1.getName().length() != e2.getName().length() ?
+                Integer.compare(e1.getName().length(), e2.getName().length()) :
+                e1.getName().compareTo(e2.getName()));
+        return result;
+    }
+
+    /**
+     * Filters of AndroidJUnitRunner arguments, all filters must match.
+     */
+    static class TestFilter {
+        private final List<String> classes;
+        private final List<String> notClasses;
+        private final List<String> packages;
+        private final List<String> notPackages;
+        private final List<String> annotations;
+        private final List<String> notAnnotations;
+        @Nullable
+        private final String sizeAnnotation;
+
+        TestFilter(Map<String, String> args) {
+            classes = split(args.get("class"));
+            notClasses = split(args.get("notClass"));
+            packages = split(args.get("package"));
+            notPackages = split(args.get("notPackage"));
+            annotations = split(args.get("annotation"));
+            notAnnotations = split(args.get("notAnnotation"));
+            String size = args.get("size");
+            sizeAnnotation = size != null && !size.isEmpty() ?
+                    Character.toUpperCase(size.charAt(0)) + size.substring(1) + "Test" : null;
+        }
+
+        boolean matches(DexTest test) {
+            if (!classes.isEmpty() && !containsClass(classes, test)) {
+                return false;
+            }
+            if (containsClass(notClasses, test)) {
+                return false;
+            }
+            if (!packages.isEmpty() && !containsPackage(packages, test)) {
+                return false;
+            }
+            if (containsPackage(notPackages, test)) {
+                return false;
+            }
+            for (String annotation : annotations) {
+                if (!test.hasAnnotation(annotation)) {
+                    return false;
+                }
+            }
+            for (String annotation : notAnnotations) {
+                if (test.hasAnnotation(annotation)) {
+                    return false;
+                }
+            }
+            return sizeAnnotation == null || hasSizeAnnotation(test);
+        }
+
+        private boolean hasSizeAnnotation(DexTest test) {
+            for (String annotationPackage : SIZE_ANNOTATION_PACKAGES) {
+                if (test.hasAnnotation(annotationPackage + sizeAnnotation)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean containsClass(List<String> classes, DexTest test) {
+            for (String testClass : classes) {
+                int methodStart = testClass.indexOf('#');
+                if (methodStart < 0 ? testClass.equals(test.className) :
+                        testClass.regionMatches(0, test.className, 0, methodStart) &&
+                                methodStart == test.className.length() &&
+                                testClass.substring(methodStart + 1).equals(test.methodName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean containsPackage(List<String> packages, DexTest test) {
+            for (String testPackage : packages) {
+                if (test.className.startsWith(testPackage) && (test.className.length() == testPackage.length() ||
+                        test.className.charAt(testPackage.length()) == '.')) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static List<String> split(@Nullable String value) {
+            if (value == null || value.isEmpty()) {
+                return Collections.emptyList();
+            }
+            ArrayList<String> result = new ArrayList<>();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    result.add(item.trim());
+                }
+            }
+            return result;
+        }
+    }
+}
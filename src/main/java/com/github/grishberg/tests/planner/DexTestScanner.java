@@ -0,0 +1,207 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.planner.DexFile.DexAnnotation;
+import com.github.grishberg.tests.planner.DexFile.DexClass;
+import com.github.grishberg.tests.planner.DexFile.DexMethod;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Finds JUnit4 test methods in classes from dex files, like AndroidJUnitRunner does on device.
+ * Test methods are public non static void methods without arguments annotated with @Test,
+ * also inherited from superclasses, of public concrete classes.
+ * Annotations of tests are converted like AnnotationsTestPrinter does: members of annotation are
+ * all methods of annotation class with explicit or default values, ignored tests have no annotations.
+ * <p>
+ * Names of parameterized tests are not known before running, JUnit3 tests are not supported.
+ * This class is not thread safe.
+ */
+class DexTestScanner {
+    private static final String JUNIT_TEST = "Lorg/junit/Test;";
+    private static final String JUNIT_IGNORE = "Lorg/junit/Ignore;";
+    private final Map<String, DexClass> classes = new HashMap<>();
+    private final TestPlanInterner interner = new TestPlanInterner();
+
+    DexTestScanner(Collection<DexClass> dexClasses) {
+        for (DexClass dexClass : dexClasses) {
+            // the first definition wins, like in class loader of multidex apk
+            classes.putIfAbsent(dexClass.name, dexClass);
+        }
+    }
+
+    /**
+     * @return tests sorted by class name, methods in order of dex file.
+     */
+    List<DexTest> findTests() {
+        TreeMap<String, DexClass> testClasses = new TreeMap<>();
+        for (DexClass dexClass : classes.values()) {
+            if (isTestClassCandidate(dexClass)) {
+                testClasses.put(DexFile.toJavaName(dexClass.name), dexClass);
+            }
+        }
+        ArrayList<DexTest> result = new ArrayList<>();
+        for (Map.Entry<String, DexClass> entry : testClasses.entrySet()) {
+            addTests(interner.intern(entry.getKey()), entry.getValue(), result);
+        }
+        return result;
+    }
+
+    private static boolean isTestClassCandidate(DexClass dexClass) {
+        return (dexClass.accessFlags & DexFile.ACC_PUBLIC) != 0 &&
+                (dexClass.accessFlags & (DexFile.ACC_ABSTRACT | DexFile.ACC_INTERFACE)) == 0;
+    }
+
+    private void addTests(String className, DexClass testClass, List<DexTest> result) {
+        Set<String> classAnnotations = new HashSet<>();
+        for (DexAnnotation annotation : testClass.annotations) {
+            classAnnotations.add(DexFile.toJavaName(annotation.type));
+        }
+        boolean ignoredClass = hasAnnotation(testClass.annotations, JUNIT_IGNORE);
+        // JUnit collects @Test methods from subclass to superclass, overridden methods are taken once
+        HashSet<String> methodNames = new HashSet<>();
+        for (DexClass dexClass = testClass; dexClass != null; dexClass = superclass(dexClass)) {
+            for (DexMethod method : dexClass.methods) {
+                if (isTestMethod(method) && methodNames.add(method.name)) {
+                    result.add(createTest(className, method, classAnnotations, ignoredClass));
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private DexClass superclass(DexClass dexClass) {
+        return dexClass.superName != null ? classes.get(dexClass.superName) : null;
+    }
+
+    private static boolean isTestMethod(DexMethod method) {
+        return (method.accessFlags & DexFile.ACC_PUBLIC) != 0 &&
+                (method.accessFlags & DexFile.ACC_STATIC) == 0 &&
+                "V".equals(method.returnType) &&
+                method.parametersCount == 0 &&
+                hasAnnotation(method.annotations, JUNIT_TEST);
+    }
+
+    private DexTest createTest(String className, DexMethod method, Set<String> classAnnotations,
+                               boolean ignoredClass) {
+        ArrayList<String> annotationNames = new ArrayList<>(method.annotations.size());
+        ArrayList<AnnotationInfo> annotations = new ArrayList<>(method.annotations.size());
+        for (DexAnnotation annotation : method.annotations) {
+            AnnotationInfo annotationInfo = convert(annotation);
+            annotationNames.add(annotationInfo.getName());
+            annotations.add(annotationInfo);
+        }
+        if (ignoredClass || hasAnnotation(method.annotations, JUNIT_IGNORE)) {
+            annotations.clear();
+        }
+        return new DexTest(className, interner.intern(method.name), interner.intern(annotations),
+                annotationNames, classAnnotations);
+    }
+
+    private static boolean hasAnnotation(List<DexAnnotation> annotations, String type) {
+        for (DexAnnotation annotation : annotations) {
+            if (type.equals(annotation.type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private AnnotationInfo convert(DexAnnotation annotation) {
+        String name = interner.intern(DexFile.toJavaName(annotation.type));
+        DexClass annotationClass = classes.get(annotation.type);
+        ArrayList<AnnotationMember> members = new ArrayList<>();
+        if (annotationClass != null) {
+            for (DexMethod method : annotationClass.methods) {
+                Object value = annotation.values.containsKey(method.name) ?
+                        annotation.values.get(method.name) : annotationClass.defaults.get(method.name);
+                members.add(createMember(method.name, DexFile.toJavaName(method.returnType), value));
+            }
+        } else {
+            // annotation class is not in apk, only explicit values are known
+            for (Map.Entry<String, Object> value : annotation.values.entrySet()) {
+                members.add(createMember(value.getKey(), valueType(value.getValue()), value.getValue()));
+            }
+        }
+        return new AnnotationInfo(name, members);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AnnotationMember createMember(String name, String valueType, @Nullable Object value) {
+        AnnotationMember member = new AnnotationMember(interner.intern(name), interner.intern(valueType),
+                null, null, null, null, null);
+        switch (valueType) {
+            case "int":
+                member.setIntValue(value instanceof Integer ? (Integer) value : null);
+                break;
+            case "java.lang.String":
+                member.setStrValue(value instanceof String ? (String) value : null);
+                break;
+            case "boolean":
+                member.setBoolValue(value instanceof Boolean ? (Boolean) value : null);
+                break;
+            case "java.lang.String[]":
+                if (value instanceof List) {
+                    member.setStrArray(new ArrayList<>((List<String>) value));
+                }
+                break;
+            case "int[]":
+                if (value instanceof List) {
+                    member.setIntArray(new ArrayList<>((List<Integer>) value));
+                }
+                break;
+            default:
+                // other types are not printed by AnnotationsTestPrinter
+        }
+        return member;
+    }
+
+    private static String valueType(@Nullable Object value) {
+        if (value instanceof Integer) {
+            return "int";
+        }
+        if (value instanceof Boolean) {
+            return "boolean";
+        }
+        if (value instanceof String) {
+            return "java.lang.String";
+        }
+        if (value instanceof List && !((List<?>) value).isEmpty()) {
+            return valueType(((List<?>) value).get(0)) + "[]";
+        }
+        return "java.lang.Object";
+    }
+
+    /**
+     * Found test method with names of annotations of method and its class, which are used by
+     * annotation filters of instrumentation even when test is ignored.
+     */
+    static class DexTest {
+        final String className;
+        final String methodName;
+        final List<AnnotationInfo> annotations;
+        private final List<String> methodAnnotations;
+        private final Set<String> classAnnotations;
+
+        DexTest(String className, String methodName, List<AnnotationInfo> annotations,
+                List<String> methodAnnotations, Set<String> classAnnotations) {
+            this.className = className;
+            this.methodName = methodName;
+            this.annotations = annotations;
+            this.methodAnnotations = methodAnnotations;
+            this.classAnnotations = classAnnotations;
+        }
+
+        boolean hasAnnotation(String annotationName) {
+            return methodAnnotations.contains(annotationName) || classAnnotations.contains(annotationName);
+        }
+    }
+}
@@ -1,358 +1,518 @@
 package com.github.grishberg.tests.planner;
 
-import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.IShellOutputReceiver;
 import com.github.grishberg.tests.common.RunnerLogger;
 import com.github.grishberg.tests.exceptions.ProcessCrashedException;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import org.jetbrains.annotations.NotNull;
-
-import javax.annotation.Nonnull;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
 
 /**
- * Parses am instrument -e log true output and generates.
+ * Parses am instrument -e log true output and generates test plan.
+ * Output is parsed incrementally from raw bytes: Strings are allocated only for values which are stored
+ * in test plan, annotations are read with streaming json reader and duplicated tests are found with hash index.
+ * Test id, class names and annotation lists are shared between elements of test plan, equal annotations
+ * are parsed only once.
  */
-public class InstrumentTestLogParser extends MultiLineReceiver {
+public class InstrumentTestLogParser implements IShellOutputReceiver {
     private static final String TAG = InstrumentTestLogParser.class.getSimpleName();
-    private static final String INSTRUMENTATION_STATUS = "INSTRUMENTATION_STATUS: ";
-    private static final String INSTRUMENTATION_RESULT = "INSTRUMENTATION_RESULT: ";
-    private static final String INSTRUMENTATION_CODE = "INSTRUMENTATION_CODE: ";
-    private static final String INSTRUMENTATION_FAILED = "INSTRUMENTATION_FAILED: ";
-    private static final String ID = "id";
-    private static final String TEST = "test";
-    private static final String CLASS = "class";
-    private static final String ERROR = "error";
-    private static final String ANNOTATIONS = "annotations";
-    private static final String SHORT_MSG = "shortMsg";
-    private static final String LONG_MSG = "longMsg";
+    private static final byte[] INSTRUMENTATION = ascii("INSTRUMENTATION_");
+    private static final byte[] RESULT = ascii("RESULT: ");
+    private static final byte[] CODE = ascii("CODE: ");
+    private static final byte[] FAILED = ascii("FAILED: ");
+    private static final byte[] STATUS = ascii("STATUS: ");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] TEST = ascii("test");
+    private static final byte[] CLASS = ascii("class");
+    private static final byte[] ERROR = ascii("error");
+    private static final byte[] ANNOTATIONS = ascii("annotations");
+    private static final byte[] NUM_TESTS = ascii("numtests");
+    private static final byte[] STREAM = ascii("stream");
+    private static final byte[] CURRENT = ascii("current");
+    private static final byte[] SHORT_MSG = ascii("shortMsg");
+    private static final byte[] LONG_MSG = ascii("longMsg");
+    private static final byte[] SUCCESS_CODE = ascii("0");
+    // Markers are ordered by priority, when line contains several markers.
+    private static final int MARKER_NONE = -1;
+    private static final int MARKER_RESULT = 0;
+    private static final int MARKER_CODE = 1;
+    private static final int MARKER_FAILED = 2;
+    private static final int MARKER_STATUS = 3;
+    private static final byte[][] MARKERS = {RESULT, CODE, FAILED, STATUS};
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
     private final RunnerLogger logger;
-    private final Gson gson = new GsonBuilder().create();
     private final ArrayList<TestPlanElement> testPlanList = new ArrayList<>();
-    private State state = new StartNewObject();
+    private final HashMap<TestKey, Integer> testPlanIndex = new HashMap<>();
+    private final TestPlanInterner interner = new TestPlanInterner();
+    // Parsed annotations by json from output.
+    private final HashMap<String, List<AnnotationInfo>> parsedAnnotations = new HashMap<>();
+    // Bytes of unfinished line from previous chunk.
+    private byte[] lineBuffer = new byte[INITIAL_LINE_CAPACITY];
+    private int lineLength;
+
+    private String testId;
+    private String testMethodName;
+    private String testClassName;
+    private List<AnnotationInfo> annotations;
+
+    private boolean processCrashed;
+    private String shortMessage = "";
+    private String longMessage;
+    private StringBuilder instrumentationFailedOutput;
 
     public InstrumentTestLogParser(RunnerLogger logger) {
         this.logger = logger;
     }
 
     /**
-     * @param lines input lines from am instrument.
-     * @throws InstrumentTestLogParserException
+     * @throws InstrumentTestLogParserException when instrumentation can't be started.
+     * @throws ProcessCrashedException          when tested process crashed.
      */
     @Override
-    public void processNewLines(String[] lines) throws InstrumentTestLogParserException {
-        for (String word : lines) {
-            processLine(word);
+    public void addOutput(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (lineLength == 0) {
+                processLine(data, lineStart, i);
+            } else {
+                appendToLineBuffer(data, lineStart, i);
+                processLine(lineBuffer, 0, lineLength);
+                lineLength = 0;
+            }
+            lineStart = i + 1;
         }
-        state.storeValuesIfNeeded();
+        appendToLineBuffer(data, lineStart, end);
+        throwIfInstrumentationFailed();
     }
 
-    private void processLine(String word) throws InstrumentTestLogParserException {
-        if (logger != null) {
-            logger.d(TAG, word);
-        }
-        state.onNewLine(word);
-        int startPos = word.indexOf(INSTRUMENTATION_RESULT);
-        if (startPos >= 0) {
-            parseInstrumentationResult(word.substring(startPos + INSTRUMENTATION_STATUS.length()));
-            return;
+    @Override
+    public void flush() {
+        if (lineLength > 0) {
+            processLine(lineBuffer, 0, lineLength);
+            lineLength = 0;
         }
+        throwIfInstrumentationFailed();
+        storeTestIfReady();
+    }
 
-        startPos = word.indexOf(INSTRUMENTATION_CODE);
-        if (startPos >= 0) {
-            state.setCode(word.substring(startPos + INSTRUMENTATION_CODE.length()));
-            return;
-        }
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
 
-        if (word.contains(INSTRUMENTATION_FAILED)) {
-            state = new InstrumentationFailedState(word);
-            return;
+    public List<TestPlanElement> getTestInstances() {
+        return testPlanList;
+    }
+
+    /**
+     * Adds values of test status received in other output format, status values are handled
+     * like lines of text output.
+     *
+     * @param annotationsJson annotations printed by instrumentation listener.
+     */
+    void addStatus(@Nullable String id, @Nullable String methodName, @Nullable String className,
+                   @Nullable String annotationsJson) {
+        if (id != null) {
+            storeTestIfReady();
+            testId = interner.intern(id);
+        }
+        if (methodName != null && !isTestReady()) {
+            testMethodName = methodName;
+        }
+        if (className != null && !isTestReady()) {
+            testClassName = interner.intern(className);
         }
+        if (annotationsJson != null) {
+            byte[] json = annotationsJson.getBytes(StandardCharsets.UTF_8);
+            annotations = getAnnotations(json, 0, json.length);
+        }
+    }
 
-        startPos = word.indexOf(INSTRUMENTATION_STATUS);
-        if (startPos < 0) {
+    private void appendToLineBuffer(byte[] data, int start, int end) {
+        int count = end - start;
+        if (count <= 0) {
             return;
         }
+        if (lineLength + count > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + count));
+        }
+        System.arraycopy(data, start, lineBuffer, lineLength, count);
+        lineLength += count;
+    }
 
-        String payload = word.substring(startPos + INSTRUMENTATION_STATUS.length());
-        String[] words = getSplitArray(payload);
+    private void processLine(byte[] line, int start, int end) {
+        while (start < end && line[start] <= ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] <= ' ') {
+            end--;
+        }
+        if (instrumentationFailedOutput != null) {
+            appendFailedOutput(line, start, end);
+        }
 
-        if (words.length != 2) {
-            return;
+        int marker = MARKER_NONE;
+        int valueStart = -1;
+        for (int pos = indexOf(line, start, end, INSTRUMENTATION); pos >= 0;
+             pos = indexOf(line, pos + 1, end, INSTRUMENTATION)) {
+            int suffixStart = pos + INSTRUMENTATION.length;
+            for (int i = 0; i < MARKERS.length; i++) {
+                if ((marker == MARKER_NONE || i < marker) && startsWith(line, suffixStart, end, MARKERS[i])) {
+                    marker = i;
+                    valueStart = suffixStart + MARKERS[i].length;
+                }
+            }
         }
 
-        switch (words[0].toLowerCase()) {
-            case ID:
-                state.storeValuesIfNeeded();
-                state.setTestId(words[1]);
+        switch (marker) {
+            case MARKER_RESULT:
+                onInstrumentationResult(line, valueStart, end);
                 break;
 
-            case TEST:
-                state.setTestMethod(words[1]);
+            case MARKER_CODE:
+                if (processCrashed && equalsAt(line, valueStart, end, SUCCESS_CODE)) {
+                    throw new ProcessCrashedException(longMessage != null ? longMessage : shortMessage);
+                }
                 break;
 
-            case CLASS:
-                state.setClassName(words[1]);
+            case MARKER_FAILED:
+                if (instrumentationFailedOutput == null) {
+                    instrumentationFailedOutput = new StringBuilder();
+                    appendFailedOutput(line, start, end);
+                }
                 break;
 
-            case ANNOTATIONS:
-                state.setAnnotations(parseAnnotations(words[1]));
+            case MARKER_STATUS:
+                onInstrumentationStatus(line, valueStart, end);
                 break;
 
-            case ERROR:
-                throw new InstrumentTestLogParserException(words[1]);
-
             default:
-                logger.w(TAG, "Unknown parameter: {}={}", words[0], words[1]);
+                break;
         }
     }
 
-    private void parseInstrumentationResult(String payload) {
-        if (state instanceof StartNewObject) {
-            state = new ProcessCrashedState();
+    private void onInstrumentationResult(byte[] line, int start, int end) {
+        if (instrumentationFailedOutput == null && !processCrashed && !isTestReady()) {
+            processCrashed = true;
         }
-        String[] words = getSplitArray(payload);
-
-        if (SHORT_MSG.equals(words[0])) {
-            state.setShortMessage(words[1]);
+        int separator = indexOf(line, start, end, '=');
+        if (!processCrashed || separator < 0) {
+            return;
         }
-
-        if (LONG_MSG.equals(words[0])) {
-            state.setLongMessage(words[1]);
+        if (equalsAt(line, start, separator, SHORT_MSG)) {
+            shortMessage = newString(line, separator + 1, end);
+        } else if (equalsAt(line, start, separator, LONG_MSG)) {
+            longMessage = newString(line, separator + 1, end);
         }
     }
 
-    @NotNull
-    private String[] getSplitArray(String payload) {
-        return payload.split("=", 2);
-    }
+    private void onInstrumentationStatus(byte[] line, int start, int end) {
+        int separator = indexOf(line, start, end, '=');
+        if (separator < 0) {
+            return;
+        }
+        int valueStart = separator + 1;
+        boolean collectingTests = instrumentationFailedOutput == null && !processCrashed;
 
-    private List<AnnotationInfo> parseAnnotations(@Nonnull String annotations) {
-        return Arrays.asList(gson.fromJson(annotations, AnnotationInfo[].class));
+        if (equalsIgnoreCaseAt(line, start, separator, ID)) {
+            if (collectingTests) {
+                storeTestIfReady();
+                testId = interner.intern(newString(line, valueStart, end));
+            }
+        } else if (equalsIgnoreCaseAt(line, start, separator, TEST)) {
+            if (collectingTests && !isTestReady()) {
+                testMethodName = newString(line, valueStart, end);
+            }
+        } else if (equalsIgnoreCaseAt(line, start, separator, CLASS)) {
+            if (collectingTests && !isTestReady()) {
+                testClassName = interner.intern(newString(line, valueStart, end));
+            }
+        } else if (equalsIgnoreCaseAt(line, start, separator, ANNOTATIONS)) {
+            if (collectingTests) {
+                annotations = getAnnotations(line, valueStart, end);
+            }
+        } else if (equalsIgnoreCaseAt(line, start, separator, ERROR)) {
+            throw new InstrumentTestLogParserException(newString(line, valueStart, end));
+        } else if (!equalsIgnoreCaseAt(line, start, separator, NUM_TESTS)
+                && !equalsIgnoreCaseAt(line, start, separator, STREAM)
+                && !equalsIgnoreCaseAt(line, start, separator, CURRENT)) {
+            logger.w(TAG, "Unknown parameter: {}={}",
+                    newString(line, start, separator), newString(line, valueStart, end));
+        }
     }
 
-    @Override
-    public boolean isCancelled() {
-        return false;
+    private boolean isTestReady() {
+        return testId != null && testMethodName != null && testClassName != null;
     }
 
-    public List<TestPlanElement> getTestInstances() {
-        return testPlanList;
+    /**
+     * Stores collected test, if test id, method and class were received. When test was already stored,
+     * only annotations of stored test are replaced.
+     */
+    private void storeTestIfReady() {
+        if (!isTestReady()) {
+            return;
+        }
+        TestKey key = new TestKey(testId, testMethodName, testClassName);
+        Integer pos = testPlanIndex.get(key);
+        if (pos == null) {
+            testPlanIndex.put(key, testPlanList.size());
+            testPlanList.add(new TestPlanElement(testId, testMethodName, testClassName,
+                    annotations != null ? annotations : Collections.emptyList()));
+        } else if (annotations != null) {
+            testPlanList.set(pos, new TestPlanElement(testId, testMethodName, testClassName, annotations));
+        }
+        testId = null;
+        testMethodName = null;
+        testClassName = null;
+        annotations = null;
     }
 
-    private interface State {
-        void storeValuesIfNeeded();
-
-        void setAnnotations(List<AnnotationInfo> annotations);
-
-        void setTestId(String testId);
-
-        void setTestMethod(String testMethod);
-
-        void setClassName(String className);
-
-        void setShortMessage(String shortMsg);
-
-        void setLongMessage(String longMsg);
-
-        void setCode(String code);
-
-        default void onNewLine(String word) { /* stub */ }
+    private void appendFailedOutput(byte[] line, int start, int end) {
+        instrumentationFailedOutput.append(newString(line, start, end));
+        instrumentationFailedOutput.append("\n");
     }
 
-    private class StartNewObject implements State {
-        private String testId;
-        private String testMethodName;
-        private String testClassName;
-        private List<AnnotationInfo> annotations;
-
-        @Override
-        public void setTestId(String id) {
-            testId = id;
-        }
-
-        @Override
-        public void setTestMethod(String testMethod) {
-            testMethodName = testMethod;
-            changeStateIfNeeded();
-        }
-
-        @Override
-        public void setClassName(String className) {
-            testClassName = className;
-            changeStateIfNeeded();
+    private void throwIfInstrumentationFailed() {
+        if (instrumentationFailedOutput != null) {
+            throw new InstrumentTestLogParserException(instrumentationFailedOutput.toString());
         }
+    }
 
-        @Override
-        public void setAnnotations(List<AnnotationInfo> annotations) {
-            this.annotations = annotations;
+    private List<AnnotationInfo> getAnnotations(byte[] line, int start, int end) {
+        String json = newString(line, start, end);
+        List<AnnotationInfo> result = parsedAnnotations.get(json);
+        if (result == null) {
+            result = interner.intern(parseAnnotations(line, start, end));
+            parsedAnnotations.put(json, result);
         }
+        return result;
+    }
 
-        @Override
-        public void storeValuesIfNeeded() { /* not used */ }
-
-        @Override
-        public void setShortMessage(String shortMsg) { /* not used */ }
-
-        @Override
-        public void setLongMessage(String longMsg) { /* not used */ }
-
-        @Override
-        public void setCode(String code) { /* not used */ }
-
-        private void changeStateIfNeeded() {
-            if (testId != null && testMethodName != null && testClassName != null) {
-                state = new ReadyToStoreObject(testId, testMethodName, testClassName);
-                if (annotations != null) {
-                    state.setAnnotations(annotations);
-                }
+    private static List<AnnotationInfo> parseAnnotations(byte[] line, int start, int end) {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(line, start, end - start), StandardCharsets.UTF_8))) {
+            // am instrument output may contain '=' as name separator.
+            reader.setLenient(true);
+            ArrayList<AnnotationInfo> result = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                result.add(readAnnotation(reader));
             }
+            reader.endArray();
+            return result;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new InstrumentTestLogParserException("Can't parse annotations: "
+                    + newString(line, start, end));
         }
     }
 
-    private class ReadyToStoreObject implements State {
-        private final String testId;
-        private final String testMethodName;
-        private final String testClassName;
-        private TestPlanElement testPlan;
-        private List<AnnotationInfo> annotations = Collections.emptyList();
-
-        private ReadyToStoreObject(String testId, String testMethodName, String testClassName) {
-            this.testId = testId;
-            this.testMethodName = testMethodName;
-            this.testClassName = testClassName;
+    private static AnnotationInfo readAnnotation(JsonReader reader) throws IOException {
+        String name = "";
+        List<AnnotationMember> members = Collections.emptyList();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name":
+                    name = reader.nextString();
+                    break;
+
+                case "members":
+                    ArrayList<AnnotationMember> readMembers = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readMembers.add(readMember(reader));
+                    }
+                    reader.endArray();
+                    members = readMembers;
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.endObject();
+        return new AnnotationInfo(name, members);
+    }
 
-        @Override
-        public void setTestId(String testId) {
-            storeValuesIfNeeded();
-            state = new StartNewObject();
-            state.setTestId(testId);
+    private static AnnotationMember readMember(JsonReader reader) throws IOException {
+        String name = "";
+        String valueType = "";
+        Integer intValue = null;
+        String strValue = null;
+        ArrayList<String> strArray = null;
+        ArrayList<Integer> intArray = null;
+        Boolean boolValue = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name":
+                    name = reader.nextString();
+                    break;
+
+                case "valueType":
+                    valueType = reader.nextString();
+                    break;
+
+                case "intValue":
+                    intValue = reader.nextInt();
+                    break;
+
+                case "strValue":
+                    strValue = reader.nextString();
+                    break;
+
+                case "boolValue":
+                    boolValue = reader.nextBoolean();
+                    break;
+
+                case "strArray":
+                    strArray = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        strArray.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+
+                case "intArray":
+                    intArray = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        intArray.add(reader.nextInt());
+                    }
+                    reader.endArray();
+                    break;
+
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.endObject();
+        return new AnnotationMember(name, valueType, intValue, strValue, strArray, intArray, boolValue);
+    }
 
-        @Override
-        public void storeValuesIfNeeded() {
-            testPlan = new TestPlanElement(testId, testMethodName, testClassName, annotations);
+    private static String newString(byte[] line, int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
 
-            if (!testPlanList.contains(testPlan)) {
-                testPlanList.add(testPlan);
+    private static int indexOf(byte[] line, int start, int end, char value) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == value) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        @Override
-        public void setAnnotations(List<AnnotationInfo> annotations) {
-            if (testPlan != null) {
-                testPlan = new TestPlanElement(testId, testMethodName, testClassName, annotations);
-                replaceTestPlanInListIfExists(testPlan);
-                return;
+    private static int indexOf(byte[] line, int start, int end, byte[] pattern) {
+        int last = end - pattern.length;
+        for (int i = start; i <= last; i++) {
+            if (line[i] == pattern[0] && startsWith(line, i, end, pattern)) {
+                return i;
             }
-            this.annotations = annotations;
         }
+        return -1;
+    }
 
-        private void replaceTestPlanInListIfExists(TestPlanElement testPlan) {
-            int pos = testPlanList.indexOf(testPlan); // see TestPlanElement.equals
-            if (pos >= 0) {
-                testPlanList.remove(pos);
-                testPlanList.add(testPlan);
+    private static boolean startsWith(byte[] line, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[start + i] != prefix[i]) {
+                return false;
             }
         }
-
-        @Override
-        public void setTestMethod(String testMethod) {/* not used */}
-
-        @Override
-        public void setClassName(String className) {/* not used */}
-
-        @Override
-        public void setShortMessage(String shortMsg) { /* not used */ }
-
-        @Override
-        public void setLongMessage(String longMsg) { /* not used */ }
-
-        @Override
-        public void setCode(String code) { /* not used */ }
+        return true;
     }
 
-    private class ProcessCrashedState implements State {
-        private String shortMessage = "";
-        private String longMessage;
-
-        @Override
-        public void storeValuesIfNeeded() { /* not used */ }
-
-        @Override
-        public void setAnnotations(List<AnnotationInfo> annotations) { /* not used */ }
-
-        @Override
-        public void setTestId(String testId) { /* not used */ }
-
-        @Override
-        public void setTestMethod(String testMethod) { /* not used */ }
-
-        @Override
-        public void setClassName(String className) { /* not used */ }
-
-        @Override
-        public void setShortMessage(String shortMsg) {
-            shortMessage = shortMsg;
-        }
+    private static boolean equalsAt(byte[] line, int start, int end, byte[] value) {
+        return end - start == value.length && startsWith(line, start, end, value);
+    }
 
-        @Override
-        public void setLongMessage(String longMsg) {
-            longMessage = longMsg;
+    /**
+     * Compares ascii key with lowercase value.
+     */
+    private static boolean equalsIgnoreCaseAt(byte[] line, int start, int end, byte[] lowerCaseValue) {
+        if (end - start != lowerCaseValue.length) {
+            return false;
         }
-
-        @Override
-        public void setCode(String code) {
-            if ("0".equals(code)) {
-                throw new ProcessCrashedException(
-                        longMessage != null ? longMessage : shortMessage
-                );
+        for (int i = 0; i < lowerCaseValue.length; i++) {
+            byte b = line[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCaseValue[i]) {
+                return false;
             }
         }
+        return true;
     }
 
-    private class InstrumentationFailedState implements State {
-        private final StringBuilder sb = new StringBuilder();
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
 
-        public InstrumentationFailedState(String failedLine) {
-            sb.append(failedLine);
-            sb.append("\n");
-        }
+    /**
+     * Test identity used for deduplication, annotations are not included.
+     */
+    private static final class TestKey {
+        private final String testId;
+        private final String methodName;
+        private final String className;
+        private final int hash;
 
-        @Override
-        public void storeValuesIfNeeded() {
-            throw new InstrumentTestLogParserException(sb.toString());
+        private TestKey(String testId, String methodName, String className) {
+            this.testId = testId;
+            this.methodName = methodName;
+            this.className = className;
+            hash = Objects.hash(testId, methodName, className);
         }
 
         @Override
-        public void onNewLine(String word) {
-            sb.append(word);
-            sb.append("\n");
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TestKey)) {
+                return false;
+            }
+            TestKey that = (TestKey) o;
+            return testId.equals(that.testId)
+                    && methodName.equals(that.methodName)
+                    && className.equals(that.className);
         }
 
         @Override
-        public void setAnnotations(List<AnnotationInfo> annotations) { /* not used */ }
-
-        @Override
-        public void setTestId(String testId) { /* not used */ }
-
-        @Override
-        public void setTestMethod(String testMethod) { /* not used */ }
-
-        @Override
-        public void setClassName(String className) { /* not used */ }
-
-        @Override
-        public void setShortMessage(String shortMsg) { /* not used */ }
-
-        @Override
-        public void setLongMessage(String longMsg) { /* not used */ }
-
-        @Override
-        public void setCode(String code) { /* not used */ }
+        public int hashCode() {
+            return hash;
+        }
     }
 }
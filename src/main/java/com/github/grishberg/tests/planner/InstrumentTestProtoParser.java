@@ -0,0 +1,63 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.InstrumentationProtoReceiver;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.exceptions.ProcessCrashedException;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses am instrument -m -e log true output and generates test plan, like
+ * {@link InstrumentTestLogParser} does for text output.
+ * Throws {@link InstrumentTestLogParserException} when instrumentation can't be started and
+ * {@link ProcessCrashedException} when tested process crashed.
+ */
+public class InstrumentTestProtoParser extends InstrumentationProtoReceiver {
+    private static final String ID = "id";
+    private static final String TEST = "test";
+    private static final String CLASS = "class";
+    private static final String ERROR = "error";
+    private static final String ANNOTATIONS = "annotations";
+    private static final String SHORT_MSG = "shortMsg";
+    private static final String LONG_MSG = "longMsg";
+    private final InstrumentTestLogParser testPlan;
+
+    public InstrumentTestProtoParser(RunnerLogger logger) {
+        testPlan = new InstrumentTestLogParser(logger);
+    }
+
+    public List<TestPlanElement> getTestInstances() {
+        return testPlan.getTestInstances();
+    }
+
+    @Override
+    protected void onTestStatus(int resultCode, Map<String, String> results) {
+        String error = results.get(ERROR);
+        if (error != null) {
+            throw new InstrumentTestLogParserException(error);
+        }
+        testPlan.addStatus(results.get(ID), results.get(TEST), results.get(CLASS), results.get(ANNOTATIONS));
+    }
+
+    @Override
+    public void flush() {
+        super.flush();
+        // stores last test
+        testPlan.flush();
+    }
+
+    @Override
+    protected void onSessionStatus(int statusCode, @Nullable String errorText,
+                                   int resultCode, Map<String, String> results) {
+        if (statusCode == SESSION_ABORTED) {
+            throw new InstrumentTestLogParserException(errorText != null ? errorText : "Instrumentation aborted");
+        }
+        String shortMessage = results.get(SHORT_MSG);
+        if (resultCode == 0 && shortMessage != null) {
+            String longMessage = results.get(LONG_MSG);
+            throw new ProcessCrashedException(longMessage != null ? longMessage : shortMessage);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.grishberg.tests.planner;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -15,4 +16,13 @@ public interface InstrumentalTestHolder {
      * Returns total count of tests (TestPlanElement items) that this class holds.
      */
     int size();
+
+    /**
+     * @return index of all test methods in project by annotations.
+     */
+    default AnnotationIndex provideAnnotationIndex() {
+        List<TestPlanElement> tests = new ArrayList<>(size());
+        provideTestNodeElementsIterator().forEachRemaining(tests::add);
+        return new AnnotationIndex(tests);
+    }
 }
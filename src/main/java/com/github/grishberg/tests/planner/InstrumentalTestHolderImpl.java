@@ -11,6 +11,7 @@ public class InstrumentalTestHolderImpl implements InstrumentalTestHolder {
     private List<TestPlanElement> planList;
     private final PackageTreeGenerator packageTreeGenerator;
     private ArrayList<TestPlanElement> prevRoots = new ArrayList<>();
+    private AnnotationIndex annotationIndex;
 
     InstrumentalTestHolderImpl(List<TestPlanElement> planList, PackageTreeGenerator packageTreeGenerator) {
         this.planList = planList;
@@ -52,6 +53,17 @@ public class InstrumentalTestHolderImpl implements InstrumentalTestHolder {
         return planList.size();
     }
 
+    /**
+     * @return index of all test methods in project by annotations, is built once.
+     */
+    @Override
+    public AnnotationIndex provideAnnotationIndex() {
+        if (annotationIndex == null) {
+            annotationIndex = new AnnotationIndex(planList);
+        }
+        return annotationIndex;
+    }
+
     /**
      * Returns tree-items in flat list.
      */
@@ -3,12 +3,19 @@ package com.github.grishberg.tests.planner;
 import com.github.grishberg.tests.ConnectedDeviceWrapper;
 import com.github.grishberg.tests.InstrumentalExtension;
 import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.common.InstrumentationProtoReceiver;
 import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.sharding.TestBatchQueue;
 
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,9 +24,15 @@ import java.util.concurrent.TimeUnit;
  */
 public class InstrumentalTestPlanProvider {
     private static final String TAG = InstrumentalTestPlanProvider.class.getSimpleName();
+    // device type of test plan which is not shared between devices of one type
+    static final int UNKNOWN_DEVICE_TYPE = -1;
     private final InstrumentalExtension instrumentationInfo;
     private final Map<String, String> propertiesMap;
     private final PackageTreeGenerator packageTreeGenerator;
+    private final Map<Integer, TestBatchQueue> batchQueues = new HashMap<>();
+    private final Map<String, SharedTestPlan> sharedTestPlans = new HashMap<>();
+    @Nullable
+    private final TestPlanCache testPlanCache;
 
     public InstrumentalTestPlanProvider(Map<String, String> propertiesMap,
                                         InstrumentalExtension instrumentationInfo,
@@ -27,10 +40,29 @@ public class InstrumentalTestPlanProvider {
         this.propertiesMap = Collections.unmodifiableMap(propertiesMap);
         this.instrumentationInfo = new InstrumentalExtension(instrumentationInfo);
         this.packageTreeGenerator = packageTreeGenerator;
+        if (instrumentationInfo.getTestApkPath() != null && instrumentationInfo.getTestPlanCacheDir() != null) {
+            testPlanCache = new TestPlanCache(new File(instrumentationInfo.getTestPlanCacheDir()),
+                    new File(instrumentationInfo.getTestApkPath()));
+        } else {
+            testPlanCache = null;
+        }
     }
 
     public List<TestPlanElement> provideTestPlan(ConnectedDeviceWrapper device,
                                                  Map<String, String> instrumentalArgs) throws CommandExecutionException {
+        return provideTestPlan(device, UNKNOWN_DEVICE_TYPE, instrumentalArgs);
+    }
+
+    /**
+     * Discovers test plan on device. Discovered plan depends on device, because instrumentation
+     * skips tests with @SdkSuppress and similar filters, so cached plan is reused only for devices
+     * with the same device type and API level.
+     *
+     * @param deviceType type of device, see {@link com.github.grishberg.tests.sharding.DeviceTypeAdapter}
+     */
+    public List<TestPlanElement> provideTestPlan(ConnectedDeviceWrapper device,
+                                                 int deviceType,
+                                                 Map<String, String> instrumentalArgs) throws CommandExecutionException {
         RunnerLogger logger = device.getLogger();
         logger.i(TAG, "Get list of tests in \"{}\" app", instrumentationInfo.getInstrumentalPackage());
         HashMap<String, String> args = new HashMap<>(instrumentalArgs);
@@ -38,11 +70,24 @@ public class InstrumentalTestPlanProvider {
 
         args.putAll(getArgsFromCli());
 
-        InstrumentTestLogParser receiver = new InstrumentTestLogParser(logger);
-        StringBuilder command = new StringBuilder("am instrument -r -w");
-
         args.put("listener", instrumentationInfo.getInstrumentListener());
 
+        String cacheKey = createCacheKey(logger, deviceType, device.getApiLevel(), args);
+        if (cacheKey != null) {
+            List<TestPlanElement> cachedTestPlan = testPlanCache.load(cacheKey, logger);
+            if (cachedTestPlan != null) {
+                logger.i(TAG, "Found {} tests in {} from test plan cache",
+                        cachedTestPlan.size(), instrumentationInfo.getInstrumentalPackage());
+                return cachedTestPlan;
+            }
+        }
+
+        boolean protoOutput = instrumentationInfo.isProtoOutputEnabled() &&
+                InstrumentationProtoReceiver.isSupported(device.getApiLevel());
+        InstrumentTestLogParser textReceiver = protoOutput ? null : new InstrumentTestLogParser(logger);
+        InstrumentTestProtoParser protoReceiver = protoOutput ? new InstrumentTestProtoParser(logger) : null;
+        StringBuilder command = new StringBuilder(protoOutput ? "am instrument -m -w" : "am instrument -r -w");
+
         for (Map.Entry<String, String> arg : args.entrySet()) {
             command.append(" -e ");
             command.append(arg.getKey());
@@ -56,17 +101,120 @@ public class InstrumentalTestPlanProvider {
 
         try {
             device.executeShellCommand(command.toString(),
-                    receiver, instrumentationInfo.getMaxTimeToOutputResponseInSeconds(), TimeUnit.SECONDS);
+                    protoOutput ? protoReceiver : textReceiver,
+                    instrumentationInfo.getMaxTimeToOutputResponseInSeconds(), TimeUnit.SECONDS);
         } catch (Throwable e) {
             throw new CommandExecutionException(e);
         }
-        logger.i(TAG, "Found {} tests in {}",
-                receiver.getTestInstances().size(), instrumentationInfo.getInstrumentalPackage());
+        List<TestPlanElement> testPlan = protoOutput ? protoReceiver.getTestInstances() :
+                textReceiver.getTestInstances();
+        logger.i(TAG, "Found {} tests in {}", testPlan.size(), instrumentationInfo.getInstrumentalPackage());
 
-        return receiver.getTestInstances();
+        if (cacheKey != null) {
+            try {
+                testPlanCache.save(cacheKey, testPlan);
+            } catch (IOException e) {
+                logger.e(TAG, "Can't save test plan cache", e);
+            }
+        }
+        return testPlan;
     }
 
-    private Map<String, String> getArgsFromCli() {
+    /**
+     * Prepares test plan before devices are ready, does nothing because test plan is discovered
+     * on device.
+     */
+    public void prepareTestPlan(RunnerLogger logger) throws CommandExecutionException {
+        // test plan is discovered by the first device which requests it
+    }
+
+    @Nullable
+    private String createCacheKey(RunnerLogger logger, int deviceType, int apiLevel, Map<String, String> args) {
+        if (testPlanCache == null) {
+            return null;
+        }
+        try {
+            return testPlanCache.createKey(instrumentationInfo.getInstrumentalPackage() + "/" +
+                    instrumentationInfo.getInstrumentalRunner(), deviceType, apiLevel, args);
+        } catch (IOException e) {
+            logger.e(TAG, "Can't create test plan cache key", e);
+            return null;
+        }
+    }
+
+    /**
+     * Provides test plan shared between all devices with the same device type and instrumental args.
+     * Test plan is discovered only once, on the first device which requests it,
+     * other devices wait until discovery is finished. Returned list is read-only.
+     *
+     * @param device           device which requests tests.
+     * @param deviceType       type of device, see {@link com.github.grishberg.tests.sharding.DeviceTypeAdapter}
+     * @param instrumentalArgs arguments for discovering test plan.
+     */
+    public List<TestPlanElement> provideSharedTestPlan(ConnectedDeviceWrapper device,
+                                                       int deviceType,
+                                                       Map<String, String> instrumentalArgs) throws CommandExecutionException {
+        return getSharedTestPlan(deviceType, instrumentalArgs).get(device, instrumentalArgs);
+    }
+
+    /**
+     * Provides index by annotations of test plan from {@link #provideSharedTestPlan}.
+     * Index is built once for every shared test plan, so command providers don't index tests
+     * of every device or batch. Tests of shared plan are indexed by the same instances.
+     *
+     * @param device           device which requests tests.
+     * @param deviceType       type of device, see {@link com.github.grishberg.tests.sharding.DeviceTypeAdapter}
+     * @param instrumentalArgs arguments for discovering test plan.
+     */
+    public AnnotationIndex provideSharedAnnotationIndex(ConnectedDeviceWrapper device,
+                                                        int deviceType,
+                                                        Map<String, String> instrumentalArgs) throws CommandExecutionException {
+        return getSharedTestPlan(deviceType, instrumentalArgs).getAnnotationIndex(device, instrumentalArgs);
+    }
+
+    private SharedTestPlan getSharedTestPlan(int deviceType, Map<String, String> instrumentalArgs) {
+        String key = deviceType + ":" + new TreeMap<>(instrumentalArgs);
+        synchronized (sharedTestPlans) {
+            return sharedTestPlans.computeIfAbsent(key, k -> new SharedTestPlan(deviceType));
+        }
+    }
+
+    /**
+     * Provides queue of test batches shared between all devices with the same device type.
+     * Test plan is discovered only once, on the first device which requests the queue,
+     * other devices wait until discovery is finished.
+     *
+     * @param device           device which requests tests.
+     * @param deviceType       type of device, see {@link com.github.grishberg.tests.sharding.DeviceTypeAdapter}
+     * @param instrumentalArgs arguments for discovering test plan.
+     */
+    public synchronized TestBatchQueue provideTestBatchQueue(ConnectedDeviceWrapper device,
+                                                             int deviceType,
+                                                             Map<String, String> instrumentalArgs) throws CommandExecutionException {
+        TestBatchQueue queue = batchQueues.get(deviceType);
+        if (queue == null) {
+            queue = new TestBatchQueue(provideSharedTestPlan(device, deviceType, instrumentalArgs),
+                    instrumentationInfo.getDynamicShardingBatchSize());
+            batchQueues.put(deviceType, queue);
+            device.getLogger().i(TAG, "Created queue with {} batches for device type {}",
+                    queue.size(), deviceType);
+        }
+        return queue;
+    }
+
+    /**
+     * @return tests which are left in queues of dynamic sharding, for example when devices became
+     * offline and there were no other devices to take their tests.
+     */
+    public synchronized List<TestPlanElement> provideTestsLeftInQueues() {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (TestBatchQueue queue : batchQueues.values()) {
+            result.addAll(queue.getTestsLeft());
+        }
+        return result;
+    }
+
+    Map<String, String> getArgsFromCli() {
         HashMap<String, String> result = new HashMap<>();
         if (propertiesMap.get("testClass") != null) {
             Object aClass = propertiesMap.get("testClass");
@@ -86,4 +234,40 @@ public class InstrumentalTestPlanProvider {
         // TODO: create fabric
         return new InstrumentalTestHolderImpl(provideTestPlan(device, instrumentalArgs), packageTreeGenerator);
     }
+
+    /**
+     * Test plan which is discovered on first request.
+     * If discovery failed, next device will try to discover test plan again.
+     */
+    private class SharedTestPlan {
+        private final int deviceType;
+        private List<TestPlanElement> testPlan;
+        private AnnotationIndex annotationIndex;
+
+        SharedTestPlan(int deviceType) {
+            this.deviceType = deviceType;
+        }
+
+        synchronized List<TestPlanElement> get(ConnectedDeviceWrapper device,
+                                               Map<String, String> instrumentalArgs) throws CommandExecutionException {
+            if (testPlan == null) {
+                List<TestPlanElement> discoveredTestPlan = provideTestPlan(device, deviceType, instrumentalArgs);
+                // package tree lets commands select whole classes instead of single methods
+                packageTreeGenerator.makePackageTree(discoveredTestPlan);
+                testPlan = Collections.unmodifiableList(new ArrayList<>(discoveredTestPlan));
+            } else {
+                device.getLogger().i(TAG, "Use already discovered test plan with {} tests",
+                        testPlan.size());
+            }
+            return testPlan;
+        }
+
+        synchronized AnnotationIndex getAnnotationIndex(ConnectedDeviceWrapper device,
+                                                        Map<String, String> instrumentalArgs) throws CommandExecutionException {
+            if (annotationIndex == null) {
+                annotationIndex = new AnnotationIndex(get(device, instrumentalArgs));
+            }
+            return annotationIndex;
+        }
+    }
 }
@@ -8,57 +8,77 @@ import java.util.List;
 
 /**
  * Generates tree of classes and packages.
- * This class is thread safe.
+ * Tree is built with trie of package names, so time is linear in total length of class names.
+ * Generator has no state, but building of tree changes parents and cached aggregates of given
+ * elements, so the same elements must not be passed to it from different threads at once:
+ * tree of shared test plan is built once under lock of shared plan in {@link InstrumentalTestPlanProvider}.
  */
 public class PackageTreeGenerator {
     /**
+     * Adds elements of plan to class nodes of new tree.
+     *
      * @param planList list of TestPlanElement generated from am instrument log.
      * @return root element of test classes tree.
      */
     List<TestPlanElement> makePackageTree(List<TestPlanElement> planList) {
-        HashMap<String, TestPlanElement> nodes = new HashMap<>();
         ArrayList<TestPlanElement> roots = new ArrayList<>();
+        TrieNode root = new TrieNode(null);
+        HashMap<String, TestPlanElement> classNodes = new HashMap<>();
+        TestPlanInterner interner = new TestPlanInterner();
 
         for (TestPlanElement currentTestPlan : planList) {
-
-            String[] leftPart = currentTestPlan.getClassName().split("\\.");
-
-            // process packages and Class name
-            TestPlanElement parent = parsePackageElement(nodes, roots, leftPart);
+            String className = currentTestPlan.getClassName();
+            TestPlanElement parent = classNodes.get(className);
+            if (parent == null) {
+                // process packages and Class name
+                parent = addClassNode(root, roots, interner, className);
+                classNodes.put(className, parent);
+            }
 
             // process method name
-            if (parent != null) {
-                parent.addChild(currentTestPlan);
-            }
+            parent.addChild(currentTestPlan);
         }
 
         return roots;
     }
 
-    @Nullable
-    private TestPlanElement parsePackageElement(HashMap<String, TestPlanElement> nodes,
-                                                ArrayList<TestPlanElement> roots, String[] leftPart) {
-        StringBuilder sbPath = new StringBuilder();
-        TestPlanElement parent = null;
-        for (int pos = 0; pos < leftPart.length; pos++) {
-            if (sbPath.length() > 0) {
-                sbPath.append(".");
+    private static TestPlanElement addClassNode(TrieNode root, ArrayList<TestPlanElement> roots,
+                                                TestPlanInterner interner, String className) {
+        TrieNode node = root;
+        int start = 0;
+        while (true) {
+            int end = className.indexOf('.', start);
+            if (end < 0) {
+                return node.getOrAddChild(className.substring(start), NodeType.CLASS, roots, interner).element;
             }
-            String pathElement = leftPart[pos];
-            sbPath.append(pathElement);
-            TestPlanElement currentElement = nodes.get(sbPath.toString());
-            NodeType nodeType = pos < leftPart.length - 1 ? NodeType.PACKAGE : NodeType.CLASS;
-            if (currentElement == null) {
-                currentElement = new TestPlanElement(nodeType, pathElement);
-                if (parent != null) {
-                    parent.addChild(currentElement);
+            node = node.getOrAddChild(className.substring(start, end), NodeType.PACKAGE, roots, interner);
+            start = end + 1;
+        }
+    }
+
+    private static class TrieNode {
+        @Nullable
+        private final TestPlanElement element;
+        private final HashMap<String, TrieNode> children = new HashMap<>();
+
+        private TrieNode(@Nullable TestPlanElement element) {
+            this.element = element;
+        }
+
+        private TrieNode getOrAddChild(String name, NodeType nodeType,
+                                       ArrayList<TestPlanElement> roots, TestPlanInterner interner) {
+            TrieNode child = children.get(name);
+            if (child == null) {
+                TestPlanElement childElement = new TestPlanElement(nodeType, interner.intern(name));
+                if (element != null) {
+                    element.addChild(childElement);
                 } else {
-                    roots.add(currentElement);
+                    roots.add(childElement);
                 }
-                nodes.put(sbPath.toString(), currentElement);
+                child = new TrieNode(childElement);
+                children.put(name, child);
             }
-            parent = currentElement;
+            return child;
         }
-        return parent;
     }
 }
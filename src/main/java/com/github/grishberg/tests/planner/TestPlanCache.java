@@ -0,0 +1,298 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores discovered test plans on disk between runs.
+ * Key of cache is the hash of androidTest apk together with instrumentation arguments, device type
+ * and API level, so test plan is discovered on device again only when tests or filters are changed.
+ * Device type and API level are part of key because instrumentation skips tests with @SdkSuppress
+ * and similar filters on device.
+ * Test plan is stored in binary format with table of unique strings.
+ */
+public class TestPlanCache {
+    private static final String TAG = TestPlanCache.class.getSimpleName();
+    private static final int MAGIC = 0x54504331;
+    private static final int VERSION = 2;
+    private static final int NULL_STRING = -1;
+    private static final String CACHE_FILE_EXTENSION = ".plan";
+    private final File cacheDir;
+    private final File testApk;
+    @Nullable
+    private String apkHash;
+
+    public TestPlanCache(File cacheDir, File testApk) {
+        this.cacheDir = cacheDir;
+        this.testApk = testApk;
+    }
+
+    /**
+     * @param deviceType type of device where test plan is discovered.
+     * @param apiLevel   API level of device where test plan is discovered.
+     * @return cache key for test plan discovered with given instrumentation arguments.
+     * @throws IOException when test apk can't be read.
+     */
+    public String createKey(String instrumentation, int deviceType, int apiLevel,
+                            Map<String, String> instrumentalArgs) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(getApkHash().getBytes("UTF-8"));
+        digest.update(instrumentation.getBytes("UTF-8"));
+        digest.update(String.format("/%d/%d", deviceType, apiLevel).getBytes("UTF-8"));
+        for (Map.Entry<String, String> arg : new TreeMap<>(instrumentalArgs).entrySet()) {
+            digest.update((byte) 0);
+            digest.update(arg.getKey().getBytes("UTF-8"));
+            digest.update((byte) '=');
+            digest.update(String.valueOf(arg.getValue()).getBytes("UTF-8"));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return test plan from cache or null if there is no test plan for key or cache file is broken.
+     */
+    @Nullable
+    public List<TestPlanElement> load(String key, RunnerLogger logger) {
+        File cacheFile = getCacheFile(key);
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            return read(in);
+        } catch (IOException | RuntimeException e) {
+            logger.w(TAG, "Can't read test plan cache {}: {}", cacheFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores test plan for key. Plan is written to unique temporary file first, so plans which are
+     * saved at the same time for the same key don't corrupt each other.
+     */
+    public void save(String key, List<TestPlanElement> testPlan) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+            throw new IOException("Can't create dir " + cacheDir);
+        }
+        Path tmpFile = Files.createTempFile(cacheDir.toPath(), key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                write(out, testPlan);
+            }
+            Files.move(tmpFile, getCacheFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheDir, key + CACHE_FILE_EXTENSION);
+    }
+
+    private synchronized String getApkHash() throws IOException {
+        if (apkHash == null) {
+            MessageDigest digest = createDigest();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = new FileInputStream(testApk)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            apkHash = toHex(digest.digest());
+        }
+        return apkHash;
+    }
+
+    private static void write(DataOutputStream out, List<TestPlanElement> testPlan) throws IOException {
+        StringTable strings = new StringTable();
+        for (TestPlanElement element : testPlan) {
+            strings.add(element.getTestId());
+            strings.add(element.getMethodName());
+            strings.add(element.getClassName());
+            for (AnnotationInfo annotation : element.getAnnotations()) {
+                strings.add(annotation.getName());
+                for (AnnotationMember member : annotation.getMembers()) {
+                    strings.add(member.getName());
+                    strings.add(member.getValueType());
+                    strings.add(member.getStrValue());
+                    if (member.getStrArray() != null) {
+                        for (String value : member.getStrArray()) {
+                            strings.add(value);
+                        }
+                    }
+                }
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.values.size());
+        for (String value : strings.values) {
+            // writeUTF is limited by 64 KB, long annotation values are possible
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(testPlan.size());
+        for (TestPlanElement element : testPlan) {
+            out.writeInt(strings.indexOf(element.getTestId()));
+            out.writeInt(strings.indexOf(element.getMethodName()));
+            out.writeInt(strings.indexOf(element.getClassName()));
+            out.writeInt(element.getAnnotations().size());
+            for (AnnotationInfo annotation : element.getAnnotations()) {
+                out.writeInt(strings.indexOf(annotation.getName()));
+                out.writeInt(annotation.getMembers().size());
+                for (AnnotationMember member : annotation.getMembers()) {
+                    writeMember(out, strings, member);
+                }
+            }
+        }
+    }
+
+    private static void writeMember(DataOutputStream out, StringTable strings,
+                                    AnnotationMember member) throws IOException {
+        out.writeInt(strings.indexOf(member.getName()));
+        out.writeInt(strings.indexOf(member.getValueType()));
+        out.writeBoolean(member.getIntValue() != null);
+        if (member.getIntValue() != null) {
+            out.writeInt(member.getIntValue());
+        }
+        out.writeInt(strings.indexOf(member.getStrValue()));
+        out.writeBoolean(member.getStrArray() != null);
+        if (member.getStrArray() != null) {
+            out.writeInt(member.getStrArray().size());
+            for (String value : member.getStrArray()) {
+                out.writeInt(strings.indexOf(value));
+            }
+        }
+        out.writeBoolean(member.getIntArray() != null);
+        if (member.getIntArray() != null) {
+            out.writeInt(member.getIntArray().size());
+            for (Integer value : member.getIntArray()) {
+                out.writeInt(value);
+            }
+        }
+        out.writeBoolean(member.getBoolValue() != null);
+        if (member.getBoolValue() != null) {
+            out.writeBoolean(member.getBoolValue());
+        }
+    }
+
+    private static List<TestPlanElement> read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown format");
+        }
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int size = in.readInt();
+        ArrayList<TestPlanElement> result = new ArrayList<>(size);
+        TestPlanInterner interner = new TestPlanInterner();
+        for (int i = 0; i < size; i++) {
+            String testId = readString(in, strings);
+            String methodName = readString(in, strings);
+            String className = readString(in, strings);
+            int annotationsCount = in.readInt();
+            ArrayList<AnnotationInfo> annotations = new ArrayList<>(annotationsCount);
+            for (int j = 0; j < annotationsCount; j++) {
+                String name = readString(in, strings);
+                int membersCount = in.readInt();
+                ArrayList<AnnotationMember> members = new ArrayList<>(membersCount);
+                for (int k = 0; k < membersCount; k++) {
+                    members.add(readMember(in, strings));
+                }
+                annotations.add(new AnnotationInfo(name, members));
+            }
+            result.add(new TestPlanElement(testId, methodName, className, interner.intern(annotations)));
+        }
+        return result;
+    }
+
+    private static AnnotationMember readMember(DataInputStream in, String[] strings) throws IOException {
+        String name = readString(in, strings);
+        String valueType = readString(in, strings);
+        Integer intValue = in.readBoolean() ? in.readInt() : null;
+        String strValue = readString(in, strings);
+        ArrayList<String> strArray = null;
+        if (in.readBoolean()) {
+            int count = in.readInt();
+            strArray = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strArray.add(readString(in, strings));
+            }
+        }
+        ArrayList<Integer> intArray = null;
+        if (in.readBoolean()) {
+            int count = in.readInt();
+            intArray = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                intArray.add(in.readInt());
+            }
+        }
+        Boolean boolValue = in.readBoolean() ? in.readBoolean() : null;
+        return new AnnotationMember(name, valueType, intValue, strValue, strArray, intArray, boolValue);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in, String[] strings) throws IOException {
+        int index = in.readInt();
+        return index == NULL_STRING ? null : strings[index];
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static class StringTable {
+        private final ArrayList<String> values = new ArrayList<>();
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+
+        void add(@Nullable String value) {
+            if (value != null && !indexes.containsKey(value)) {
+                indexes.put(value, values.size());
+                values.add(value);
+            }
+        }
+
+        int indexOf(@Nullable String value) {
+            return value == null ? NULL_STRING : indexes.get(value);
+        }
+    }
+}
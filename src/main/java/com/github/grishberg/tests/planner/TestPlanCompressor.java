@@ -0,0 +1,60 @@
+package com.github.grishberg.tests.planner;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reduces selection of test methods to compound elements of package tree: when all methods of
+ * test class are selected, the class is used instead of its methods.
+ * Works only for methods which were added to tree by {@link PackageTreeGenerator}, other
+ * elements are left as is.
+ */
+public class TestPlanCompressor {
+    private TestPlanCompressor() {/* not used */}
+
+    /**
+     * @param tests selected tests.
+     * @return compound elements in order of first selected method of each element.
+     */
+    public static List<TestPlanElement> compress(List<TestPlanElement> tests) {
+        Set<TestPlanElement> uniqueTests = newIdentitySet();
+        Map<TestPlanElement, Integer> selectedMethodsCount = new IdentityHashMap<>();
+        for (TestPlanElement test : tests) {
+            TestPlanElement testClass = getTestClass(test);
+            if (uniqueTests.add(test) && testClass != null) {
+                selectedMethodsCount.merge(testClass, 1, Integer::sum);
+            }
+        }
+
+        List<TestPlanElement> result = new ArrayList<>();
+        Set<TestPlanElement> addedElements = newIdentitySet();
+        for (TestPlanElement test : tests) {
+            TestPlanElement testClass = getTestClass(test);
+            TestPlanElement element = testClass != null &&
+                    selectedMethodsCount.get(testClass) == testClass.getTestMethodsCount() ?
+                    testClass : test;
+            if (addedElements.add(element)) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    private static TestPlanElement getTestClass(TestPlanElement test) {
+        TestPlanElement parent = test.getParent();
+        if (test.getType() == NodeType.METHOD && parent != null && parent.getType() == NodeType.CLASS) {
+            return parent;
+        }
+        return null;
+    }
+
+    private static Set<TestPlanElement> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
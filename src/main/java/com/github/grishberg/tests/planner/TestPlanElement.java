@@ -19,9 +19,18 @@ public class TestPlanElement {
     @Nullable
     private TestPlanElement parent;
     private final NodeType type;
-    private final ArrayList<TestPlanElement> children = new ArrayList<>();
+    // Is created with the first child, so test methods don't keep empty lists.
+    @Nullable
+    private ArrayList<TestPlanElement> children;
     private boolean excluded;
     private boolean hasExcluded;
+    // Cached aggregates of subtree, are reset when children are added or subtree is excluded.
+    @Nullable
+    private volatile List<TestPlanElement> allTestMethods;
+    @Nullable
+    private volatile List<TestPlanElement> compoundElements;
+    @Nullable
+    private volatile String amInstrumentCommand;
 
     public TestPlanElement(String testId, String methodName, String fullClassName,
                            List<AnnotationInfo> annotations) {
@@ -56,7 +65,7 @@ public class TestPlanElement {
         this.testId = srcElement.testId;
         this.methodName = srcElement.methodName;
         this.className = srcElement.className;
-        this.annotations = new ArrayList<>(srcElement.annotations);
+        this.annotations = srcElement.annotations;
         if (srcElement.parent != null) {
             this.parent = new TestPlanElement(srcElement.parent);
         }
@@ -65,6 +74,10 @@ public class TestPlanElement {
         this.hasExcluded = false;
     }
 
+    public String getTestId() {
+        return testId;
+    }
+
     public String getMethodName() {
         return methodName;
     }
@@ -114,6 +127,15 @@ public class TestPlanElement {
      * @return command for am instrument parameter class or package
      */
     public String getAmInstrumentCommand() {
+        String command = amInstrumentCommand;
+        if (command == null) {
+            command = buildAmInstrumentCommand();
+            amInstrumentCommand = command;
+        }
+        return command;
+    }
+
+    private String buildAmInstrumentCommand() {
         if (type == NodeType.METHOD) {
             return className + "#" + methodName;
         }
@@ -126,6 +148,7 @@ public class TestPlanElement {
 
     public void exclude() {
         excluded = true;
+        compoundElements = null;
         if (parent != null) {
             parent.setHasExcluded(true);
         }
@@ -133,19 +156,51 @@ public class TestPlanElement {
 
     private void setHasExcluded(boolean hasExcluded) {
         this.hasExcluded = hasExcluded;
+        compoundElements = null;
         if (parent != null) {
             parent.setHasExcluded(hasExcluded);
         }
     }
 
+    /**
+     * @return parent element in package tree or null if element wasn't added to tree.
+     */
+    @Nullable
+    TestPlanElement getParent() {
+        return parent;
+    }
+
     void addChild(TestPlanElement child) {
+        if (children == null) {
+            children = new ArrayList<>();
+        }
         children.add(child);
         child.parent = this;
+        child.amInstrumentCommand = null;
+        for (TestPlanElement element = this; element != null; element = element.parent) {
+            element.allTestMethods = null;
+            element.compoundElements = null;
+        }
     }
 
+    /**
+     * @return unmodifiable list of test methods in subtree.
+     */
     public List<TestPlanElement> getAllTestMethods() {
+        List<TestPlanElement> methods = allTestMethods;
+        if (methods == null) {
+            methods = Collections.unmodifiableList(collectTestMethods());
+            allTestMethods = methods;
+        }
+        return methods;
+    }
+
+    private List<TestPlanElement> collectTestMethods() {
+        if (children == null) {
+            return Collections.emptyList();
+        }
         if (type == NodeType.CLASS) {
-            return children;
+            return new ArrayList<>(children);
         }
         ArrayList<TestPlanElement> methods = new ArrayList<>();
         for (TestPlanElement element : children) {
@@ -154,19 +209,38 @@ public class TestPlanElement {
         return methods;
     }
 
+    /**
+     * @return count of test methods in subtree.
+     */
+    int getTestMethodsCount() {
+        return getAllTestMethods().size();
+    }
+
     public NodeType getType() {
         return type;
     }
 
     /**
-     * @return not excluded packages list.
+     * @return unmodifiable list of not excluded packages.
      */
     public List<TestPlanElement> getCompoundElements() {
+        List<TestPlanElement> elements = compoundElements;
+        if (elements == null) {
+            elements = Collections.unmodifiableList(collectCompoundElements());
+            compoundElements = elements;
+        }
+        return elements;
+    }
+
+    private List<TestPlanElement> collectCompoundElements() {
         ArrayList<TestPlanElement> result = new ArrayList<>();
         if (!hasExcluded && !excluded && type != NodeType.PACKAGE) {
             result.add(this);
             return result;
         }
+        if (children == null) {
+            return result;
+        }
 
         for (TestPlanElement child : children) {
             result.addAll(child.getCompoundElements());
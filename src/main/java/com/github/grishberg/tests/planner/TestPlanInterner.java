@@ -0,0 +1,44 @@
+package com.github.grishberg.tests.planner;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Shares equal names and annotation lists between elements of test plan, so test plan keeps one
+ * instance of class name and of each annotation set instead of a copy for every test method.
+ * This class is not thread safe.
+ */
+class TestPlanInterner {
+    private final HashMap<String, String> strings = new HashMap<>();
+    private final HashMap<List<AnnotationInfo>, List<AnnotationInfo>> annotationLists = new HashMap<>();
+
+    /**
+     * @return shared instance of string equal to value.
+     */
+    @Nullable
+    String intern(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String result = strings.putIfAbsent(value, value);
+        return result != null ? result : value;
+    }
+
+    /**
+     * @return shared immutable list equal to annotations.
+     */
+    List<AnnotationInfo> intern(List<AnnotationInfo> annotations) {
+        if (annotations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<AnnotationInfo> result = annotationLists.get(annotations);
+        if (result == null) {
+            result = Collections.unmodifiableList(new ArrayList<>(annotations));
+            annotationLists.put(result, result);
+        }
+        return result;
+    }
+}
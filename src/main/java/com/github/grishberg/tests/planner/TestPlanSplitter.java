@@ -2,6 +2,7 @@ package com.github.grishberg.tests.planner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Split list of TestPlanElement items
@@ -11,6 +12,11 @@ public class TestPlanSplitter {
 
     private TestPlanSplitter() {/* not used */}
 
+    /**
+     * Splits tests into ranges which can be passed to single "am instrument" command
+     * with "-e class" argument, comma separated list of tests in every range is shorter than
+     * argument limit.
+     */
     public static List<List<TestPlanElement>> splitByArgumentLimit(List<TestPlanElement> src) {
         ArrayList<List<TestPlanElement>> result = new ArrayList<>();
         StringBuilder sb = new StringBuilder();
@@ -18,7 +24,7 @@ public class TestPlanSplitter {
 
         for (TestPlanElement testPlan : src) {
             String testName = testPlan.getAmInstrumentCommand();
-            if (sb.length() + testName.length() + 1 > STRING_LIMIT) {
+            if (!currentRange.isEmpty() && sb.length() + testName.length() + 1 > STRING_LIMIT) {
                 // add current range to result
                 result.add(currentRange);
 
@@ -38,4 +44,37 @@ public class TestPlanSplitter {
         }
         return result;
     }
+
+    /**
+     * Splits test methods into batches of about {@code batchSize} tests.
+     * Batches are cut on class boundaries to keep class locality, a class is split only when
+     * the batch becomes twice larger than {@code batchSize}.
+     *
+     * @param src       list of test methods.
+     * @param batchSize preferred count of tests in batch.
+     */
+    public static List<List<TestPlanElement>> splitByBatchSize(List<TestPlanElement> src, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        ArrayList<List<TestPlanElement>> result = new ArrayList<>();
+        ArrayList<TestPlanElement> currentRange = new ArrayList<>();
+        String currentClassName = null;
+
+        for (TestPlanElement testPlan : src) {
+            boolean classChanged = !Objects.equals(currentClassName, testPlan.getClassName());
+            if (currentRange.size() >= batchSize &&
+                    (classChanged || currentRange.size() >= batchSize * 2)) {
+                result.add(currentRange);
+                currentRange = new ArrayList<>();
+            }
+            currentRange.add(testPlan);
+            currentClassName = testPlan.getClassName();
+        }
+
+        if (!currentRange.isEmpty()) {
+            result.add(currentRange);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,39 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Builds shards balanced by predicted duration from {@link TestDurationHistory}.
+ * Devices are grouped by {@link DeviceTypeAdapter} the same way as in {@link ShardArgumentsImpl}.
+ */
+public class DurationBalancedPartitioner implements TestPlanPartitioner {
+    private static final String TAG = DurationBalancedPartitioner.class.getSimpleName();
+    private final ShardArgumentsImpl shardArguments;
+    private final DeviceTypeAdapter deviceTypeAdapter;
+    private final DurationBalancedSplitter splitter;
+
+    public DurationBalancedPartitioner(ShardArgumentsImpl shardArguments,
+                                       DeviceTypeAdapter deviceTypeAdapter,
+                                       TestDurationHistory history) {
+        this.shardArguments = shardArguments;
+        this.deviceTypeAdapter = deviceTypeAdapter;
+        this.splitter = new DurationBalancedSplitter(history);
+    }
+
+    @NotNull
+    @Override
+    public List<TestPlanElement> provideTestsForDevice(@NotNull ConnectedDeviceWrapper device,
+                                                       @NotNull List<? extends TestPlanElement> testPlan) {
+        int shardsCount = shardArguments.getShardsCount(device);
+        int shardIndex = shardArguments.getShardIndex(device);
+        List<TestPlanElement> shard = splitter.split(testPlan, shardsCount,
+                deviceTypeAdapter.provideDeviceType(device)).get(shardIndex);
+        device.getLogger().i(TAG, "Shard {} of {} contains {} tests",
+                shardIndex, shardsCount, shard.size());
+        return shard;
+    }
+}
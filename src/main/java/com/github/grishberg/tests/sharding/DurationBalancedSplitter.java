@@ -0,0 +1,74 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Splits test plan into shards with near-equal predicted duration using
+ * longest-processing-time bin-packing: tests are sorted by predicted duration in descending order
+ * and every test is added to the shard with the smallest total duration.
+ * Result is deterministic for the same test plan and history, so every device can compute
+ * shards independently.
+ */
+public class DurationBalancedSplitter {
+    private final TestDurationHistory history;
+
+    public DurationBalancedSplitter(TestDurationHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * @param testPlan    list of test methods.
+     * @param shardsCount count of shards.
+     * @param deviceType  type of devices which will execute shards.
+     * @return shards, tests inside every shard keep order of test plan.
+     */
+    public List<List<TestPlanElement>> split(List<? extends TestPlanElement> testPlan, int shardsCount,
+                                             int deviceType) {
+        if (shardsCount <= 0) {
+            throw new IllegalArgumentException("shardsCount must be positive");
+        }
+        int testsCount = testPlan.size();
+        long[] durations = new long[testsCount];
+        Integer[] order = new Integer[testsCount];
+        for (int i = 0; i < testsCount; i++) {
+            durations[i] = history.predictDuration(deviceType, testPlan.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> {
+            int compareDurations = Long.compare(durations[second], durations[first]);
+            return compareDurations != 0 ? compareDurations : Integer.compare(first, second);
+        });
+
+        long[] loads = new long[shardsCount];
+        List<List<Integer>> shardIndexes = new ArrayList<>(shardsCount);
+        PriorityQueue<Integer> shardsByLoad = new PriorityQueue<>(shardsCount,
+                Comparator.<Integer>comparingLong(shard -> loads[shard]).thenComparingInt(shard -> shard));
+        for (int shard = 0; shard < shardsCount; shard++) {
+            shardIndexes.add(new ArrayList<>());
+            shardsByLoad.add(shard);
+        }
+        for (int testIndex : order) {
+            int shard = shardsByLoad.poll();
+            shardIndexes.get(shard).add(testIndex);
+            loads[shard] += durations[testIndex];
+            shardsByLoad.add(shard);
+        }
+
+        List<List<TestPlanElement>> result = new ArrayList<>(shardsCount);
+        for (List<Integer> indexes : shardIndexes) {
+            indexes.sort(Integer::compare);
+            List<TestPlanElement> shard = new ArrayList<>(indexes.size());
+            for (int testIndex : indexes) {
+                shard.add(testPlan.get(testIndex));
+            }
+            result.add(shard);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies AndroidJUnitRunner sharding arguments to test plan on the host side.
+ * Test is selected for shard in the same way as ShardingFilter in AndroidJUnitRunner does it:
+ * by hash code of JUnit description "method(class)", so shards contain the same tests
+ * as when numShards and shardIndex are passed to the runner.
+ */
+public final class HostShardingFilter {
+    public static final String NUM_SHARDS_PARAM = "numShards";
+    public static final String SHARD_INDEX_PARAM = "shardIndex";
+
+    private HostShardingFilter() {
+    }
+
+    /**
+     * @return copy of instrumentalArgs without sharding arguments.
+     */
+    public static Map<String, String> removeShardArguments(Map<String, String> instrumentalArgs) {
+        HashMap<String, String> result = new HashMap<>(instrumentalArgs);
+        result.remove(NUM_SHARDS_PARAM);
+        result.remove(SHARD_INDEX_PARAM);
+        return result;
+    }
+
+    /**
+     * @return tests from testPlan which belong to shard defined in instrumentalArgs,
+     * or all tests if instrumentalArgs doesn't contain sharding arguments.
+     */
+    public static List<TestPlanElement> filter(List<? extends TestPlanElement> testPlan,
+                                               Map<String, String> instrumentalArgs) {
+        String numShardsArg = instrumentalArgs.get(NUM_SHARDS_PARAM);
+        String shardIndexArg = instrumentalArgs.get(SHARD_INDEX_PARAM);
+        if (numShardsArg == null || shardIndexArg == null) {
+            return new ArrayList<>(testPlan);
+        }
+        int numShards = Integer.parseInt(numShardsArg);
+        int shardIndex = Integer.parseInt(shardIndexArg);
+        ArrayList<TestPlanElement> result = new ArrayList<>();
+        for (TestPlanElement element : testPlan) {
+            String description = element.getMethodName() + "(" + element.getClassName() + ")";
+            if (Math.abs(description.hashCode()) % numShards == shardIndex) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+}
@@ -21,8 +21,6 @@ import java.util.Map;
  */
 public class ShardArgumentsImpl implements ShardArguments {
     private static final String TAG = "AbsShardingArguments";
-    private static final String NUM_SHARDS_PARAM = "numShards";
-    private static final String SHARD_INDEX_PARAM = "shardIndex";
     private final AdbWrapper adbWrapper;
     private final DeviceTypeAdapter deviceTypeAdapter;
     private Map<Integer, List<ConnectedDeviceWrapper>> devicesByTypeMap = new HashMap<>();
@@ -37,18 +35,32 @@ public class ShardArgumentsImpl implements ShardArguments {
     @NotNull
     @Override
     public Map<String, String> createShardArguments(@NotNull ConnectedDeviceWrapper currentDevice) {
+        Map<String, String> args = new HashMap<>();
+        args.put(HostShardingFilter.NUM_SHARDS_PARAM, "" + getShardsCount(currentDevice));
+        args.put(HostShardingFilter.SHARD_INDEX_PARAM, "" + getShardIndex(currentDevice));
+        return args;
+    }
+
+    /**
+     * @return count of shards for group of currentDevice.
+     */
+    public synchronized int getShardsCount(ConnectedDeviceWrapper currentDevice) {
+        return getDevicesOfSameType(currentDevice).size();
+    }
+
+    /**
+     * @return index of shard for currentDevice inside its group.
+     */
+    public synchronized int getShardIndex(ConnectedDeviceWrapper currentDevice) {
+        return getDeviceIndex(currentDevice, getDevicesOfSameType(currentDevice),
+                currentDevice.getLogger());
+    }
+
+    private List<ConnectedDeviceWrapper> getDevicesOfSameType(ConnectedDeviceWrapper currentDevice) {
         if (devicesByTypeMap.isEmpty()) {
             populateDeviceMap();
         }
-
-        int deviceType = deviceTypeAdapter.provideDeviceType(currentDevice);
-        int numShards = devicesByTypeMap.get(deviceType).size();
-        int shardIndex = getDeviceIndex(currentDevice, devicesByTypeMap.get(deviceType), currentDevice.getLogger());
-
-        Map<String, String> args = new HashMap<>();
-        args.put(NUM_SHARDS_PARAM, "" + numShards);
-        args.put(SHARD_INDEX_PARAM, "" + shardIndex);
-        return args;
+        return devicesByTypeMap.get(deviceTypeAdapter.provideDeviceType(currentDevice));
     }
 
     private int getDeviceIndex(ConnectedDeviceWrapper currentDevice,
@@ -0,0 +1,99 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Part of test plan which is executed on single device by single "am instrument" command.
+ */
+public class TestBatch {
+    private final int index;
+    private final List<TestPlanElement> tests;
+    private final int attempt;
+    private final List<String> previousAttemptDevices;
+    private final int unrunAttempt;
+
+    public TestBatch(int index, List<TestPlanElement> tests) {
+        this(index, tests, 0, Collections.emptyList());
+    }
+
+    /**
+     * @param attempt                number of retry attempt, 0 for the first execution.
+     * @param previousAttemptDevices names of devices where tests were executed before.
+     */
+    public TestBatch(int index, List<TestPlanElement> tests, int attempt,
+                     List<String> previousAttemptDevices) {
+        this(index, tests, attempt, previousAttemptDevices, 0);
+    }
+
+    /**
+     * @param unrunAttempt count of previous executions where instrumentation finished without
+     *                     running tests of this batch.
+     */
+    public TestBatch(int index, List<TestPlanElement> tests, int attempt,
+                     List<String> previousAttemptDevices, int unrunAttempt) {
+        this.index = index;
+        this.tests = Collections.unmodifiableList(tests);
+        this.attempt = attempt;
+        this.previousAttemptDevices = Collections.unmodifiableList(new ArrayList<>(previousAttemptDevices));
+        this.unrunAttempt = unrunAttempt;
+    }
+
+    /**
+     * @return index of batch in test plan, unique inside one {@link TestBatchQueue}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return test methods of batch.
+     */
+    public List<TestPlanElement> getTests() {
+        return tests;
+    }
+
+    /**
+     * @return number of retry attempt, 0 for the first execution of tests.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return names of devices where tests of this batch failed in previous attempts, in order of attempts.
+     */
+    public List<String> getPreviousAttemptDevices() {
+        return previousAttemptDevices;
+    }
+
+    /**
+     * @return count of previous executions where instrumentation finished without running tests
+     * of this batch.
+     */
+    public int getUnrunAttempt() {
+        return unrunAttempt;
+    }
+
+    /**
+     * @return name of batch, used as test report suffix.
+     */
+    public String getName() {
+        if (attempt > 0) {
+            return String.format("batch_%d_retry%d", index, attempt);
+        }
+        return String.format("batch_%d", index);
+    }
+
+    @Override
+    public String toString() {
+        return "TestBatch{" +
+                "index=" + index +
+                ", tests=" + tests.size() +
+                (attempt > 0 ? ", attempt=" + attempt : "") +
+                '}';
+    }
+}
@@ -0,0 +1,289 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.CancellationSignal;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.planner.TestPlanSplitter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queue of test batches shared between devices.
+ * Every device takes next batch as soon as it finished previous one, so fast devices execute
+ * more tests than slow ones and all devices finish at about the same time.
+ * Taken batches are tracked until they are finished, so idle device can duplicate the longest
+ * running batch with {@link #pollStraggler(CancellationSignal)}.
+ * Failed tests can be returned to the queue with {@link #retryTests(List, TestBatch, String)},
+ * retries are taken by other devices if possible.
+ * This class is thread safe.
+ */
+public class TestBatchQueue {
+    private static final String CANCEL_REASON = "Batch was finished on another device";
+    // Tests which are filtered out by instrumentation on every device shouldn't be returned forever.
+    private static final int MAX_UNRUN_ATTEMPTS = 2;
+    private final Deque<TestBatch> batches = new ArrayDeque<>();
+    // Taken batches in order of taking, so the first one is running for the longest time.
+    private final Map<Integer, RunningBatch> runningBatches = new LinkedHashMap<>();
+    // Devices which take batches from this queue.
+    private final Set<String> devices = new HashSet<>();
+    private final int totalTestsCount;
+    private int nextBatchIndex;
+
+    /**
+     * @param testPlan  list of test methods.
+     * @param batchSize preferred count of tests in one batch.
+     */
+    public TestBatchQueue(List<TestPlanElement> testPlan, int batchSize) {
+        List<List<TestPlanElement>> ranges = TestPlanSplitter.splitByBatchSize(testPlan, batchSize);
+        for (List<TestPlanElement> range : ranges) {
+            batches.add(new TestBatch(nextBatchIndex++, range));
+        }
+        totalTestsCount = testPlan.size();
+    }
+
+    /**
+     * @return next batch or null when there are no more batches.
+     */
+    @Nullable
+    public TestBatch poll() {
+        return poll(new CancellationSignal());
+    }
+
+    /**
+     * @param cancellationSignal signal of batch execution, is cancelled when the same batch is
+     *                           finished on another device.
+     * @return next batch or null when there are no more batches.
+     */
+    @Nullable
+    public synchronized TestBatch poll(CancellationSignal cancellationSignal) {
+        TestBatch batch = batches.poll();
+        if (batch != null) {
+            runningBatches.put(batch.getIndex(), new RunningBatch(batch, cancellationSignal));
+        }
+        return batch;
+    }
+
+    /**
+     * Takes next batch for device. Retry of tests which failed on this device is skipped while
+     * other registered devices can take it.
+     *
+     * @param deviceName         name of device registered with {@link #registerDevice(String)}.
+     * @param cancellationSignal signal of batch execution, is cancelled when the same batch is
+     *                           finished on another device.
+     * @return next batch or null when there are no batches for this device.
+     */
+    @Nullable
+    public synchronized TestBatch poll(String deviceName, CancellationSignal cancellationSignal) {
+        Iterator<TestBatch> iterator = batches.iterator();
+        while (iterator.hasNext()) {
+            TestBatch batch = iterator.next();
+            List<String> previousDevices = batch.getPreviousAttemptDevices();
+            if (previousDevices.contains(deviceName) && !previousDevices.containsAll(devices)) {
+                continue;
+            }
+            iterator.remove();
+            runningBatches.put(batch.getIndex(), new RunningBatch(batch, cancellationSignal));
+            return batch;
+        }
+        return null;
+    }
+
+    /**
+     * Registers device which takes batches from queue, retries of failed tests are preferably
+     * executed on other registered devices.
+     */
+    public synchronized void registerDevice(String deviceName) {
+        devices.add(deviceName);
+    }
+
+    public synchronized void unregisterDevice(String deviceName) {
+        devices.remove(deviceName);
+        notifyAll();
+    }
+
+    /**
+     * Adds failed tests of batch to the end of queue as new retry batch.
+     *
+     * @param tests       failed tests.
+     * @param failedBatch batch in which tests failed.
+     * @param deviceName  name of device where tests failed.
+     */
+    public synchronized void retryTests(List<TestPlanElement> tests, TestBatch failedBatch, String deviceName) {
+        if (tests.isEmpty()) {
+            return;
+        }
+        List<String> attemptDevices = new ArrayList<>(failedBatch.getPreviousAttemptDevices());
+        attemptDevices.add(deviceName);
+        batches.addLast(new TestBatch(nextBatchIndex++, new ArrayList<>(tests),
+                failedBatch.getAttempt() + 1, attemptDevices));
+        notifyAll();
+    }
+
+    /**
+     * @return true when all batches are taken and finished, so no more batches will appear.
+     */
+    public synchronized boolean isDrained() {
+        return batches.isEmpty() && runningBatches.isEmpty();
+    }
+
+    /**
+     * Waits until queue is changed: batch is added or finished, or device is unregistered.
+     */
+    public synchronized void awaitChanges(long timeoutInMillis) throws InterruptedException {
+        if (!isDrained()) {
+            wait(timeoutInMillis);
+        }
+    }
+
+    /**
+     * Takes copy of the longest running batch when there are no more batches in queue.
+     * Every batch is duplicated only once.
+     *
+     * @param cancellationSignal signal of batch execution, is cancelled when the same batch is
+     *                           finished on another device.
+     * @return running batch or null if queue is not empty or there is no batch to duplicate.
+     */
+    @Nullable
+    public synchronized TestBatch pollStraggler(CancellationSignal cancellationSignal) {
+        if (!batches.isEmpty()) {
+            return null;
+        }
+        for (RunningBatch runningBatch : runningBatches.values()) {
+            if (!runningBatch.duplicated) {
+                runningBatch.duplicated = true;
+                runningBatch.executions.add(cancellationSignal);
+                return runningBatch.batch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks batch as finished and cancels other executions of this batch.
+     *
+     * @return true if results of this execution should be kept, false if the same batch was
+     * already finished on another device.
+     */
+    public boolean finish(TestBatch batch, CancellationSignal cancellationSignal) {
+        List<CancellationSignal> otherExecutions;
+        synchronized (this) {
+            RunningBatch runningBatch = runningBatches.get(batch.getIndex());
+            if (runningBatch == null || !runningBatch.executions.contains(cancellationSignal)) {
+                return false;
+            }
+            runningBatches.remove(batch.getIndex());
+            otherExecutions = new ArrayList<>(runningBatch.executions);
+            otherExecutions.remove(cancellationSignal);
+            notifyAll();
+        }
+        for (CancellationSignal signal : otherExecutions) {
+            signal.cancel(CANCEL_REASON);
+        }
+        return true;
+    }
+
+    /**
+     * Removes execution of batch which was not finished, for example when device became offline
+     * or execution was cancelled.
+     *
+     * @return true if it was the last execution of batch, so its results should be kept and
+     * unfinished tests should be returned to queue. False if the batch is still executing or
+     * was already finished on another device.
+     */
+    public synchronized boolean abandon(TestBatch batch, CancellationSignal cancellationSignal) {
+        RunningBatch runningBatch = runningBatches.get(batch.getIndex());
+        if (runningBatch == null || !runningBatch.executions.remove(cancellationSignal)) {
+            return false;
+        }
+        if (!runningBatch.executions.isEmpty()) {
+            return false;
+        }
+        runningBatches.remove(batch.getIndex());
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns unfinished tests of taken batch to the head of queue, for example when device became
+     * offline. Tests are returned as new batch with unique index.
+     */
+    public synchronized void returnTests(List<TestPlanElement> tests) {
+        if (!tests.isEmpty()) {
+            batches.addFirst(new TestBatch(nextBatchIndex++, new ArrayList<>(tests)));
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns tests which were not run by finished instrumentation to the head of queue,
+     * other registered devices take them first. Tests are returned at most
+     * {@value #MAX_UNRUN_ATTEMPTS} times, so tests which no device runs don't keep queue busy.
+     *
+     * @param tests      tests which were not run.
+     * @param batch      batch of tests.
+     * @param deviceName name of device where tests were not run.
+     * @return false if tests were not returned because attempts are over.
+     */
+    public synchronized boolean returnUnrunTests(List<TestPlanElement> tests, TestBatch batch, String deviceName) {
+        if (tests.isEmpty()) {
+            return true;
+        }
+        if (batch.getUnrunAttempt() >= MAX_UNRUN_ATTEMPTS) {
+            return false;
+        }
+        List<String> attemptDevices = new ArrayList<>(batch.getPreviousAttemptDevices());
+        attemptDevices.add(deviceName);
+        batches.addFirst(new TestBatch(nextBatchIndex++, new ArrayList<>(tests), batch.getAttempt(),
+                attemptDevices, batch.getUnrunAttempt() + 1));
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return tests of batches which are not taken yet.
+     */
+    public synchronized List<TestPlanElement> getTestsLeft() {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (TestBatch batch : batches) {
+            result.addAll(batch.getTests());
+        }
+        return result;
+    }
+
+    /**
+     * @return count of batches which are not taken yet.
+     */
+    public synchronized int size() {
+        return batches.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    /**
+     * @return count of tests in whole test plan.
+     */
+    public int getTotalTestsCount() {
+        return totalTestsCount;
+    }
+
+    private static class RunningBatch {
+        final TestBatch batch;
+        final List<CancellationSignal> executions = new ArrayList<>();
+        boolean duplicated;
+
+        RunningBatch(TestBatch batch, CancellationSignal cancellationSignal) {
+            this.batch = batch;
+            executions.add(cancellationSignal);
+        }
+    }
+}
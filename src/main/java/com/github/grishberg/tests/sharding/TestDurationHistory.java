@@ -0,0 +1,182 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores durations of tests from previous runs, keyed by "class#method" and device type.
+ * Predicts duration of test, when there is no history for test, average duration of tests
+ * of the same class or average duration of all tests is used.
+ * This class is thread safe.
+ */
+public class TestDurationHistory {
+    private static final String TAG = TestDurationHistory.class.getSimpleName();
+    /**
+     * Used when there is no history at all, so all tests have the same weight.
+     */
+    static final long DEFAULT_DURATION = 1000;
+    private static final Type FILE_TYPE =
+            new TypeToken<Map<Integer, Map<String, Long>>>() {}.getType();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Map<Integer, DeviceTypeDurations> durationsByDeviceType = new HashMap<>();
+
+    public TestDurationHistory() { /* default constructor */ }
+
+    /**
+     * Copy constructor, copy is independent of source.
+     */
+    public TestDurationHistory(TestDurationHistory src) {
+        synchronized (src) {
+            for (Map.Entry<Integer, DeviceTypeDurations> entry : src.durationsByDeviceType.entrySet()) {
+                DeviceTypeDurations durations = getDurations(entry.getKey());
+                for (Map.Entry<String, Long> test : entry.getValue().tests.entrySet()) {
+                    durations.put(classNameOf(test.getKey()), test.getKey(), test.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return key of test in history.
+     */
+    public static String testKey(String className, String methodName) {
+        return className + "#" + methodName;
+    }
+
+    /**
+     * Stores duration of test, previous duration is averaged with new one.
+     */
+    public synchronized void addDuration(int deviceType, String className, String methodName,
+                                         long durationInMs) {
+        getDurations(deviceType).add(className, testKey(className, methodName), durationInMs);
+    }
+
+    /**
+     * @return predicted duration of test in milliseconds for device type.
+     */
+    public synchronized long predictDuration(int deviceType, TestPlanElement test) {
+        DeviceTypeDurations durations = durationsByDeviceType.get(deviceType);
+        if (durations == null) {
+            return DEFAULT_DURATION;
+        }
+        return durations.predict(test.getClassName(),
+                testKey(test.getClassName(), test.getMethodName()));
+    }
+
+    /**
+     * @return true when there is no stored durations.
+     */
+    public synchronized boolean isEmpty() {
+        return durationsByDeviceType.isEmpty();
+    }
+
+    /**
+     * Replaces current durations with durations from file, does nothing if file doesn't exist.
+     */
+    public synchronized void load(File file, RunnerLogger logger) {
+        durationsByDeviceType.clear();
+        if (!file.exists()) {
+            logger.i(TAG, "There is no test durations history in {}", file);
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Map<Integer, Map<String, Long>> stored = gson.fromJson(reader, FILE_TYPE);
+            if (stored == null) {
+                return;
+            }
+            for (Map.Entry<Integer, Map<String, Long>> deviceTypeEntry : stored.entrySet()) {
+                DeviceTypeDurations durations = getDurations(deviceTypeEntry.getKey());
+                for (Map.Entry<String, Long> testEntry : deviceTypeEntry.getValue().entrySet()) {
+                    durations.put(classNameOf(testEntry.getKey()), testEntry.getKey(), testEntry.getValue());
+                }
+            }
+        } catch (Exception e) {
+            durationsByDeviceType.clear();
+            logger.e(TAG, "Can't read test durations history from " + file, e);
+        }
+    }
+
+    /**
+     * Saves durations to file.
+     */
+    public synchronized void save(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cant create folder " + parent.getAbsolutePath());
+        }
+        Map<Integer, Map<String, Long>> stored = new TreeMap<>();
+        for (Map.Entry<Integer, DeviceTypeDurations> entry : durationsByDeviceType.entrySet()) {
+            stored.put(entry.getKey(), new TreeMap<>(entry.getValue().tests));
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(stored, FILE_TYPE, writer);
+        }
+    }
+
+    private static String classNameOf(String testKey) {
+        int classSeparator = testKey.indexOf('#');
+        return classSeparator > 0 ? testKey.substring(0, classSeparator) : testKey;
+    }
+
+    private DeviceTypeDurations getDurations(int deviceType) {
+        return durationsByDeviceType.computeIfAbsent(deviceType, type -> new DeviceTypeDurations());
+    }
+
+    /**
+     * Durations of single device type with aggregates for fallback predictions.
+     */
+    private static class DeviceTypeDurations {
+        private final Map<String, Long> tests = new HashMap<>();
+        private final Map<String, long[]> classSumAndCount = new HashMap<>();
+        private long totalSum;
+        private int totalCount;
+
+        void add(String className, String key, long duration) {
+            Long previous = tests.get(key);
+            put(className, key, previous == null ? duration : (previous + duration) / 2);
+        }
+
+        void put(String className, String key, long duration) {
+            long[] classStats = classSumAndCount.computeIfAbsent(className, name -> new long[2]);
+            Long previous = tests.put(key, duration);
+            if (previous != null) {
+                classStats[0] -= previous;
+                totalSum -= previous;
+            } else {
+                classStats[1]++;
+                totalCount++;
+            }
+            classStats[0] += duration;
+            totalSum += duration;
+        }
+
+        long predict(String className, String key) {
+            Long duration = tests.get(key);
+            if (duration != null) {
+                return duration;
+            }
+            long[] classStats = classSumAndCount.get(className);
+            if (classStats != null && classStats[1] > 0) {
+                return classStats[0] / classStats[1];
+            }
+            if (totalCount > 0) {
+                return totalSum / totalCount;
+            }
+            return DEFAULT_DURATION;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.grishberg.tests.sharding
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper
+import com.github.grishberg.tests.planner.TestPlanElement
+
+/**
+ * Selects part of test plan for device on the host side.
+ */
+interface TestPlanPartitioner {
+    /**
+     * Returns tests from [testPlan] which should be executed on [device].
+     */
+    fun provideTestsForDevice(device: ConnectedDeviceWrapper, testPlan: List<TestPlanElement>): List<TestPlanElement>
+
+    /**
+     * Keeps whole test plan for every device.
+     */
+    object ALL_TESTS : TestPlanPartitioner {
+        override fun provideTestsForDevice(device: ConnectedDeviceWrapper,
+                                           testPlan: List<TestPlanElement>) = testPlan
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares parse time of {@link InstrumentTestLogParser} and {@link LegacyInstrumentTestLogParser}
+ * on for_test/am_instrument_output.txt enlarged to 10k tests.
+ * Is not a part of unit tests, run it with "./gradlew benchmark".
+ */
+@RunWith(JUnit4.class)
+public class InstrumentTestLogParserBenchmark {
+    private static final int SAMPLE_COPIES = 2500;
+    private byte[] enlargedOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        enlargedOutput = InstrumentTestLogParserEquivalenceTest.enlargeSample(SAMPLE_COPIES);
+    }
+
+    @Test
+    public void compareParseTime() {
+        LegacyInstrumentTestLogParser legacyParser = new LegacyInstrumentTestLogParser(new RunnerLogger.Stub());
+        long legacyStart = System.nanoTime();
+        InstrumentTestLogParserEquivalenceTest.feed(legacyParser, enlargedOutput,
+                InstrumentTestLogParserEquivalenceTest.CHUNK_SIZE);
+        long legacyTime = System.nanoTime() - legacyStart;
+
+        InstrumentTestLogParser parser = new InstrumentTestLogParser(new RunnerLogger.Stub());
+        long start = System.nanoTime();
+        InstrumentTestLogParserEquivalenceTest.feed(parser, enlargedOutput,
+                InstrumentTestLogParserEquivalenceTest.CHUNK_SIZE);
+        long time = System.nanoTime() - start;
+
+        System.out.println(String.format("Parsed %d bytes: legacy parser %d ms, streaming parser %d ms",
+                enlargedOutput.length, legacyTime / 1_000_000, time / 1_000_000));
+        Assert.assertEquals(SAMPLE_COPIES * InstrumentTestLogParserEquivalenceTest.SAMPLE_TESTS_COUNT,
+                parser.getTestInstances().size());
+    }
+}
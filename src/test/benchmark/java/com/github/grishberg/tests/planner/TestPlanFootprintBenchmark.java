@@ -0,0 +1,63 @@
+package com.github.grishberg.tests.planner;
+
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares heap footprint of synthetic 50k tests plan from {@link InstrumentTestLogParser} with plan
+ * where every test keeps its own names and annotations, as it was before interning.
+ * Is not a part of unit tests, run it with "./gradlew benchmark".
+ */
+@RunWith(JUnit4.class)
+public class TestPlanFootprintBenchmark {
+    private static final int CLASSES_COUNT = 500;
+    private static final int METHODS_COUNT = 100;
+    private static final String[] ANNOTATIONS = TestPlanFootprintTest.ANNOTATIONS;
+
+    @Test
+    public void compareHeapFootprint() {
+        byte[] output = TestPlanFootprintTest.generateOutput(CLASSES_COUNT, METHODS_COUNT);
+
+        long before = usedHeap();
+        List<TestPlanElement> plan = TestPlanFootprintTest.parse(output);
+        long internedSize = usedHeap() - before;
+
+        before = usedHeap();
+        List<TestPlanElement> copiedPlan = copyWithoutSharing(plan);
+        long copiedSize = usedHeap() - before;
+
+        System.out.println(String.format("Test plan of %d tests: %d KB with copies, %d KB with shared values",
+                plan.size(), copiedSize / 1024, internedSize / 1024));
+        Assert.assertEquals(plan.size(), copiedPlan.size());
+    }
+
+    private static List<TestPlanElement> copyWithoutSharing(List<TestPlanElement> plan) {
+        Gson gson = new Gson();
+        ArrayList<TestPlanElement> result = new ArrayList<>(plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            TestPlanElement element = plan.get(i);
+            List<AnnotationInfo> annotations = Arrays.asList(
+                    gson.fromJson(ANNOTATIONS[i % ANNOTATIONS.length], AnnotationInfo[].class));
+            result.add(new TestPlanElement(new String(element.getTestId()),
+                    new String(element.getMethodName()),
+                    new String(element.getClassName()),
+                    annotations));
+        }
+        return result;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
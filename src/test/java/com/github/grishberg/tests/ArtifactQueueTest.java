@@ -0,0 +1,64 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ArtifactQueue}.
+ */
+@RunWith(JUnit4.class)
+public class ArtifactQueueTest {
+    private final ArtifactQueue queue = new ArtifactQueue("device", new RunnerLogger.Stub());
+    private final List<String> collected = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() throws Exception {
+        queue.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void executeTasksInOrderOfSubmission() throws Exception {
+        queue.submit("first", () -> {
+            Thread.sleep(50);
+            collected.add("first");
+        });
+        queue.submit("second", () -> collected.add("second"));
+
+        Assert.assertTrue(queue.awaitCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("first", "second"), collected);
+    }
+
+    @Test
+    public void failedTaskDoesNotStopQueue() throws Exception {
+        queue.submit("failed", () -> {
+            throw new IllegalStateException("device is offline");
+        });
+        queue.submit("second", () -> collected.add("second"));
+
+        Assert.assertTrue(queue.awaitCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("second"), collected);
+    }
+
+    @Test
+    public void shutdownWaitsForSubmittedTasks() throws Exception {
+        queue.submit("slow", () -> {
+            Thread.sleep(50);
+            collected.add("slow");
+        });
+
+        Assert.assertTrue(queue.shutdown(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("slow"), collected);
+        queue.submit("rejected", () -> collected.add("rejected"));
+        Assert.assertEquals(1, collected.size());
+    }
+}
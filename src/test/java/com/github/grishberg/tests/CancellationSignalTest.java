@@ -0,0 +1,78 @@
+package com.github.grishberg.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link CancellationSignal}.
+ */
+@RunWith(JUnit4.class)
+public class CancellationSignalTest {
+    private final CancellationSignal signal = new CancellationSignal();
+
+    @Test
+    public void notCancelledByDefault() {
+        Assert.assertFalse(signal.isCancelled());
+        Assert.assertNull(signal.getReason());
+    }
+
+    @Test
+    public void keepFirstReason() {
+        signal.cancel("first");
+        signal.cancel("second");
+
+        Assert.assertTrue(signal.isCancelled());
+        Assert.assertEquals("first", signal.getReason());
+    }
+
+    @Test
+    public void cancelChildrenWithParent() {
+        CancellationSignal child = signal.createChild();
+
+        signal.cancel("timeout");
+
+        Assert.assertTrue(child.isCancelled());
+        Assert.assertEquals("timeout", child.getReason());
+    }
+
+    @Test
+    public void dontCancelParentWithChild() {
+        CancellationSignal child = signal.createChild();
+
+        child.cancel("device timeout");
+
+        Assert.assertFalse(signal.isCancelled());
+    }
+
+    @Test
+    public void createCancelledChildFromCancelledParent() {
+        signal.cancel("timeout");
+
+        Assert.assertTrue(signal.createChild().isCancelled());
+    }
+
+    @Test
+    public void notifyListenerOnce() {
+        AtomicInteger counter = new AtomicInteger();
+        signal.setOnCancelListener(counter::incrementAndGet);
+
+        signal.cancel("first");
+        signal.cancel("second");
+
+        Assert.assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void notifyListenerImmediatelyWhenAlreadyCancelled() {
+        AtomicInteger counter = new AtomicInteger();
+        signal.cancel("timeout");
+
+        signal.setOnCancelListener(counter::incrementAndGet);
+
+        Assert.assertEquals(1, counter.get());
+    }
+}
@@ -108,6 +108,17 @@ public class ConnectedDeviceWrapperTest {
         verify(runnerLogger).i(eq("test_device / ConnectedDeviceWrapper"), anyString(), any());
     }
 
+    @Test
+    public void streamCoverageFilePullsItFromDevicesWithoutExecOut() throws Exception {
+        when(device.getProperty(IDevice.PROP_BUILD_API_LEVEL)).thenReturn("19");
+
+        deviceWrapper.streamCoverageFile(extension, "coverageFilePrefix", "coverageFile",
+                coverageFile);
+
+        verify(device).pullFile("/data/local/tmp/com.test.app.coverage.ec",
+                new File(coverageFile, "coverageFilePrefix-coverage.ec").getPath());
+    }
+
     @Test
     public void executeShellCommand1() throws Exception {
         deviceWrapper.executeShellCommand("cmd", shellOutputReceiver, 0L, 0L,
@@ -65,7 +65,7 @@ public class DefaultCommandProviderTest {
                 .thenReturn(new ArrayList<>());
 
         List<TestPlanElement> testPlanElements = Arrays.asList(element);
-        when(planProvider.provideTestPlan(deviceWrapper, ARGS)).thenReturn(testPlanElements);
+        when(planProvider.provideSharedTestPlan(deviceWrapper, 0, ARGS)).thenReturn(testPlanElements);
         when(argsProvider.provideInstrumentationArgs(deviceWrapper)).thenReturn(ARGS);
         provider = new DefaultCommandProvider(PROJECT_NAME, argsProvider,
                 commandsForAnnotationProvider);
@@ -108,7 +108,7 @@ public class DefaultCommandProviderTest {
 
     @Test
     public void provideCommandsWhenHasAnnotations() throws Exception {
-        when(planProvider.provideTestPlan(deviceWrapper, ARGS)).thenReturn(
+        when(planProvider.provideSharedTestPlan(deviceWrapper, 0, ARGS)).thenReturn(
                 Arrays.asList(element, elementWithAnnotation));
 
         List<DeviceRunnerCommand> commandList = provider.provideCommandsForDevice(deviceWrapper,
@@ -38,4 +38,17 @@ public class DefaultInstrumentationArgsProviderTest {
 
         Assert.assertEquals(2, provider.provideInstrumentationArgs(deviceWrapper).size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void dontProvideShardArgsWhenDynamicShardingEnabled() {
+        ConnectedDeviceWrapper deviceWrapper = mock(ConnectedDeviceWrapper.class);
+        InstrumentalExtension instrumentalInfo = mock(InstrumentalExtension.class);
+        when(instrumentalInfo.isShardEnabled()).thenReturn(true);
+        when(instrumentalInfo.isDynamicShardingEnabled()).thenReturn(true);
+        ShardArguments sharding = mock(ShardArguments.class);
+        DefaultInstrumentationArgsProvider provider =
+                new DefaultInstrumentationArgsProvider(instrumentalInfo, sharding);
+
+        Assert.assertTrue(provider.provideInstrumentationArgs(deviceWrapper).isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.DeviceRunnerCommand;
+import com.github.grishberg.tests.commands.SetAnimationSpeedCommand;
+import com.github.grishberg.tests.commands.TestBatchQueueCommand;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.sharding.DeviceTypeAdapter;
+import com.github.grishberg.tests.sharding.TestBatchQueue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DynamicShardingCommandProvider}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DynamicShardingCommandProviderTest {
+    private static final HashMap<String, String> ARGS = new HashMap<>();
+    private static final String PROJECT_NAME = "test_project";
+    private static final int DEVICE_TYPE = 1;
+    @Mock
+    InstrumentationArgsProvider argsProvider;
+    @Mock
+    RunnerLogger logger;
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    InstrumentalTestPlanProvider planProvider;
+    @Mock
+    Environment environment;
+    @Mock
+    CommandsForAnnotationProvider commandsForAnnotationProvider;
+    @Mock
+    DeviceTypeAdapter deviceTypeAdapter;
+    private DynamicShardingCommandProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        when(deviceWrapper.getLogger()).thenReturn(logger);
+        when(argsProvider.provideInstrumentationArgs(deviceWrapper)).thenReturn(ARGS);
+        when(deviceTypeAdapter.provideDeviceType(deviceWrapper)).thenReturn(DEVICE_TYPE);
+        TestBatchQueue queue = new TestBatchQueue(Collections.singletonList(
+                new TestPlanElement("", "test1", "com.test.TestClass")), 10);
+        when(planProvider.provideTestBatchQueue(deviceWrapper, DEVICE_TYPE, ARGS)).thenReturn(queue);
+        provider = new DynamicShardingCommandProvider(PROJECT_NAME, argsProvider,
+                commandsForAnnotationProvider, deviceTypeAdapter);
+    }
+
+    @Test
+    public void provideQueueCommandForDevice() throws Exception {
+        List<DeviceRunnerCommand> commandList = provider.provideCommandsForDevice(deviceWrapper,
+                planProvider, environment);
+
+        Assert.assertEquals(3, commandList.size());
+        Assert.assertTrue(commandList.get(0) instanceof SetAnimationSpeedCommand);
+        Assert.assertTrue(commandList.get(1) instanceof TestBatchQueueCommand);
+        Assert.assertTrue(commandList.get(2) instanceof SetAnimationSpeedCommand);
+        verify(planProvider).provideTestBatchQueue(deviceWrapper, DEVICE_TYPE, ARGS);
+    }
+}
@@ -0,0 +1,243 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.CommandExecutionException;
+import com.github.grishberg.tests.commands.DeviceCommandResult;
+import com.github.grishberg.tests.commands.DeviceRunnerCommand;
+import com.github.grishberg.tests.commands.DeviceRunnerCommandProvider;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.common.TestingSimpleLogger;
+import com.github.grishberg.tests.exceptions.DeviceOfflineException;
+import com.github.grishberg.tests.planner.InstrumentalTestPlanProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ExecutorCommandsRunner}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ExecutorCommandsRunnerTest {
+    @Mock
+    InstrumentalTestPlanProvider planProvider;
+    @Mock
+    DeviceRunnerCommandProvider commandProvider;
+    @Mock
+    Environment environment;
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper2;
+    @Mock
+    DeviceRunnerCommand command;
+    @Mock
+    DeviceRunnerCommand secondCommand;
+    @Mock
+    DeviceRunnerCommand preparation;
+    @Mock
+    DeviceCommandResult result;
+    private final RunnerLogger logger = new TestingSimpleLogger();
+    private TestRunnerContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new TestRunnerContext(new InstrumentalExtension(), environment,
+                new HashMap<>(), logger);
+        mockDeviceBehavior(deviceWrapper, "emulator-5554");
+    }
+
+    private void mockDeviceBehavior(ConnectedDeviceWrapper device, String serial) throws Exception {
+        when(device.getLogger()).thenReturn(logger);
+        when(device.getSerialNumber()).thenReturn(serial);
+        when(device.getName()).thenReturn(serial);
+        List<DeviceRunnerCommand> commands = Arrays.asList(command, secondCommand);
+        when(commandProvider.provideCommandsForDevice(device, planProvider, environment))
+                .thenReturn(commands);
+    }
+
+    @Test
+    public void runCommands() throws Exception {
+        when(command.execute(deviceWrapper, context)).thenReturn(result);
+        when(secondCommand.execute(deviceWrapper, context)).thenReturn(result);
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0);
+
+        Assert.assertTrue(runner.runCommands(Arrays.asList(deviceWrapper), context));
+        verify(command).execute(deviceWrapper, context);
+        verify(secondCommand).execute(deviceWrapper, context);
+    }
+
+    @Test
+    public void runCommandsReturnFalseWhenHasFailedTests() throws Exception {
+        when(result.isFailed()).thenReturn(true);
+        when(command.execute(deviceWrapper, context)).thenReturn(result);
+        when(secondCommand.execute(deviceWrapper, context)).thenReturn(mock(DeviceCommandResult.class));
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0);
+
+        Assert.assertFalse(runner.runCommands(Arrays.asList(deviceWrapper), context));
+    }
+
+    @Test
+    public void printDeviceNameInException() throws Exception {
+        when(command.execute(deviceWrapper, context)).thenThrow(new NullPointerException());
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0);
+
+        try {
+            runner.runCommands(Arrays.asList(deviceWrapper), context);
+        } catch (CommandExecutionException e) {
+            Assert.assertTrue(e.getMessage().contains("emulator-5554"));
+            Assert.assertTrue(e.getCause() instanceof NullPointerException);
+            return;
+        }
+        Assert.fail("Exception must be thrown in this test");
+    }
+
+    @Test
+    public void cancelDeviceWhenDeviceTimeoutIsOver() throws Exception {
+        when(command.execute(deviceWrapper, context)).thenAnswer(invocation -> {
+            waitForCancellation(deviceWrapper);
+            return result;
+        });
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 1);
+
+        try {
+            runner.runCommands(Arrays.asList(deviceWrapper), context);
+        } catch (CommandExecutionException e) {
+            Assert.assertTrue(e.getMessage().contains("emulator-5554"));
+            Assert.assertFalse(context.getCancellationSignal().isCancelled());
+            verify(secondCommand, never()).execute(deviceWrapper, context);
+            return;
+        }
+        Assert.fail("Exception must be thrown in this test");
+    }
+
+    @Test
+    public void cancelAllDevicesWhenRunTimeoutIsOver() throws Exception {
+        mockDeviceBehavior(deviceWrapper2, "emulator-5556");
+        when(command.execute(any(ConnectedDeviceWrapper.class), eq(context))).thenAnswer(invocation -> {
+            waitForCancellation(invocation.getArgument(0));
+            return result;
+        });
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 1, 0);
+
+        try {
+            runner.runCommands(Arrays.asList(deviceWrapper, deviceWrapper2), context);
+        } catch (CommandExecutionException e) {
+            Assert.assertTrue(context.getCancellationSignal().isCancelled());
+            Assert.assertTrue(e.getMessage().contains("emulator-5554"));
+            Assert.assertTrue(e.getMessage().contains("emulator-5556"));
+            verify(secondCommand, never()).execute(any(ConnectedDeviceWrapper.class), eq(context));
+            return;
+        }
+        Assert.fail("Exception must be thrown in this test");
+    }
+
+    @Test
+    public void dontFailRunWhenDeviceBecameOffline() throws Exception {
+        when(command.execute(deviceWrapper, context)).thenThrow(
+                new DeviceOfflineException("offline", new Throwable()));
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0);
+
+        Assert.assertTrue(runner.runCommands(Arrays.asList(deviceWrapper), context));
+        verify(secondCommand, never()).execute(deviceWrapper, context);
+    }
+
+    @Test
+    public void startCommandsOnDeviceConnectedDuringRun() throws Exception {
+        mockDeviceBehavior(deviceWrapper2, "emulator-5556");
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0,
+                preparation);
+        when(command.execute(deviceWrapper, context)).thenAnswer(invocation -> {
+            Assert.assertTrue(runner.addDevice(deviceWrapper2));
+            return result;
+        });
+        when(command.execute(deviceWrapper2, context)).thenReturn(result);
+        when(secondCommand.execute(any(ConnectedDeviceWrapper.class), eq(context))).thenReturn(result);
+
+        Assert.assertTrue(runner.runCommands(Arrays.asList(deviceWrapper), context));
+        verify(preparation).execute(deviceWrapper2, context);
+        verify(preparation, never()).execute(deviceWrapper, context);
+        verify(secondCommand).execute(deviceWrapper2, context);
+        Assert.assertFalse(runner.addDevice(deviceWrapper2));
+    }
+
+    @Test
+    public void dontStartCommandsOnConnectedDeviceWhenPreparationFailed() throws Exception {
+        mockDeviceBehavior(deviceWrapper2, "emulator-5556");
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0,
+                preparation);
+        when(preparation.execute(deviceWrapper2, context)).thenThrow(
+                new CommandExecutionException("Instrumentation is not installed"));
+        when(command.execute(deviceWrapper, context)).thenAnswer(invocation -> {
+            Assert.assertTrue(runner.addDevice(deviceWrapper2));
+            return result;
+        });
+        when(secondCommand.execute(deviceWrapper, context)).thenReturn(result);
+
+        Assert.assertTrue(runner.runCommands(Arrays.asList(deviceWrapper), context));
+        verify(command, never()).execute(deviceWrapper2, context);
+    }
+
+    @Test
+    public void restartReconnectedDeviceWithNewCancellationSignalAfterPreviousCommands() throws Exception {
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0,
+                preparation);
+        List<CancellationSignal> signals = new ArrayList<>();
+        when(command.execute(deviceWrapper, context)).thenAnswer(invocation -> {
+            signals.add(context.getCancellationSignal(deviceWrapper));
+            if (signals.size() == 1) {
+                Assert.assertTrue(runner.addDevice(deviceWrapper));
+                Assert.assertFalse(runner.addDevice(deviceWrapper));
+                context.getCancellationSignal(deviceWrapper).cancel("Device timeout");
+            }
+            return result;
+        });
+        when(secondCommand.execute(deviceWrapper, context)).thenReturn(result);
+
+        try {
+            runner.runCommands(Arrays.asList(deviceWrapper), context);
+            Assert.fail("Exception must be thrown in this test");
+        } catch (CommandExecutionException e) {
+            Assert.assertTrue(e.getMessage().contains("emulator-5554"));
+        }
+        verify(preparation).execute(deviceWrapper, context);
+        Assert.assertEquals(2, signals.size());
+        Assert.assertNotSame(signals.get(0), signals.get(1));
+        verify(secondCommand).execute(deviceWrapper, context);
+    }
+
+    @Test
+    public void queueDevicesOverThreadLimit() throws Exception {
+        mockDeviceBehavior(deviceWrapper2, "emulator-5556");
+        AtomicInteger runningDevices = new AtomicInteger();
+        AtomicInteger maxRunningDevices = new AtomicInteger();
+        when(command.execute(any(ConnectedDeviceWrapper.class), eq(context))).thenAnswer(invocation -> {
+            maxRunningDevices.accumulateAndGet(runningDevices.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            runningDevices.decrementAndGet();
+            return result;
+        });
+        when(secondCommand.execute(any(ConnectedDeviceWrapper.class), eq(context))).thenReturn(result);
+        ExecutorCommandsRunner runner = new ExecutorCommandsRunner(planProvider, commandProvider, 0, 0,
+                null, 1);
+
+        Assert.assertTrue(runner.runCommands(Arrays.asList(deviceWrapper, deviceWrapper2), context));
+        Assert.assertEquals(1, maxRunningDevices.get());
+        verify(secondCommand).execute(deviceWrapper2, context);
+    }
+
+    private void waitForCancellation(ConnectedDeviceWrapper device) throws InterruptedException {
+        while (!context.getCancellationSignal(device).isCancelled()) {
+            Thread.sleep(10);
+        }
+    }
+}
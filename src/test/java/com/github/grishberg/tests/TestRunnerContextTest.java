@@ -0,0 +1,81 @@
+package com.github.grishberg.tests;
+
+import com.github.grishberg.tests.commands.reports.LogcatFilter;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link TestRunnerContext}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestRunnerContextTest {
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    private final TestRunnerContext context = new TestRunnerContext(new InstrumentalExtension(),
+            new Environment(new File("results"), new File("reports"), new File("coverage")),
+            new HashMap<>(), new RunnerLogger.Stub());
+
+    @After
+    public void tearDown() throws Exception {
+        context.shutdownArtifactQueues(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void awaitArtifactsSubmittedBefore() throws Exception {
+        when(deviceWrapper.getSerialNumber()).thenReturn("emulator-5554");
+        when(deviceWrapper.getName()).thenReturn("emulator-5554");
+        when(deviceWrapper.getLogger()).thenReturn(new RunnerLogger.Stub());
+        AtomicBoolean collected = new AtomicBoolean();
+        context.getArtifactQueue(deviceWrapper).submit("coverage", () -> {
+            Thread.sleep(100);
+            collected.set(true);
+        });
+
+        context.awaitArtifacts(deviceWrapper);
+
+        Assert.assertTrue(collected.get());
+    }
+
+    @Test
+    public void requestUidForLogcatFilterOncePerDevice() throws Exception {
+        InstrumentalExtension extension = new InstrumentalExtension();
+        extension.setApplicationId("com.test");
+        extension.setLogcatAppOnly(true);
+        TestRunnerContext appOnlyContext = new TestRunnerContext(extension,
+                new Environment(new File("results"), new File("reports"), new File("coverage")),
+                new HashMap<>(), new RunnerLogger.Stub());
+        when(deviceWrapper.getSerialNumber()).thenReturn("emulator-5554");
+        when(deviceWrapper.getLogger()).thenReturn(new RunnerLogger.Stub());
+        when(deviceWrapper.getApiLevel()).thenReturn(29);
+        when(deviceWrapper.executeShellCommandAndReturnOutput("pm list packages -U com.test"))
+                .thenReturn("package:com.test uid:10123");
+
+        LogcatFilter filter = appOnlyContext.getLogcatFilter(deviceWrapper);
+
+        Assert.assertSame(filter, appOnlyContext.getLogcatFilter(deviceWrapper));
+        Assert.assertEquals("logcat --uid=10123", filter.apply("logcat"));
+        verify(deviceWrapper, times(1)).executeShellCommandAndReturnOutput(anyString());
+    }
+
+    @Test
+    public void dontWaitWhenDeviceHasNoArtifacts() throws Exception {
+        when(deviceWrapper.getSerialNumber()).thenReturn("emulator-5554");
+
+        context.awaitArtifacts(deviceWrapper);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.grishberg.tests.adb;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link AdbExecOut}.
+ */
+@RunWith(JUnit4.class)
+public class AdbExecOutTest {
+    // png header contains bytes which are changed by shell with pty: \r\n and \n.
+    private static final byte[] OUTPUT = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, (byte) 0xff};
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private ServerSocket server;
+    private Thread serverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        if (serverThread != null) {
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void writeRawOutputOfCommand() throws Exception {
+        startServer(true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long written = createClient().execute("emulator-5554", "screencap -p", Channels.newChannel(output));
+
+        Assert.assertEquals(OUTPUT.length, written);
+        Assert.assertArrayEquals(OUTPUT, output.toByteArray());
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals("host:transport:emulator-5554", requests.get(0));
+        Assert.assertEquals("exec:screencap -p", requests.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void throwExceptionWhenAdbRejectsDevice() throws Exception {
+        startServer(false);
+
+        createClient().execute("unknown", "screencap -p", Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    private AdbExecOut createClient() {
+        return new AdbExecOut(new InetSocketAddress("127.0.0.1", server.getLocalPort()), 5000);
+    }
+
+    private void startServer(boolean deviceFound) {
+        serverThread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                requests.add(readRequest(in));
+                if (!deviceFound) {
+                    String message = "device 'unknown' not found";
+                    out.write(String.format("FAIL%04x%s", message.length(), message)
+                            .getBytes(StandardCharsets.US_ASCII));
+                    return;
+                }
+                out.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+                requests.add(readRequest(in));
+                out.write("OKAY".getBytes(StandardCharsets.US_ASCII));
+                out.write(OUTPUT);
+            } catch (IOException e) {
+                // client fails when connection is closed
+            }
+        });
+        serverThread.start();
+    }
+
+    private static String readRequest(DataInputStream in) throws IOException {
+        byte[] length = new byte[4];
+        in.readFully(length);
+        byte[] payload = new byte[Integer.parseInt(new String(length, StandardCharsets.US_ASCII), 16)];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
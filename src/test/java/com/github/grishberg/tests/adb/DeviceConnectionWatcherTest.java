@@ -0,0 +1,95 @@
+package com.github.grishberg.tests.adb;
+
+import com.android.ddmlib.IDevice;
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link DeviceConnectionWatcher}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceConnectionWatcherTest {
+    private static final long WAIT_TIMEOUT = 1000;
+    @Mock
+    AdbWrapper adbWrapper;
+    @Mock
+    RunnerLogger logger;
+    @Mock
+    IDevice device;
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    DeviceConnectionWatcher.DeviceReadyListener listener;
+    private DeviceConnectionWatcher watcher;
+
+    @Before
+    public void setUp() {
+        watcher = new DeviceConnectionWatcher(adbWrapper, logger, listener);
+        watcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+    }
+
+    @Test
+    public void notifyWhenConnectedDeviceIsBooted() {
+        when(device.getSerialNumber()).thenReturn("emulator-5554");
+        when(device.isOnline()).thenReturn(true);
+        when(device.getSystemProperty("sys.boot_completed"))
+                .thenReturn(CompletableFuture.completedFuture("1"));
+        when(adbWrapper.wrapDevice(device)).thenReturn(deviceWrapper);
+
+        watcher.deviceConnected(device);
+
+        verify(listener, timeout(WAIT_TIMEOUT)).onDeviceReady(deviceWrapper);
+        verify(adbWrapper).addDeviceChangeListener(watcher);
+    }
+
+    @Test
+    public void notifyWhenDeviceBecameOnline() {
+        when(device.getSerialNumber()).thenReturn("emulator-5554");
+        when(device.isOnline()).thenReturn(true);
+        when(device.getSystemProperty("sys.boot_completed"))
+                .thenReturn(CompletableFuture.completedFuture("1"));
+        when(adbWrapper.wrapDevice(device)).thenReturn(deviceWrapper);
+
+        watcher.deviceChanged(device, IDevice.CHANGE_STATE);
+
+        verify(listener, timeout(WAIT_TIMEOUT)).onDeviceReady(deviceWrapper);
+    }
+
+    @Test
+    public void dontNotifyWhenDeviceIsOffline() throws Exception {
+        when(device.isOnline()).thenReturn(false);
+
+        watcher.deviceConnected(device);
+
+        Thread.sleep(100);
+        verify(listener, never()).onDeviceReady(any());
+    }
+
+    @Test
+    public void dontNotifyWhileBootIsNotCompleted() throws Exception {
+        when(device.getSerialNumber()).thenReturn("emulator-5554");
+        when(device.isOnline()).thenReturn(true);
+        when(device.getSystemProperty("sys.boot_completed"))
+                .thenReturn(CompletableFuture.completedFuture("0"));
+
+        watcher.deviceConnected(device);
+
+        Thread.sleep(100);
+        verify(listener, never()).onDeviceReady(any());
+    }
+}
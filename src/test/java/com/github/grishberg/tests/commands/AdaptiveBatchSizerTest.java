@@ -0,0 +1,95 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link AdaptiveBatchSizer}.
+ */
+@RunWith(JUnit4.class)
+public class AdaptiveBatchSizerTest {
+    private static final String DEVICE = "device1";
+    private static final String CRASHING_CLASS = "com.test.crashing.CrashTest";
+    private static final String STABLE_CLASS = "com.test.stable.StableTest";
+    private final AdaptiveBatchSizer sizer = new AdaptiveBatchSizer();
+
+    @Test
+    public void allTestsInOneBatchWithoutCrashes() {
+        List<TestPlanElement> tests = createTests(CRASHING_CLASS, 100);
+
+        Assert.assertEquals(100, sizer.nextBatchSize(DEVICE, tests));
+    }
+
+    @Test
+    public void shrinkBatchesOfCrashedPackage() {
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 10, 64);
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 5, 54);
+
+        Assert.assertEquals(16, sizer.nextBatchSize(DEVICE, createTests(CRASHING_CLASS, 100)));
+        Assert.assertEquals(100, sizer.nextBatchSize(DEVICE, createTests(STABLE_CLASS, 100)));
+        Assert.assertEquals(100, sizer.nextBatchSize("device2", createTests(CRASHING_CLASS, 100)));
+    }
+
+    @Test
+    public void batchEndsBeforeCrashingPackage() {
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 0, 4);
+        List<TestPlanElement> tests = createTests(STABLE_CLASS, 5);
+        tests.addAll(createTests(CRASHING_CLASS, 5));
+
+        Assert.assertEquals(5, sizer.nextBatchSize(DEVICE, tests));
+    }
+
+    @Test
+    public void growBatchesAfterStableRuns() {
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 0, 8);
+        List<TestPlanElement> tests = createTests(CRASHING_CLASS, 2000);
+
+        sizer.recordStableRun(DEVICE, tests.subList(0, 4));
+        Assert.assertEquals(8, sizer.nextBatchSize(DEVICE, tests));
+
+        for (int i = 0; i < 8; i++) {
+            sizer.recordStableRun(DEVICE, tests.subList(0, 1));
+        }
+        Assert.assertEquals(2000, sizer.nextBatchSize(DEVICE, tests));
+    }
+
+    @Test
+    public void batchIsLargeEnoughToHideStartupOverhead() {
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 50, 4);
+        // startup takes the same time as 3 tests, so batch with 27 tests has 10% overhead
+        sizer.recordTimings(DEVICE, 3000, 10, 10000);
+
+        Assert.assertEquals(27, sizer.nextBatchSize(DEVICE, createTests(CRASHING_CLASS, 100)));
+    }
+
+    @Test
+    public void crashProneBatchIgnoresStartupOverhead() {
+        sizer.recordTimings(DEVICE, 3000, 10, 10000);
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 5, 8);
+
+        Assert.assertEquals(4, sizer.nextBatchSize(DEVICE, createTests(CRASHING_CLASS, 100)));
+    }
+
+    @Test
+    public void batchContainsAtLeastOneTest() {
+        sizer.recordCrash(DEVICE, CRASHING_CLASS, 0, 1);
+
+        Assert.assertEquals(1, sizer.nextBatchSize(DEVICE, createTests(CRASHING_CLASS, 3)));
+        Assert.assertEquals(1, sizer.nextBatchSize(DEVICE, Collections.emptyList()));
+    }
+
+    private static List<TestPlanElement> createTests(String className, int count) {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new TestPlanElement("", "test" + i, className));
+        }
+        return result;
+    }
+}
@@ -7,6 +7,7 @@ import com.github.grishberg.tests.common.RunnerLogger;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -54,4 +55,14 @@ public class ClearCommandTest {
         verify(logger).d(ClearCommand.class.getSimpleName(), "ClearCommand for package {}",
                 "com.yandex.test");
     }
+
+    @Test
+    public void waitForArtifactsBeforeClear() throws Exception {
+        ClearCommand command = new ClearCommand("com.yandex.test");
+        command.execute(deviceWrapper, context);
+
+        InOrder inOrder = Mockito.inOrder(context, deviceWrapper);
+        inOrder.verify(context).awaitArtifacts(deviceWrapper);
+        inOrder.verify(deviceWrapper).executeShellCommand("pm clear com.yandex.test");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link CrashBisector}.
+ */
+@RunWith(JUnit4.class)
+public class CrashBisectorTest {
+    private final List<TestPlanElement> tests = createTests(9);
+    private final TestPlanElement crashedTest = tests.get(8);
+    private final List<TestPlanElement> executedTests = tests.subList(0, 8);
+
+    @Test
+    public void findCrashedTestWhenItCrashesAlone() throws Exception {
+        CrashBisector bisector = new CrashBisector(probeTests -> probeTests.contains(crashedTest));
+
+        Assert.assertEquals(Collections.singletonList(crashedTest),
+                bisector.findCrashingTests(executedTests, crashedTest));
+        Assert.assertEquals(1, bisector.getProbesCount());
+    }
+
+    @Test
+    public void findPreviousTestWhichCausesCrash() throws Exception {
+        TestPlanElement cause = tests.get(5);
+        CrashBisector bisector = new CrashBisector(probeTests -> probeTests.contains(cause) &&
+                probeTests.indexOf(cause) < probeTests.indexOf(crashedTest));
+
+        Assert.assertEquals(Arrays.asList(cause, crashedTest),
+                bisector.findCrashingTests(executedTests, crashedTest));
+        // crashed test alone, 3 bisection steps for 8 tests and final check
+        Assert.assertEquals(5, bisector.getProbesCount());
+    }
+
+    @Test
+    public void returnNullWhenCrashIsNotReproduced() throws Exception {
+        CrashBisector bisector = new CrashBisector(probeTests -> false);
+
+        Assert.assertNull(bisector.findCrashingTests(executedTests, crashedTest));
+    }
+
+    @Test
+    public void returnNullWhenCrashedTestWasFirst() throws Exception {
+        CrashBisector bisector = new CrashBisector(probeTests -> false);
+
+        Assert.assertNull(bisector.findCrashingTests(Collections.emptyList(), crashedTest));
+        Assert.assertEquals(1, bisector.getProbesCount());
+    }
+
+    private static List<TestPlanElement> createTests(int count) {
+        List<TestPlanElement> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new TestPlanElement("", "test" + i, "com.test.TestClass"));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link CrashQuarantine}.
+ */
+@RunWith(JUnit4.class)
+public class CrashQuarantineTest {
+    private static final TestPlanElement CRASHING = new TestPlanElement("", "crash", "com.test.CrashTest");
+    private static final TestPlanElement CAUSE = new TestPlanElement("", "cause", "com.test.CauseTest");
+    private static final TestPlanElement STABLE = new TestPlanElement("", "stable", "com.test.CrashTest");
+    private final RunnerLogger logger = new RunnerLogger.Stub();
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("crash_quarantine").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void quarantineAllTestsOfEntry() {
+        CrashQuarantine quarantine = new CrashQuarantine();
+        Assert.assertTrue(quarantine.isEmpty());
+
+        quarantine.add(Arrays.asList(CAUSE, CRASHING));
+
+        Assert.assertFalse(quarantine.isEmpty());
+        Assert.assertTrue(quarantine.isQuarantined(CAUSE));
+        Assert.assertTrue(quarantine.isQuarantined(new TestPlanElement("", "crash", "com.test.CrashTest")));
+        Assert.assertFalse(quarantine.isQuarantined(STABLE));
+    }
+
+    @Test
+    public void runTestsOfEntryTogetherInEntryOrder() {
+        CrashQuarantine quarantine = new CrashQuarantine();
+        quarantine.add(Arrays.asList(CAUSE, CRASHING));
+
+        List<List<TestPlanElement>> runs = quarantine.provideIsolatedRuns(Arrays.asList(CRASHING, STABLE, CAUSE));
+
+        Assert.assertEquals(Collections.singletonList(Arrays.asList(CAUSE, CRASHING)), runs);
+        Assert.assertEquals(Collections.singletonList(STABLE),
+                CrashQuarantine.removeIsolatedTests(Arrays.asList(CRASHING, STABLE, CAUSE), runs));
+    }
+
+    @Test
+    public void releaseOnlyWholeEntry() {
+        CrashQuarantine quarantine = new CrashQuarantine();
+        quarantine.add(Arrays.asList(CAUSE, CRASHING));
+        quarantine.add(Collections.singletonList(CRASHING));
+
+        Assert.assertFalse(quarantine.release(Collections.singletonList(CAUSE)));
+        Assert.assertTrue(quarantine.release(Arrays.asList(CAUSE, CRASHING)));
+
+        Assert.assertFalse(quarantine.isQuarantined(CAUSE));
+        Assert.assertTrue(quarantine.isQuarantined(CRASHING));
+    }
+
+    @Test
+    public void loadSavedEntries() throws Exception {
+        File file = new File(dir, "quarantine/debug.json");
+        CrashQuarantine quarantine = new CrashQuarantine();
+        quarantine.add(Collections.singletonList(CRASHING));
+        quarantine.save(file);
+
+        CrashQuarantine loaded = new CrashQuarantine();
+        loaded.add(Collections.singletonList(STABLE));
+        loaded.load(file, logger);
+
+        Assert.assertTrue(loaded.isQuarantined(CRASHING));
+        Assert.assertFalse(loaded.isQuarantined(STABLE));
+    }
+
+    @Test
+    public void emptyWhenFileDoesNotExist() {
+        CrashQuarantine quarantine = new CrashQuarantine();
+
+        quarantine.load(new File(dir, "missing.json"), logger);
+
+        Assert.assertTrue(quarantine.isEmpty());
+    }
+}
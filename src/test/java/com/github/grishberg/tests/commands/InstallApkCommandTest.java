@@ -6,11 +6,13 @@ import com.github.grishberg.tests.common.RunnerLogger;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.File;
 
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,4 +44,13 @@ public class InstallApkCommandTest {
                 "InstallApkCommand: install file {}", apkFile.getName());
         verify(deviceWrapper).installPackage(apkFile.getAbsolutePath(), true, "");
     }
+
+    @Test
+    public void waitForArtifactsBeforeReinstall() throws Exception {
+        command.execute(deviceWrapper, context);
+
+        InOrder inOrder = inOrder(context, deviceWrapper);
+        inOrder.verify(context).awaitArtifacts(deviceWrapper);
+        inOrder.verify(deviceWrapper).installPackage(apkFile.getAbsolutePath(), true, "");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package com.github.grishberg.tests.commands;
+
+import com.android.ddmlib.testrunner.ITestRunListener;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.common.InstrumentationProtoBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link InstrumentationProtoResultParser}.
+ */
+@RunWith(JUnit4.class)
+public class InstrumentationProtoResultParserTest {
+    private static final String PROTO_SAMPLE_FILE = "for_test/am_instrument_output.pb";
+    private static final int SAMPLE_CHUNK_SIZE = 5;
+    private static final String CLASS_NAME = "com.test.MainActivityTest";
+    private final RecordingListener listener = new RecordingListener();
+    private final InstrumentationProtoResultParser parser = new InstrumentationProtoResultParser(
+            "com.test", Collections.singletonList(listener));
+
+    @Test
+    public void reportTestsFromSampleOutput() throws Exception {
+        parseByChunks(Files.readAllBytes(Paths.get(PROTO_SAMPLE_FILE)));
+
+        String mainTest = "com.github.grishberg.instrumentaltestsample.MainActivityTest#";
+        String tabletTest = "com.github.grishberg.instrumentaltestsample.TabletTest#";
+        Assert.assertEquals(Arrays.asList(
+                "runStarted com.test 4",
+                "started " + mainTest + "testPhoneButton2",
+                "ended " + mainTest + "testPhoneButton2",
+                "started " + mainTest + "testPhoneButton",
+                "ended " + mainTest + "testPhoneButton",
+                "started " + tabletTest + "testTabletButton",
+                "ended " + tabletTest + "testTabletButton",
+                "started " + tabletTest + "ignoredTestTabletButton2",
+                "ended " + tabletTest + "ignoredTestTabletButton2",
+                "runEnded 16"), listener.events);
+    }
+
+    @Test
+    public void reportFailedIgnoredAndAssumptionFailedTests() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .testStatus(1, "class", CLASS_NAME, "test", "failed", "numtests", 3)
+                .testStatus(-2, "class", CLASS_NAME, "test", "failed", "stack", "AssertionError")
+                .testStatus(1, "class", CLASS_NAME, "test", "ignored")
+                .testStatus(-3, "class", CLASS_NAME, "test", "ignored")
+                .testStatus(1, "class", CLASS_NAME, "test", "assumption")
+                .testStatus(-4, "class", CLASS_NAME, "test", "assumption", "stack", "AssumptionViolatedException")
+                .sessionStatus(-1, "stream", "\nTime: 1,234.5\n")
+                .build());
+
+        Assert.assertEquals(Arrays.asList(
+                "runStarted com.test 3",
+                "started " + CLASS_NAME + "#failed",
+                "failed " + CLASS_NAME + "#failed AssertionError",
+                "ended " + CLASS_NAME + "#failed",
+                "started " + CLASS_NAME + "#ignored",
+                "ignored " + CLASS_NAME + "#ignored",
+                "ended " + CLASS_NAME + "#ignored",
+                "started " + CLASS_NAME + "#assumption",
+                "assumptionFailure " + CLASS_NAME + "#assumption AssumptionViolatedException",
+                "ended " + CLASS_NAME + "#assumption",
+                "runEnded 1234500"), listener.events);
+    }
+
+    @Test
+    public void failTestInProgressWhenProcessCrashed() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .testStatus(1, "class", CLASS_NAME, "test", "crashed", "numtests", 2)
+                .sessionStatus(0, "shortMsg", "Process crashed.")
+                .build());
+
+        Assert.assertEquals(Arrays.asList(
+                "runStarted com.test 2",
+                "started " + CLASS_NAME + "#crashed",
+                "failed " + CLASS_NAME + "#crashed Test failed to run to completion. " +
+                        "Reason: 'Instrumentation run failed due to 'Process crashed.''. " +
+                        "Check device logcat for details",
+                "ended " + CLASS_NAME + "#crashed",
+                "runFailed Instrumentation run failed due to 'Process crashed.'",
+                "runEnded 0"), listener.events);
+    }
+
+    @Test
+    public void failRunWhenOutputIsIncomplete() {
+        byte[] output = new InstrumentationProtoBuilder()
+                .testStatus(1, "class", CLASS_NAME, "test", "test1", "numtests", 2)
+                .testStatus(0, "class", CLASS_NAME, "test", "test1")
+                .testStatus(1, "class", CLASS_NAME, "test", "test2")
+                .build();
+        // output is interrupted in the middle of status
+        parser.addOutput(output, 0, output.length - 3);
+        parser.flush();
+        parser.done();
+
+        Assert.assertEquals(Arrays.asList(
+                "runStarted com.test 2",
+                "started " + CLASS_NAME + "#test1",
+                "ended " + CLASS_NAME + "#test1",
+                "runFailed Test run failed to complete. Expected 2 tests, received 1",
+                "runEnded 0"), listener.events);
+    }
+
+    @Test
+    public void failRunWhenInstrumentationAborted() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .abortedSession("Unable to find instrumentation info")
+                .build());
+
+        Assert.assertEquals(Arrays.asList(
+                "runStarted com.test 0",
+                "runFailed Unable to find instrumentation info",
+                "runEnded 0"), listener.events);
+    }
+
+    private void parseByChunks(byte[] output) {
+        // statuses are split between chunks
+        for (int offset = 0; offset < output.length; offset += SAMPLE_CHUNK_SIZE) {
+            parser.addOutput(output, offset, Math.min(SAMPLE_CHUNK_SIZE, output.length - offset));
+        }
+        parser.flush();
+        parser.done();
+    }
+
+    private static class RecordingListener implements ITestRunListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            events.add("runStarted " + runName + " " + testCount);
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            events.add("started " + test);
+        }
+
+        @Override
+        public void testFailed(TestIdentifier test, String trace) {
+            events.add("failed " + test + " " + trace);
+        }
+
+        @Override
+        public void testAssumptionFailure(TestIdentifier test, String trace) {
+            events.add("assumptionFailure " + test + " " + trace);
+        }
+
+        @Override
+        public void testIgnored(TestIdentifier test) {
+            events.add("ignored " + test);
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            events.add("ended " + test);
+        }
+
+        @Override
+        public void testRunFailed(String errorMessage) {
+            events.add("runFailed " + errorMessage);
+        }
+
+        @Override
+        public void testRunStopped(long elapsedTime) {
+            events.add("runStopped " + elapsedTime);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            events.add("runEnded " + elapsedTime);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.grishberg.tests.commands;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tests for {@link PlannedTests}.
+ */
+@RunWith(JUnit4.class)
+public class PlannedTestsTest {
+    private static final String CLASS_NAME = "com.test.TestClass";
+    private final TestPlanElement firstTest = new TestPlanElement("", "first", CLASS_NAME);
+    private final TestPlanElement secondTest = new TestPlanElement("", "second", CLASS_NAME);
+    private final PlannedTests plannedTests = new PlannedTests(Arrays.asList(firstTest, secondTest));
+
+    @Test
+    public void removeFinishedTestFromTestsLeft() {
+        Collection<TestPlanElement> testsLeft = plannedTests.getTestsLeft();
+
+        Assert.assertTrue(plannedTests.finish(new TestIdentifier(CLASS_NAME, "first")));
+
+        Assert.assertEquals(Arrays.asList(secondTest), new ArrayList<>(testsLeft));
+    }
+
+    @Test
+    public void findParameterizedTestByMethodName() {
+        TestIdentifier parameterizedTest = new TestIdentifier(CLASS_NAME, "second[1]");
+
+        Assert.assertTrue(plannedTests.finish(new TestIdentifier(CLASS_NAME, "second[0]")));
+        Assert.assertTrue(plannedTests.finish(parameterizedTest));
+
+        Assert.assertSame(secondTest, plannedTests.find(parameterizedTest));
+        Assert.assertEquals(Arrays.asList(firstTest), new ArrayList<>(plannedTests.getTestsLeft()));
+    }
+
+    @Test
+    public void dontFindNotPlannedTest() {
+        TestIdentifier notPlannedTest = new TestIdentifier("com.test.OtherClass", "first");
+
+        Assert.assertNull(plannedTests.find(notPlannedTest));
+        Assert.assertFalse(plannedTests.finish(notPlannedTest));
+        Assert.assertEquals(2, plannedTests.getTestsLeft().size());
+    }
+
+    @Test
+    public void keepFirstPlanOfDuplicatedTest() {
+        List<TestPlanElement> tests = Arrays.asList(firstTest, new TestPlanElement("", "first", CLASS_NAME));
+        PlannedTests plannedTests = new PlannedTests(tests);
+
+        Assert.assertEquals(1, plannedTests.size());
+        Assert.assertSame(firstTest, plannedTests.find(new TestIdentifier(CLASS_NAME, "first")));
+        Assert.assertSame(firstTest, plannedTests.getFirstTest());
+    }
+}
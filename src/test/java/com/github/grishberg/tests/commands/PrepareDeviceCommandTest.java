@@ -0,0 +1,75 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.TestRunnerContext;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.File;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link PrepareDeviceCommand}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PrepareDeviceCommandTest {
+    private static final String INSTRUMENTATIONS = "instrumentation:com.test.app.test/" +
+            "android.support.test.runner.AndroidJUnitRunner (target=com.test.app)\n";
+    @Mock
+    RunnerLogger logger;
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    TestRunnerContext context;
+    private final InstrumentalExtension extension = new InstrumentalExtension();
+    private final PrepareDeviceCommand command = new PrepareDeviceCommand();
+
+    @Before
+    public void setUp() throws Exception {
+        extension.setInstrumentalPackage("com.test.app.test");
+        extension.setInstrumentalRunner("android.support.test.runner.AndroidJUnitRunner");
+        when(context.getInstrumentalInfo()).thenReturn(extension);
+    }
+
+    @Test
+    public void installApksAndCheckInstrumentation() throws Exception {
+        extension.setAppApkPath("/app.apk");
+        extension.setTestApkPath("/app-test.apk");
+        when(deviceWrapper.getLogger()).thenReturn(logger);
+        when(deviceWrapper.executeShellCommandAndReturnOutput("pm list instrumentation"))
+                .thenReturn(INSTRUMENTATIONS);
+
+        command.execute(deviceWrapper, context);
+
+        verify(deviceWrapper).installPackage(new File("/app.apk").getAbsolutePath(), true, "");
+        verify(deviceWrapper).installPackage(new File("/app-test.apk").getAbsolutePath(), true, "");
+    }
+
+    @Test
+    public void checkInstrumentationWhenApkPathsAreNotSet() throws Exception {
+        when(deviceWrapper.getLogger()).thenReturn(logger);
+        when(deviceWrapper.executeShellCommandAndReturnOutput("pm list instrumentation"))
+                .thenReturn(INSTRUMENTATIONS);
+
+        command.execute(deviceWrapper, context);
+
+        verify(deviceWrapper, never()).installPackage(anyString(), anyBoolean(), anyString());
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void throwExceptionWhenInstrumentationIsNotInstalled() throws Exception {
+        when(deviceWrapper.executeShellCommandAndReturnOutput("pm list instrumentation")).thenReturn("");
+
+        command.execute(deviceWrapper, context);
+    }
+}
@@ -4,6 +4,8 @@ import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.ddmlib.testrunner.TestRunResult;
+import com.github.grishberg.tests.ArtifactQueue;
+import com.github.grishberg.tests.CancellationSignal;
 import com.github.grishberg.tests.ConnectedDeviceWrapper;
 import com.github.grishberg.tests.Environment;
 import com.github.grishberg.tests.InstrumentalExtension;
@@ -29,6 +31,8 @@ import org.mockito.stubbing.Answer;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -152,23 +156,29 @@ public class SingleInstrumentalTestCommandTest {
     @Test
     public void testWhenCoverageEnabled() throws Exception {
         ext.setCoverageEnabled(true);
+        ArtifactQueue artifactQueue = new ArtifactQueue("test_device", logger);
+        when(context.getArtifactQueue(deviceWrapper)).thenReturn(artifactQueue);
 
         runCommand(ONE_TEST);
+        artifactQueue.shutdown(5, TimeUnit.SECONDS);
 
-        verify(deviceWrapper).pullCoverageFile(ext,
+        verify(deviceWrapper).streamCoverageFile(ext,
                 "test_device#test_prefix",
                 "coverage_file",
                 coverageDir);
     }
 
     @Test
-    public void pullCoverageFileWhenEnabledCoverage() throws Exception {
+    public void streamCoverageFileInArtifactQueueWhenEnabledCoverage() throws Exception {
         ext.setCoverageEnabled(true);
         when(environment.getCoverageDir()).thenReturn(new File("/coverage"));
+        ArtifactQueue artifactQueue = mock(ArtifactQueue.class);
+        when(context.getArtifactQueue(deviceWrapper)).thenReturn(artifactQueue);
 
         runCommand(ONE_TEST);
 
-        verify(deviceWrapper).pullCoverageFile(
+        verify(artifactQueue).submit(eq("coverage of test_device#test_prefix"), any(ArtifactQueue.Task.class));
+        verify(deviceWrapper, never()).streamCoverageFile(
                 any(InstrumentalExtension.class),
                 anyString(),
                 anyString(),
@@ -183,6 +193,24 @@ public class SingleInstrumentalTestCommandTest {
         runCommand(ONE_TEST);
     }
 
+    @Test
+    public void flushReportAndStopWhenCancelled() throws Exception {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        when(context.getCancellationSignal(deviceWrapper)).thenReturn(cancellationSignal);
+        doAnswer(invocation -> {
+            cancellationSignal.cancel("timeout");
+            return null;
+        }).when(testRunner).run((ITestRunListener[]) any());
+
+        DeviceCommandResult result = runCommand(TWO_TESTS);
+
+        Assert.assertFalse(result.isFailed());
+        verify(testRunner).cancel();
+        verify(testRunner, times(1)).run((ITestRunListener[]) any());
+        verify(reportsGenerator).testRunFailed("Tests run was cancelled: timeout");
+        verify(reportsGenerator).testRunEnded(anyLong(), any());
+    }
+
     @Test
     public void handleProcessCrashed() throws Exception {
         withTestCrashed();
@@ -277,11 +305,56 @@ public class SingleInstrumentalTestCommandTest {
         verify(processCrashedHandler).provideFailMessageOnProcessCrashed(deviceWrapper, currentTest);
     }
 
+    @Test
+    public void passTestsWithTestFileWhenEnabled() throws Exception {
+        ext.setTestFileEnabled(true);
+        doAnswer(invocation -> {
+            List<String> lines = Files.readAllLines(new File((String) invocation.getArgument(0)).toPath());
+            assertEquals(Arrays.asList("com.test.TestClass#test1", "com.test.TestClass#test2"), lines);
+            return null;
+        }).when(deviceWrapper).pushFile(anyString(), anyString());
+
+        runCommand(TWO_TESTS);
+
+        String testFile = capturedInstrumentationArgs.get("testFile");
+        assertEquals("/data/local/tmp/testFile-test_project-test_prefix.txt", testFile);
+        Assert.assertNull(capturedInstrumentationArgs.get("class"));
+        verify(deviceWrapper).pushFile(anyString(), eq(testFile));
+        verify(deviceWrapper).executeShellCommand("rm -f " + testFile);
+        verify(testRunner, times(1)).run((ITestRunListener[]) any());
+    }
+
+    @Test
+    public void splitLongClassArgumentWhenTestFileDisabled() throws Exception {
+        List<TestPlanElement> tests = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tests.add(new TestPlanElement("", "test" + i, TEST_CLASS));
+        }
+
+        runCommand(tests);
+
+        verify(testRunner, times(2)).run((ITestRunListener[]) any());
+        verify(deviceWrapper, never()).pushFile(anyString(), anyString());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void throwExceptionWhenGivenEmptyTestList() throws Exception {
         runCommand(Collections.emptyList());
     }
 
+    @Test
+    public void replaceRawOutputFlagWithProtoOutputFlag() throws Exception {
+        Assert.assertEquals("am instrument -w -m -e class com.test.Test -r com.test/Runner",
+                SingleInstrumentalTestCommand.toProtoOutputCommand(
+                        "am instrument -w -r -e class com.test.Test -r com.test/Runner"));
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void throwExceptionWhenCommandHasNoRawOutputFlag() throws Exception {
+        SingleInstrumentalTestCommand.toProtoOutputCommand(
+                "am instrument -w -e class com.test.Test -r com.test/Runner");
+    }
+
     private void withTestCrashed() throws Exception {
         doAnswer(mockTestRunCrash(TEST_CLASS, TEST_NAME_WITH_DEVICE))
                 .when(testRunner).run((ITestRunListener[]) any());
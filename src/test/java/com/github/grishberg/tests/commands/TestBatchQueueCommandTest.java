@@ -0,0 +1,80 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.CancellationSignal;
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.TestRunnerContext;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.exceptions.DeviceOfflineException;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import com.github.grishberg.tests.sharding.TestBatch;
+import com.github.grishberg.tests.sharding.TestBatchQueue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link TestBatchQueueCommand}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TestBatchQueueCommandTest {
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    TestRunnerContext context;
+    private final InstrumentalExtension extension = new InstrumentalExtension();
+    private final List<TestPlanElement> testPlan = Arrays.asList(
+            new TestPlanElement("", "test1", "com.test.TestClass"),
+            new TestPlanElement("", "test2", "com.test.TestClass"));
+    private final TestBatchQueue queue = new TestBatchQueue(testPlan, 10);
+    private final DeviceRunnerCommand failedPrecondition = (device, context) -> {
+        throw new CommandExecutionException("Precondition failed");
+    };
+    private TestBatchQueueCommand command;
+
+    @Before
+    public void setUp() throws Exception {
+        extension.setDynamicShardingRetryCount(1);
+        when(context.getInstrumentalInfo()).thenReturn(extension);
+        when(context.getCancellationSignal(deviceWrapper)).thenReturn(new CancellationSignal());
+        when(deviceWrapper.getName()).thenReturn("device");
+        when(deviceWrapper.getLogger()).thenReturn(new RunnerLogger.Stub());
+        command = new TestBatchQueueCommand("project", new HashMap<>(), queue,
+                annotations -> Collections.singletonList(failedPrecondition));
+    }
+
+    @Test
+    public void returnTestsOfFailedBatchToQueue() throws Exception {
+        when(deviceWrapper.isOnline()).thenReturn(true);
+
+        try {
+            command.execute(deviceWrapper, context);
+            Assert.fail("Exception must be thrown in this test");
+        } catch (CommandExecutionException e) {
+            Assert.assertFalse(e instanceof DeviceOfflineException);
+        }
+
+        CancellationSignal signal = new CancellationSignal();
+        TestBatch returned = queue.poll(signal);
+        Assert.assertEquals(2, returned.getTests().size());
+        Assert.assertTrue(queue.finish(returned, signal));
+        Assert.assertTrue(queue.isDrained());
+    }
+
+    @Test(expected = DeviceOfflineException.class)
+    public void throwDeviceOfflineExceptionWhenDeviceIsOffline() throws Exception {
+        when(deviceWrapper.isOnline()).thenReturn(false);
+
+        command.execute(deviceWrapper, context);
+    }
+}
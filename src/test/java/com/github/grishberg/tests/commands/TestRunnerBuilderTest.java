@@ -56,7 +56,7 @@ public class TestRunnerBuilderTest {
         Assert.assertEquals(TEST_PACKAGE, testRunner.getPackageName());
         Assert.assertEquals(RUNNER_NAME, testRunner.getRunnerName());
         testRunner.getAmInstrumentCommand();
-        Assert.assertEquals("/data/data/com.test.packageId/coverage.ec", builder.getCoverageFile());
+        Assert.assertEquals("/data/data/com.test.packageId/test-name-coverage.ec", builder.getCoverageFile());
     }
 
     @Test
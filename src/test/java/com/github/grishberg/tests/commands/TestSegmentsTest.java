@@ -0,0 +1,132 @@
+package com.github.grishberg.tests.commands;
+
+import com.github.grishberg.tests.CommandsForAnnotationProvider;
+import com.github.grishberg.tests.IndexedCommandsForAnnotationProvider;
+import com.github.grishberg.tests.planner.AnnotationIndex;
+import com.github.grishberg.tests.planner.AnnotationInfo;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link TestSegments}.
+ */
+@RunWith(JUnit4.class)
+public class TestSegmentsTest {
+    private static final String CLASS_1 = "com.test.TestClass1";
+    private static final String CLASS_2 = "com.test.TestClass2";
+    private static final String SPEED_ANNOTATION = "com.test.SlowAnimations";
+    private static final String CLEAR_DATA = "com.test.ClearData";
+    private final DeviceRunnerCommand speedCommand = new SetAnimationSpeedCommand(1, 1, 1);
+    private final CommandsForAnnotationProvider provider = annotations -> {
+        List<DeviceRunnerCommand> result = new ArrayList<>();
+        for (AnnotationInfo annotation : annotations) {
+            if (SPEED_ANNOTATION.equals(annotation.getName())) {
+                result.add(speedCommand);
+            } else if (CLEAR_DATA.equals(annotation.getName())) {
+                result.add(new ClearCommand());
+            }
+        }
+        return result;
+    };
+    private final TestPlanElement slowTest1 = createTest("test1", CLASS_1, SPEED_ANNOTATION);
+    private final TestPlanElement test2 = createTest("test2", CLASS_1);
+    private final TestPlanElement test3 = createTest("test3", CLASS_2);
+    private final TestPlanElement slowTest4 = createTest("test4", CLASS_2, SPEED_ANNOTATION);
+    private final TestPlanElement test5 = createTest("test5", CLASS_1);
+    private final TestPlanElement slowTest6 = createTest("test6", CLASS_1, SPEED_ANNOTATION);
+    private final List<TestPlanElement> tests = Arrays.asList(slowTest1, test2, test3, slowTest4, test5, slowTest6);
+
+    @Test
+    public void splitTestsInOriginalOrder() {
+        List<TestSegments.Segment> segments = new TestSegments(tests, provider).split();
+
+        Assert.assertEquals(3, segments.size());
+        Assert.assertEquals(Arrays.asList(slowTest1, test2, test3), segments.get(0).getTests());
+        Assert.assertEquals(Arrays.asList(slowTest4, test5), segments.get(1).getTests());
+        Assert.assertEquals(Collections.singletonList(slowTest6), segments.get(2).getTests());
+    }
+
+    @Test
+    public void groupTestsWithEqualPreconditions() {
+        List<TestSegments.Segment> segments = new TestSegments(tests, provider).group();
+
+        Assert.assertEquals(1, segments.size());
+        Assert.assertEquals(Collections.singletonList(speedCommand), segments.get(0).getPreconditions());
+        Assert.assertEquals(Arrays.asList(slowTest1, slowTest4, slowTest6, test2, test5, test3),
+                segments.get(0).getTests());
+    }
+
+    @Test
+    public void addTestsWithoutPreconditionsToSegmentWithSameClass() {
+        TestPlanElement clearDataTest = createTest("test7", CLASS_2, CLEAR_DATA);
+        List<TestPlanElement> testsWithClearData = Arrays.asList(test2, clearDataTest, slowTest1, test3);
+
+        List<TestSegments.Segment> segments = new TestSegments(testsWithClearData, provider).group();
+
+        Assert.assertEquals(2, segments.size());
+        Assert.assertEquals(Arrays.asList(clearDataTest, test3), segments.get(0).getTests());
+        Assert.assertEquals(Arrays.asList(slowTest1, test2), segments.get(1).getTests());
+    }
+
+    @Test
+    public void dontMergeClearDataCommands() {
+        TestPlanElement clearDataTest1 = createTest("test7", CLASS_1, CLEAR_DATA);
+        TestPlanElement clearDataTest2 = createTest("test8", CLASS_1, CLEAR_DATA);
+
+        List<TestSegments.Segment> segments = new TestSegments(
+                Arrays.asList(clearDataTest1, clearDataTest2), provider).group();
+
+        Assert.assertEquals(2, segments.size());
+    }
+
+    @Test
+    public void keepSingleSegmentWithoutPreconditions() {
+        List<TestSegments.Segment> segments = new TestSegments(Arrays.asList(test2, test3), provider).group();
+
+        Assert.assertEquals(1, segments.size());
+        Assert.assertTrue(segments.get(0).getPreconditions().isEmpty());
+        Assert.assertEquals(Arrays.asList(test2, test3), segments.get(0).getTests());
+    }
+
+    @Test
+    public void requestCommandsOnlyForIndexedTestsSelectedByProvider() {
+        List<List<AnnotationInfo>> requests = new ArrayList<>();
+        TestPlanElement notIndexedTest = createTest("test7", CLASS_2);
+        IndexedCommandsForAnnotationProvider indexedProvider = new IndexedCommandsForAnnotationProvider() {
+            @Override
+            public BitSet selectTestsWithCommands(AnnotationIndex index) {
+                return index.withAnnotation(SPEED_ANNOTATION);
+            }
+
+            @Override
+            public List<DeviceRunnerCommand> provideCommand(List<AnnotationInfo> annotations) {
+                requests.add(annotations);
+                return provider.provideCommand(annotations);
+            }
+        };
+
+        List<TestSegments.Segment> segments = new TestSegments(Arrays.asList(slowTest1, test2, notIndexedTest,
+                slowTest4), indexedProvider, new AnnotationIndex(tests)).split();
+
+        // test2 is indexed without annotation, so provider is not asked for its commands
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals(2, segments.size());
+    }
+
+    private static TestPlanElement createTest(String methodName, String className, String... annotations) {
+        List<AnnotationInfo> annotationList = new ArrayList<>();
+        for (String annotation : annotations) {
+            annotationList.add(new AnnotationInfo(annotation));
+        }
+        return new TestPlanElement("", methodName, className, annotationList);
+    }
+}
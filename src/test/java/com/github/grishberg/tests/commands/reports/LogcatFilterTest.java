@@ -0,0 +1,51 @@
+package com.github.grishberg.tests.commands.reports;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for {@link LogcatFilter}.
+ */
+@RunWith(JUnit4.class)
+public class LogcatFilterTest {
+    private static final String COMMAND = "logcat -v threadtime -d";
+
+    @Test
+    public void commandIsNotChangedWithoutFilters() {
+        Assert.assertEquals(COMMAND, LogcatFilter.NONE.apply(COMMAND));
+    }
+
+    @Test
+    public void filterByMinPriority() {
+        LogcatFilter filter = new LogcatFilter(Collections.emptyList(), "W", null);
+
+        Assert.assertEquals(COMMAND + " *:W", filter.apply(COMMAND));
+    }
+
+    @Test
+    public void silenceTagsWhichAreNotAllowed() {
+        LogcatFilter filter = new LogcatFilter(Arrays.asList("TestRunner", "AndroidRuntime"), null, "10123");
+
+        Assert.assertEquals(COMMAND + " --uid=10123 TestRunner:V AndroidRuntime:V *:S", filter.apply(COMMAND));
+    }
+
+    @Test
+    public void allowedTagsHaveMinPriority() {
+        LogcatFilter filter = new LogcatFilter(Collections.singletonList("TestRunner"), "I", null);
+
+        Assert.assertEquals(COMMAND + " TestRunner:I *:S", filter.apply(COMMAND));
+    }
+
+    @Test
+    public void parseUidOfApplication() {
+        String output = "package:com.test.app.test uid:10124\r\npackage:com.test.app uid:10123\r\n";
+
+        Assert.assertEquals("10123", LogcatFilter.parseUid(output, "com.test.app"));
+        Assert.assertNull(LogcatFilter.parseUid(output, "com.other"));
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.grishberg.tests.commands.reports;
 
+import com.github.grishberg.tests.ArtifactQueue;
 import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.commands.CommandExecutionException;
 import com.github.grishberg.tests.common.RunnerLogger;
 import org.junit.Assert;
 import org.junit.Before;
@@ -13,7 +15,12 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -55,4 +62,34 @@ public class ScreenShotMakerImplTest {
 
         Assert.assertEquals(1, screenshotRelations.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void streamScreenshotInArtifactQueue() throws Exception {
+        ArtifactQueue queue = new ArtifactQueue("test_device", logger);
+        screenShotMaker = new ScreenShotMakerImpl(screenshotRelations, reportsDir, deviceWrapper,
+                logger, queue, true);
+        File outputScreenshotFile = new File(reportsDir, "/screenshots/" + SCREENSHOT_NAME);
+
+        screenShotMaker.makeScreenshot("com.test.TestClass", "test1");
+        Assert.assertEquals(1, screenshotRelations.size());
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        verify(deviceWrapper).executeExecOutCommand("screencap -p", outputScreenshotFile);
+        verify(deviceWrapper, never()).pullFile(anyString(), anyString());
+    }
+
+    @Test
+    public void pullScreenshotWhenExecOutFailed() throws Exception {
+        ArtifactQueue queue = new ArtifactQueue("test_device", logger);
+        screenShotMaker = new ScreenShotMakerImpl(screenshotRelations, reportsDir, deviceWrapper,
+                logger, queue, true);
+        File outputScreenshotFile = new File(reportsDir, "/screenshots/" + SCREENSHOT_NAME);
+        doThrow(new CommandExecutionException("adb server is not local"))
+                .when(deviceWrapper).executeExecOutCommand("screencap -p", outputScreenshotFile);
+
+        screenShotMaker.makeScreenshot("com.test.TestClass", "test1");
+        queue.shutdown(5, TimeUnit.SECONDS);
+
+        verify(deviceWrapper).pullFile("/sdcard/fail_screen.png", outputScreenshotFile.getAbsolutePath());
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.grishberg.tests.commands.reports;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link StreamingLogcatSaver}.
+ */
+@RunWith(JUnit4.class)
+public class StreamingLogcatSaverTest {
+    private static final String DEVICE_NAME = "device";
+    private static final TestIdentifier PASSED_TEST = new TestIdentifier("com.test.TestClass", "passed");
+    private static final TestIdentifier FAILED_TEST = new TestIdentifier("com.test.TestClass", "failed");
+    private final RunnerLogger logger = new RunnerLogger.Stub();
+    private File dir;
+    private LogcatStreamer streamer;
+    private StreamingLogcatSaver logcatSaver;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("logcat").toFile();
+        streamer = new LogcatStreamer(mock(IDevice.class), new File(dir, "device-logcat.log"), logger);
+        streamer.openLogFile();
+        logcatSaver = new StreamingLogcatSaver(streamer, DEVICE_NAME, dir, logger);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        streamer.stop();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void saveSliceOfFailedTest() throws Exception {
+        log("before\n");
+        logcatSaver.testStarted(PASSED_TEST);
+        log("passed\n");
+        logcatSaver.testEnded(PASSED_TEST);
+        logcatSaver.testStarted(FAILED_TEST);
+        log("failed\n");
+        logcatSaver.testFailed(FAILED_TEST);
+        logcatSaver.testEnded(FAILED_TEST);
+        log("after\n");
+
+        logcatSaver.saveLogcat("logcat");
+
+        Assert.assertEquals("failed\n", read(FAILED_TEST));
+        Assert.assertFalse(sliceFile(PASSED_TEST).exists());
+    }
+
+    @Test
+    public void sliceOfCrashedTestLastsUntilRunEnded() throws Exception {
+        log("before\n");
+        logcatSaver.testStarted(FAILED_TEST);
+        log("crash\n");
+        logcatSaver.testFailed(FAILED_TEST);
+        log("process died\n");
+
+        logcatSaver.saveLogcat("logcat");
+
+        Assert.assertEquals("crash\nprocess died\n", read(FAILED_TEST));
+    }
+
+    @Test
+    public void compressedSliceIsValidGzipFile() throws Exception {
+        streamer.stop();
+        streamer = new LogcatStreamer(mock(IDevice.class), new File(dir, "device-logcat.log.gz"), logger,
+                LogcatStreamer.LOGCAT_COMMAND, true);
+        streamer.openLogFile();
+        logcatSaver = new StreamingLogcatSaver(streamer, DEVICE_NAME, dir, logger);
+        log("before\n");
+        logcatSaver.testStarted(FAILED_TEST);
+        log("failed\n");
+        logcatSaver.testFailed(FAILED_TEST);
+        logcatSaver.testEnded(FAILED_TEST);
+        log("after\n");
+
+        logcatSaver.saveLogcat("logcat");
+        streamer.stop();
+
+        Assert.assertEquals("failed\n", readGzip(new File(sliceFile(FAILED_TEST).getPath() + ".gz")));
+        Assert.assertEquals("before\nfailed\nafter\n", readGzip(streamer.getLogFile()));
+    }
+
+    @Test
+    public void sliceCompressedLogAfterPassedTests() throws Exception {
+        streamer.stop();
+        streamer = new LogcatStreamer(mock(IDevice.class), new File(dir, "device-logcat.log.gz"), logger,
+                LogcatStreamer.LOGCAT_COMMAND, true);
+        streamer.openLogFile();
+        logcatSaver = new StreamingLogcatSaver(streamer, DEVICE_NAME, dir, logger);
+        logcatSaver.testStarted(PASSED_TEST);
+        log("passed\n");
+        logcatSaver.testEnded(PASSED_TEST);
+        log("between\n");
+        logcatSaver.testStarted(FAILED_TEST);
+        log("failed\n");
+        logcatSaver.testFailed(FAILED_TEST);
+        logcatSaver.testEnded(FAILED_TEST);
+
+        logcatSaver.saveLogcat("logcat");
+        streamer.stop();
+
+        Assert.assertEquals("failed\n", readGzip(new File(sliceFile(FAILED_TEST).getPath() + ".gz")));
+        Assert.assertEquals("passed\nbetween\nfailed\n", readGzip(streamer.getLogFile()));
+    }
+
+    private void log(String lines) {
+        byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        streamer.addOutput(data, 0, data.length);
+    }
+
+    private String read(TestIdentifier test) throws Exception {
+        return new String(Files.readAllBytes(sliceFile(test).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String readGzip(File file) throws Exception {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private File sliceFile(TestIdentifier test) {
+        return new File(dir, DEVICE_NAME + "-" + test.getClassName() + "#" + test.getTestName() + ".log");
+    }
+}
@@ -6,6 +6,7 @@ import com.github.grishberg.tests.RunTestLogger;
 import com.github.grishberg.tests.XmlReportGeneratorDelegate;
 import com.github.grishberg.tests.commands.NoStartedTestException;
 import com.yandex.tests.VerboseLogger;
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +18,7 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.File;
+import java.nio.file.Files;
 import java.util.HashMap;
 
 import static org.mockito.ArgumentMatchers.anyString;
@@ -112,4 +114,22 @@ public class TestXmlReportsGeneratorTest {
 
         verify(screenShotMaker).makeScreenshot(TEST_CLASS, TEST_NAME);
     }
+
+    @Test
+    public void discardGeneratedReport() throws Exception {
+        File reportDir = Files.createTempDirectory("reports").toFile();
+        try {
+            generator.setReportDir(reportDir);
+            generator.testRunStarted("run", 1);
+            generator.testRunEnded(100, new HashMap<>());
+            File reportFile = new File(reportDir, "TEST-DevName-ProjectName-TestPrefix.xml");
+            Assert.assertTrue(reportFile.exists());
+
+            generator.discardReport();
+
+            Assert.assertFalse(reportFile.exists());
+        } finally {
+            FileUtils.deleteDirectory(reportDir);
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.github.grishberg.tests.common;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds "am instrument -m" output for tests, values are written in order of adding.
+ */
+public class InstrumentationProtoBuilder {
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    /**
+     * Adds test status, values are pairs of key and String or Integer value.
+     */
+    public InstrumentationProtoBuilder testStatus(int resultCode, Object... values) {
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        writeVarint(status, 3 << 3);
+        writeVarint(status, zigZag(resultCode));
+        writeMessage(status, 4, bundle(values));
+        writeMessage(output, 1, status.toByteArray());
+        return this;
+    }
+
+    /**
+     * Adds final session status, values are pairs of key and String or Integer value.
+     */
+    public InstrumentationProtoBuilder sessionStatus(int resultCode, Object... values) {
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        writeVarint(status, 3 << 3);
+        writeVarint(status, zigZag(resultCode));
+        writeMessage(status, 4, bundle(values));
+        writeMessage(output, 2, status.toByteArray());
+        return this;
+    }
+
+    public InstrumentationProtoBuilder abortedSession(String errorText) {
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        writeVarint(status, 1 << 3);
+        writeVarint(status, InstrumentationProtoReceiver.SESSION_ABORTED);
+        writeMessage(status, 2, errorText.getBytes(StandardCharsets.UTF_8));
+        writeMessage(output, 2, status.toByteArray());
+        return this;
+    }
+
+    public byte[] build() {
+        return output.toByteArray();
+    }
+
+    private static byte[] bundle(Object[] values) {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        for (int i = 0; i < values.length; i += 2) {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            writeMessage(entry, 1, ((String) values[i]).getBytes(StandardCharsets.UTF_8));
+            if (values[i + 1] instanceof Integer) {
+                writeVarint(entry, 3 << 3);
+                writeVarint(entry, zigZag((Integer) values[i + 1]));
+            } else {
+                writeMessage(entry, 2, ((String) values[i + 1]).getBytes(StandardCharsets.UTF_8));
+            }
+            writeMessage(bundle, 1, entry.toByteArray());
+        }
+        return bundle.toByteArray();
+    }
+
+    private static void writeMessage(ByteArrayOutputStream out, int field, byte[] message) {
+        writeVarint(out, field << 3 | 2);
+        writeVarint(out, message.length);
+        out.write(message, 0, message.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigZag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+}
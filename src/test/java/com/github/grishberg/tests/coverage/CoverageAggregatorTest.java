@@ -0,0 +1,81 @@
+package com.github.grishberg.tests.coverage;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Tests for {@link CoverageAggregator}.
+ */
+@RunWith(JUnit4.class)
+public class CoverageAggregatorTest {
+    private static final long CLASS_ID = 42L;
+    private static final String CLASS_NAME = "com/test/Foo";
+    private final CoverageAggregator aggregator = new CoverageAggregator();
+    private File coverageDir;
+
+    @Before
+    public void setUp() throws Exception {
+        coverageDir = Files.createTempDirectory("coverage").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(coverageDir);
+    }
+
+    @Test
+    public void writeMergedFilePerDeviceType() throws Exception {
+        File phone1 = createCoverageFile("phone1#test1-coverage.ec", true, false, false);
+        File phone2 = createCoverageFile("phone2#test2-coverage.ec", false, true, false);
+        File tablet = createCoverageFile("tablet#test1-coverage.ec", false, false, true);
+
+        aggregator.add(0, phone1);
+        aggregator.add(0, phone2);
+        aggregator.add(1, tablet);
+        aggregator.write(coverageDir, "coverage.ec");
+
+        ExecutionData phones = new ExecutionData();
+        phones.merge(new File(coverageDir, "merged-0-coverage.ec"));
+        ExecutionData tablets = new ExecutionData();
+        tablets.merge(new File(coverageDir, "merged-1-coverage.ec"));
+        Assert.assertEquals(2, phones.getExecutedProbesCount(CLASS_ID));
+        Assert.assertEquals(1, tablets.getExecutedProbesCount(CLASS_ID));
+    }
+
+    @Test
+    public void deleteMergedFiles() throws Exception {
+        File coverageFile = createCoverageFile("phone#test-coverage.ec", true);
+
+        aggregator.add(0, coverageFile);
+
+        Assert.assertFalse(coverageFile.exists());
+    }
+
+    @Test
+    public void keepFileWhenItCantBeMerged() throws Exception {
+        File coverageFile = new File(coverageDir, "phone#test-coverage.ec");
+        FileUtils.writeStringToFile(coverageFile, "not coverage", "UTF-8");
+
+        try {
+            aggregator.add(0, coverageFile);
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            Assert.assertTrue(coverageFile.exists());
+        }
+    }
+
+    private File createCoverageFile(String name, boolean... probes) throws IOException {
+        File file = new File(coverageDir, name);
+        FileUtils.copyInputStreamToFile(ExecutionDataTest.execFile(CLASS_ID, CLASS_NAME, probes), file);
+        return file;
+    }
+}
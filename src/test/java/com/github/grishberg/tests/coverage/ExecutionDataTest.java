@@ -0,0 +1,122 @@
+package com.github.grishberg.tests.coverage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for {@link ExecutionData}.
+ */
+@RunWith(JUnit4.class)
+public class ExecutionDataTest {
+    private static final long CLASS_ID = 0x1234567890ABCDEFL;
+    private static final String CLASS_NAME = "com/test/Foo";
+    private final ExecutionData executionData = new ExecutionData();
+
+    @Test
+    public void mergeProbesOfSameClassByOr() throws Exception {
+        executionData.merge(execFile(CLASS_ID, CLASS_NAME, true, false, false));
+        executionData.merge(execFile(CLASS_ID, CLASS_NAME, false, false, true));
+
+        Assert.assertEquals(1, executionData.getClassesCount());
+        Assert.assertEquals(2, executionData.getExecutedProbesCount(CLASS_ID));
+    }
+
+    @Test
+    public void writeDataInExecFormat() throws Exception {
+        boolean[] probes = new boolean[200];
+        probes[0] = true;
+        probes[130] = true;
+        probes[199] = true;
+        executionData.merge(execFile(CLASS_ID, CLASS_NAME, probes));
+        executionData.merge(execFile(1L, "com/test/Bar", true));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        executionData.write(out);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(expected);
+        writeHeader(data);
+        writeSession(data);
+        writeSession(data);
+        writeClass(data, 1L, "com/test/Bar", true);
+        writeClass(data, CLASS_ID, CLASS_NAME, probes);
+        Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void readConcatenatedFiles() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        writeHeader(data);
+        writeClass(data, CLASS_ID, CLASS_NAME, true, false);
+        writeHeader(data);
+        writeClass(data, CLASS_ID, CLASS_NAME, false, true);
+
+        executionData.merge(new ByteArrayInputStream(bytes.toByteArray()));
+
+        Assert.assertEquals(2, executionData.getExecutedProbesCount(CLASS_ID));
+    }
+
+    @Test(expected = IOException.class)
+    public void throwExceptionWhenProbesAreIncompatible() throws Exception {
+        executionData.merge(execFile(CLASS_ID, CLASS_NAME, true, false));
+        executionData.merge(execFile(CLASS_ID, CLASS_NAME, true, false, true));
+    }
+
+    @Test(expected = IOException.class)
+    public void throwExceptionWhenDataIsNotExecFile() throws Exception {
+        executionData.merge(new ByteArrayInputStream("run-as: unknown package".getBytes("UTF-8")));
+    }
+
+    static ByteArrayInputStream execFile(long id, String name, boolean... probes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        writeHeader(data);
+        writeSession(data);
+        writeClass(data, id, name, probes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static void writeHeader(DataOutputStream data) throws IOException {
+        data.writeByte(0x01);
+        data.writeChar(0xC0C0);
+        data.writeChar(0x1007);
+    }
+
+    private static void writeSession(DataOutputStream data) throws IOException {
+        data.writeByte(0x10);
+        data.writeUTF("device-session");
+        data.writeLong(1000L);
+        data.writeLong(2000L);
+    }
+
+    private static void writeClass(DataOutputStream data, long id, String name, boolean... probes)
+            throws IOException {
+        data.writeByte(0x11);
+        data.writeLong(id);
+        data.writeUTF(name);
+        int length = probes.length;
+        while ((length & 0xFFFFFF80) != 0) {
+            data.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        data.writeByte(length);
+        int buffer = 0;
+        for (int i = 0; i < probes.length; i++) {
+            if (probes[i]) {
+                buffer |= 1 << (i % 8);
+            }
+            if (i % 8 == 7 || i == probes.length - 1) {
+                data.writeByte(buffer);
+                buffer = 0;
+            }
+        }
+    }
+}
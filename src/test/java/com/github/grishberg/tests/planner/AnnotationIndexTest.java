@@ -0,0 +1,85 @@
+package com.github.grishberg.tests.planner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link AnnotationIndex}.
+ */
+@RunWith(JUnit4.class)
+public class AnnotationIndexTest {
+    private static final String CLEAR_DATA = "com.test.ClearData";
+    private static final String LARGE_TEST = "com.test.LargeTest";
+    private static final String SDK_SUPPRESS = "com.test.SdkSuppress";
+    private static final String MIN_SDK = "minSdkVersion";
+    private final TestPlanElement clearDataTest = createTest("test1",
+            new AnnotationInfo(CLEAR_DATA), sdkSuppress(21));
+    private final TestPlanElement largeClearDataTest = createTest("test2",
+            new AnnotationInfo(CLEAR_DATA), new AnnotationInfo(LARGE_TEST), sdkSuppress(28));
+    private final TestPlanElement largeTest = createTest("test3",
+            new AnnotationInfo(LARGE_TEST), sdkSuppress(29));
+    private final TestPlanElement testWithoutAnnotations = createTest("test4");
+    private final AnnotationIndex index = new AnnotationIndex(
+            Arrays.asList(clearDataTest, largeClearDataTest, largeTest, testWithoutAnnotations));
+
+    @Test
+    public void selectTestsWithAnnotationAndWithoutOther() {
+        BitSet tests = index.withAnnotation(CLEAR_DATA);
+        tests.andNot(index.withAnnotation(LARGE_TEST));
+
+        Assert.assertEquals(Collections.singletonList(clearDataTest), index.select(tests));
+    }
+
+    @Test
+    public void selectTestsByIntMemberRange() {
+        BitSet tests = index.withIntMemberInRange(SDK_SUPPRESS, MIN_SDK, Integer.MIN_VALUE, 28);
+
+        Assert.assertEquals(Arrays.asList(clearDataTest, largeClearDataTest), index.select(tests));
+    }
+
+    @Test
+    public void selectTestsByMemberValue() {
+        BitSet tests = index.withMemberValue(SDK_SUPPRESS, MIN_SDK, 29);
+
+        Assert.assertEquals(Collections.singletonList(largeTest), index.select(tests));
+    }
+
+    @Test
+    public void returnEmptySelectionForUnknownAnnotation() {
+        Assert.assertTrue(index.withAnnotation("com.test.Unknown").isEmpty());
+        Assert.assertTrue(index.withIntMemberInRange("com.test.Unknown", MIN_SDK, 0, 100).isEmpty());
+    }
+
+    @Test
+    public void dontChangeIndexWhenSelectionIsChanged() {
+        index.withAnnotation(CLEAR_DATA).clear();
+
+        Assert.assertEquals(2, index.withAnnotation(CLEAR_DATA).cardinality());
+        Assert.assertEquals(4, index.all().cardinality());
+    }
+
+    @Test
+    public void findOrdinalOfIndexedTestByIdentity() {
+        Assert.assertEquals(2, index.ordinalOf(largeTest));
+        Assert.assertEquals(-1, index.ordinalOf(createTest("test3",
+                new AnnotationInfo(LARGE_TEST), sdkSuppress(29))));
+    }
+
+    private static AnnotationInfo sdkSuppress(int minSdkVersion) {
+        AnnotationMember member = new AnnotationMember(MIN_SDK, "int", minSdkVersion,
+                null, null, null, null);
+        return new AnnotationInfo(SDK_SUPPRESS, Collections.singletonList(member));
+    }
+
+    private static TestPlanElement createTest(String methodName, AnnotationInfo... annotations) {
+        List<AnnotationInfo> annotationList = Arrays.asList(annotations);
+        return new TestPlanElement("", methodName, "com.test.TestClass", annotationList);
+    }
+}
@@ -0,0 +1,373 @@
+package com.github.grishberg.tests.planner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes minimal dex file with classes, methods and annotations for tests of dex parsing.
+ * Byte code, fields, checksum and signature are not written.
+ */
+class DexFileBuilder {
+    private static final int HEADER_SIZE = 0x70;
+    private final List<ClassBuilder> classes = new ArrayList<>();
+    private final LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> types = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Integer> protos = new LinkedHashMap<>();
+    private final List<String[]> protoSignatures = new ArrayList<>();
+    private final List<int[]> methodIds = new ArrayList<>();
+
+    ClassBuilder addClass(String name, int accessFlags, String superName) {
+        ClassBuilder classBuilder = new ClassBuilder(name, accessFlags, superName);
+        classes.add(classBuilder);
+        return classBuilder;
+    }
+
+    byte[] build() {
+        for (ClassBuilder classBuilder : classes) {
+            type(classBuilder.name);
+            type(classBuilder.superName);
+            for (MethodBuilder method : classBuilder.methods) {
+                method.methodIdx = methodIds.size();
+                methodIds.add(new int[]{type(classBuilder.name), proto(method.returnType, method.parameters),
+                        string(method.name)});
+                for (Annotation annotation : method.annotations) {
+                    collect(annotation);
+                }
+            }
+            for (Annotation annotation : classBuilder.annotations) {
+                collect(annotation);
+            }
+        }
+        int tablesSize = strings.size() * 4 + types.size() * 4 + protos.size() * 12 +
+                methodIds.size() * 8 + classes.size() * 32;
+        Data data = new Data(HEADER_SIZE + tablesSize);
+
+        int[] stringOffsets = new int[strings.size()];
+        int i = 0;
+        for (String value : strings.keySet()) {
+            stringOffsets[i++] = data.offset();
+            data.uleb128(value.length());
+            for (char c : value.toCharArray()) {
+                data.out.write(c);
+            }
+            data.out.write(0);
+        }
+        int[] parametersOffsets = new int[protoSignatures.size()];
+        for (i = 0; i < protoSignatures.size(); i++) {
+            String[] signature = protoSignatures.get(i);
+            if (signature.length > 1) {
+                parametersOffsets[i] = data.offset();
+                data.int32(signature.length - 1);
+                for (int j = 1; j < signature.length; j++) {
+                    data.int16(types.get(signature[j]));
+                }
+            }
+        }
+        int[] annotationsOffsets = new int[classes.size()];
+        int[] classDataOffsets = new int[classes.size()];
+        for (i = 0; i < classes.size(); i++) {
+            annotationsOffsets[i] = writeAnnotationsDirectory(data, classes.get(i));
+            classDataOffsets[i] = writeClassData(data, classes.get(i));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(data.offset()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("dex\n035\0".getBytes());
+        buffer.putInt(0x20, data.offset());
+        buffer.putInt(0x24, HEADER_SIZE);
+        buffer.putInt(0x28, 0x12345678);
+        int offset = HEADER_SIZE;
+        offset = table(buffer, 0x38, strings.size(), offset, 4);
+        offset = table(buffer, 0x40, types.size(), offset, 4);
+        offset = table(buffer, 0x48, protos.size(), offset, 12);
+        offset = table(buffer, 0x50, 0, offset, 8);
+        offset = table(buffer, 0x58, methodIds.size(), offset, 8);
+        table(buffer, 0x60, classes.size(), offset, 32);
+
+        buffer.position(HEADER_SIZE);
+        for (int stringOffset : stringOffsets) {
+            buffer.putInt(stringOffset);
+        }
+        for (String descriptor : types.keySet()) {
+            buffer.putInt(strings.get(descriptor));
+        }
+        for (i = 0; i < protoSignatures.size(); i++) {
+            String[] signature = protoSignatures.get(i);
+            buffer.putInt(string(String.join("", signature)));
+            buffer.putInt(types.get(signature[0]));
+            buffer.putInt(parametersOffsets[i]);
+        }
+        for (int[] methodId : methodIds) {
+            buffer.putShort((short) methodId[0]);
+            buffer.putShort((short) methodId[1]);
+            buffer.putInt(methodId[2]);
+        }
+        for (i = 0; i < classes.size(); i++) {
+            ClassBuilder classBuilder = classes.get(i);
+            buffer.putInt(types.get(classBuilder.name));
+            buffer.putInt(classBuilder.accessFlags);
+            buffer.putInt(types.get(classBuilder.superName));
+            buffer.putInt(0);
+            buffer.putInt(-1);
+            buffer.putInt(annotationsOffsets[i]);
+            buffer.putInt(classDataOffsets[i]);
+            buffer.putInt(0);
+        }
+        buffer.put(data.out.toByteArray());
+        return buffer.array();
+    }
+
+    private static int table(ByteBuffer buffer, int headerOffset, int size, int offset, int itemSize) {
+        buffer.putInt(headerOffset, size);
+        buffer.putInt(headerOffset + 4, size > 0 ? offset : 0);
+        return offset + size * itemSize;
+    }
+
+    private int writeAnnotationsDirectory(Data data, ClassBuilder classBuilder) {
+        int classAnnotations = writeAnnotationSet(data, classBuilder.annotations);
+        ArrayList<int[]> methodAnnotations = new ArrayList<>();
+        for (MethodBuilder method : classBuilder.methods) {
+            if (!method.annotations.isEmpty()) {
+                methodAnnotations.add(new int[]{method.methodIdx, writeAnnotationSet(data, method.annotations)});
+            }
+        }
+        if (classAnnotations == 0 && methodAnnotations.isEmpty()) {
+            return 0;
+        }
+        int offset = data.offset();
+        data.int32(classAnnotations);
+        data.int32(0);
+        data.int32(methodAnnotations.size());
+        data.int32(0);
+        for (int[] methodAnnotation : methodAnnotations) {
+            data.int32(methodAnnotation[0]);
+            data.int32(methodAnnotation[1]);
+        }
+        return offset;
+    }
+
+    private int writeAnnotationSet(Data data, List<Annotation> annotations) {
+        if (annotations.isEmpty()) {
+            return 0;
+        }
+        int[] itemOffsets = new int[annotations.size()];
+        for (int i = 0; i < annotations.size(); i++) {
+            itemOffsets[i] = data.offset();
+            data.out.write(annotations.get(i).visibility);
+            writeEncodedAnnotation(data, annotations.get(i));
+        }
+        int offset = data.offset();
+        data.int32(annotations.size());
+        for (int itemOffset : itemOffsets) {
+            data.int32(itemOffset);
+        }
+        return offset;
+    }
+
+    private int writeClassData(Data data, ClassBuilder classBuilder) {
+        int offset = data.offset();
+        data.uleb128(0);
+        data.uleb128(0);
+        data.uleb128(0);
+        data.uleb128(classBuilder.methods.size());
+        int previousIdx = 0;
+        for (MethodBuilder method : classBuilder.methods) {
+            data.uleb128(method.methodIdx - previousIdx);
+            data.uleb128(method.accessFlags);
+            data.uleb128(0);
+            previousIdx = method.methodIdx;
+        }
+        return offset;
+    }
+
+    private void writeEncodedAnnotation(Data data, Annotation annotation) {
+        data.uleb128(types.get(annotation.type));
+        data.uleb128(annotation.values.size());
+        for (Map.Entry<String, Object> value : annotation.values.entrySet()) {
+            data.uleb128(strings.get(value.getKey()));
+            writeEncodedValue(data, value.getValue());
+        }
+    }
+
+    private void writeEncodedValue(Data data, Object value) {
+        if (value instanceof Integer) {
+            data.out.write(0x04 | (3 << 5));
+            data.int32((Integer) value);
+        } else if (value instanceof Boolean) {
+            data.out.write(0x1f | ((Boolean) value ? 1 << 5 : 0));
+        } else if (value instanceof String) {
+            data.out.write(0x17 | (3 << 5));
+            data.int32(strings.get(value));
+        } else if (value instanceof List) {
+            data.out.write(0x1c);
+            data.uleb128(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                writeEncodedValue(data, item);
+            }
+        } else if (value instanceof Annotation) {
+            data.out.write(0x1d);
+            writeEncodedAnnotation(data, (Annotation) value);
+        } else {
+            data.out.write(0x1e);
+        }
+    }
+
+    private void collect(Annotation annotation) {
+        type(annotation.type);
+        for (Map.Entry<String, Object> value : annotation.values.entrySet()) {
+            string(value.getKey());
+            collectValue(value.getValue());
+        }
+    }
+
+    private void collectValue(Object value) {
+        if (value instanceof String) {
+            string((String) value);
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                collectValue(item);
+            }
+        } else if (value instanceof Annotation) {
+            collect((Annotation) value);
+        }
+    }
+
+    private int string(String value) {
+        return strings.computeIfAbsent(value, v -> strings.size());
+    }
+
+    private int type(String descriptor) {
+        string(descriptor);
+        return types.computeIfAbsent(descriptor, d -> types.size());
+    }
+
+    private int proto(String returnType, String[] parameters) {
+        String[] signature = new String[parameters.length + 1];
+        signature[0] = returnType;
+        System.arraycopy(parameters, 0, signature, 1, parameters.length);
+        for (String type : signature) {
+            type(type);
+        }
+        string(String.join("", signature));
+        return protos.computeIfAbsent(Arrays.toString(signature), k -> {
+            protoSignatures.add(signature);
+            return protos.size();
+        });
+    }
+
+    /**
+     * Runtime visible annotation, values are Integer, Boolean, String, List or Annotation.
+     */
+    static Annotation annotation(String type, Object... namesAndValues) {
+        Annotation annotation = new Annotation(type, 1);
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            annotation.values.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return annotation;
+    }
+
+    static class Annotation {
+        private final String type;
+        private final int visibility;
+        private final LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+
+        private Annotation(String type, int visibility) {
+            this.type = type;
+            this.visibility = visibility;
+        }
+    }
+
+    static class ClassBuilder {
+        private final String name;
+        private final int accessFlags;
+        private final String superName;
+        private final List<Annotation> annotations = new ArrayList<>();
+        private final List<MethodBuilder> methods = new ArrayList<>();
+
+        private ClassBuilder(String name, int accessFlags, String superName) {
+            this.name = name;
+            this.accessFlags = accessFlags;
+            this.superName = superName;
+        }
+
+        ClassBuilder annotate(Annotation annotation) {
+            annotations.add(annotation);
+            return this;
+        }
+
+        /**
+         * Adds defaults of annotation class members as system annotation.
+         */
+        ClassBuilder defaults(Object... namesAndValues) {
+            Annotation defaults = annotation(name, namesAndValues);
+            Annotation annotationDefault = new Annotation("Ldalvik/annotation/AnnotationDefault;", 2);
+            annotationDefault.values.put("value", defaults);
+            annotations.add(annotationDefault);
+            return this;
+        }
+
+        ClassBuilder method(String name, int accessFlags, String returnType, String[] parameters,
+                            Annotation... annotations) {
+            methods.add(new MethodBuilder(name, accessFlags, returnType, parameters, Arrays.asList(annotations)));
+            return this;
+        }
+
+        ClassBuilder method(String name, int accessFlags, Annotation... annotations) {
+            return method(name, accessFlags, "V", new String[0], annotations);
+        }
+    }
+
+    private static class MethodBuilder {
+        private final String name;
+        private final int accessFlags;
+        private final String returnType;
+        private final String[] parameters;
+        private final List<Annotation> annotations;
+        private int methodIdx;
+
+        private MethodBuilder(String name, int accessFlags, String returnType, String[] parameters,
+                              List<Annotation> annotations) {
+            this.name = name;
+            this.accessFlags = accessFlags;
+            this.returnType = returnType;
+            this.parameters = parameters;
+            this.annotations = annotations;
+        }
+    }
+
+    private static class Data {
+        private final int base;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private Data(int base) {
+            this.base = base;
+        }
+
+        private int offset() {
+            return base + out.size();
+        }
+
+        private void uleb128(int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void int16(int value) {
+            out.write(value);
+            out.write(value >> 8);
+        }
+
+        private void int32(int value) {
+            int16(value);
+            int16(value >> 16);
+        }
+    }
+}
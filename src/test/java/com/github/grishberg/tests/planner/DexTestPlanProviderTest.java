@@ -0,0 +1,183 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.ConnectedDeviceWrapper;
+import com.github.grishberg.tests.InstrumentalExtension;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.github.grishberg.tests.planner.DexFileBuilder.annotation;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DexTestPlanProvider}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DexTestPlanProviderTest {
+    private static final int PUBLIC = DexFile.ACC_PUBLIC;
+    private static final int ANNOTATION_CLASS = DexFile.ACC_PUBLIC | DexFile.ACC_INTERFACE |
+            DexFile.ACC_ABSTRACT | DexFile.ACC_ANNOTATION;
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String JUNIT_TEST = "Lorg/junit/Test;";
+    private static final String FEATURE = "Lcom/test/Feature;";
+    private static final String MAIN_TEST = "com.test.MainTest";
+    private static final String IGNORED_TEST = "com.test.IgnoredTest";
+    @Mock
+    ConnectedDeviceWrapper deviceWrapper;
+    @Mock
+    RunnerLogger logger;
+    private File apk;
+    private DexTestPlanProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        when(deviceWrapper.getLogger()).thenReturn(logger);
+        apk = Files.createTempFile("androidTest", ".apk").toFile();
+        writeApk(apk, createMainDex(), createSecondaryDex());
+        InstrumentalExtension extension = new InstrumentalExtension();
+        extension.setTestApkPath(apk.getAbsolutePath());
+        provider = new DexTestPlanProvider(new HashMap<>(), extension, new PackageTreeGenerator());
+    }
+
+    @After
+    public void tearDown() {
+        apk.delete();
+    }
+
+    @Test
+    public void findTestsWithInheritedMethods() throws Exception {
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, new HashMap<>());
+
+        Assert.assertEquals(Arrays.asList(
+                IGNORED_TEST + "#test",
+                MAIN_TEST + "#searchTest",
+                MAIN_TEST + "#ignoredTest",
+                MAIN_TEST + "#overriddenTest",
+                MAIN_TEST + "#baseTest"), names(tests));
+        Assert.assertEquals(5, provider.prepareTests());
+    }
+
+    @Test
+    public void parseApkOnceWhenTestPlanIsPrepared() throws Exception {
+        provider.prepareTestPlan(logger);
+        Assert.assertTrue(apk.delete());
+
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, new HashMap<>());
+
+        Assert.assertEquals(5, tests.size());
+    }
+
+    @Test
+    public void convertAnnotationsWithDefaultValues() throws Exception {
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, new HashMap<>());
+
+        AnnotationInfo feature = tests.get(1).getAnnotations().get(0);
+        Assert.assertEquals("com.test.Feature", feature.getName());
+        Assert.assertEquals("search", feature.getMembersMap().get("value").getStrValue());
+        Assert.assertEquals(Integer.valueOf(5), feature.getMembersMap().get("priority").getIntValue());
+        Assert.assertEquals(Arrays.asList("ui", "fast"), feature.getMembersMap().get("tags").getStrArray());
+        Assert.assertEquals("java.lang.String[]", feature.getMembersMap().get("tags").getValueType());
+        Assert.assertEquals(new AnnotationInfo("org.junit.Test"), tests.get(1).getAnnotations().get(1));
+        Assert.assertEquals(Integer.valueOf(1),
+                tests.get(3).getAnnotations().get(0).getMembersMap().get("priority").getIntValue());
+    }
+
+    @Test
+    public void ignoredTestsDontHaveAnnotations() throws Exception {
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, new HashMap<>());
+
+        Assert.assertEquals(Collections.emptyList(), tests.get(0).getAnnotations());
+        Assert.assertEquals(Collections.emptyList(), tests.get(2).getAnnotations());
+    }
+
+    @Test
+    public void filterTestsByInstrumentationArgs() throws Exception {
+        HashMap<String, String> args = new HashMap<>();
+        args.put("package", "com.test");
+        args.put("annotation", "com.test.Feature");
+        args.put("notClass", MAIN_TEST + "#overriddenTest");
+
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, args);
+
+        Assert.assertEquals(Collections.singletonList(MAIN_TEST + "#searchTest"), names(tests));
+    }
+
+    @Test
+    public void filterTestsByClassAndMethodAnnotations() throws Exception {
+        HashMap<String, String> args = new HashMap<>();
+        args.put("notAnnotation", "org.junit.Ignore");
+
+        List<TestPlanElement> tests = provider.provideTestPlan(deviceWrapper, args);
+
+        Assert.assertEquals(Arrays.asList(
+                MAIN_TEST + "#searchTest",
+                MAIN_TEST + "#overriddenTest",
+                MAIN_TEST + "#baseTest"), names(tests));
+    }
+
+    private static byte[] createMainDex() {
+        DexFileBuilder builder = new DexFileBuilder();
+        builder.addClass(FEATURE, ANNOTATION_CLASS, OBJECT)
+                .defaults("priority", 5, "tags", Collections.emptyList())
+                .method("priority", ANNOTATION_CLASS, "I", new String[0])
+                .method("tags", ANNOTATION_CLASS, "[Ljava/lang/String;", new String[0])
+                .method("value", ANNOTATION_CLASS, "Ljava/lang/String;", new String[0]);
+        builder.addClass("Lcom/test/MainTest;", PUBLIC, "Lcom/test/BaseTest;")
+                .method("searchTest", PUBLIC, annotation(FEATURE, "value", "search",
+                        "tags", Arrays.asList("ui", "fast")), annotation(JUNIT_TEST))
+                .method("ignoredTest", PUBLIC, annotation(JUNIT_TEST), annotation("Lorg/junit/Ignore;"))
+                .method("overriddenTest", PUBLIC, annotation(FEATURE, "priority", 1), annotation(JUNIT_TEST))
+                .method("staticTest", PUBLIC | DexFile.ACC_STATIC, annotation(JUNIT_TEST))
+                .method("testWithArgument", PUBLIC, "V", new String[]{"I"}, annotation(JUNIT_TEST))
+                .method("helper", PUBLIC);
+        builder.addClass("Lcom/test/PackagePrivateTest;", 0, OBJECT)
+                .method("test", PUBLIC, annotation(JUNIT_TEST));
+        return builder.build();
+    }
+
+    private static byte[] createSecondaryDex() {
+        DexFileBuilder builder = new DexFileBuilder();
+        builder.addClass("Lcom/test/BaseTest;", PUBLIC | DexFile.ACC_ABSTRACT, OBJECT)
+                .method("baseTest", PUBLIC, annotation(JUNIT_TEST))
+                .method("overriddenTest", PUBLIC, annotation(JUNIT_TEST));
+        builder.addClass("Lcom/test/IgnoredTest;", PUBLIC, OBJECT)
+                .annotate(annotation("Lorg/junit/Ignore;"))
+                .method("test", PUBLIC, annotation(JUNIT_TEST));
+        return builder.build();
+    }
+
+    private static void writeApk(File apk, byte[] mainDex, byte[] secondaryDex) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk))) {
+            out.putNextEntry(new ZipEntry("classes2.dex"));
+            out.write(secondaryDex);
+            out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            out.putNextEntry(new ZipEntry("classes.dex"));
+            out.write(mainDex);
+        }
+    }
+
+    private static List<String> names(List<TestPlanElement> tests) {
+        ArrayList<String> result = new ArrayList<>();
+        for (TestPlanElement test : tests) {
+            result.add(test.getClassName() + "#" + test.getMethodName());
+        }
+        return result;
+    }
+}
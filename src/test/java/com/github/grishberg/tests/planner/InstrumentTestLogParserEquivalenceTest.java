@@ -0,0 +1,90 @@
+package com.github.grishberg.tests.planner;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Checks that {@link InstrumentTestLogParser} generates the same test plan as previous
+ * {@link LegacyInstrumentTestLogParser} on enlarged for_test/am_instrument_output.txt.
+ * Parse time is measured by InstrumentTestLogParserBenchmark of benchmark source set.
+ */
+@RunWith(JUnit4.class)
+public class InstrumentTestLogParserEquivalenceTest {
+    private static final String SAMPLE_FILE = "for_test/am_instrument_output.txt";
+    private static final String SAMPLE_PACKAGE = "com.github.grishberg.instrumentaltestsample.";
+    private static final String RESULT_MARKER = "INSTRUMENTATION_RESULT: ";
+    private static final int SAMPLE_COPIES = 25;
+    static final int SAMPLE_TESTS_COUNT = 4;
+    static final int CHUNK_SIZE = 16 * 1024;
+    private byte[] enlargedOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        enlargedOutput = enlargeSample(SAMPLE_COPIES);
+    }
+
+    @Test
+    public void generateSameTestPlanAsLegacyParser() {
+        LegacyInstrumentTestLogParser legacyParser = new LegacyInstrumentTestLogParser(new RunnerLogger.Stub());
+        feed(legacyParser, enlargedOutput, CHUNK_SIZE);
+
+        InstrumentTestLogParser parser = new InstrumentTestLogParser(new RunnerLogger.Stub());
+        feed(parser, enlargedOutput, CHUNK_SIZE);
+
+        assertSameTestPlan(legacyParser.getTestInstances(), parser.getTestInstances());
+        Assert.assertEquals(SAMPLE_COPIES * SAMPLE_TESTS_COUNT, parser.getTestInstances().size());
+    }
+
+    @Test
+    public void generateSameTestPlanForAnyChunkSize() {
+        InstrumentTestLogParser expectedParser = new InstrumentTestLogParser(new RunnerLogger.Stub());
+        feed(expectedParser, enlargedOutput, enlargedOutput.length);
+
+        for (int chunkSize : new int[]{1, 7, 100, 4096}) {
+            InstrumentTestLogParser parser = new InstrumentTestLogParser(new RunnerLogger.Stub());
+            feed(parser, enlargedOutput, chunkSize);
+            assertSameTestPlan(expectedParser.getTestInstances(), parser.getTestInstances());
+        }
+    }
+
+    /**
+     * @return sample output where tests are repeated given count of times in different packages.
+     */
+    static byte[] enlargeSample(int copies) throws IOException {
+        String sample = new String(Files.readAllBytes(Paths.get(SAMPLE_FILE)), StandardCharsets.UTF_8);
+        int resultPos = sample.indexOf(RESULT_MARKER);
+        String body = sample.substring(0, resultPos);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < copies; i++) {
+            sb.append(body.replace(SAMPLE_PACKAGE, SAMPLE_PACKAGE + "copy" + i + "."));
+        }
+        sb.append(sample.substring(resultPos));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void feed(IShellOutputReceiver receiver, byte[] output, int chunkSize) {
+        for (int offset = 0; offset < output.length; offset += chunkSize) {
+            receiver.addOutput(output, offset, Math.min(chunkSize, output.length - offset));
+        }
+        receiver.flush();
+    }
+
+    private static void assertSameTestPlan(List<TestPlanElement> expected, List<TestPlanElement> actual) {
+        Assert.assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            Assert.assertEquals(expected.get(i).getAnnotations(), actual.get(i).getAnnotations());
+        }
+    }
+}
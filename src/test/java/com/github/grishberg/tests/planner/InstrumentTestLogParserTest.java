@@ -1,6 +1,5 @@
 package com.github.grishberg.tests.planner;
 
-import com.github.grishberg.tests.TestUtils;
 import com.github.grishberg.tests.common.RunnerLogger;
 import com.github.grishberg.tests.exceptions.ProcessCrashedException;
 import org.junit.Assert;
@@ -10,6 +9,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,6 +33,7 @@ public class InstrumentTestLogParserTest {
             "'testTabletButton', className='com.github.grishberg.instrumentaltestsample." +
             "TabletTest', type=METHOD, annotations=[com.github.grishberg.instrumentaltestsample" +
             ".TabletOnly,org.junit.Test]}";
+    private static final int SAMPLE_CHUNK_SIZE = 7;
     @Mock
     RunnerLogger runnerLogger;
 
@@ -43,7 +46,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void annotationNameNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -53,7 +56,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void stringArgumentNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -65,7 +68,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void intArgumentNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -77,7 +80,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void intArrayArgumentNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -93,7 +96,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void stingArrayArgumentNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -108,7 +111,7 @@ public class InstrumentTestLogParserTest {
 
     @Test
     public void boolArgumentNotEmpty() {
-        parser.processNewLines(getLinesForTest());
+        parseLines(getLinesForTest());
 
         TestPlanElement element = parser.getTestInstances().get(0);
         List<AnnotationInfo> annotations = element.getAnnotations();
@@ -123,7 +126,7 @@ public class InstrumentTestLogParserTest {
         String[] lines = new String[]{"INSTRUMENTATION_RESULT: shortMsg=Process crashed.",
                 "INSTRUMENTATION_CODE: 0"};
 
-        parser.processNewLines(lines);
+        parseLines(lines);
     }
 
     @Test(expected = ProcessCrashedException.class)
@@ -131,7 +134,7 @@ public class InstrumentTestLogParserTest {
         String[] lines = new String[]{"INSTRUMENTATION_RESULT: shortMsg=java.lang.ClassNotFoundException",
                 "INSTRUMENTATION_RESULT: longMsg=java.lang.ClassNotFoundException: Didn't find class \"com.dtmilano.android.uiautomatorhelper.UiAutomatorHelperTestRunner\" on path: DexPathList[[zip file \"/system/framework/android.test.runner.jar\", zip file \"/data/app/com.dtmilano.android.culebratester.test-1/base.apk\", zip file \"/data/app/com.dtmilano.android.culebratester-1/base.apk\"],nativeLibraryDirectories=[/data/app/com.dtmilano.android.culebratester.test-1/lib/arm, /data/app/com.dtmilano.android.culebratester-1/lib/arm, /vendor/lib, /system/lib]",
                 "INSTRUMENTATION_CODE: 0"};
-        parser.processNewLines(lines);
+        parseLines(lines);
     }
 
     @Test
@@ -164,22 +167,29 @@ public class InstrumentTestLogParserTest {
 
     @Test(expected = InstrumentTestLogParserException.class)
     public void parseErrorState(){
-        parser.processNewLines(linesWithWrongRunner());
+        parseLines(linesWithWrongRunner());
     }
 
     @Test(expected = InstrumentTestLogParserException.class)
     public void parseWrongRunnerState(){
-        parser.processNewLines(linesWithWrongRunnerWithoutError());
+        parseLines(linesWithWrongRunnerWithoutError());
     }
 
     private void whenParsedSampleOut() throws Exception {
         String fileName = "for_test/am_instrument_output.txt";
 
-        List<String> lines = TestUtils.readFile(fileName);
-        for (String line : lines) {
-            String[] singleLineArray = new String[]{line};
-            parser.processNewLines(singleLineArray);
+        byte[] output = Files.readAllBytes(Paths.get(fileName));
+        // feed output by small chunks, lines are split between chunks
+        for (int offset = 0; offset < output.length; offset += SAMPLE_CHUNK_SIZE) {
+            parser.addOutput(output, offset, Math.min(SAMPLE_CHUNK_SIZE, output.length - offset));
         }
+        parser.flush();
+    }
+
+    private void parseLines(String[] lines) {
+        byte[] output = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
     }
 
     private static String[] getLinesForTest() {
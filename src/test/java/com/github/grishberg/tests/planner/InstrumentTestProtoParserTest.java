@@ -0,0 +1,95 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.InstrumentationProtoBuilder;
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.exceptions.ProcessCrashedException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Tests for {@link InstrumentTestProtoParser}.
+ */
+@RunWith(JUnit4.class)
+public class InstrumentTestProtoParserTest {
+    private static final String TEXT_SAMPLE_FILE = "for_test/am_instrument_output.txt";
+    // the same output as TEXT_SAMPLE_FILE printed with "am instrument -m"
+    private static final String PROTO_SAMPLE_FILE = "for_test/am_instrument_output.pb";
+    private static final int SAMPLE_CHUNK_SIZE = 7;
+    private static final String CLASS_NAME = "com.test.MainActivityTest";
+    private final RunnerLogger logger = new RunnerLogger.Stub();
+    private InstrumentTestProtoParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new InstrumentTestProtoParser(logger);
+    }
+
+    @Test
+    public void parseTheSameTestPlanAsTextParser() throws Exception {
+        InstrumentTestLogParser textParser = new InstrumentTestLogParser(logger);
+        byte[] textOutput = Files.readAllBytes(Paths.get(TEXT_SAMPLE_FILE));
+        textParser.addOutput(textOutput, 0, textOutput.length);
+        textParser.flush();
+
+        parseByChunks(Files.readAllBytes(Paths.get(PROTO_SAMPLE_FILE)));
+
+        List<TestPlanElement> tests = parser.getTestInstances();
+        Assert.assertEquals(4, tests.size());
+        Assert.assertEquals(textParser.getTestInstances().toString(), tests.toString());
+    }
+
+    @Test
+    public void annotationsOfSeparateStatusBelongToPreviousTest() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .testStatus(1, "id", "AndroidJUnitRunner", "class", CLASS_NAME, "test", "test1",
+                        "numtests", 2, "current", 1)
+                .testStatus(1, "annotations", "[{\"members\":[],\"name\":\"org.junit.Test\"}]")
+                .testStatus(0, "id", "AndroidJUnitRunner", "class", CLASS_NAME, "test", "test1")
+                .testStatus(1, "id", "AndroidJUnitRunner", "class", CLASS_NAME, "test", "test2")
+                .testStatus(0, "id", "AndroidJUnitRunner", "class", CLASS_NAME, "test", "test2")
+                .sessionStatus(-1, "stream", "OK (2 tests)")
+                .build());
+
+        List<TestPlanElement> tests = parser.getTestInstances();
+        Assert.assertEquals(2, tests.size());
+        Assert.assertEquals("org.junit.Test", tests.get(0).getAnnotations().get(0).getName());
+        Assert.assertTrue(tests.get(1).getAnnotations().isEmpty());
+    }
+
+    @Test(expected = ProcessCrashedException.class)
+    public void throwExceptionWhenProcessCrashed() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .testStatus(1, "id", "AndroidJUnitRunner", "class", CLASS_NAME, "test", "test1")
+                .sessionStatus(0, "shortMsg", "Process crashed.")
+                .build());
+    }
+
+    @Test(expected = InstrumentTestLogParserException.class)
+    public void throwExceptionWhenInstrumentationAborted() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .abortedSession("Unable to find instrumentation info for: ComponentInfo{com.test/Runner}")
+                .build());
+    }
+
+    @Test(expected = InstrumentTestLogParserException.class)
+    public void throwExceptionWhenStatusContainsError() {
+        parseByChunks(new InstrumentationProtoBuilder()
+                .testStatus(-1, "id", "AndroidJUnitRunner", "error", "Unable to find instrumentation")
+                .build());
+    }
+
+    private void parseByChunks(byte[] output) {
+        // statuses are split between chunks
+        for (int offset = 0; offset < output.length; offset += SAMPLE_CHUNK_SIZE) {
+            parser.addOutput(output, offset, Math.min(SAMPLE_CHUNK_SIZE, output.length - offset));
+        }
+        parser.flush();
+    }
+}
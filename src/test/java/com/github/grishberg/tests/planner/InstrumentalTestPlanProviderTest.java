@@ -3,13 +3,20 @@ package com.github.grishberg.tests.planner;
 import com.github.grishberg.tests.ConnectedDeviceWrapper;
 import com.github.grishberg.tests.InstrumentalExtension;
 import com.github.grishberg.tests.common.RunnerLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -23,6 +30,7 @@ public class InstrumentalTestPlanProviderTest {
     private static final String RUN_LOG_COMMAND = "am instrument -r -w -e log true -e listener test_listener TestAppPackage/TestRunner";
     private static final String RUN_LOG_COMMAND_WITH_ARG = "am instrument -r -w -e log true -e listener test_listener -e class com.test.SpecialTest TestAppPackage/TestRunner";
     private static final long MAX_TIME_TO_OUTPUT = 300;
+    private static final int API_LEVEL = 21;
     private InstrumentalTestPlanProvider provider;
     @Mock
     ConnectedDeviceWrapper deviceWrapper;
@@ -64,4 +72,64 @@ public class InstrumentalTestPlanProviderTest {
         verify(deviceWrapper).executeShellCommand(eq(RUN_LOG_COMMAND_WITH_ARG), any(InstrumentTestLogParser.class),
                 eq(MAX_TIME_TO_OUTPUT), eq(TimeUnit.SECONDS));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void discoverSharedTestPlanOnce() throws Exception {
+        HashMap<String, String> args = new HashMap<>();
+        ConnectedDeviceWrapper secondDevice = mock(ConnectedDeviceWrapper.class);
+        when(secondDevice.getLogger()).thenReturn(logger);
+
+        provider.provideSharedTestPlan(deviceWrapper, 0, args);
+        provider.provideSharedTestPlan(secondDevice, 0, new HashMap<>(args));
+
+        verify(deviceWrapper).executeShellCommand(eq(RUN_LOG_COMMAND), any(InstrumentTestLogParser.class),
+                eq(MAX_TIME_TO_OUTPUT), eq(TimeUnit.SECONDS));
+        verify(secondDevice, never()).executeShellCommand(anyString(), any(InstrumentTestLogParser.class),
+                anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void discoverSharedTestPlanForEachDeviceType() throws Exception {
+        HashMap<String, String> args = new HashMap<>();
+        ConnectedDeviceWrapper tablet = mock(ConnectedDeviceWrapper.class);
+        when(tablet.getLogger()).thenReturn(logger);
+
+        provider.provideSharedTestPlan(deviceWrapper, 0, args);
+        provider.provideSharedTestPlan(tablet, 1, args);
+
+        verify(tablet).executeShellCommand(eq(RUN_LOG_COMMAND), any(InstrumentTestLogParser.class),
+                eq(MAX_TIME_TO_OUTPUT), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void loadTestPlanFromCache() throws Exception {
+        File dir = Files.createTempDirectory("plan_cache").toFile();
+        try {
+            File apk = new File(dir, "test.apk");
+            try (FileOutputStream out = new FileOutputStream(apk)) {
+                out.write(1);
+            }
+            File cacheDir = new File(dir, "cache");
+            extension.setTestApkPath(apk.getAbsolutePath());
+            extension.setTestPlanCacheDir(cacheDir.getAbsolutePath());
+            provider = new InstrumentalTestPlanProvider(paramsMap, extension, treeGenerator);
+            when(deviceWrapper.getApiLevel()).thenReturn(API_LEVEL);
+            HashMap<String, String> cachedArgs = new HashMap<>();
+            cachedArgs.put("log", "true");
+            cachedArgs.put("listener", "test_listener");
+            TestPlanCache cache = new TestPlanCache(cacheDir, apk);
+            List<TestPlanElement> plan = new ArrayList<>();
+            plan.add(new TestPlanElement("", "test1", "com.test.Test1"));
+            cache.save(cache.createKey("TestAppPackage/TestRunner",
+                    InstrumentalTestPlanProvider.UNKNOWN_DEVICE_TYPE, API_LEVEL, cachedArgs), plan);
+
+            List<TestPlanElement> result = provider.provideTestPlan(deviceWrapper, new HashMap<>());
+
+            Assert.assertEquals(plan, result);
+            verify(deviceWrapper, never()).executeShellCommand(anyString(), any(InstrumentTestLogParser.class),
+                    anyLong(), any(TimeUnit.class));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -52,4 +52,37 @@ public class PackageTreeGeneratorTest {
         Assert.assertEquals(TEST_NAME_2, testPlanElement2.getAmInstrumentCommand());
         Assert.assertEquals(TEST_NAME_3, testPlanElement3.getAmInstrumentCommand());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void reuseCachedCompoundElementsUntilExclude() throws Exception {
+        List<TestPlanElement> result = generator.makePackageTree(provideTestPlanElements());
+        TestPlanElement root = result.get(0);
+
+        List<TestPlanElement> compoundElements = root.getCompoundElements();
+        Assert.assertSame(compoundElements, root.getCompoundElements());
+        Assert.assertSame(root.getAllTestMethods(), root.getAllTestMethods());
+
+        root.getAllTestMethods().get(0).exclude();
+
+        Assert.assertNotSame(compoundElements, root.getCompoundElements());
+        Assert.assertEquals(4, root.getCompoundElements().size());
+        Assert.assertEquals(7, root.getTestMethodsCount());
+    }
+
+    @Test
+    public void makeTreeForClassesInSamePackage() throws Exception {
+        ArrayList<TestPlanElement> list = new ArrayList<>();
+        list.add(new TestPlanElement("", "test1", TEST_NAME_1));
+        list.add(new TestPlanElement("", "test2", "com.pkg1.sub.Test4"));
+        list.add(new TestPlanElement("", "test3", TEST_NAME_1));
+
+        List<TestPlanElement> result = generator.makePackageTree(list);
+
+        Assert.assertEquals(1, result.size());
+        List<TestPlanElement> compoundElements = result.get(0).getCompoundElements();
+        Assert.assertEquals(2, compoundElements.size());
+        Assert.assertEquals(TEST_NAME_1, compoundElements.get(0).getAmInstrumentCommand());
+        Assert.assertEquals("com.pkg1.sub.Test4", compoundElements.get(1).getAmInstrumentCommand());
+        Assert.assertEquals(2, compoundElements.get(0).getAllTestMethods().size());
+    }
+}
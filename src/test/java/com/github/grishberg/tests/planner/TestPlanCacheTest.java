@@ -0,0 +1,137 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests for {@link TestPlanCache}.
+ */
+@RunWith(JUnit4.class)
+public class TestPlanCacheTest {
+    private static final String INSTRUMENTATION = "com.test/TestRunner";
+    private static final int DEVICE_TYPE = 0;
+    private static final int API_LEVEL = 21;
+    private File dir;
+    private File apk;
+    private TestPlanCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("plan_cache").toFile();
+        apk = new File(dir, "test.apk");
+        writeApk(apk, "apk content");
+        cache = new TestPlanCache(new File(dir, "cache"), apk);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void loadSavedTestPlan() throws Exception {
+        ArrayList<AnnotationMember> members = new ArrayList<>();
+        members.add(new AnnotationMember("value", "String", null, "flaky", null, null, null));
+        members.add(new AnnotationMember("ids", "int[]", null, null, null,
+                new ArrayList<>(Arrays.asList(1, 2)), null));
+        members.add(new AnnotationMember("names", "String[]", null, null,
+                new ArrayList<>(Arrays.asList("a", "b")), null, true));
+        members.add(new AnnotationMember("count", "int", 3, null, null, null, null));
+        List<TestPlanElement> plan = new ArrayList<>();
+        plan.add(new TestPlanElement("1", "test1", "com.test.Test1",
+                Arrays.asList(new AnnotationInfo("com.test.Feature", members))));
+        plan.add(new TestPlanElement("2", "test2", "com.test.Test1"));
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+
+        cache.save(key, plan);
+        List<TestPlanElement> loaded = cache.load(key, new RunnerLogger.Stub());
+
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(plan, loaded);
+        Assert.assertEquals("1", loaded.get(0).getTestId());
+        Assert.assertEquals(plan.get(0).getAnnotations(), loaded.get(0).getAnnotations());
+        Assert.assertTrue(loaded.get(1).getAnnotations().isEmpty());
+    }
+
+    @Test
+    public void returnNullForUnknownKey() throws Exception {
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+
+        Assert.assertNull(cache.load(key, new RunnerLogger.Stub()));
+    }
+
+    @Test
+    public void keyDependsOnArgs() throws Exception {
+        HashMap<String, String> args = new HashMap<>();
+        args.put("class", "com.test.Test1");
+
+        Assert.assertNotEquals(cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>()),
+                cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, args));
+    }
+
+    @Test
+    public void keyDependsOnDeviceTypeAndApiLevel() throws Exception {
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+
+        Assert.assertNotEquals(key, cache.createKey(INSTRUMENTATION, DEVICE_TYPE + 1, API_LEVEL, new HashMap<>()));
+        Assert.assertNotEquals(key, cache.createKey(INSTRUMENTATION, DEVICE_TYPE, 30, new HashMap<>()));
+    }
+
+    @Test
+    public void loadTestPlanWithLongStrings() throws Exception {
+        char[] chars = new char[70 * 1024];
+        Arrays.fill(chars, 'a');
+        ArrayList<AnnotationMember> members = new ArrayList<>();
+        members.add(new AnnotationMember("value", "String", null, new String(chars), null, null, null));
+        List<TestPlanElement> plan = new ArrayList<>();
+        plan.add(new TestPlanElement("1", "test1", "com.test.Test1",
+                Arrays.asList(new AnnotationInfo("com.test.Feature", members))));
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+
+        cache.save(key, plan);
+        List<TestPlanElement> loaded = cache.load(key, new RunnerLogger.Stub());
+
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(plan.get(0).getAnnotations(), loaded.get(0).getAnnotations());
+        Assert.assertArrayEquals(new String[]{key + ".plan"}, new File(dir, "cache").list());
+    }
+
+    @Test
+    public void keyDependsOnApk() throws Exception {
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+        writeApk(apk, "changed apk content");
+        TestPlanCache newCache = new TestPlanCache(new File(dir, "cache"), apk);
+
+        Assert.assertNotEquals(key, newCache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>()));
+    }
+
+    @Test
+    public void returnNullForBrokenFile() throws Exception {
+        String key = cache.createKey(INSTRUMENTATION, DEVICE_TYPE, API_LEVEL, new HashMap<>());
+        cache.save(key, new ArrayList<>());
+        writeApk(new File(new File(dir, "cache"), key + ".plan"), "broken");
+
+        Assert.assertNull(cache.load(key, new RunnerLogger.Stub()));
+    }
+
+    private static void writeApk(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.grishberg.tests.planner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link TestPlanCompressor}.
+ */
+@RunWith(JUnit4.class)
+public class TestPlanCompressorTest {
+    private static final String TEST_CLASS_1 = "com.test.pkg1.TestClass1";
+    private static final String TEST_CLASS_2 = "com.test.pkg2.TestClass2";
+    private final List<TestPlanElement> testPlan = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        testPlan.add(new TestPlanElement("", "test1", TEST_CLASS_1));
+        testPlan.add(new TestPlanElement("", "test2", TEST_CLASS_1));
+        testPlan.add(new TestPlanElement("", "test3", TEST_CLASS_2));
+        testPlan.add(new TestPlanElement("", "test4", TEST_CLASS_2));
+        new PackageTreeGenerator().makePackageTree(testPlan);
+    }
+
+    @Test
+    public void replaceMethodsWithClassWhenAllMethodsSelected() {
+        List<TestPlanElement> result = TestPlanCompressor.compress(
+                Arrays.asList(testPlan.get(0), testPlan.get(1), testPlan.get(2)));
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(NodeType.CLASS, result.get(0).getType());
+        Assert.assertEquals(TEST_CLASS_1, result.get(0).getAmInstrumentCommand());
+        Assert.assertSame(testPlan.get(2), result.get(1));
+    }
+
+    @Test
+    public void keepMethodsWhenClassIsSelectedPartially() {
+        List<TestPlanElement> selection = Arrays.asList(testPlan.get(1), testPlan.get(3));
+
+        Assert.assertEquals(selection, TestPlanCompressor.compress(selection));
+    }
+
+    @Test
+    public void keepMethodsWithoutPackageTree() {
+        List<TestPlanElement> selection = Arrays.asList(
+                new TestPlanElement("", "test1", TEST_CLASS_1),
+                new TestPlanElement("", "test2", TEST_CLASS_1));
+
+        List<TestPlanElement> result = TestPlanCompressor.compress(selection);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(NodeType.METHOD, result.get(0).getType());
+    }
+}
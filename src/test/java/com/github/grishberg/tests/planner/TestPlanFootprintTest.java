@@ -0,0 +1,75 @@
+package com.github.grishberg.tests.planner;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that test plan from {@link InstrumentTestLogParser} shares names and annotations between tests.
+ * Heap footprint of the plan is measured by TestPlanFootprintBenchmark of benchmark source set.
+ */
+@RunWith(JUnit4.class)
+public class TestPlanFootprintTest {
+    private static final int CLASSES_COUNT = 50;
+    private static final int METHODS_COUNT = 10;
+    static final String[] ANNOTATIONS = {
+            "[{\"members\":[{\"name\":\"expected\",\"valueType\":\"java.lang.Class\"}," +
+                    "{\"name\":\"timeout\",\"valueType\":\"long\"}],\"name\":\"org.junit.Test\"}]",
+            "[{\"members\":[],\"name\":\"com.test.TabletOnly\"}," +
+                    "{\"members\":[{\"name\":\"expected\",\"valueType\":\"java.lang.Class\"}," +
+                    "{\"name\":\"timeout\",\"valueType\":\"long\"}],\"name\":\"org.junit.Test\"}]",
+            "[{\"members\":[{\"name\":\"value\",\"valueType\":\"java.lang.String\",\"strValue\":\"search\"}]," +
+                    "\"name\":\"com.test.Feature\"},{\"members\":[],\"name\":\"org.junit.Test\"}]"
+    };
+
+    @Test
+    public void shareNamesAndAnnotationsBetweenTests() {
+        List<TestPlanElement> plan = parse(generateOutput(CLASSES_COUNT, METHODS_COUNT));
+
+        Assert.assertEquals(CLASSES_COUNT * METHODS_COUNT, plan.size());
+        Set<Object> classNames = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Object> annotations = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (TestPlanElement element : plan) {
+            classNames.add(element.getClassName());
+            annotations.add(element.getAnnotations().get(0));
+        }
+        Assert.assertEquals(CLASSES_COUNT, classNames.size());
+        Assert.assertEquals(ANNOTATIONS.length, annotations.size());
+    }
+
+    static List<TestPlanElement> parse(byte[] output) {
+        InstrumentTestLogParser parser = new InstrumentTestLogParser(new RunnerLogger.Stub());
+        parser.addOutput(output, 0, output.length);
+        parser.flush();
+        return parser.getTestInstances();
+    }
+
+    /**
+     * @return output of "am instrument -e log true" with given count of classes and methods in every class.
+     */
+    static byte[] generateOutput(int classesCount, int methodsCount) {
+        StringBuilder sb = new StringBuilder();
+        int testIndex = 0;
+        for (int i = 0; i < classesCount; i++) {
+            for (int j = 0; j < methodsCount; j++) {
+                sb.append("INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n")
+                        .append("INSTRUMENTATION_STATUS: test=test").append(j).append('\n')
+                        .append("INSTRUMENTATION_STATUS: class=com.test.package").append(i % 10)
+                        .append(".TestClass").append(i).append('\n')
+                        .append("INSTRUMENTATION_STATUS_CODE: 1\n")
+                        .append("INSTRUMENTATION_STATUS: annotations=")
+                        .append(ANNOTATIONS[testIndex++ % ANNOTATIONS.length]).append('\n');
+            }
+        }
+        sb.append("INSTRUMENTATION_CODE: -1\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -23,6 +23,44 @@ public class TestPlanSplitterTest {
         Assert.assertTrue(res.size() == 1);
     }
 
+    @Test
+    public void splitByArgumentLimitWithoutEmptyRanges() {
+        List<TestPlanElement> list = new ArrayList<>();
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            longName.append('a');
+        }
+        list.add(new TestPlanElement("", longName.toString(), LONG_PKG + "pkg1.Test1"));
+        list.add(new TestPlanElement("", "test2", LONG_PKG + "pkg1.Test1"));
+
+        List<List<TestPlanElement>> res = TestPlanSplitter.splitByArgumentLimit(list);
+
+        Assert.assertEquals(2, res.size());
+        Assert.assertEquals(1, res.get(0).size());
+        Assert.assertEquals(1, res.get(1).size());
+    }
+
+    @Test
+    public void splitByBatchSizeOnClassBoundaries() {
+        List<List<TestPlanElement>> res = TestPlanSplitter.splitByBatchSize(
+                provideTestPlanElements(), 2);
+
+        Assert.assertEquals(3, res.size());
+        Assert.assertEquals(3, res.get(0).size());
+        Assert.assertEquals(2, res.get(1).size());
+        Assert.assertEquals(2, res.get(2).size());
+    }
+
+    @Test
+    public void splitByBatchSizeSplitsHugeClass() {
+        List<List<TestPlanElement>> res = TestPlanSplitter.splitByBatchSize(
+                provideTestPlanElements(), 1);
+
+        Assert.assertEquals(4, res.size());
+        Assert.assertEquals(2, res.get(0).size());
+        Assert.assertEquals(1, res.get(1).size());
+    }
+
     @NotNull
     private ArrayList<TestPlanElement> provideTestPlanElements() {
         ArrayList<TestPlanElement> list = new ArrayList<>();
@@ -0,0 +1,84 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link DurationBalancedSplitter}.
+ */
+@RunWith(JUnit4.class)
+public class DurationBalancedSplitterTest {
+    private static final String TEST_CLASS = "com.test.TestClass";
+    private static final int DEVICE_TYPE = 0;
+    private final TestDurationHistory history = new TestDurationHistory();
+    private final DurationBalancedSplitter splitter = new DurationBalancedSplitter(history);
+
+    @Test
+    public void balanceByDuration() {
+        List<TestPlanElement> plan = provideTestPlan(700, 100, 100, 300, 300, 100);
+
+        List<List<TestPlanElement>> shards = splitter.split(plan, 2, DEVICE_TYPE);
+
+        Assert.assertEquals(2, shards.size());
+        Assert.assertEquals(800, totalDuration(shards.get(0)));
+        Assert.assertEquals(800, totalDuration(shards.get(1)));
+    }
+
+    @Test
+    public void keepPlanOrderInsideShard() {
+        List<TestPlanElement> plan = provideTestPlan(100, 700, 100, 300);
+
+        List<List<TestPlanElement>> shards = splitter.split(plan, 2, DEVICE_TYPE);
+
+        Assert.assertEquals(1, shards.get(0).size());
+        Assert.assertEquals("test1", shards.get(0).get(0).getMethodName());
+        Assert.assertEquals("test0", shards.get(1).get(0).getMethodName());
+        Assert.assertEquals("test2", shards.get(1).get(1).getMethodName());
+        Assert.assertEquals("test3", shards.get(1).get(2).getMethodName());
+    }
+
+    @Test
+    public void splitByCountWithoutHistory() {
+        List<TestPlanElement> plan = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            plan.add(new TestPlanElement("", "test" + i, TEST_CLASS));
+        }
+
+        List<List<TestPlanElement>> shards = splitter.split(plan, 2, DEVICE_TYPE);
+
+        Assert.assertEquals(3, shards.get(0).size());
+        Assert.assertEquals(2, shards.get(1).size());
+    }
+
+    @Test
+    public void allShardsAreCreatedWhenTestsLessThanShards() {
+        List<List<TestPlanElement>> shards = splitter.split(provideTestPlan(100), 3, DEVICE_TYPE);
+
+        Assert.assertEquals(3, shards.size());
+        Assert.assertTrue(shards.get(2).isEmpty());
+    }
+
+    private List<TestPlanElement> provideTestPlan(long... durations) {
+        List<TestPlanElement> plan = new ArrayList<>();
+        for (int i = 0; i < durations.length; i++) {
+            String methodName = "test" + i;
+            history.addDuration(DEVICE_TYPE, TEST_CLASS, methodName, durations[i]);
+            plan.add(new TestPlanElement("", methodName, TEST_CLASS));
+        }
+        return plan;
+    }
+
+    private long totalDuration(List<TestPlanElement> shard) {
+        long result = 0;
+        for (TestPlanElement test : shard) {
+            result += history.predictDuration(DEVICE_TYPE, test);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link HostShardingFilter}.
+ */
+@RunWith(JUnit4.class)
+public class HostShardingFilterTest {
+    private static final String TEST_CLASS = "com.test.TestClass";
+
+    @Test
+    public void keepAllTestsWithoutShardArguments() {
+        List<TestPlanElement> plan = provideTestPlan(10);
+
+        Assert.assertEquals(plan, HostShardingFilter.filter(plan, new HashMap<>()));
+    }
+
+    @Test
+    public void shardsDontIntersectAndContainAllTests() {
+        List<TestPlanElement> plan = provideTestPlan(50);
+        HashSet<TestPlanElement> allTests = new HashSet<>();
+        int totalCount = 0;
+
+        for (int i = 0; i < 3; i++) {
+            List<TestPlanElement> shard = HostShardingFilter.filter(plan, shardArgs(3, i));
+            totalCount += shard.size();
+            allTests.addAll(shard);
+        }
+
+        Assert.assertEquals(plan.size(), totalCount);
+        Assert.assertEquals(plan.size(), allTests.size());
+    }
+
+    @Test
+    public void selectTestsLikeAndroidJUnitRunner() {
+        TestPlanElement element = new TestPlanElement("", "test1", TEST_CLASS);
+        int expectedShard = Math.abs(("test1(" + TEST_CLASS + ")").hashCode()) % 4;
+        List<TestPlanElement> plan = new ArrayList<>();
+        plan.add(element);
+
+        Assert.assertEquals(1, HostShardingFilter.filter(plan, shardArgs(4, expectedShard)).size());
+        Assert.assertTrue(HostShardingFilter.filter(plan, shardArgs(4, (expectedShard + 1) % 4)).isEmpty());
+    }
+
+    @Test
+    public void removeShardArguments() {
+        Map<String, String> args = shardArgs(2, 1);
+        args.put("listener", "TestListener");
+
+        Map<String, String> result = HostShardingFilter.removeShardArguments(args);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("TestListener", result.get("listener"));
+        Assert.assertEquals(3, args.size());
+    }
+
+    private Map<String, String> shardArgs(int numShards, int shardIndex) {
+        HashMap<String, String> args = new HashMap<>();
+        args.put(HostShardingFilter.NUM_SHARDS_PARAM, String.valueOf(numShards));
+        args.put(HostShardingFilter.SHARD_INDEX_PARAM, String.valueOf(shardIndex));
+        return args;
+    }
+
+    private List<TestPlanElement> provideTestPlan(int count) {
+        List<TestPlanElement> plan = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            plan.add(new TestPlanElement("", "test" + i, TEST_CLASS));
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.CancellationSignal;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link TestBatchQueue}.
+ */
+@RunWith(JUnit4.class)
+public class TestBatchQueueTest {
+    private static final String TEST_CLASS_1 = "com.test.TestClass1";
+    private static final String TEST_CLASS_2 = "com.test.TestClass2";
+
+    @Test
+    public void pollAllBatches() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 2);
+
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(5, queue.getTotalTestsCount());
+        TestBatch first = queue.poll();
+        TestBatch second = queue.poll();
+
+        Assert.assertEquals(0, first.getIndex());
+        Assert.assertEquals(3, first.getTests().size());
+        Assert.assertEquals(1, second.getIndex());
+        Assert.assertEquals(2, second.getTests().size());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void batchNamesAreUnique() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 1);
+
+        Assert.assertNotEquals(queue.poll().getName(), queue.poll().getName());
+    }
+
+    @Test
+    public void returnedTestsArePolledFirstAsNewBatch() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 2);
+        TestBatch first = queue.poll();
+
+        queue.returnTests(first.getTests().subList(1, 3));
+        TestBatch returned = queue.poll();
+
+        Assert.assertEquals(2, returned.getIndex());
+        Assert.assertEquals(2, returned.getTests().size());
+        Assert.assertEquals(1, queue.poll().getIndex());
+    }
+
+    @Test
+    public void dontReturnEmptyBatch() {
+        TestBatchQueue queue = new TestBatchQueue(new ArrayList<>(), 10);
+
+        queue.returnTests(new ArrayList<>());
+
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void dontDuplicateBatchWhileQueueIsNotEmpty() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 2);
+        queue.poll(new CancellationSignal());
+
+        Assert.assertNull(queue.pollStraggler(new CancellationSignal()));
+    }
+
+    @Test
+    public void duplicateLongestRunningBatchOnce() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 2);
+        TestBatch first = queue.poll(new CancellationSignal());
+        TestBatch second = queue.poll(new CancellationSignal());
+
+        Assert.assertSame(first, queue.pollStraggler(new CancellationSignal()));
+        Assert.assertSame(second, queue.pollStraggler(new CancellationSignal()));
+        Assert.assertNull(queue.pollStraggler(new CancellationSignal()));
+    }
+
+    @Test
+    public void keepResultsOfFirstFinishedCopy() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        CancellationSignal original = new CancellationSignal();
+        CancellationSignal copy = new CancellationSignal();
+        TestBatch batch = queue.poll(original);
+        queue.pollStraggler(copy);
+
+        Assert.assertTrue(queue.finish(batch, copy));
+
+        Assert.assertTrue(original.isCancelled());
+        Assert.assertFalse(copy.isCancelled());
+        Assert.assertFalse(queue.abandon(batch, original));
+        Assert.assertNull(queue.pollStraggler(new CancellationSignal()));
+    }
+
+    @Test
+    public void discardResultsOfCopyFinishedSecond() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        CancellationSignal original = new CancellationSignal();
+        CancellationSignal copy = new CancellationSignal();
+        TestBatch batch = queue.poll(original);
+        queue.pollStraggler(copy);
+
+        Assert.assertTrue(queue.finish(batch, original));
+
+        Assert.assertFalse(queue.finish(batch, copy));
+    }
+
+    @Test
+    public void keepResultsOfLastAbandonedExecution() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        CancellationSignal original = new CancellationSignal();
+        CancellationSignal copy = new CancellationSignal();
+        TestBatch batch = queue.poll(original);
+        queue.pollStraggler(copy);
+
+        Assert.assertFalse(queue.abandon(batch, original));
+        Assert.assertTrue(queue.abandon(batch, copy));
+    }
+
+    @Test
+    public void retryFailedTestsOnAnotherDevice() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        queue.registerDevice("device1");
+        queue.registerDevice("device2");
+        TestBatch batch = queue.poll("device1", new CancellationSignal());
+
+        queue.retryTests(batch.getTests().subList(0, 2), batch, "device1");
+
+        Assert.assertNull(queue.poll("device1", new CancellationSignal()));
+        TestBatch retry = queue.poll("device2", new CancellationSignal());
+        Assert.assertEquals(1, retry.getAttempt());
+        Assert.assertEquals(2, retry.getTests().size());
+        Assert.assertEquals(Arrays.asList("device1"), retry.getPreviousAttemptDevices());
+    }
+
+    @Test
+    public void retryFailedTestsOnSameDeviceWhenNoOtherDevices() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        queue.registerDevice("device1");
+        queue.registerDevice("device2");
+        TestBatch batch = queue.poll("device1", new CancellationSignal());
+        queue.retryTests(batch.getTests(), batch, "device1");
+
+        queue.unregisterDevice("device2");
+
+        Assert.assertNotNull(queue.poll("device1", new CancellationSignal()));
+    }
+
+    @Test
+    public void returnUnrunTestsToAnotherDeviceLimitedTimes() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        queue.registerDevice("device1");
+        queue.registerDevice("device2");
+        TestBatch batch = queue.poll("device1", new CancellationSignal());
+
+        Assert.assertTrue(queue.returnUnrunTests(batch.getTests(), batch, "device1"));
+        Assert.assertNull(queue.poll("device1", new CancellationSignal()));
+        TestBatch returned = queue.poll("device2", new CancellationSignal());
+        Assert.assertEquals(0, returned.getAttempt());
+        Assert.assertEquals(1, returned.getUnrunAttempt());
+        Assert.assertTrue(queue.returnUnrunTests(returned.getTests(), returned, "device2"));
+        TestBatch returnedAgain = queue.poll("device1", new CancellationSignal());
+
+        Assert.assertFalse(queue.returnUnrunTests(returnedAgain.getTests(), returnedAgain, "device1"));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void notDrainedWhileBatchIsRunning() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 10);
+        CancellationSignal signal = new CancellationSignal();
+        TestBatch batch = queue.poll(signal);
+
+        Assert.assertFalse(queue.isDrained());
+        queue.finish(batch, signal);
+        Assert.assertTrue(queue.isDrained());
+    }
+
+    @Test
+    public void provideTestsLeftInQueue() {
+        TestBatchQueue queue = new TestBatchQueue(provideTestPlan(), 2);
+        CancellationSignal signal = new CancellationSignal();
+        TestBatch batch = queue.poll(signal);
+        queue.abandon(batch, signal);
+        queue.returnTests(batch.getTests().subList(0, 1));
+
+        Assert.assertEquals(3, queue.getTestsLeft().size());
+        Assert.assertSame(batch.getTests().get(0), queue.getTestsLeft().get(0));
+    }
+
+    @Test
+    public void emptyPlan() {
+        TestBatchQueue queue = new TestBatchQueue(new ArrayList<>(), 10);
+
+        Assert.assertNull(queue.poll());
+    }
+
+    private List<TestPlanElement> provideTestPlan() {
+        ArrayList<TestPlanElement> list = new ArrayList<>();
+        list.add(new TestPlanElement("", "test1", TEST_CLASS_1));
+        list.add(new TestPlanElement("", "test2", TEST_CLASS_1));
+        list.add(new TestPlanElement("", "test3", TEST_CLASS_1));
+        list.add(new TestPlanElement("", "test4", TEST_CLASS_2));
+        list.add(new TestPlanElement("", "test5", TEST_CLASS_2));
+        return list;
+    }
+}
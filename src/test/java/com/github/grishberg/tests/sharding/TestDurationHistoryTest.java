@@ -0,0 +1,114 @@
+package com.github.grishberg.tests.sharding;
+
+import com.github.grishberg.tests.common.RunnerLogger;
+import com.github.grishberg.tests.planner.TestPlanElement;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+/**
+ * Tests for {@link TestDurationHistory}.
+ */
+@RunWith(JUnit4.class)
+public class TestDurationHistoryTest {
+    private static final String TEST_CLASS_1 = "com.test.TestClass1";
+    private static final String TEST_CLASS_2 = "com.test.TestClass2";
+    private static final int PHONE = 0;
+    private static final int TABLET = 1;
+    private final TestDurationHistory history = new TestDurationHistory();
+
+    @Test
+    public void predictDefaultDurationWithoutHistory() {
+        Assert.assertEquals(TestDurationHistory.DEFAULT_DURATION,
+                history.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+    }
+
+    @Test
+    public void predictStoredDuration() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 500);
+        history.addDuration(TABLET, TEST_CLASS_1, "test1", 300);
+
+        Assert.assertEquals(500,
+                history.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+        Assert.assertEquals(300,
+                history.predictDuration(TABLET, new TestPlanElement("", "test1", TEST_CLASS_1)));
+    }
+
+    @Test
+    public void copyIsIndependentOfSource() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 500);
+        TestDurationHistory copy = new TestDurationHistory(history);
+
+        copy.addDuration(PHONE, TEST_CLASS_1, "test1", 300);
+        copy.addDuration(PHONE, TEST_CLASS_2, "test2", 100);
+
+        Assert.assertEquals(500,
+                history.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+        Assert.assertEquals(500,
+                history.predictDuration(PHONE, new TestPlanElement("", "test2", TEST_CLASS_2)));
+        Assert.assertEquals(400,
+                copy.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+        Assert.assertEquals(100,
+                copy.predictDuration(PHONE, new TestPlanElement("", "test2", TEST_CLASS_2)));
+    }
+
+    @Test
+    public void averageWithPreviousDuration() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 500);
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 300);
+
+        Assert.assertEquals(400,
+                history.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+    }
+
+    @Test
+    public void predictClassAverageForNewTest() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 100);
+        history.addDuration(PHONE, TEST_CLASS_1, "test2", 300);
+        history.addDuration(PHONE, TEST_CLASS_2, "test3", 1000);
+
+        Assert.assertEquals(200,
+                history.predictDuration(PHONE, new TestPlanElement("", "newTest", TEST_CLASS_1)));
+    }
+
+    @Test
+    public void predictGlobalAverageForNewClass() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 100);
+        history.addDuration(PHONE, TEST_CLASS_1, "test2", 300);
+        history.addDuration(PHONE, TEST_CLASS_2, "test3", 800);
+
+        Assert.assertEquals(400,
+                history.predictDuration(PHONE, new TestPlanElement("", "test", "com.test.New")));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        File file = File.createTempFile("durations", ".json");
+        file.deleteOnExit();
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 100);
+        history.addDuration(TABLET, TEST_CLASS_2, "test2", 700);
+        history.save(file);
+
+        TestDurationHistory loaded = new TestDurationHistory();
+        loaded.load(file, new RunnerLogger.Stub());
+
+        Assert.assertEquals(100,
+                loaded.predictDuration(PHONE, new TestPlanElement("", "test1", TEST_CLASS_1)));
+        Assert.assertEquals(700,
+                loaded.predictDuration(TABLET, new TestPlanElement("", "test2", TEST_CLASS_2)));
+        Assert.assertEquals(700,
+                loaded.predictDuration(TABLET, new TestPlanElement("", "test3", TEST_CLASS_2)));
+    }
+
+    @Test
+    public void loadNotExistingFile() {
+        history.addDuration(PHONE, TEST_CLASS_1, "test1", 100);
+
+        history.load(new File("not_existing_durations.json"), new RunnerLogger.Stub());
+
+        Assert.assertTrue(history.isEmpty());
+    }
+}